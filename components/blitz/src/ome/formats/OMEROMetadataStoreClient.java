@@ -96,6 +96,7 @@ import omero.RString;
 import omero.RTime;
 import omero.ServerError;
 import omero.client;
+import omero.api.AMI_RawPixelsStore_setTile;
 import omero.api.IAdminPrx;
 import omero.api.IContainerPrx;
 import omero.api.IQueryPrx;
@@ -2522,6 +2523,34 @@ public class OMEROMetadataStoreClient
         rawPixelStore.setTile(arrayBuf, z, c, t, x, y, w, h);
     }
 
+    /**
+     * Writes a tile of pixels to the server without waiting for the server
+     * to complete the write. The outcome is reported to the callback from an
+     * Ice thread and the byte array must not be modified until then. The
+     * server's stateful services are not re-entrant: no other call may be
+     * made on the pixels store until the callback has been notified.
+     * @param pixId Pixels set to write to.
+     * @param arrayBuf Byte array containing all pixels for this tile.
+     * @param z Z offset within the Pixels set.
+     * @param c Channel offset within the Pixels set.
+     * @param t Timepoint offset within the Pixels set.
+     * @param x X offset of the tile.
+     * @param y Y offset of the tile.
+     * @param w Width of the tile.
+     * @param h Height of the tile.
+     * @param callback Notified once the server has written the tile.
+     * @throws ServerError If there is an error selecting the Pixels set.
+     * @see #setTile(Long, byte[], int, int, int, int, int, int, int)
+     */
+    public void setTileAsync(Long pixId, byte[] arrayBuf, int z, int c, int t,
+                             int x, int y, int w, int h,
+                             AMI_RawPixelsStore_setTile callback)
+        throws ServerError
+    {
+        resetPixelsId(pixId);
+        rawPixelStore.setTile_async(callback, arrayBuf, z, c, t, x, y, w, h);
+    }
+
     /**
      * Writes a plane to the server.
      * @param pixId Pixels set to write to.
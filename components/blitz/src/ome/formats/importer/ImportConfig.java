@@ -123,6 +123,8 @@ public class ImportConfig {
     public final BoolValue useCustomImageNaming;
     public final BoolValue useFullPath;
     public final IntValue numOfDirectories;
+    public final IntValue tilesInFlight;
+    public final LongValue tileBytesInFlight;
 
     public final FileValue savedDirectory;
     public final StrValue readersPath;
@@ -240,6 +242,10 @@ public class ImportConfig {
         useFullPath  = new BoolValue("useFullPath", this, true);
         useCustomImageNaming = new BoolValue("overrideImageName", this, true);
         numOfDirectories = new IntValue("numOfDirectories", this, 0);
+        tilesInFlight = new IntValue("tilesInFlight", this,
+                ImportLibrary.DEFAULT_MAX_TILES_IN_FLIGHT);
+        tileBytesInFlight = new LongValue("tileBytesInFlight", this,
+                ImportLibrary.DEFAULT_MAX_TILE_BYTES_IN_FLIGHT);
         savedDirectory = new FileValue("savedDirectory", this);
 
         encryptedConnection = new BoolValue("ecryptedConnection", this, true);
@@ -92,6 +92,12 @@ public class ImportLibrary implements IObservable
     /** Default arraybuf size for planar data transfer. (1MB) */
     public static final int DEFAULT_ARRAYBUF_SIZE = 1048576;
 
+    /** Default maximum number of outstanding tile uploads. */
+    public static final int DEFAULT_MAX_TILES_IN_FLIGHT = 4;
+
+    /** Default maximum number of tile bytes held while uploading. (32MB) */
+    public static final long DEFAULT_MAX_TILE_BYTES_IN_FLIGHT = 33554432L;
+
     private final ArrayList<IObserver> observers = new ArrayList<IObserver>();
 
     private final OMEROMetadataStoreClient store;
@@ -112,6 +118,15 @@ public class ImportLibrary implements IObservable
     /** Maximum plane height. */
     private int maxPlaneHeight;
 
+    /**
+     * Maximum number of tiles read ahead of the tile being uploaded, zero
+     * disabling the pipelined upload of tiles.
+     */
+    private int maxTilesInFlight = DEFAULT_MAX_TILES_IN_FLIGHT;
+
+    /** Maximum number of tile bytes held while uploading. */
+    private long maxTileBytesInFlight = DEFAULT_MAX_TILE_BYTES_IN_FLIGHT;
+
     /**
      * The library will not close the client instance. The reader will be closed
      * between calls to import.
@@ -196,6 +211,41 @@ public class ImportLibrary implements IObservable
         this.isMetadataOnly = isMetadataOnly;
     }
 
+    /**
+     * Sets the maximum number of tiles read ahead of the tile being uploaded.
+     * Tiles are then read, byte swapped and digested, and uploaded by
+     * distinct threads; a single upload is outstanding at any one time as
+     * the pixels store is not re-entrant.
+     * @param maxTilesInFlight Maximum number of tiles read ahead.
+     * <code>0</code> uploads each tile before reading the next.
+     * @see PipelinedTileWriter
+     */
+    public void setMaxTilesInFlight(int maxTilesInFlight)
+    {
+        if (maxTilesInFlight < 0)
+        {
+            throw new IllegalArgumentException(
+                    "Bad maximum tiles in flight: " + maxTilesInFlight);
+        }
+        this.maxTilesInFlight = maxTilesInFlight;
+    }
+
+    /**
+     * Sets the maximum number of tile bytes held between reading and
+     * uploading them when tiles are uploaded concurrently.
+     * @param maxTileBytesInFlight Maximum number of bytes.
+     * @see #setMaxTilesInFlight(int)
+     */
+    public void setMaxTileBytesInFlight(long maxTileBytesInFlight)
+    {
+        if (maxTileBytesInFlight < 1)
+        {
+            throw new IllegalArgumentException(
+                    "Bad maximum tile bytes in flight: " + maxTileBytesInFlight);
+        }
+        this.maxTileBytesInFlight = maxTileBytesInFlight;
+    }
+
     /**
      * Retrieves the metadata only flag.
      * @return See above.
@@ -269,6 +319,8 @@ public class ImportLibrary implements IObservable
     public boolean importCandidates(ImportConfig config, ImportCandidates candidates)
     {
         List<ImportContainer> containers = candidates.getContainers();
+        setMaxTilesInFlight(config.tilesInFlight.get());
+        setMaxTileBytesInFlight(config.tileBytesInFlight.get());
         if (containers != null) {
             int numDone = 0;
             for (int index = 0; index < containers.size(); index++) {
@@ -787,20 +839,43 @@ public class ImportLibrary implements IObservable
         {
             log.debug("Server tile size: " + Arrays.toString(tileSize));
         }
-        for (int t = 0; t < size.sizeT; t++)
+        PipelinedTileWriter writer = null;
+        if (maxTilesInFlight > 0)
         {
-            for (int c = 0; c < size.sizeC; c++)
+            writer = new PipelinedTileWriter(store, pixId, md,
+                    reader.isLittleEndian(), bytesPerPixel,
+                    maxTileBytesInFlight, maxTilesInFlight);
+        }
+        boolean finished = false;
+        try
+        {
+            for (int t = 0; t < size.sizeT; t++)
             {
-                for (int z = 0; z < size.sizeZ; z++)
+                for (int c = 0; c < size.sizeC; c++)
                 {
-                    writeDataTileBased(
-                            pixId, size, z, c, t, tileSize[0], tileSize[1],
-                            bytesPerPixel, fileName, md);
-                    notifyObservers(new ImportEvent.IMPORT_STEP(
-                            planeNo, series, reader.getSeriesCount()));
-                    planeNo++;
+                    for (int z = 0; z < size.sizeZ; z++)
+                    {
+                        writeDataTileBased(
+                                pixId, size, z, c, t, tileSize[0], tileSize[1],
+                                bytesPerPixel, fileName, md, writer);
+                        notifyObservers(new ImportEvent.IMPORT_STEP(
+                                planeNo, series, reader.getSeriesCount()));
+                        planeNo++;
+                    }
                 }
             }
+            if (writer != null)
+            {
+                writer.finish();
+            }
+            finished = true;
+        }
+        finally
+        {
+            if (writer != null && !finished)
+            {
+                writer.abort();
+            }
         }
         return md;
     }
@@ -820,7 +895,8 @@ public class ImportLibrary implements IObservable
      * @param bytesPerPixel Number of bytes per pixel.
      * @param fileName Name of the file.
      * @param md Current Pixels set message digest.
-     * @return The new offset to use for the next plane.
+     * @param writer Pipeline to hand the tiles over to or <code>null</code>
+     * to byte swap, digest and write each tile in turn.
      * @throws FormatException If there is an error reading Pixel data via
      * Bio-Formats.
      * @throws IOException If there is an I/O error reading Pixel data via
@@ -831,7 +907,8 @@ public class ImportLibrary implements IObservable
     private void writeDataTileBased(long pixId, ImportSize size,
                                     int z, int c, int t, int tileWidth,
                                     int tileHeight, int bytesPerPixel,
-                                    String fileName, MessageDigest md)
+                                    String fileName, MessageDigest md,
+                                    PipelinedTileWriter writer)
         throws FormatException, IOException, ServerError
     {
         int planeNumber, x, y, w, h;
@@ -856,7 +933,7 @@ public class ImportLibrary implements IObservable
                     h = size.sizeY - y;
                 }
                 int bytesToRead = w * h * bytesPerPixel;
-                if (arrayBuf.length != bytesToRead)
+                if (writer != null || arrayBuf.length != bytesToRead)
                 {
                     arrayBuf = new byte[bytesToRead];
                 }
@@ -870,6 +947,12 @@ public class ImportLibrary implements IObservable
                 }
                 arrayBuf = reader.openBytes(
                         planeNumber, arrayBuf, x, y, w, h);
+                if (writer != null)
+                {
+                    // The writer owns the tile, the next one needs a new buffer
+                    writer.write(arrayBuf, z, c, t, x, y, w, h);
+                    continue;
+                }
                 ByteBuffer buf = ByteBuffer.wrap(arrayBuf);
                 arrayBuf = swapIfRequired(buf, fileName);
                 try
@@ -944,9 +1027,23 @@ public class ImportLibrary implements IObservable
         throws FormatException, IOException
     {
         int pixelType = reader.getPixelType();
-        boolean isLittleEndian = reader.isLittleEndian();
-        int bytesPerPixel = getBytesPerPixel(pixelType);
+        return swapIfRequired(buffer, reader.isLittleEndian(),
+                getBytesPerPixel(pixelType));
+    }
 
+    /**
+     * Byte swaps the samples of a buffer read little endian, the server
+     * expecting big endian samples.
+     * @param buffer The array backed buffer to check and modify if required.
+     * @param isLittleEndian Whether the samples were read little endian.
+     * @param bytesPerPixel Width of a sample.
+     * @return the array of <i>buffer</i> either swapped or not.
+     * @throws FormatException if the sample width is not supported.
+     */
+    static byte[] swapIfRequired(ByteBuffer buffer, boolean isLittleEndian,
+                                 int bytesPerPixel)
+        throws FormatException
+    {
         // We've got nothing to do if the samples are only 8-bits wide.
         if (bytesPerPixel == 1)
             return buffer.array();
@@ -0,0 +1,357 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.formats.importer;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import ome.formats.OMEROMetadataStoreClient;
+import omero.ServerError;
+import omero.api.AMI_RawPixelsStore_setTile;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Writes the tiles of a Pixels set to the server in three stages so that
+ * reading, byte swapping and uploading overlap:
+ * <ol>
+ *   <li>the caller reads a tile and hands it over with
+ *   {@link #write(byte[], int, int, int, int, int, int, int)},</li>
+ *   <li>a single worker thread byte swaps it, updates the message digest
+ *   in the order the tiles were read and issues an asynchronous
+ *   <code>setTile</code>,</li>
+ *   <li>Ice notifies the outcome of the upload.</li>
+ * </ol>
+ * Only one <code>setTile</code> is outstanding at any one time since the
+ * server's stateful <code>RawPixelsStore</code> is not re-entrant; tiles
+ * are therefore written in order. Reading and byte swapping the next tiles
+ * overlap with that call. The stages are separated by a queue of at most
+ * <code>maxTilesQueued</code> tiles and at most
+ * <code>maxBytesInFlight</code> bytes of tiles are held between the first
+ * and the last stage, blocking the caller when either is exhausted.
+ *
+ * Instances are single use: {@link #finish()} must be called once every
+ * tile has been written, or {@link #abort()} on error.
+ *
+ * @since Beta4.3.2
+ * @see ImportLibrary#setMaxTilesInFlight(int)
+ */
+public class PipelinedTileWriter
+{
+    private static Log log = LogFactory.getLog(PipelinedTileWriter.class);
+
+    /** Marks the end of the tiles in the queue. */
+    private static final Tile END = new Tile(null, 0, 0, 0, 0, 0, 0, 0, 0);
+
+    private final OMEROMetadataStoreClient store;
+
+    private final long pixId;
+
+    private final MessageDigest md;
+
+    private final boolean isLittleEndian;
+
+    private final int bytesPerPixel;
+
+    private final int maxBytesInFlight;
+
+    /** Byte budget, released once a tile has been uploaded. */
+    private final Semaphore bytes;
+
+    /** Held while a tile is being uploaded. */
+    private final Semaphore upload = new Semaphore(1);
+
+    private final BlockingQueue<Tile> queue;
+
+    private final Thread worker;
+
+    /** The first error of any stage, guarded by <code>this</code>. */
+    private Throwable failure;
+
+    /**
+     * Creates a new writer and starts its worker thread.
+     * @param store Client to upload the tiles with.
+     * @param pixId Pixels set to write to.
+     * @param md Message digest to update with the swapped tiles.
+     * @param isLittleEndian Whether or not the tiles are read little endian
+     * and must be swapped.
+     * @param bytesPerPixel Number of bytes per pixel.
+     * @param maxBytesInFlight Maximum number of tile bytes held at once.
+     * @param maxTilesQueued Maximum number of tiles read ahead of the
+     * upload.
+     */
+    public PipelinedTileWriter(OMEROMetadataStoreClient store, long pixId,
+                               MessageDigest md, boolean isLittleEndian,
+                               int bytesPerPixel, long maxBytesInFlight,
+                               int maxTilesQueued)
+    {
+        if (maxBytesInFlight < 1 || maxTilesQueued < 1)
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Bad limits: %d bytes, %d tiles",
+                    maxBytesInFlight, maxTilesQueued));
+        }
+        this.store = store;
+        this.pixId = pixId;
+        this.md = md;
+        this.isLittleEndian = isLittleEndian;
+        this.bytesPerPixel = bytesPerPixel;
+        this.maxBytesInFlight =
+            (int) Math.min(maxBytesInFlight, Integer.MAX_VALUE);
+        bytes = new Semaphore(this.maxBytesInFlight);
+        queue = new ArrayBlockingQueue<Tile>(maxTilesQueued + 1);
+        worker = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                work();
+            }
+        }, "PipelinedTileWriter-" + pixId);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Queues a tile for byte swapping, digesting and upload. Blocks while
+     * the byte budget is exhausted.
+     * @param tile Tile data as read. Ownership passes to this writer.
+     * @param z The Z-section offset of the tile.
+     * @param c The channel offset of the tile.
+     * @param t The timepoint offset of the tile.
+     * @param x X offset of the tile.
+     * @param y Y offset of the tile.
+     * @param w Width of the tile.
+     * @param h Height of the tile.
+     * @throws ServerError If an earlier tile could not be written.
+     */
+    public void write(byte[] tile, int z, int c, int t, int x, int y,
+                      int w, int h)
+        throws ServerError
+    {
+        checkFailure();
+        // A tile larger than the budget takes all of it.
+        Tile queued = new Tile(tile, z, c, t, x, y, w, h,
+                Math.min(tile.length, maxBytesInFlight));
+        try
+        {
+            bytes.acquire(queued.permits);
+            queue.put(queued);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted writing tile", e);
+        }
+    }
+
+    /**
+     * Waits for every queued tile to be uploaded.
+     * @throws ServerError If a tile could not be written.
+     */
+    public void finish()
+        throws ServerError
+    {
+        try
+        {
+            queue.put(END);
+            worker.join();
+            // The last upload returns the permit once notified.
+            upload.acquire();
+            upload.release();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted finishing tiles", e);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Stops the worker thread, discarding the tiles which have not been
+     * uploaded yet, and waits for the outstanding uploads.
+     */
+    public void abort()
+    {
+        fail(new RuntimeException("Aborted"));
+        queue.clear();
+        try
+        {
+            queue.put(END);
+            worker.join();
+            upload.acquire();
+            upload.release();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Body of the worker thread. Tiles queued after a failure are discarded
+     * so that the caller never blocks on the byte budget.
+     */
+    private void work()
+    {
+        while (true)
+        {
+            Tile tile;
+            try
+            {
+                tile = queue.take();
+            }
+            catch (InterruptedException e)
+            {
+                fail(e);
+                return;
+            }
+            if (tile == END)
+            {
+                return;
+            }
+            if (hasFailed())
+            {
+                bytes.release(tile.permits);
+                continue;
+            }
+            try
+            {
+                ImportLibrary.swapIfRequired(ByteBuffer.wrap(tile.data),
+                        isLittleEndian, bytesPerPixel);
+                md.update(tile.data, 0, tile.data.length);
+                upload.acquire();
+                upload(tile);
+            }
+            catch (Throwable t)
+            {
+                bytes.release(tile.permits);
+                fail(t);
+            }
+        }
+    }
+
+    private void upload(final Tile tile)
+        throws ServerError
+    {
+        AMI_RawPixelsStore_setTile callback = new AMI_RawPixelsStore_setTile()
+        {
+            @Override
+            public void ice_response()
+            {
+                done(tile, null);
+            }
+
+            @Override
+            public void ice_exception(Ice.LocalException ex)
+            {
+                done(tile, ex);
+            }
+
+            @Override
+            public void ice_exception(Ice.UserException ex)
+            {
+                done(tile, ex);
+            }
+        };
+        try
+        {
+            store.setTileAsync(pixId, tile.data, tile.z, tile.c, tile.t,
+                    tile.x, tile.y, tile.w, tile.h, callback);
+        }
+        catch (ServerError e)
+        {
+            upload.release();
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            upload.release();
+            throw e;
+        }
+    }
+
+    private void done(Tile tile, Exception ex)
+    {
+        if (ex != null)
+        {
+            fail(ex);
+        }
+        else if (log.isDebugEnabled())
+        {
+            log.debug(String.format("Wrote tile z:%d c:%d t:%d x:%d y:%d " +
+                    "w:%d h:%d", tile.z, tile.c, tile.t, tile.x, tile.y,
+                    tile.w, tile.h));
+        }
+        bytes.release(tile.permits);
+        upload.release();
+    }
+
+    private synchronized void fail(Throwable t)
+    {
+        if (failure == null)
+        {
+            failure = t;
+        }
+    }
+
+    private synchronized boolean hasFailed()
+    {
+        return failure != null;
+    }
+
+    private synchronized void checkFailure()
+        throws ServerError
+    {
+        if (failure == null)
+        {
+            return;
+        }
+        if (failure instanceof ServerError)
+        {
+            throw (ServerError) failure;
+        }
+        if (failure instanceof RuntimeException)
+        {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error)
+        {
+            throw (Error) failure;
+        }
+        throw new RuntimeException(failure);
+    }
+
+    private static class Tile
+    {
+        final byte[] data;
+
+        final int z, c, t, x, y, w, h;
+
+        /** Share of the byte budget held by this tile. */
+        final int permits;
+
+        Tile(byte[] data, int z, int c, int t, int x, int y, int w, int h,
+             int permits)
+        {
+            this.data = data;
+            this.z = z;
+            this.c = c;
+            this.t = t;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+            this.permits = permits;
+        }
+    }
+}
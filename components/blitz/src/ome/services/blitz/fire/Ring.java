@@ -7,10 +7,16 @@
 
 package ome.services.blitz.fire;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
 import java.sql.Timestamp;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import ome.model.meta.Node;
@@ -18,18 +24,24 @@ import ome.services.blitz.redirect.NullRedirector;
 import ome.services.blitz.redirect.Redirector;
 import ome.services.blitz.util.BlitzConfiguration;
 import ome.services.sessions.SessionManager;
+import ome.services.sessions.state.SessionCache;
+import ome.services.throttling.PooledThrottlingStrategy;
 import ome.services.util.Executor;
 import ome.system.Principal;
 import ome.system.ServiceFactory;
 import ome.util.SqlAction;
 import omero.grid.ClusterNodePrx;
 import omero.grid.ClusterNodePrxHelper;
+import omero.grid.NodeLoad;
 import omero.grid._ClusterNodeDisp;
+import omeis.providers.re.RenderingExecutor;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.Query;
 import org.hibernate.Session;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.transaction.annotation.Transactional;
 
 import Glacier2.CannotCreateSessionException;
@@ -46,8 +58,15 @@ import Ice.Current;
  * 
  * The {@link Ring} also listens for
  * 
+ * Each {@link Ring} publishes the load of its blitz via
+ * {@link #getNodeLoad(Current)} so that the {@link Redirector} can create new
+ * sessions on the least loaded node. A node which is {@link #isDraining()
+ * draining} asks for its new sessions to be created elsewhere.
+ * 
  *@since Beta4
  */
+@ManagedResource(objectName = "omero:type=Ring",
+        description = "Membership and load of this blitz in the cluster")
 public class Ring extends _ClusterNodeDisp implements Redirector.Context {
 
     private final static Log log = LogFactory.getLog(Ring.class);
@@ -79,6 +98,23 @@ public class Ring extends _ClusterNodeDisp implements Redirector.Context {
      */
     private/* final */String directProxy;
 
+    /**
+     * Sources of the load published to the other nodes. Any may be null.
+     */
+    private SessionCache sessionCache;
+
+    private PooledThrottlingStrategy throttling;
+
+    private RenderingExecutor renderingExecutor;
+
+    private volatile boolean draining = false;
+
+    /**
+     * Milliseconds the other nodes are given to answer
+     * {@link #getClusterLoad()}.
+     */
+    private int loadTimeout = 2000;
+
     public Ring(String uuid, Executor executor) {
         this(uuid, executor, new NullRedirector());
     }
@@ -98,6 +134,43 @@ public class Ring extends _ClusterNodeDisp implements Redirector.Context {
         this.registry = registry;
     }
 
+    public void setSessionCache(SessionCache sessionCache) {
+        this.sessionCache = sessionCache;
+    }
+
+    public void setThrottlingStrategy(PooledThrottlingStrategy throttling) {
+        this.throttling = throttling;
+    }
+
+    public void setRenderingExecutor(RenderingExecutor renderingExecutor) {
+        this.renderingExecutor = renderingExecutor;
+    }
+
+    public void setLoadTimeout(int loadTimeout) {
+        this.loadTimeout = loadTimeout;
+    }
+
+    /**
+     * Puts this node in or out of drain mode. While draining, the node keeps
+     * serving its existing sessions but its new sessions are created on the
+     * other nodes when possible, so that it can be taken down once its
+     * sessions have closed.
+     */
+    @ManagedAttribute(description = "Whether new sessions are sent to the "
+            + "other nodes")
+    public void setDraining(boolean draining) {
+        if (this.draining != draining) {
+            log.info((draining ? "Draining " : "No longer draining ") + uuid);
+        }
+        this.draining = draining;
+    }
+
+    @ManagedAttribute(description = "Whether new sessions are sent to the "
+            + "other nodes")
+    public boolean isDraining() {
+        return this.draining;
+    }
+
     // Redirector.Context API
     // =========================================================================
 
@@ -122,6 +195,83 @@ public class Ring extends _ClusterNodeDisp implements Redirector.Context {
         return this.communicator;
     }
 
+    /**
+     * Returns the current load of this node.
+     */
+    public NodeLoad getLoad() {
+        NodeLoad load = new NodeLoad();
+        load.uuid = uuid;
+        if (sessionCache != null) {
+            load.sessions = sessionCache.getIds().size();
+        }
+        if (throttling != null) {
+            load.activeCalls = throttling.getActiveCount();
+            load.queuedCalls = throttling.getQueuedCount();
+        }
+        if (renderingExecutor != null) {
+            load.renderQueue = renderingExecutor.getQueueDepth();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        load.heapUsed = heapUsedAfterGc();
+        if (load.heapUsed < 0) {
+            load.heapUsed = runtime.totalMemory() - runtime.freeMemory();
+        }
+        load.heapMax = runtime.maxMemory();
+        load.draining = draining;
+        return load;
+    }
+
+    /**
+     * Returns the heap used after the last collection of each heap pool, so
+     * that the garbage waiting to be collected does not count, or -1 if the
+     * JVM does not report it.
+     */
+    private static long heapUsedAfterGc() {
+        long used = 0;
+        boolean reported = false;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) {
+                continue;
+            }
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null) {
+                used += usage.getUsed();
+                reported = true;
+            }
+        }
+        return reported ? used : -1;
+    }
+
+    /**
+     * Asks every other node registered in the cluster for its load, waiting
+     * at most <code>loadTimeout</code> milliseconds for each. Nodes which
+     * cannot be reached, including those which predate
+     * {@link #getNodeLoad(Current)}, are left out.
+     */
+    public Map<String, NodeLoad> getClusterLoad() {
+        Map<String, NodeLoad> loads = new HashMap<String, NodeLoad>();
+        ClusterNodePrx[] nodes = registry == null ? null : registry
+                .lookupClusterNodes();
+        if (nodes == null) {
+            return loads;
+        }
+        for (ClusterNodePrx prx : nodes) {
+            if (prx == null) {
+                continue;
+            }
+            try {
+                NodeLoad load = ClusterNodePrxHelper.uncheckedCast(
+                        prx.ice_timeout(loadTimeout)).getNodeLoad();
+                if (load != null && !uuid.equals(load.uuid)) {
+                    loads.put(load.uuid, load);
+                }
+            } catch (Exception e) {
+                log.warn("Error getting load from node " + prx + ": " + e);
+            }
+        }
+        return loads;
+    }
+
     // Configuration and cluster usage
     // =========================================================================
 
@@ -247,6 +397,10 @@ public class Ring extends _ClusterNodeDisp implements Redirector.Context {
         redirector.handleRingShutdown(this, downUuid);
     }
 
+    public NodeLoad getNodeLoad(Current __current) {
+        return getLoad();
+    }
+
     // Local usage
     // =========================================================================
 
@@ -402,25 +402,30 @@ public class DeleteHandleI extends _DeleteHandleDisp implements
             }
             sw.stop("omero.delete.ids." + report.scheduledDeletes);
 
-            // Loop throw all steps
+            // Loop throw all steps, deleting consecutive rows of the
+            // same table together
             report.warning = "";
-            for (int j = 0; j < report.scheduledDeletes; j++) {
+            for (int j = 0; j < report.scheduledDeletes; ) {
+                final int count = report.state.getBatchCount(j);
                 sw = new CommonsLogStopWatch();
                 try {
                     if (!state.compareAndSet(State.READY, State.RUNNING)) {
                         throw new Cancel("Not ready");
                     }
-                    report.warning += report.state.execute(j);
+                    report.warning += report.state.execute(j, count);
                 } finally {
                     sw.stop("omero.delete.step." + j);
                     if (report.scheduledDeletes < Integer.MAX_VALUE) {
-                        report.stepStarts[j] = sw.getStartTime();
-                        report.stepStops[j] = sw.getStartTime() + sw.getElapsedTime();
+                        for (int k = j; k < j + count; k++) {
+                            report.stepStarts[k] = sw.getStartTime();
+                            report.stepStops[k] = sw.getStartTime() + sw.getElapsedTime();
+                        }
                     }
                     // If cancel was thrown, then this value will be overwritten
                     // by the try/catch handler
                     state.compareAndSet(State.RUNNING, State.READY);
                 }
+                j += count;
             }
             // If we reach this far, then the delete was successful, so save
             // the deleted id count.
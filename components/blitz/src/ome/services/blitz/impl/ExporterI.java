@@ -11,7 +11,6 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.io.UnsupportedEncodingException;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -21,12 +20,10 @@ import javax.xml.transform.TransformerException;
 import loci.common.services.DependencyException;
 import loci.common.services.ServiceException;
 import loci.formats.FormatTools;
-import loci.formats.IFormatWriter;
 import loci.formats.ImageWriter;
 import loci.formats.MetadataTools;
 import loci.formats.meta.IMetadata;
 import loci.formats.meta.MetadataRetrieve;
-import loci.formats.out.OMETiffWriter;
 import loci.formats.services.OMEXMLService;
 import ome.api.RawPixelsStore;
 import ome.conditions.ApiUsageException;
@@ -38,6 +35,7 @@ import ome.services.blitz.util.ServiceFactoryAware;
 import ome.services.blitz.util.UnregisterServantMessage;
 import ome.services.db.DatabaseIdentity;
 import ome.services.formats.OmeroReader;
+import ome.services.formats.StreamingOmeTiffWriter;
 import ome.services.util.Executor;
 import ome.system.ServiceFactory;
 import ome.util.messages.InternalMessage;
@@ -45,6 +43,7 @@ import ome.xml.DOMUtil;
 import ome.xml.model.OME;
 import ome.xml.model.OMEModel;
 import ome.xml.model.OMEModelImpl;
+import ome.xml.model.primitives.NonNegativeInteger;
 import omero.ServerError;
 import omero.api.AMD_Exporter_addImage;
 import omero.api.AMD_Exporter_generateTiff;
@@ -88,17 +87,6 @@ public class ExporterI extends AbstractAmdServant implements
 
     private final static int MAX_SIZE = 1024 * 1024;
 
-    /**
-     * The size above which a big tiff should be written as opposed to
-     * a normal tiff. This value is checked against the data size PLUS
-     * various metadata sizes.
-     *
-     * @see #getMetadataBytes(OmeroReader)
-     * @see #getDataBytes(OmeroReader)
-     * @see ticket:6520
-     */
-    private final static long BIG_TIFF_SIZE = 2L * Integer.MAX_VALUE;
-
 
     /**
      * Utility enum for asserting the state of Exporter instances.
@@ -130,6 +118,12 @@ public class ExporterI extends AbstractAmdServant implements
      */
     private volatile File file;
 
+    /**
+     * Writer of {@link #file} if it is a TIFF, which may still be generating
+     * it. Kept open for reading until the next generate method or close.
+     */
+    private volatile StreamingOmeTiffWriter tiff;
+
     /**
      * Encapsulates the logic for creating new LSIDs and comparing existing ones
      * to the internal value for this DB.
@@ -266,6 +260,7 @@ public class ExporterI extends AbstractAmdServant implements
      * Transition from waiting to config
      */
     private void startConfig() {
+        closeTiff();
         if (file != null) {
             file.delete();
             file = null;
@@ -356,7 +351,8 @@ public class ExporterI extends AbstractAmdServant implements
 
                             RawPixelsStore raw = null;
                             OmeroReader reader = null;
-                            OMETiffWriter writer = null;
+                            StreamingOmeTiffWriter writer = null;
+                            boolean responded = false;
                             try {
 
                                 Image image = retrieve.getImage(0);
@@ -380,61 +376,75 @@ public class ExporterI extends AbstractAmdServant implements
                                 reader = new OmeroReader(raw, pix);
                                 reader.setId("OMERO");
 
-                                writer = new OMETiffWriter();
-                                writer.setMetadataRetrieve(retrieve);
-                                writer.setWriteSequentially(true); // ticket:6701
-                                long mSize = getMetadataBytes(reader);
-                                long dSize = getDataBytes(reader);
-                                final boolean bigtiff =
-                                    ( ( mSize + dSize ) > BIG_TIFF_SIZE );
-                                if (bigtiff) {
-                                    writer.setBigTiff(true);
-                                }
-                                writer.setId(file.getAbsolutePath());
-
                                 int planeCount = reader.planes;
+                                String order =
+                                    retrieve.getPixelsDimensionOrder(0).getValue();
+                                // Planes are written in the dimension order
+                                // starting from the first IFD.
+                                IMetadata xmlMeta = convertXml(retrieve);
+                                xmlMeta.setTiffDataIFD(
+                                        new NonNegativeInteger(0), 0, 0);
+                                xmlMeta.setTiffDataPlaneCount(
+                                        new NonNegativeInteger(planeCount), 0, 0);
+                                byte[] xml = service.getOMEXML(xmlMeta)
+                                    .getBytes("UTF-8");
+
+                                // OmeroReader returns big endian planes.
+                                writer = new StreamingOmeTiffWriter(file, xml,
+                                        reader.sizeX, reader.sizeY, planeCount,
+                                        reader.getPixelType(), false);
                                 int planeSize = raw.getPlaneSize();
                                 log.info(String.format(
-                                            "Using big TIFF? %s mSize=%d " +
+                                            "Using big TIFF? %s length=%d " +
                                             "dSize=%d planeCount=%d " +
                                             "planeSize=%d",
-                                            bigtiff, mSize, dSize,
+                                            writer.isBigTiff(),
+                                            writer.getLength(),
+                                            getDataBytes(reader),
                                             planeCount, planeSize));
+
+                                // The length is known up front so that the
+                                // client can read while the planes are
+                                // being written.
+                                tiff = writer;
+                                retrieve = null;
+                                __cb.ice_response(writer.getLength());
+                                responded = true;
+
                                 byte[] plane = new byte[planeSize];
                                 for (int i = 0; i < planeCount; i++) {
                                     int[] zct = FormatTools.getZCTCoords(
-                                        retrieve.getPixelsDimensionOrder(0).getValue(),
-                                        reader.getSizeZ(), reader.getSizeC(), reader.getSizeT(),
+                                        order, reader.getSizeZ(),
+                                        reader.getSizeC(), reader.getSizeT(),
                                         planeCount, i);
                                     int readerIndex = reader.getIndex(zct[0], zct[1], zct[2]);
                                     reader.openBytes(readerIndex, plane);
-                                    writer.saveBytes(i, plane);
+                                    writer.writePlane(plane);
                                 }
-                                retrieve = null;
-
-                                try {
-                                    writer.close();
-                                } finally {
-                                    // Nulling to prevent another exception
-                                    writer = null;
-                                }
-
-                                    __cb.ice_response(file.length());
-                                } catch (Exception e) {
+                            } catch (Exception e) {
+                                if (responded) {
+                                    // Fails any pending or later read.
+                                    log.error("Error during TIFF generation", e);
+                                    writer.fail(e);
+                                } else {
+                                    if (writer != null) {
+                                        writer.close();
+                                    }
                                     omero.InternalException ie = new omero.InternalException(
                                             null, null,
                                             "Error during TIFF generation");
                                     IceMapper.fillServerError(ie, e);
                                     __cb.ice_exception(ie);
-                                } finally {
-                                    cleanup(raw, reader, writer);
                                 }
+                            } finally {
+                                cleanup(raw, reader);
+                            }
 
                             return null; // see calls to __cb above
                         }
 
                         private void cleanup(RawPixelsStore raw,
-                                OmeroReader reader, IFormatWriter writer) {
+                                OmeroReader reader) {
                             try {
                                 if (raw != null) {
                                     raw.close();
@@ -449,13 +459,6 @@ public class ExporterI extends AbstractAmdServant implements
                             } catch (Exception e) {
                                 log.error("Error closing reader", e);
                             }
-                            try {
-                                if (writer != null) {
-                                    writer.close();
-                                }
-                            } catch (Exception e) {
-                                log.error("Error closing writer", e);
-                            }
                         }
                     });
         } catch (Exception e) {
@@ -467,13 +470,26 @@ public class ExporterI extends AbstractAmdServant implements
 
     /**
      * Read size bytes, and transition to "waiting" If any exception is thrown,
-     * the offset for the current file will not be updated.
+     * the offset for the current file will not be updated. TIFF files are
+     * read through their writer, waiting for the bytes to be written.
      */
     private byte[] read(long pos, int size) throws ServerError {
         if (size > MAX_SIZE) {
             throw new ApiUsageException("Max read size is: " + MAX_SIZE);
         }
 
+        StreamingOmeTiffWriter tiff = this.tiff;
+        if (tiff != null) {
+            try {
+                return tiff.read(pos, size);
+            } catch (IOException io) {
+                throw new RuntimeException(io);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(ie);
+            }
+        }
+
         byte[] buf = new byte[size];
 
         RandomAccessFile ra = null;
@@ -536,6 +552,7 @@ public class ExporterI extends AbstractAmdServant implements
 
     public void preClose() {
         retrieve = null;
+        closeTiff();
         if (file != null) {
             file.delete();
             file = null;
@@ -545,19 +562,17 @@ public class ExporterI extends AbstractAmdServant implements
     // Misc. helpers.
     // =========================================================================
 
-    private long getMetadataBytes(OmeroReader reader)
-            throws DependencyException, ServiceException {
-
-        String xml = service.getOMEXML(retrieve);
-
-        long xmlbytes;
-        try {
-            xmlbytes = xml.getBytes("UTF8").length;
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException("Failed to convert to UTF-8", e);
+    /**
+     * Closes the channel of the TIFF being output, if any, which stops its
+     * generation and fails any pending read.
+     */
+    private void closeTiff() {
+        StreamingOmeTiffWriter tiff = this.tiff;
+        if (tiff != null) {
+            tiff.fail(new InternalException("Exporter closed"));
+            tiff.close();
+            this.tiff = null;
         }
-        long planebytes = reader.planes * 512;
-        return planebytes + xmlbytes;
     }
 
     private long getDataBytes(OmeroReader reader) {
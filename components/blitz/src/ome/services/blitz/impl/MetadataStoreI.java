@@ -110,6 +110,7 @@ public class MetadataStoreI extends AbstractAmdServant implements
     public void onSetOmeroContext(final OmeroContext ctx) throws Exception {
         ServiceFactory sf = new InternalServiceFactory(ctx);
         this.store = new OMEROMetadataStore(sf);
+        this.store.setSqlAction(sql);
     }
 
     @SuppressWarnings("unchecked")
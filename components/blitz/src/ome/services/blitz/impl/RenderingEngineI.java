@@ -30,6 +30,7 @@ import omero.api.AMD_RenderingEngine_getCompressionLevel;
 import omero.api.AMD_RenderingEngine_getDefaultT;
 import omero.api.AMD_RenderingEngine_getDefaultZ;
 import omero.api.AMD_RenderingEngine_getModel;
+import omero.api.AMD_RenderingEngine_getHistogram;
 import omero.api.AMD_RenderingEngine_getPixels;
 import omero.api.AMD_RenderingEngine_getPixelsTypeLowerBound;
 import omero.api.AMD_RenderingEngine_getPixelsTypeUpperBound;
@@ -49,6 +50,8 @@ import omero.api.AMD_RenderingEngine_renderAsPackedIntAsRGBA;
 import omero.api.AMD_RenderingEngine_renderCompressed;
 import omero.api.AMD_RenderingEngine_renderProjectedAsPackedInt;
 import omero.api.AMD_RenderingEngine_renderProjectedCompressed;
+import omero.api.AMD_RenderingEngine_renderRegionsAsPackedInt;
+import omero.api.AMD_RenderingEngine_renderRegionsCompressed;
 import omero.api.AMD_RenderingEngine_resetDefaults;
 import omero.api.AMD_RenderingEngine_resetDefaultsNoSave;
 import omero.api.AMD_RenderingEngine_saveCurrentSettings;
@@ -75,6 +78,7 @@ import omero.model.Family;
 import omero.model.RenderingModel;
 import omero.romio.CodomainMapContext;
 import omero.romio.PlaneDef;
+import omero.romio.RegionDef;
 import omero.util.IceMapper;
 
 import org.perf4j.StopWatch;
@@ -195,6 +199,13 @@ public class RenderingEngineI extends AbstractPyramidServant implements
         callInvokerOnRawArgs(__cb, __current, w);
     }
 
+    public void getHistogram_async(AMD_RenderingEngine_getHistogram __cb,
+            int[] channels, int binCount, boolean globalRange, PlaneDef plane,
+            Current __current) throws ServerError {
+        callInvokerOnRawArgs(__cb, __current, channels, binCount, globalRange,
+                plane);
+    }
+
     public void getPixels_async(AMD_RenderingEngine_getPixels __cb,
             Current __current) throws ServerError {
         callInvokerOnRawArgs(__cb, __current);
@@ -344,6 +355,22 @@ public class RenderingEngineI extends AbstractPyramidServant implements
         callInvokerOnRawArgs(__cb, __current, def);
     }
 
+    public void renderRegionsAsPackedInt_async(
+            AMD_RenderingEngine_renderRegionsAsPackedInt __cb, PlaneDef def,
+            RegionDef[] regions, int resolutionLevel, Current __current)
+            throws ServerError {
+        callInvokerOnRawArgs(__cb, __current, def, regions,
+                resolutionLevel);
+    }
+
+    public void renderRegionsCompressed_async(
+            AMD_RenderingEngine_renderRegionsCompressed __cb, PlaneDef def,
+            RegionDef[] regions, int resolutionLevel, Current __current)
+            throws ServerError {
+        callInvokerOnRawArgs(__cb, __current, def, regions,
+                resolutionLevel);
+    }
+
     public void renderProjectedAsPackedInt_async(
             AMD_RenderingEngine_renderProjectedAsPackedInt __cb, 
             ProjectionType algorithm, int timepoint, int stepping, int start, 
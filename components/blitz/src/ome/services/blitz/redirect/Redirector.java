@@ -7,12 +7,14 @@
 
 package ome.services.blitz.redirect;
 
+import java.util.Map;
 import java.util.Set;
 
 import ome.model.meta.Node;
 import ome.services.blitz.fire.Ring;
 import ome.services.blitz.fire.SessionManagerI;
 import ome.system.Principal;
+import omero.grid.NodeLoad;
 import Glacier2.CannotCreateSessionException;
 import Glacier2.SessionPrx;
 
@@ -61,6 +63,17 @@ public interface Redirector {
          * filtering out the inactive ones.
          */
         Set<String> getManagerList(boolean activeOnly);
+
+        /**
+         * Current load of the local node.
+         */
+        NodeLoad getLoad();
+
+        /**
+         * Current load of the other nodes of the cluster, by node uuid. Nodes
+         * which cannot be reached are missing.
+         */
+        Map<String, NodeLoad> getClusterLoad();
     }
 
     /**
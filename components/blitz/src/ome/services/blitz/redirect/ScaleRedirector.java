@@ -7,25 +7,109 @@
 
 package ome.services.blitz.redirect;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import ome.model.meta.Node;
 import ome.services.util.Executor;
+import ome.system.ServiceFactory;
+import omero.grid.NodeLoad;
+
+import org.hibernate.Session;
+import org.springframework.transaction.annotation.Transactional;
+
 import Glacier2.CannotCreateSessionException;
 import Glacier2.SessionPrx;
 
 /**
- * Planned implementation (NYI): will use the "Node.scale" column to randomly
- * choose a target.
- * 
+ * Creates new sessions on the least loaded node of the cluster. The load of
+ * every node, as published by its {@link Context#getLoad() ring}, is scored
+ * as its sessions plus its calls weighted by <code>callWeight</code>, the
+ * calls being those executing or queued, including queued rendering tasks.
+ * The score is divided by the "Node.scale" column, if set, so that larger
+ * nodes take more sessions.
+ *
+ * Nodes which are draining or whose heap is fuller than
+ * <code>maxHeap</code> are not given new sessions. A session is only
+ * redirected if the best node scores less than <code>1 - hysteresis</code>
+ * times the local node, so that sessions do not bounce between nodes with
+ * similar loads; a draining node redirects whenever another node is
+ * healthy.
+ *
+ * The loads of the other nodes are fetched every <code>refreshMillis</code>
+ * by a background thread, which swaps in an immutable {@link Snapshot}, so
+ * that creating a session never waits on the other nodes or the database.
+ * Each redirected session is counted against its node until the next
+ * refresh, so that the sessions created in between are not all sent to the
+ * same node.
+ *
  * @since Beta-4.0-RC2
  */
 public class ScaleRedirector extends AbstractRedirector {
 
+    private final long refreshMillis;
+
+    private final double hysteresis;
+
+    private final double callWeight;
+
+    private final double maxHeap;
+
+    /**
+     * Loads and scales of the other nodes as of the last refresh, or null
+     * before the first one.
+     */
+    private volatile Snapshot snapshot;
+
+    /**
+     * Sessions redirected to each node since the last refresh. Guarded by
+     * itself.
+     */
+    private final Map<String, Integer> redirected =
+        new HashMap<String, Integer>();
+
+    /** Refreshes the {@link #snapshot}, once started. Set holding this. */
+    private volatile ScheduledExecutorService refresher;
+
     public ScaleRedirector(Executor ex) {
+        this(ex, 10000, 0.25, 4.0, 0.9);
+    }
+
+    /**
+     * @param refreshMillis
+     *            Milliseconds between two refreshes of the loads of the
+     *            other nodes.
+     * @param hysteresis
+     *            Fraction, between 0 and 1, by which the best node must beat
+     *            the local one.
+     * @param callWeight
+     *            Weight of a call relative to a session.
+     * @param maxHeap
+     *            Fraction of the maximum heap above which a node is not
+     *            given new sessions.
+     */
+    public ScaleRedirector(Executor ex, long refreshMillis, double hysteresis,
+            double callWeight, double maxHeap) {
         super(ex);
+        if (refreshMillis < 1) {
+            throw new IllegalArgumentException("Bad refresh: "
+                    + refreshMillis);
+        }
+        if (hysteresis < 0 || hysteresis >= 1) {
+            throw new IllegalArgumentException("Bad hysteresis: "
+                    + hysteresis);
+        }
+        this.refreshMillis = refreshMillis;
+        this.hysteresis = hysteresis;
+        this.callWeight = callWeight;
+        this.maxHeap = maxHeap;
     }
 
     public SessionPrx getProxyOrNull(Context ctx, String userId,
@@ -34,34 +118,180 @@ public class ScaleRedirector extends AbstractRedirector {
 
         // First, give the abstract class a chance to handle common cases
         SessionPrx prx = super.getProxyOrNull(ctx, userId, control, current);
-        if (prx != null) {
+        if (prx != null || alreadyRouted(current)) {
             return prx; // EARLY EXIT
         }
 
         String proxyString = null;
-        double IMPOSSIBLE = 314159.0;
-        if (Math.random() > IMPOSSIBLE) {
-            Set<String> values = ctx.getManagerList(true);
-            if (values != null) {
-                values.remove(ctx.uuid());
-                int size = values.size();
-                if (size != 0) {
-                    double rnd = Math.floor(size * Math.random());
-                    int idx = (int) Math.round(rnd);
-                    List<String> v = new ArrayList<String>(values);
-                    String uuid = (String) v.get(idx);
-                    proxyString = findProxy(ctx, uuid);
-                    log
-                            .info(String.format("Load balancing to %s",
-                                    proxyString));
-                }
-            }
+        String uuid = chooseNode(ctx);
+        if (uuid != null) {
+            proxyString = findProxy(ctx, uuid);
+            log.info(String.format("Load balancing to %s", proxyString));
         }
 
         // Handles nulls
         return obtainProxy(proxyString, ctx, userId, control, current);
     }
 
+    /**
+     * Returns the uuid of the node a new session should be created on, or
+     * null to create it locally. Sessions are created locally until the
+     * loads of the other nodes have been fetched once.
+     */
+    protected String chooseNode(Context ctx) {
+        if (refresher == null) {
+            start(ctx);
+        }
+        Snapshot current = snapshot;
+        if (current == null) {
+            return null;
+        }
+        NodeLoad local = ctx.getLoad();
+        synchronized (redirected) {
+            String uuid = chooseNode(local, current.loads, current.scales,
+                    redirected);
+            if (uuid != null) {
+                Integer count = redirected.get(uuid);
+                redirected.put(uuid, count == null ? 1 : count + 1);
+            }
+            return uuid;
+        }
+    }
+
+    /**
+     * Starts refreshing the loads of the other nodes in the background.
+     */
+    private synchronized void start(final Context ctx) {
+        if (refresher != null) {
+            return;
+        }
+        refresher = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "ScaleRedirector-refresh");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                refresh(ctx);
+            }
+        }, 0, refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background refresh.
+     */
+    public synchronized void stop() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    /**
+     * Fetches the loads and scales of the other nodes and swaps them in,
+     * forgetting the sessions redirected since the last refresh since the
+     * new loads include them.
+     */
+    protected void refresh(Context ctx) {
+        Snapshot old = snapshot;
+        Map<String, NodeLoad> loads;
+        Map<String, Integer> scales;
+        try {
+            loads = ctx.getClusterLoad();
+        } catch (Exception e) {
+            log.warn("Error getting cluster load", e);
+            loads = new HashMap<String, NodeLoad>();
+        }
+        try {
+            scales = getScales(ctx);
+        } catch (Exception e) {
+            log.warn("Error getting node scales", e);
+            scales = old == null ? new HashMap<String, Integer>() : old.scales;
+        }
+        Snapshot fresh = new Snapshot(loads, scales);
+        synchronized (redirected) {
+            snapshot = fresh;
+            redirected.clear();
+        }
+    }
+
+    /**
+     * Picks the node of <code>loads</code> a new session should be created
+     * on rather than the local node, or returns null.
+     */
+    public String chooseNode(NodeLoad local, Map<String, NodeLoad> loads,
+            Map<String, Integer> scales) {
+        return chooseNode(local, loads, scales,
+                Collections.<String, Integer> emptyMap());
+    }
+
+    /**
+     * As {@link #chooseNode(NodeLoad, Map, Map)}, counting
+     * <code>extra</code> more sessions on the nodes it contains.
+     */
+    private String chooseNode(NodeLoad local, Map<String, NodeLoad> loads,
+            Map<String, Integer> scales, Map<String, Integer> extra) {
+        String best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (NodeLoad load : loads.values()) {
+            if (!isHealthy(load)) {
+                continue;
+            }
+            Integer sessions = extra.get(load.uuid);
+            double score = score(load, sessions == null ? 0 : sessions,
+                    scales.get(load.uuid));
+            if (score < bestScore) {
+                best = load.uuid;
+                bestScore = score;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        if (local.draining || !isHealthy(local)) {
+            return best;
+        }
+        double localScore = score(local, 0, scales.get(local.uuid));
+        return bestScore < localScore * (1 - hysteresis) ? best : null;
+    }
+
+    private boolean isHealthy(NodeLoad load) {
+        return !load.draining
+                && (load.heapMax <= 0 || load.heapUsed <= maxHeap
+                        * load.heapMax);
+    }
+
+    private double score(NodeLoad load, int extraSessions, Integer scale) {
+        double calls = load.activeCalls + load.queuedCalls + load.renderQueue;
+        double score = load.sessions + extraSessions + callWeight * calls;
+        return scale == null || scale < 1 ? score : score / scale;
+    }
+
+    /**
+     * Returns the "Node.scale" column of the active nodes which have one.
+     */
+    @SuppressWarnings("unchecked")
+    protected Map<String, Integer> getScales(Context ctx) {
+        return (Map<String, Integer>) executor.execute(ctx.principal(),
+                new Executor.SimpleWork(this, "getScales") {
+                    @Transactional(readOnly = true)
+                    public Object doWork(Session session, ServiceFactory sf) {
+                        List<Node> nodes = sf.getQueryService().findAllByQuery(
+                                "select node from Node node "
+                                        + "where node.down is null", null);
+                        Map<String, Integer> scales = new HashMap<String, Integer>();
+                        for (Node node : nodes) {
+                            if (node.getScale() != null) {
+                                scales.put(node.getUuid(), node.getScale());
+                            }
+                        }
+                        return scales;
+                    }
+                });
+    }
+
     /**
      * Does nothing since all redirects are chosen during
      * {@link #getProxyOrNull(Context, String, Glacier2.SessionControlPrx, Ice.Current)}
@@ -71,12 +301,34 @@ public class ScaleRedirector extends AbstractRedirector {
     }
 
     /**
-     * Nothing needs to be done on shutdown, since the Ring implementation will
-     * properly disable the {@link Node} table queried during the next call to
-     * {@link #getProxyOrNull(Context, String, Glacier2.SessionControlPrx, Ice.Current)}
+     * Forgets the load of the node, so that no new sessions are sent to it
+     * before the next refresh.
      */
     public void handleRingShutdown(Context context, String uuid) {
+        synchronized (redirected) {
+            Snapshot current = snapshot;
+            if (current != null && current.loads.containsKey(uuid)) {
+                Map<String, NodeLoad> loads = new HashMap<String, NodeLoad>(
+                        current.loads);
+                loads.remove(uuid);
+                snapshot = new Snapshot(loads, current.scales);
+            }
+        }
+    }
+
+    /**
+     * Loads and scales of the other nodes, never modified once built.
+     */
+    private static final class Snapshot {
+
+        final Map<String, NodeLoad> loads;
 
+        final Map<String, Integer> scales;
+
+        Snapshot(Map<String, NodeLoad> loads, Map<String, Integer> scales) {
+            this.loads = Collections.unmodifiableMap(loads);
+            this.scales = Collections.unmodifiableMap(scales);
+        }
     }
 
-}
\ No newline at end of file
+}
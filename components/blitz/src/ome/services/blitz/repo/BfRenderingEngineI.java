@@ -28,6 +28,7 @@ import omero.api.AMD_RenderingEngine_getCompressionLevel;
 import omero.api.AMD_RenderingEngine_getDefaultT;
 import omero.api.AMD_RenderingEngine_getDefaultZ;
 import omero.api.AMD_RenderingEngine_getModel;
+import omero.api.AMD_RenderingEngine_getHistogram;
 import omero.api.AMD_RenderingEngine_getPixels;
 import omero.api.AMD_RenderingEngine_getPixelsTypeLowerBound;
 import omero.api.AMD_RenderingEngine_getPixelsTypeUpperBound;
@@ -47,6 +48,8 @@ import omero.api.AMD_RenderingEngine_renderAsPackedIntAsRGBA;
 import omero.api.AMD_RenderingEngine_renderCompressed;
 import omero.api.AMD_RenderingEngine_renderProjectedAsPackedInt;
 import omero.api.AMD_RenderingEngine_renderProjectedCompressed;
+import omero.api.AMD_RenderingEngine_renderRegionsAsPackedInt;
+import omero.api.AMD_RenderingEngine_renderRegionsCompressed;
 import omero.api.AMD_RenderingEngine_resetDefaults;
 import omero.api.AMD_RenderingEngine_resetDefaultsNoSave;
 import omero.api.AMD_RenderingEngine_saveCurrentSettings;
@@ -72,6 +75,7 @@ import omero.model.Family;
 import omero.model.RenderingModel;
 import omero.romio.CodomainMapContext;
 import omero.romio.PlaneDef;
+import omero.romio.RegionDef;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -190,6 +194,13 @@ public class BfRenderingEngineI extends _RenderingEngineDisp {
 
     }
 
+    public void getHistogram_async(AMD_RenderingEngine_getHistogram __cb,
+            int[] channels, int binCount, boolean globalRange, PlaneDef plane,
+            Current __current) throws ServerError {
+        // TODO Auto-generated method stub
+
+    }
+
     public void getPixels_async(AMD_RenderingEngine_getPixels __cb,
             Current __current) throws ServerError {
         // TODO Auto-generated method stub
@@ -282,6 +293,22 @@ public class BfRenderingEngineI extends _RenderingEngineDisp {
 
     }
 
+    public void renderRegionsAsPackedInt_async(
+            AMD_RenderingEngine_renderRegionsAsPackedInt __cb, PlaneDef def,
+            RegionDef[] regions, int resolutionLevel, Current __current)
+            throws ServerError {
+        // TODO Auto-generated method stub
+
+    }
+
+    public void renderRegionsCompressed_async(
+            AMD_RenderingEngine_renderRegionsCompressed __cb, PlaneDef def,
+            RegionDef[] regions, int resolutionLevel, Current __current)
+            throws ServerError {
+        // TODO Auto-generated method stub
+
+    }
+
     public void renderProjectedAsPackedInt_async(
             AMD_RenderingEngine_renderProjectedAsPackedInt __cb,
             ProjectionType algorithm, int timepoint, int stepping, int start,
@@ -58,9 +58,11 @@ import ome.formats.importer.ImportConfig;
 import ome.formats.importer.ImportContainer;
 import ome.formats.importer.ImportLibrary;
 import ome.formats.importer.OMEROWrapper;
+import ome.io.nio.ReadAheadPool;
 import ome.parameters.Parameters;
 import ome.services.blitz.util.RegisterServantMessage;
 import ome.services.util.Executor;
+import ome.system.OmeroContext;
 import ome.system.Principal;
 import ome.system.ServiceFactory;
 import ome.util.SqlAction;
@@ -697,6 +699,18 @@ public class PublicRepositoryI extends _RepositoryDisp {
         return RawPixelsStorePrxHelper.uncheckedCast(prx);
     }
 
+    /**
+     * Returns the read ahead pool of the server context, or the process-wide
+     * default if the context has none.
+     */
+    private ReadAheadPool readAheadPool() {
+        OmeroContext ctx = this.executor.getContext();
+        if (ctx.containsBean("readAheadPool")) {
+            return (ReadAheadPool) ctx.getBean("readAheadPool");
+        }
+        return ReadAheadPool.getDefault();
+    }
+
     public RawFileStorePrx file(long fileId, Current __current) throws ServerError {
         Principal currentUser = currentUser(__current);
         File file = getFile(fileId, currentUser);
@@ -717,7 +731,8 @@ public class PublicRepositoryI extends _RepositoryDisp {
         // TODO: Refactor all this into a single helper method.
         // If there is no listener available who will take responsibility
         // for this servant, then we bail.
-        RepoRawFileStoreI rfs = new RepoRawFileStoreI(fileId, file);
+        RepoRawFileStoreI rfs = new RepoRawFileStoreI(fileId, file,
+                readAheadPool());
         _RawFileStoreTie tie = new _RawFileStoreTie(rfs);
         RegisterServantMessage msg = new RegisterServantMessage(this, tie, adjustedCurr);
         try {
@@ -15,6 +15,8 @@ import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 
+import ome.io.nio.ReadAhead;
+import ome.io.nio.ReadAheadPool;
 import ome.services.blitz.impl.AbstractAmdServant;
 import omero.ServerError;
 import omero.api.AMD_RawFileStore_exists;
@@ -48,12 +50,19 @@ _RawFileStoreOperations {
 
     private final RandomAccessFile rafile;
 
+    private final ReadAhead readAhead;
+
     public RepoRawFileStoreI(long fileId, File file) {
+        this(fileId, file, ReadAheadPool.getDefault());
+    }
+
+    public RepoRawFileStoreI(long fileId, File file, ReadAheadPool pool) {
         super(null, null);
         this.fileId = fileId;
         this.file = file;
         try {
             this.rafile = new RandomAccessFile(file, "r");
+            this.readAhead = pool.open(this.rafile.getChannel());
             log.info("Opened " + rafile);
         } catch (FileNotFoundException e) {
             throw new RuntimeException(e);
@@ -87,10 +96,7 @@ _RawFileStoreOperations {
         }
 
         try {
-            final byte[] array = new byte[length];
-            final ByteBuffer buffer = ByteBuffer.wrap(array);
-            this.rafile.getChannel().read(buffer, position);
-            __cb.ice_response(array);
+            __cb.ice_response(this.readAhead.read(position, length));
         } catch (Throwable t) {
             __cb.ice_exception(convert(t));
         }
@@ -122,6 +128,7 @@ _RawFileStoreOperations {
             if (fc.size() < length) {
                 __cb.ice_response(false);
             } else {
+                this.readAhead.invalidate();
                 this.rafile.getChannel().truncate(length);
                 __cb.ice_response(true);
             }
@@ -144,6 +151,7 @@ _RawFileStoreOperations {
         buffer.limit(length);
 
         try {
+            readAhead.invalidate();
             rafile.getChannel().write(buffer, position);
             __cb.ice_response();
         } catch (Throwable t) {
@@ -160,6 +168,7 @@ _RawFileStoreOperations {
     @Override
     protected void preClose() {
         log.info("Closing " + rafile);
+        this.readAhead.close();
         try {
             this.rafile.close();
         } catch (Exception e) {
@@ -0,0 +1,378 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.formats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import loci.formats.FormatTools;
+import loci.formats.tiff.IFD;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Writes an uncompressed, single strip per plane OME-TIFF whose layout is
+ * computed up front so that the length of the file is known before any
+ * plane has been read. Each plane is written as its IFD followed by its
+ * pixel data, the OME-XML being the image description of the first IFD,
+ * and the planes must be written in order.
+ *
+ * {@link #read(long, int)} may be called from other threads while the
+ * planes are being written: it blocks until the requested range has been
+ * written and reads it through the channel which is kept open for the
+ * lifetime of the instance.
+ *
+ * @since Beta4.3.2
+ * @see <a href="http://partners.adobe.com/public/developer/en/tiff/TIFF6.pdf">TIFF 6.0</a>
+ */
+public class StreamingOmeTiffWriter {
+
+    private final static Log log =
+        LogFactory.getLog(StreamingOmeTiffWriter.class);
+
+    /** Files larger than this are written as big TIFF. */
+    public final static long MAX_TIFF_SIZE = 0xFFFFFFFFL;
+
+    private final static short ASCII = 2, SHORT = 3, LONG = 4, LONG8 = 16;
+
+    private final File file;
+
+    private final RandomAccessFile ra;
+
+    private final FileChannel channel;
+
+    private final byte[] description;
+
+    private final int sizeX, sizeY, planeCount, pixelType;
+
+    private final boolean littleEndian;
+
+    private final boolean bigTiff;
+
+    /** Number of bytes in the pixel data of a plane. */
+    private final long planeSize;
+
+    /** Offset of the first IFD: right after the header. */
+    private final long firstIFD;
+
+    /** Offset of the second IFD. */
+    private final long secondIFD;
+
+    /** Distance between the IFDs of two planes after the first. */
+    private final long stride;
+
+    private final long length;
+
+    /** Index of the next plane to write, guarded by <code>this</code>. */
+    private int next;
+
+    /** Number of bytes written, guarded by <code>this</code>. */
+    private long written;
+
+    /** Reason the file will never be complete, guarded by <code>this</code>. */
+    private Throwable failure;
+
+    /**
+     * Creates the file and computes its layout.
+     * @param file The file to write.
+     * @param description The OME-XML of the file.
+     * @param sizeX Width of the planes.
+     * @param sizeY Height of the planes.
+     * @param planeCount Number of planes.
+     * @param pixelType One of the {@link FormatTools} pixel types.
+     * @param littleEndian Byte order of the pixel data which will be written.
+     * @throws IOException If the file cannot be created.
+     */
+    public StreamingOmeTiffWriter(File file, byte[] description, int sizeX,
+            int sizeY, int planeCount, int pixelType, boolean littleEndian)
+        throws IOException {
+        if (planeCount < 1) {
+            throw new IllegalArgumentException("No planes: " + planeCount);
+        }
+        this.file = file;
+        // NUL terminated as all TIFF ASCII values
+        this.description = new byte[description.length + 1];
+        System.arraycopy(description, 0, this.description, 0,
+                description.length);
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.planeCount = planeCount;
+        this.pixelType = pixelType;
+        this.littleEndian = littleEndian;
+        this.planeSize = (long) sizeX * sizeY
+            * FormatTools.getBytesPerPixel(pixelType);
+        this.bigTiff = length(false) > MAX_TIFF_SIZE;
+        this.length = length(bigTiff);
+        this.firstIFD = bigTiff ? 16 : 8;
+        this.secondIFD = firstIFD + ifdSize(bigTiff, true)
+            + even(this.description.length) + even(planeSize);
+        this.stride = ifdSize(bigTiff, false) + even(planeSize);
+        this.ra = new RandomAccessFile(file, "rw");
+        this.channel = ra.getChannel();
+        ra.setLength(0);
+    }
+
+    /** Returns the length the file will have once every plane is written. */
+    public long getLength() {
+        return length;
+    }
+
+    public boolean isBigTiff() {
+        return bigTiff;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Writes the next plane with its IFD, and the header of the file before
+     * the first plane.
+     * @param plane The pixel data of the plane.
+     * @throws IOException If the plane cannot be written.
+     */
+    public void writePlane(byte[] plane) throws IOException {
+        if (plane.length < planeSize) {
+            throw new IllegalArgumentException(String.format(
+                    "Plane of %d bytes instead of %d", plane.length,
+                    planeSize));
+        }
+        int i;
+        long pos;
+        synchronized (this) {
+            if (next == planeCount) {
+                throw new IllegalStateException("All planes written");
+            }
+            i = next;
+            pos = written;
+        }
+        ByteBuffer buf;
+        if (i == 0) {
+            buf = allocate((int) (firstIFD + ifdSize(bigTiff, true)
+                    + even(description.length)));
+            header(buf);
+        } else {
+            buf = allocate((int) ifdSize(bigTiff, false));
+        }
+        ifd(buf, i);
+        if (i == 0) {
+            buf.put(description);
+        }
+        buf.position(buf.limit());
+        buf.flip();
+        pos = write(buf, pos);
+        buf = ByteBuffer.wrap(plane, 0, (int) planeSize);
+        pos = write(buf, pos);
+        if (planeSize % 2 != 0) {
+            pos = write(ByteBuffer.allocate(1), pos);
+        }
+        synchronized (this) {
+            next = i + 1;
+            written = pos;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Marks the file as never to be complete, waking up any reader.
+     * @param t The reason.
+     */
+    public synchronized void fail(Throwable t) {
+        if (failure == null) {
+            failure = t;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Reads a range of the file once it has been written.
+     * @param pos Offset of the range.
+     * @param size Maximum size of the range, shortened at the end of file.
+     * @return The bytes read.
+     * @throws IOException If the range cannot be read or will never be
+     * written.
+     * @throws InterruptedException If interrupted while waiting for the
+     * range to be written.
+     */
+    public byte[] read(long pos, int size)
+        throws IOException, InterruptedException {
+        if (pos < 0 || size < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Bad range: %d bytes at %d", size, pos));
+        }
+        long end = Math.min(pos + size, length);
+        if (end <= pos) {
+            return new byte[0];
+        }
+        awaitWritten(end);
+        ByteBuffer buf = ByteBuffer.allocate((int) (end - pos));
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, pos + buf.position()) < 0) {
+                throw new IOException("Unexpected end of " + file);
+            }
+        }
+        return buf.array();
+    }
+
+    private synchronized void awaitWritten(long end)
+        throws IOException, InterruptedException {
+        while (written < end) {
+            if (failure != null) {
+                IOException io = new IOException("TIFF generation failed");
+                io.initCause(failure);
+                throw io;
+            }
+            if (!channel.isOpen()) {
+                throw new IOException("Closed: " + file);
+            }
+            wait();
+        }
+    }
+
+    /**
+     * Closes the file, failing any pending read.
+     */
+    public void close() {
+        try {
+            ra.close();
+        } catch (IOException e) {
+            log.warn("IOException on file close", e);
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    // Layout
+    // =========================================================================
+
+    private long length(boolean big) {
+        return (big ? 16 : 8)
+            + ifdSize(big, true) + even(description.length)
+            + (ifdSize(big, false) * (planeCount - 1))
+            + even(planeSize) * planeCount;
+    }
+
+    /** Size of an IFD with its values which do not fit into an entry. */
+    private static long ifdSize(boolean big, boolean first) {
+        int entries = first ? 12 : 11;
+        return big ? 8 + 20 * entries + 8 : 2 + 12 * entries + 4;
+    }
+
+    /** Word aligns a length as required for any TIFF offset. */
+    private static long even(long length) {
+        return length + (length % 2);
+    }
+
+    private long ifdOffset(int i) {
+        return i == 0 ? firstIFD : secondIFD + stride * (i - 1);
+    }
+
+    private long dataOffset(int i) {
+        if (i == 0) {
+            return firstIFD + ifdSize(bigTiff, true)
+                + even(description.length);
+        }
+        return ifdOffset(i) + ifdSize(bigTiff, false);
+    }
+
+    private ByteBuffer allocate(int size) {
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.order(littleEndian ? ByteOrder.LITTLE_ENDIAN
+                : ByteOrder.BIG_ENDIAN);
+        return buf;
+    }
+
+    private void header(ByteBuffer buf) {
+        buf.put((byte) (littleEndian ? 'I' : 'M'));
+        buf.put((byte) (littleEndian ? 'I' : 'M'));
+        if (bigTiff) {
+            buf.putShort((short) 43);
+            buf.putShort((short) 8);
+            buf.putShort((short) 0);
+            buf.putLong(firstIFD);
+        } else {
+            buf.putShort((short) 42);
+            buf.putInt((int) firstIFD);
+        }
+    }
+
+    /** Writes the IFD of a plane, entries sorted by tag. */
+    private void ifd(ByteBuffer buf, int i) {
+        boolean first = i == 0;
+        long count = first ? 12 : 11;
+        if (bigTiff) {
+            buf.putLong(count);
+        } else {
+            buf.putShort((short) count);
+        }
+        int bits = FormatTools.getBytesPerPixel(pixelType) * 8;
+        int sampleFormat = FormatTools.isFloatingPoint(pixelType) ? 3
+                : FormatTools.isSigned(pixelType) ? 2 : 1;
+        entry(buf, IFD.IMAGE_WIDTH, LONG, 1, sizeX);
+        entry(buf, IFD.IMAGE_LENGTH, LONG, 1, sizeY);
+        entry(buf, IFD.BITS_PER_SAMPLE, SHORT, 1, bits);
+        entry(buf, IFD.COMPRESSION, SHORT, 1, 1); // Uncompressed
+        entry(buf, IFD.PHOTOMETRIC_INTERPRETATION, SHORT, 1, 1); // BlackIsZero
+        if (first) {
+            entry(buf, IFD.IMAGE_DESCRIPTION, ASCII, description.length,
+                    firstIFD + ifdSize(bigTiff, true));
+        }
+        entry(buf, IFD.STRIP_OFFSETS, bigTiff ? LONG8 : LONG, 1,
+                dataOffset(i));
+        entry(buf, IFD.SAMPLES_PER_PIXEL, SHORT, 1, 1);
+        entry(buf, IFD.ROWS_PER_STRIP, LONG, 1, sizeY);
+        entry(buf, IFD.STRIP_BYTE_COUNTS, bigTiff ? LONG8 : LONG, 1,
+                planeSize);
+        entry(buf, IFD.PLANAR_CONFIGURATION, SHORT, 1, 1); // Chunky
+        entry(buf, IFD.SAMPLE_FORMAT, SHORT, 1, sampleFormat);
+        long nextIFD = i + 1 < planeCount ? ifdOffset(i + 1) : 0;
+        if (bigTiff) {
+            buf.putLong(nextIFD);
+        } else {
+            buf.putInt((int) nextIFD);
+        }
+    }
+
+    /**
+     * Writes an IFD entry holding either a single value, left justified as
+     * required by the specification, or the offset of its values.
+     */
+    private void entry(ByteBuffer buf, int tag, short type, long count,
+            long value) {
+        buf.putShort((short) tag);
+        buf.putShort(type);
+        if (bigTiff) {
+            buf.putLong(count);
+        } else {
+            buf.putInt((int) count);
+        }
+        int start = buf.position();
+        if (type == SHORT) {
+            buf.putShort((short) value);
+        } else if (type == LONG8) {
+            buf.putLong(value);
+        } else {
+            buf.putInt((int) value);
+        }
+        buf.position(start + (bigTiff ? 8 : 4));
+    }
+
+    private long write(ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            pos += channel.write(buf, pos);
+        }
+        return pos;
+    }
+
+}
@@ -11,16 +11,17 @@ import static omero.rtypes.rdouble;
 import static omero.rtypes.rint;
 import static omero.rtypes.rlong;
 
-import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import ome.conditions.ApiUsageException;
-import ome.io.nio.PixelBuffer;
 import ome.model.IObject;
 import ome.model.core.Pixels;
 import ome.services.messages.ShapeChangeMessage;
@@ -80,6 +81,11 @@ public class GeomTool {
 
     protected final String uuid;
 
+    protected final ShapeStatsEngine statsEngine;
+
+    /** Number of shapes loaded per query by {@link #getStats(List)}. */
+    private static final int BATCH_SIZE = 500;
+
     public GeomTool(PixelData data, SqlAction sql,
             SessionFactory factory) {
         this(data, sql, factory, null, null);
@@ -92,6 +98,16 @@ public class GeomTool {
         this.factory = factory;
         this.ex = ex;
         this.uuid = uuid;
+        this.statsEngine = new ShapeStatsEngine(data);
+    }
+
+    /**
+     * Sets the number of planes measured concurrently by
+     * {@link #getStats(List)}. Values less than one use the number of
+     * available processors. For use during configuration.
+     */
+    public void setThreads(int threads) {
+        statsEngine.setThreads(threads);
     }
 
     /**
@@ -242,6 +258,11 @@ public class GeomTool {
         return sp;
     }
 
+    /**
+     * Calculates the intensity statistics of shapes. The shapes are loaded
+     * in batches and those of the same Pixels set are measured together by
+     * the {@link ShapeStatsEngine}, so that each plane is read only once.
+     */
     public RoiStats getStats(List<Long> shapeIds) {
 
         if (shapeIds == null) {
@@ -249,22 +270,22 @@ public class GeomTool {
         }
 
         final Session session = factory.getSession();
+        final Map<Long, ome.model.roi.Shape> shapes = loadShapes(session,
+                shapeIds);
         final RoiStats rs = new RoiStats();
         rs.perShape = new ShapeStats[shapeIds.size()];
 
+        final Map<Long, List<ShapeStatsEngine.Item>> items =
+            new LinkedHashMap<Long, List<ShapeStatsEngine.Item>>();
+
         for (int i = 0; i < shapeIds.size(); i++) {
 
             final long shapeId = shapeIds.get(i);
 
-            final ome.model.roi.Shape shape = (ome.model.roi.Shape) session
-                    .createQuery(
-                            "select s from Shape s "
-                                    + "left outer join fetch s.channels selected " // optional
-                                    + "join fetch s.roi r join fetch r.image i "
-                                    + "join fetch i.pixels p join fetch p.channels c "
-                                    + "join fetch c.logicalChannel lc "
-                                    + "where s.id = :id").setParameter("id",
-                            shapeId).uniqueResult();
+            final ome.model.roi.Shape shape = shapes.get(shapeId);
+            if (shape == null) {
+                throw new ApiUsageException("No such shape: " + shapeId);
+            }
             final SmartShape smartShape = (SmartShape) new ShapeMapper()
                     .map(shape);
 
@@ -296,78 +317,75 @@ public class GeomTool {
                             .getLogicalChannel().getId();
                 }
             }
-            ShapeStats agg = rs.combined;
 
             final ShapeStats stats = makeStats(pix, shape);
             stats.shapeId = shape.getId();
 
-            final int ch = stats.channelIds.length;
-            final double[] sumOfSquares = new double[ch];
-
+            final Integer theC = shape.getTheC(); // May be null
             final Integer theZ = shape.getTheZ(); // May be null
             final Integer theT = shape.getTheT(); // May be null
 
+            final int[] channels = new int[stats.channelIds.length];
+            for (int w = 0; w < channels.length; w++) {
+                channels[w] = (theC == null) ? w : theC.intValue();
+            }
+
             final int startZ = (theZ == null) ? 0 : theZ.intValue();
             final int startT = (theT == null) ? 0 : theT.intValue();
 
             final int endZ = (theZ == null) ? (maxZ - 1) : theZ.intValue();
             final int endT = (theT == null) ? (maxT - 1) : theT.intValue();
 
-            final PixelBuffer buf = data.getBuffer(pixId);
-            try {
-                SmartShape.PointCallback cb = new SmartShape.PointCallback() {
-
-                    public void handle(int x, int y) {
-
-                        for (int w = 0; w < ch; w++) {
-
-                            for (int z = startZ; z <= endZ; z++) {
-                                for (int t = startT; t <= endT; t++) {
-
-                                    // WHAT TO DO ABOUT THE CHANNELS IN AGGREGATION?
-                                    stats.pointsCount[w]++;
-                                    double value = data.get(buf, x, y, z, w, t);
-                                    stats.min[w] = Math.min(value, stats.min[w]);
-                                    stats.max[w] = Math.max(value, stats.max[w]);
-                                    stats.sum[w] += value;
-                                    sumOfSquares[w] += value * value;
-
-                                }
-                            }
-
-                        }
-                    }
-                };
-
-                smartShape.areaPoints(cb);
-            } finally {
-                try {
-                    buf.close();
-                } catch (IOException e) {
-                    log.error("Error closing " + buf, e);
-                }
-            }
-
-            for (int w = 0; w < ch; w++) {
-
-                stats.mean[w] = stats.sum[w] / stats.pointsCount[w];
-                if (stats.pointsCount[w] > 1) {
-                    double sigmaSquare = (sumOfSquares[w] - stats.sum[w]
-                            * stats.sum[w] / stats.pointsCount[w])
-                            / (stats.pointsCount[w] - 1);
-                    if (sigmaSquare > 0) {
-                        stats.stdDev[w] = Math.sqrt(sigmaSquare);
-                    }
-                }
+            List<ShapeStatsEngine.Item> list = items.get(pixId);
+            if (list == null) {
+                list = new ArrayList<ShapeStatsEngine.Item>();
+                items.put(pixId, list);
             }
+            list.add(new ShapeStatsEngine.Item(smartShape, startZ, endZ,
+                    startT, endT, channels, stats));
 
             rs.perShape[i] = stats;
         }
 
+        for (Map.Entry<Long, List<ShapeStatsEngine.Item>> entry : items
+                .entrySet()) {
+            statsEngine.calculate(data.getPixels(entry.getKey()),
+                    entry.getValue());
+        }
+
         return rs;
 
     }
 
+    /**
+     * Loads shapes along with their Pixels set and channels,
+     * {@link #BATCH_SIZE} at a time.
+     */
+    private Map<Long, ome.model.roi.Shape> loadShapes(Session session,
+            List<Long> shapeIds) {
+        Map<Long, ome.model.roi.Shape> shapes =
+            new HashMap<Long, ome.model.roi.Shape>();
+        List<Long> ids = new ArrayList<Long>(new LinkedHashSet<Long>(shapeIds));
+        for (int i = 0; i < ids.size(); i += BATCH_SIZE) {
+            List<Long> batch = ids.subList(i,
+                    Math.min(i + BATCH_SIZE, ids.size()));
+            List<?> results = session
+                    .createQuery(
+                            "select distinct s from Shape s "
+                                    + "left outer join fetch s.channels selected " // optional
+                                    + "join fetch s.roi r join fetch r.image i "
+                                    + "join fetch i.pixels p join fetch p.channels c "
+                                    + "join fetch c.logicalChannel lc "
+                                    + "where s.id in (:ids)").setParameterList(
+                            "ids", batch).list();
+            for (Object result : results) {
+                ome.model.roi.Shape shape = (ome.model.roi.Shape) result;
+                shapes.put(shape.getId(), shape);
+            }
+        }
+        return shapes;
+    }
+
     /**
      * Maps from multiple possible user-provided names of shapes (e.g.
      * "::omero::model::Text", "Text", "TextI", "omero.model.TextI",
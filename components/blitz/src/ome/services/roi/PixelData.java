@@ -16,6 +16,7 @@ import ome.conditions.ValidationException;
 import ome.io.nio.DimensionsOutOfBoundsException;
 import ome.io.nio.PixelBuffer;
 import ome.io.nio.PixelsService;
+import ome.model.core.Pixels;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -39,7 +40,20 @@ public class PixelData {
     }
 
     public PixelBuffer getBuffer(long pix) {
-        return data.getPixelBuffer(meta.retrievePixDescription(pix), false);
+        return getBuffer(getPixels(pix));
+    }
+
+    /**
+     * Loads the description of a Pixels set. Buffers of the Pixels set must
+     * still be created in the thread of the current transaction, where the
+     * path of its file can be resolved, but may then be read from others.
+     */
+    public Pixels getPixels(long pix) {
+        return meta.retrievePixDescription(pix);
+    }
+
+    public PixelBuffer getBuffer(Pixels pixels) {
+        return data.getPixelBuffer(pixels, false);
     }
 
     public double get(PixelBuffer buf, int x, int y, int z, int c, int t) {
@@ -0,0 +1,559 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.roi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.conditions.ApiUsageException;
+import ome.conditions.ResourceError;
+import ome.io.nio.DimensionsOutOfBoundsException;
+import ome.io.nio.PixelBuffer;
+import ome.model.core.Pixels;
+import omero.api.ShapeStats;
+import omero.model.SmartShape;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Calculates the intensity statistics of many shapes of a single Pixels set
+ * at once. Each shape is rasterized into a {@link Mask} of row runs, the
+ * shapes are then grouped by the planes they cover and every plane is read
+ * once, in bands of rows spanning the bounding box of its shapes, while the
+ * statistics of all of its shapes are accumulated. Planes are processed
+ * concurrently, each worker reading with one of a set of {@link PixelBuffer}s
+ * opened by the calling thread.
+ *
+ * Points outside of the Pixels set are ignored.
+ *
+ * @since Beta4.3.2
+ * @see GeomTool#getStats(List)
+ */
+public class ShapeStatsEngine {
+
+    private final static Log log = LogFactory.getLog(ShapeStatsEngine.class);
+
+    /** Default maximum number of pixel values read at once per plane. */
+    public static final int DEFAULT_MAX_VALUES = 4 * 1024 * 1024;
+
+    private final PixelData data;
+
+    /** Number of planes processed concurrently. */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private int maxValues = DEFAULT_MAX_VALUES;
+
+    /** Created on first use if more than one thread is configured. */
+    private ExecutorService executor;
+
+    public ShapeStatsEngine(PixelData data) {
+        this.data = data;
+    }
+
+    /**
+     * Sets the number of planes processed concurrently. Values less than one
+     * use the number of available processors.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads < 1 ? Runtime.getRuntime().availableProcessors()
+                : threads;
+    }
+
+    /**
+     * Sets the maximum number of pixel values read at once from a plane,
+     * which bounds the number of rows of each band.
+     */
+    public void setMaxValues(int maxValues) {
+        this.maxValues = Math.max(1, maxValues);
+    }
+
+    /**
+     * Fills in the statistics of shapes which all belong to the same Pixels
+     * set. The statistics of each item must have been created with one slot
+     * per channel to measure and <code>min</code> filled with
+     * {@link Double#MAX_VALUE}.
+     *
+     * @param pixels
+     *            Fully loaded Pixels set of the shapes, see
+     *            {@link PixelData#getPixels(long)}.
+     * @param items
+     *            The shapes to measure.
+     */
+    public void calculate(Pixels pixels, List<Item> items) {
+        int sizeX = pixels.getSizeX();
+        int sizeY = pixels.getSizeY();
+        int sizeZ = pixels.getSizeZ();
+        int sizeC = pixels.getSizeC();
+
+        // Entries of each plane as pairs of item index and channel slot.
+        Map<Integer, Plane> planes = new LinkedHashMap<Integer, Plane>();
+        Accumulator[] totals = new Accumulator[items.size()];
+        for (int i = 0; i < totals.length; i++) {
+            Item item = items.get(i);
+            totals[i] = new Accumulator(item.channels.length);
+            item.mask = Mask.rasterize(item.shape, sizeX, sizeY);
+            if (item.mask.count == 0) {
+                continue;
+            }
+            for (int t = item.startT; t <= item.endT; t++) {
+                for (int slot = 0; slot < item.channels.length; slot++) {
+                    int c = item.channels[slot];
+                    for (int z = item.startZ; z <= item.endZ; z++) {
+                        Integer key = (t * sizeC * sizeZ) + (c * sizeZ) + z;
+                        Plane plane = planes.get(key);
+                        if (plane == null) {
+                            plane = new Plane(z, c, t);
+                            planes.put(key, plane);
+                        }
+                        plane.add(i, slot, item.mask);
+                    }
+                }
+            }
+        }
+
+        // The buffers are created in the calling thread, where the path of
+        // the pixels can be resolved, and lent to the workers.
+        int workers = Math.max(1, Math.min(threads, planes.size()));
+        List<PixelBuffer> buffers = new ArrayList<PixelBuffer>(workers);
+        BlockingQueue<PixelBuffer> idle = new LinkedBlockingQueue<PixelBuffer>();
+        List<Future<Accumulator>> futures =
+            new ArrayList<Future<Accumulator>>(planes.size());
+        try {
+            if (!planes.isEmpty()) {
+                for (int i = 0; i < workers; i++) {
+                    PixelBuffer buf = data.getBuffer(pixels);
+                    buffers.add(buf);
+                    idle.add(buf);
+                }
+            }
+            for (Plane plane : planes.values()) {
+                futures.add(submit(new PlaneStats(idle, plane)));
+            }
+            int p = 0;
+            for (Plane plane : planes.values()) {
+                Accumulator partial = get(futures.get(p++));
+                for (int e = 0; e < plane.size; e++) {
+                    totals[plane.items[e]].merge(plane.slots[e], partial, e);
+                }
+            }
+        } finally {
+            // Stop measuring and wait for the workers to give back their
+            // buffers before closing them.
+            for (Future<Accumulator> future : futures) {
+                future.cancel(false);
+            }
+            for (int i = 0; i < buffers.size(); i++) {
+                try {
+                    idle.take();
+                } catch (InterruptedException e) {
+                    log.warn("Interrupted waiting for shape statistics.");
+                    break;
+                }
+            }
+            for (PixelBuffer buf : buffers) {
+                try {
+                    buf.close();
+                } catch (IOException e) {
+                    log.error("Error closing " + buf, e);
+                }
+            }
+        }
+
+        for (int i = 0; i < totals.length; i++) {
+            totals[i].store(items.get(i).stats);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Measured %d shapes over %d planes of " +
+                    "Pixels:%d", items.size(), planes.size(), pixels.getId()));
+        }
+    }
+
+    /**
+     * Runs the statistics of a plane in the calling thread if only one
+     * thread is configured, otherwise on the {@link #executor}.
+     */
+    private Future<Accumulator> submit(PlaneStats task) {
+        if (threads <= 1) {
+            FutureTask<Accumulator> future = new FutureTask<Accumulator>(task);
+            future.run();
+            return future;
+        }
+        synchronized (this) {
+            if (executor == null) {
+                executor = Executors.newFixedThreadPool(threads,
+                        new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r,
+                                "ShapeStatsWorker-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+        }
+        return executor.submit(task);
+    }
+
+    private Accumulator get(Future<Accumulator> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new ResourceError("Interrupted while measuring shapes.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new ResourceError("IOException: " + cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * A shape to measure.
+     */
+    public static class Item {
+
+        final SmartShape shape;
+
+        final int startZ, endZ, startT, endT;
+
+        /** The channel measured by each slot of {@link #stats}. */
+        final int[] channels;
+
+        final ShapeStats stats;
+
+        /** Set by {@link ShapeStatsEngine#calculate(Pixels, List)}. */
+        Mask mask;
+
+        /**
+         * @param shape
+         *            The shape to rasterize.
+         * @param startZ
+         *            First optical section to measure.
+         * @param endZ
+         *            Last optical section to measure.
+         * @param startT
+         *            First timepoint to measure.
+         * @param endT
+         *            Last timepoint to measure.
+         * @param channels
+         *            The channel measured by each slot of the statistics.
+         * @param stats
+         *            The statistics to fill in.
+         */
+        public Item(SmartShape shape, int startZ, int endZ, int startT,
+                int endT, int[] channels, ShapeStats stats) {
+            this.shape = shape;
+            this.startZ = startZ;
+            this.endZ = endZ;
+            this.startT = startT;
+            this.endT = endT;
+            this.channels = channels;
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * The points of a shape as runs of consecutive points of a row, sorted
+     * by row and then by column. A point which is passed more than once by
+     * {@link SmartShape#areaPoints(SmartShape.PointCallback)} is part of as
+     * many runs and so is measured as many times.
+     */
+    public static class Mask {
+
+        int[] ys = new int[16];
+
+        /** First column of each run. */
+        int[] starts = new int[16];
+
+        /** Column after the last of each run. */
+        int[] ends = new int[16];
+
+        int count;
+
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+
+        /** Exclusive. */
+        int maxX, maxY;
+
+        /**
+         * Rasterizes a shape, dropping the points outside of a plane.
+         *
+         * @param shape
+         *            The shape.
+         * @param sizeX
+         *            Width of the plane.
+         * @param sizeY
+         *            Height of the plane.
+         * @return See above.
+         */
+        public static Mask rasterize(SmartShape shape, final int sizeX,
+                final int sizeY) {
+            final long[][] holder = new long[][] { new long[64] };
+            final int[] size = new int[1];
+            shape.areaPoints(new SmartShape.PointCallback() {
+                public void handle(int x, int y) {
+                    if (x < 0 || y < 0 || x >= sizeX || y >= sizeY) {
+                        return;
+                    }
+                    long[] points = holder[0];
+                    if (size[0] == points.length) {
+                        long[] grown = new long[points.length * 2];
+                        System.arraycopy(points, 0, grown, 0, points.length);
+                        holder[0] = points = grown;
+                    }
+                    points[size[0]++] = ((long) y << 32) | x;
+                }
+            });
+            long[] points = holder[0];
+            Arrays.sort(points, 0, size[0]);
+            Mask mask = new Mask();
+            for (int i = 0; i < size[0]; i++) {
+                int y = (int) (points[i] >>> 32);
+                int x = (int) points[i];
+                int last = mask.count - 1;
+                if (last >= 0 && mask.ys[last] == y && mask.ends[last] == x) {
+                    mask.ends[last]++;
+                } else {
+                    mask.add(y, x);
+                }
+            }
+            for (int r = 0; r < mask.count; r++) {
+                mask.minX = Math.min(mask.minX, mask.starts[r]);
+                mask.maxX = Math.max(mask.maxX, mask.ends[r]);
+            }
+            if (mask.count > 0) {
+                mask.minY = mask.ys[0];
+                mask.maxY = mask.ys[mask.count - 1] + 1;
+            }
+            return mask;
+        }
+
+        private void add(int y, int x) {
+            if (count == ys.length) {
+                ys = grow(ys);
+                starts = grow(starts);
+                ends = grow(ends);
+            }
+            ys[count] = y;
+            starts[count] = x;
+            ends[count] = x + 1;
+            count++;
+        }
+
+        private static int[] grow(int[] array) {
+            int[] grown = new int[array.length * 2];
+            System.arraycopy(array, 0, grown, 0, array.length);
+            return grown;
+        }
+
+        /** Returns the number of points of the mask. */
+        public long getPointCount() {
+            long points = 0;
+            for (int r = 0; r < count; r++) {
+                points += ends[r] - starts[r];
+            }
+            return points;
+        }
+
+        /** Returns the number of runs of the mask. */
+        public int getRunCount() {
+            return count;
+        }
+    }
+
+    /**
+     * The item and channel slot pairs measured on a plane, and the bounding
+     * box of their masks.
+     */
+    private static class Plane {
+
+        final int z, c, t;
+
+        int[] items = new int[4];
+
+        int[] slots = new int[4];
+
+        Mask[] masks = new Mask[4];
+
+        int size;
+
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+
+        int maxX, maxY;
+
+        Plane(int z, int c, int t) {
+            this.z = z;
+            this.c = c;
+            this.t = t;
+        }
+
+        void add(int item, int slot, Mask mask) {
+            if (size == items.length) {
+                items = Mask.grow(items);
+                slots = Mask.grow(slots);
+                Mask[] grown = new Mask[masks.length * 2];
+                System.arraycopy(masks, 0, grown, 0, masks.length);
+                masks = grown;
+            }
+            items[size] = item;
+            slots[size] = slot;
+            masks[size] = mask;
+            size++;
+            minX = Math.min(minX, mask.minX);
+            minY = Math.min(minY, mask.minY);
+            maxX = Math.max(maxX, mask.maxX);
+            maxY = Math.max(maxY, mask.maxY);
+        }
+    }
+
+    /**
+     * Accumulates the statistics of every entry of one plane.
+     */
+    private class PlaneStats implements Callable<Accumulator> {
+
+        /** Idle buffers of the Pixels set; one is used for the plane. */
+        private final BlockingQueue<PixelBuffer> buffers;
+
+        private final Plane plane;
+
+        PlaneStats(BlockingQueue<PixelBuffer> buffers, Plane plane) {
+            this.buffers = buffers;
+            this.plane = plane;
+        }
+
+        public Accumulator call() throws IOException {
+            Accumulator acc = new Accumulator(plane.size);
+            int[] cursors = new int[plane.size];
+            int x0 = plane.minX;
+            int w = plane.maxX - x0;
+            int rows = (int) Math.max(1, Math.min(plane.maxY - plane.minY,
+                    maxValues / (long) w));
+            PixelBuffer buf;
+            try {
+                buf = buffers.take();
+            } catch (InterruptedException e) {
+                throw new ResourceError("Interrupted while measuring shapes.");
+            }
+            try {
+                for (int y = plane.minY; y < plane.maxY; y += rows) {
+                    int h = Math.min(rows, plane.maxY - y);
+                    ome.util.PixelData band = read(buf, x0, y, w, h);
+                    int yEnd = y + h;
+                    for (int e = 0; e < plane.size; e++) {
+                        Mask mask = plane.masks[e];
+                        long count = 0;
+                        double min = acc.min[e], max = acc.max[e];
+                        double sum = 0, sumOfSquares = 0;
+                        int r = cursors[e];
+                        for (; r < mask.count && mask.ys[r] < yEnd; r++) {
+                            int offset = (mask.ys[r] - y) * w - x0;
+                            int end = offset + mask.ends[r];
+                            for (int i = offset + mask.starts[r]; i < end; i++) {
+                                double value = band.getPixelValue(i);
+                                min = value < min ? value : min;
+                                max = value > max ? value : max;
+                                sum += value;
+                                sumOfSquares += value * value;
+                            }
+                            count += mask.ends[r] - mask.starts[r];
+                        }
+                        cursors[e] = r;
+                        acc.count[e] += count;
+                        acc.min[e] = min;
+                        acc.max[e] = max;
+                        acc.sum[e] += sum;
+                        acc.sumOfSquares[e] += sumOfSquares;
+                    }
+                }
+            } finally {
+                buffers.add(buf);
+            }
+            return acc;
+        }
+
+        private ome.util.PixelData read(PixelBuffer buf, int x, int y, int w,
+                int h) throws IOException {
+            try {
+                return buf.getTile(plane.z, plane.c, plane.t, x, y, w, h);
+            } catch (DimensionsOutOfBoundsException e) {
+                throw new ApiUsageException("DimensionsOutOfBounds: " + e);
+            }
+        }
+    }
+
+    /**
+     * Primitive statistics of a number of slots.
+     */
+    private static class Accumulator {
+
+        final long[] count;
+
+        final double[] min, max, sum, sumOfSquares;
+
+        Accumulator(int slots) {
+            count = new long[slots];
+            min = new double[slots];
+            max = new double[slots];
+            sum = new double[slots];
+            sumOfSquares = new double[slots];
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        }
+
+        void merge(int slot, Accumulator other, int otherSlot) {
+            count[slot] += other.count[otherSlot];
+            min[slot] = Math.min(min[slot], other.min[otherSlot]);
+            max[slot] = Math.max(max[slot], other.max[otherSlot]);
+            sum[slot] += other.sum[otherSlot];
+            sumOfSquares[slot] += other.sumOfSquares[otherSlot];
+        }
+
+        /**
+         * Adds the accumulated values to some statistics and computes their
+         * mean and sample standard deviation.
+         */
+        void store(ShapeStats stats) {
+            for (int w = 0; w < count.length; w++) {
+                stats.pointsCount[w] += count[w];
+                stats.min[w] = Math.min(min[w], stats.min[w]);
+                stats.max[w] = Math.max(max[w], stats.max[w]);
+                stats.sum[w] += sum[w];
+                stats.mean[w] = stats.sum[w] / stats.pointsCount[w];
+                if (stats.pointsCount[w] > 1) {
+                    double sigmaSquare = (sumOfSquares[w] - stats.sum[w]
+                            * stats.sum[w] / stats.pointsCount[w])
+                            / (stats.pointsCount[w] - 1);
+                    if (sigmaSquare > 0) {
+                        stats.stdDev[w] = Math.sqrt(sigmaSquare);
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,284 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.throttling;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Bounded pool of threads used by the {@link PooledThrottlingStrategy} for
+ * one kind of call. Calls are queued per session and the threads take the
+ * next call from each session in turn, so that a session queuing many
+ * calls does not delay the calls of the others. A session runs at most
+ * <code>sessionLimit</code> calls at once, so that its slow calls cannot
+ * take every thread of the pool; its further calls wait while the other
+ * sessions are served. At most <code>limit</code> calls are queued at once;
+ * {@link #offer(String, Runnable)} rejects the others.
+ *
+ * @since Beta4.3.2
+ */
+class FairQueue {
+
+    private final static Log log = LogFactory.getLog(FairQueue.class);
+
+    private final String name;
+
+    private final int limit;
+
+    private final int sessionLimit;
+
+    private final ThreadPoolExecutor pool;
+
+    /** Calls queued per session, for the sessions with queued calls. */
+    private final Map<String, LinkedList<Entry>> sessions = new HashMap<String, LinkedList<Entry>>();
+
+    /** Sessions with queued calls, in the order they are served. */
+    private final LinkedList<String> ready = new LinkedList<String>();
+
+    /** Calls running per session, for the sessions with running calls. */
+    private final Map<String, Integer> running = new HashMap<String, Integer>();
+
+    private int queued = 0;
+
+    /**
+     * Drains which found no call to run as every session with queued calls
+     * was at <code>sessionLimit</code>. One is resubmitted whenever a call
+     * completes, so that every queued call still gets its drain.
+     */
+    private int skipped = 0;
+
+    private final AtomicLong submitted = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    /** Sum of the time, in nanoseconds, calls spent queued. */
+    private final AtomicLong waitTime = new AtomicLong();
+
+    /** Longest time, in nanoseconds, a call spent queued. */
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+    /**
+     * Runs the next queued call. One is submitted to the pool per call
+     * queued, so that the call run is only chosen once a thread is free.
+     */
+    private final Runnable drain = new Runnable() {
+        public void run() {
+            Entry entry = next();
+            if (entry != null) {
+                try {
+                    entry.run();
+                } finally {
+                    finished(entry.session);
+                }
+            }
+        }
+    };
+
+    /**
+     * @param sessionLimit
+     *            Maximum number of calls of a session running at once; less
+     *            than one for no limit.
+     */
+    FairQueue(final String name, int threads, int limit, int sessionLimit) {
+        this.name = name;
+        this.limit = limit;
+        this.sessionLimit = sessionLimit < 1 ? Integer.MAX_VALUE
+                : sessionLimit;
+        final AtomicInteger count = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 60L,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "Throttling-" + name + "-"
+                                + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    /**
+     * Queues a call for the given session.
+     *
+     * @return <code>false</code> if the queue is full, in which case the call
+     *         will not be run.
+     */
+    boolean offer(String session, Runnable call) {
+        synchronized (this) {
+            if (queued >= limit) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            LinkedList<Entry> calls = sessions.get(session);
+            if (calls == null) {
+                calls = new LinkedList<Entry>();
+                sessions.put(session, calls);
+                ready.addLast(session);
+            }
+            calls.addLast(new Entry(session, call));
+            queued++;
+        }
+        submitted.incrementAndGet();
+        schedule();
+        return true;
+    }
+
+    private void schedule() {
+        try {
+            pool.execute(drain);
+        } catch (RejectedExecutionException ree) {
+            // Shut down: run the call here rather than dropping it.
+            drain.run();
+        }
+    }
+
+    /**
+     * Takes the next call of the first session in turn which is not at
+     * <code>sessionLimit</code>, or returns null if there is none.
+     */
+    private synchronized Entry next() {
+        Iterator<String> it = ready.iterator();
+        while (it.hasNext()) {
+            String session = it.next();
+            Integer count = running.get(session);
+            int now = count == null ? 0 : count;
+            if (now >= sessionLimit) {
+                continue;
+            }
+            it.remove();
+            LinkedList<Entry> calls = sessions.get(session);
+            Entry entry = calls.removeFirst();
+            if (calls.isEmpty()) {
+                sessions.remove(session);
+            } else {
+                ready.addLast(session);
+            }
+            running.put(session, now + 1);
+            queued--;
+            return entry;
+        }
+        if (queued > 0) {
+            skipped++;
+        }
+        return null;
+    }
+
+    /**
+     * Counts a call of the session as completed and, if a drain was skipped
+     * as the sessions were at their limit, submits it again.
+     */
+    private void finished(String session) {
+        boolean again = false;
+        synchronized (this) {
+            int now = running.get(session) - 1;
+            if (now == 0) {
+                running.remove(session);
+            } else {
+                running.put(session, now);
+            }
+            if (skipped > 0) {
+                skipped--;
+                again = true;
+            }
+        }
+        if (again) {
+            schedule();
+        }
+    }
+
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    synchronized int getQueued() {
+        return queued;
+    }
+
+    int getActive() {
+        return pool.getActiveCount();
+    }
+
+    long getRejected() {
+        return rejected.get();
+    }
+
+    long getCompleted() {
+        return completed.get();
+    }
+
+    /** Mean time, in milliseconds, the completed calls spent queued. */
+    double getMeanWait() {
+        long count = completed.get();
+        return count == 0 ? 0 : waitTime.get() / (count * 1e6);
+    }
+
+    /** Longest time, in milliseconds, a call spent queued. */
+    double getMaxWait() {
+        return maxWaitTime.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s: threads=%d sessionLimit=%s active=%d queued=%d "
+                        + "submitted=%d rejected=%d meanWaitMs=%.1f "
+                        + "maxWaitMs=%.1f", name, pool.getMaximumPoolSize(),
+                sessionLimit == Integer.MAX_VALUE ? "none" : sessionLimit,
+                getActive(), getQueued(),
+                submitted.get(), getRejected(), getMeanWait(), getMaxWait());
+    }
+
+    private class Entry {
+
+        private final String session;
+
+        private final Runnable call;
+
+        private final long queuedAt = System.nanoTime();
+
+        Entry(String session, Runnable call) {
+            this.session = session;
+            this.call = call;
+        }
+
+        void run() {
+            long wait = System.nanoTime() - queuedAt;
+            waitTime.addAndGet(wait);
+            long max = maxWaitTime.get();
+            while (wait > max && !maxWaitTime.compareAndSet(max, wait)) {
+                max = maxWaitTime.get();
+            }
+            try {
+                call.run();
+            } catch (RuntimeException e) {
+                log.error("Exception in " + name + " call", e);
+            } finally {
+                completed.incrementAndGet();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,323 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.throttling;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ome.api.ServiceInterface;
+import ome.api.StatefulServiceInterface;
+import ome.conditions.OverUsageException;
+import ome.security.basic.CurrentDetails;
+import ome.services.blitz.util.IceMethodInvoker;
+import omero.util.IceMapper;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import Ice.Current;
+
+/**
+ * Throttling implementation which runs calls on one of four bounded pools
+ * of threads, depending on whether the call reads or writes data
+ * ({@link Kind#IO}), is a long running import step such as "saveToDB" or
+ * "generateTiff" ({@link Kind#LONG}), mostly computes ({@link Kind#CPU}) or
+ * is a metadata call ({@link Kind#METADATA}), so that slow pixel reads,
+ * imports or renderings do not hold up cheap queries, nor imports the
+ * pixel and file stores. Within a pool, the calls of each session are
+ * served in turn, a session running at most a set number of calls at once
+ * (see {@link FairQueue}), and calls beyond the queue limit of the pool
+ * fail with an {@link OverUsageException} rather than waiting.
+ *
+ * Calls are classified by the simple name of their service interface and
+ * their operation: a rule "RawPixelsStore.getPlane" matches a single
+ * method, "RawPixelsStore.*" all the methods of a service and "saveToDB" an
+ * operation of any service, including the servants which are not backed by
+ * an {@link IceMethodInvoker}. The first matching rule wins; unmatched calls
+ * are {@link Kind#METADATA} calls.
+ *
+ * @since Beta4.3.2
+ */
+@ManagedResource(objectName = "omero:type=ThrottlingStrategy",
+        description = "Queues of the blitz method invocations")
+public class PooledThrottlingStrategy extends AbstractThrottlingStrategy {
+
+    /**
+     * Kinds of calls, each with its own pool.
+     */
+    public enum Kind {
+        IO, LONG, CPU, METADATA
+    }
+
+    private final CurrentDetails cd;
+
+    private final Map<Kind, FairQueue> queues = new EnumMap<Kind, FairQueue>(
+            Kind.class);
+
+    private final Map<String, Kind> rules = new LinkedHashMap<String, Kind>();
+
+    private final Map<String, Kind> classified =
+        new ConcurrentHashMap<String, Kind>();
+
+    private final Map<Class<?>, String> serviceNames =
+        new ConcurrentHashMap<Class<?>, String>();
+
+    /**
+     * @param cd
+     *            Holder of the Ice context of the running call.
+     * @param ioThreads
+     *            Threads of the {@link Kind#IO} pool.
+     * @param longThreads
+     *            Threads of the {@link Kind#LONG} pool.
+     * @param cpuThreads
+     *            Threads of the {@link Kind#CPU} pool.
+     * @param metadataThreads
+     *            Threads of the {@link Kind#METADATA} pool.
+     * @param queueLimit
+     *            Maximum number of calls queued in each pool.
+     * @param sessionThreads
+     *            Maximum number of calls of a session running at once in
+     *            each pool; less than one for no limit.
+     *
+     * Thread counts less than one use one thread per available processor.
+     */
+    public PooledThrottlingStrategy(CurrentDetails cd, int ioThreads,
+            int longThreads, int cpuThreads, int metadataThreads,
+            int queueLimit, int sessionThreads) {
+        this.cd = cd;
+        queues.put(Kind.IO, new FairQueue("io", threads(ioThreads),
+                queueLimit, sessionThreads));
+        queues.put(Kind.LONG, new FairQueue("long", threads(longThreads),
+                queueLimit, sessionThreads));
+        queues.put(Kind.CPU, new FairQueue("cpu", threads(cpuThreads),
+                queueLimit, sessionThreads));
+        queues.put(Kind.METADATA, new FairQueue("metadata",
+                threads(metadataThreads), queueLimit, sessionThreads));
+
+        rules.put("RawPixelsStore.*", Kind.IO);
+        rules.put("RawFileStore.*", Kind.IO);
+        rules.put("generateTiff", Kind.LONG);
+        rules.put("saveToDB", Kind.LONG);
+        rules.put("RenderingEngine.render*", Kind.CPU);
+        rules.put("ThumbnailStore.*", Kind.CPU);
+        rules.put("IProjection.*", Kind.CPU);
+    }
+
+    private static int threads(int threads) {
+        return threads < 1 ? Runtime.getRuntime().availableProcessors()
+                : threads;
+    }
+
+    /**
+     * Replaces the classification rules, mapping each rule to the name of a
+     * {@link Kind}.
+     */
+    public void setRules(Map<String, String> rules) {
+        synchronized (this.rules) {
+            this.rules.clear();
+            for (Map.Entry<String, String> rule : rules.entrySet()) {
+                this.rules.put(rule.getKey(),
+                        Kind.valueOf(rule.getValue().toUpperCase()));
+            }
+            classified.clear();
+        }
+    }
+
+    /**
+     * Stops the pools. Queued calls are still run.
+     */
+    public void shutdown() {
+        for (FairQueue queue : queues.values()) {
+            queue.shutdown();
+        }
+    }
+
+    @ManagedAttribute(description = "Threads, queue depth, rejected calls "
+            + "and queue wait of each pool")
+    public String[] getQueueStatistics() {
+        String[] stats = new String[queues.size()];
+        int i = 0;
+        for (FairQueue queue : queues.values()) {
+            stats[i++] = queue.toString();
+        }
+        return stats;
+    }
+
+    @ManagedAttribute(description = "Calls being executed by the pools")
+    public int getActiveCount() {
+        int active = 0;
+        for (FairQueue queue : queues.values()) {
+            active += queue.getActive();
+        }
+        return active;
+    }
+
+    @ManagedAttribute(description = "Calls waiting in the queues")
+    public int getQueuedCount() {
+        int queued = 0;
+        for (FairQueue queue : queues.values()) {
+            queued += queue.getQueued();
+        }
+        return queued;
+    }
+
+    @ManagedAttribute(description = "Calls rejected as the queues were full")
+    public long getRejectedCount() {
+        long rejected = 0;
+        for (FairQueue queue : queues.values()) {
+            rejected += queue.getRejected();
+        }
+        return rejected;
+    }
+
+    // Classification
+    // =========================================================================
+
+    /**
+     * Returns the kind of a call to <code>operation</code> of the service
+     * <code>service</code>, which may be null.
+     */
+    Kind classify(String service, String operation) {
+        String key = service == null ? operation : service + "."
+                + operation;
+        Kind kind = classified.get(key);
+        if (kind == null) {
+            kind = Kind.METADATA;
+            synchronized (rules) {
+                for (Map.Entry<String, Kind> rule : rules.entrySet()) {
+                    String pattern = rule.getKey();
+                    if (matches(pattern, key) || matches(pattern, operation)) {
+                        kind = rule.getValue();
+                        break;
+                    }
+                }
+            }
+            classified.put(key, kind);
+        }
+        return kind;
+    }
+
+    private static boolean matches(String pattern, String name) {
+        if (pattern.endsWith("*")) {
+            return name.startsWith(pattern.substring(0, pattern.length() - 1));
+        }
+        return pattern.equals(name);
+    }
+
+    private Kind kind(ServiceInterface service, Ice.Current current) {
+        String operation = current == null ? "" : current.operation;
+        String name = service == null ? null : serviceName(service.getClass());
+        return classify(name, operation);
+    }
+
+    /**
+     * Returns the simple name of the service interface implemented by a
+     * service or by its proxy.
+     */
+    private String serviceName(Class<?> k) {
+        String name = serviceNames.get(k);
+        if (name == null) {
+            name = k.getSimpleName();
+            for (Class<?> c = k; c != null; c = c.getSuperclass()) {
+                Class<?> api = api(c);
+                if (api != null) {
+                    name = api.getSimpleName();
+                    break;
+                }
+            }
+            serviceNames.put(k, name);
+        }
+        return name;
+    }
+
+    private static Class<?> api(Class<?> k) {
+        for (Class<?> iface : k.getInterfaces()) {
+            if (ServiceInterface.class.isAssignableFrom(iface)
+                    && !ServiceInterface.class.equals(iface)
+                    && !StatefulServiceInterface.class.equals(iface)) {
+                return iface;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The calls of a session are queued together. Servants are registered
+     * with the session uuid as category, but the context is checked first
+     * for the servants shared between sessions.
+     */
+    private static String session(Ice.Current current) {
+        if (current == null) {
+            return "";
+        }
+        String session = current.ctx == null ? null : current.ctx
+                .get("omero.session");
+        if (session == null && current.id != null) {
+            session = current.id.category;
+        }
+        return session == null ? "" : session;
+    }
+
+    // Execution
+    // =========================================================================
+
+    private void submit(Kind kind, final Ice.Current current, final Task task) {
+        FairQueue queue = queues.get(kind);
+        boolean queued = queue.offer(session(current), new Runnable() {
+            public void run() {
+                if (current != null) {
+                    cd.setContext(current.ctx);
+                }
+                try {
+                    task.run(ctx);
+                } finally {
+                    cd.setContext(null);
+                }
+            }
+        });
+        if (!queued) {
+            String msg = "Too many calls queued for " + queue.getName()
+                    + ": " + (current == null ? "" : current.operation);
+            log.warn(msg);
+            if (task.cb != null) {
+                task.exception(new OverUsageException(msg), ctx);
+            }
+        }
+    }
+
+    public void callInvokerOnRawArgs(ServiceInterface service,
+            IceMethodInvoker invoker, Object __cb, Ice.Current __current,
+            Object... args) {
+        IceMapper mapper = new IceMapper();
+        Callback cb = new Callback(service, invoker, mapper, __cb, __current,
+                args);
+        submit(kind(service, __current), __current, cb);
+    }
+
+    public void callInvokerWithMappedArgs(ServiceInterface service,
+            IceMethodInvoker invoker, IceMapper mapper, Object __cb,
+            Current __current, Object... args) {
+        Callback cb = new Callback(service, invoker, mapper, __cb, __current,
+                args);
+        submit(kind(service, __current), __current, cb);
+    }
+
+    public <R> void safeRunnableCall(Current __current, Object __cb,
+            boolean isVoid, Callable<R> callable) {
+        Callback2<R> cb = new Callback2<R>(__current, __cb, isVoid, callable);
+        submit(kind(null, __current), __current, cb);
+    }
+
+    public void runnableCall(Current __current, Task runnable) {
+        submit(kind(null, __current), __current, runnable);
+    }
+
+}
@@ -584,6 +584,31 @@ public class IceMapper extends ome.util.ModelMapper implements
         return pd;
     }
 
+    /**
+     * Converts the passed Ice Objects and returns the converted objects.
+     * 
+     * @param defs The objects to convert
+     * @return See above.
+     * @throws omero.ApiUsageException Thrown if a region is null.
+     */
+    public static RegionDef[] convert(omero.romio.RegionDef[] defs)
+            throws omero.ApiUsageException {
+        if (defs == null) {
+            return null;
+        }
+        RegionDef[] rds = new RegionDef[defs.length];
+        for (int i = 0; i < defs.length; i++) {
+            omero.romio.RegionDef r = defs[i];
+            if (r == null) {
+                omero.ApiUsageException aue = new omero.ApiUsageException();
+                aue.message = "Null region at index " + i;
+                throw aue;
+            }
+            rds[i] = new RegionDef(r.x, r.y, r.width, r.height);
+        }
+        return rds;
+    }
+
     public static Principal convert(omero.sys.Principal old) {
         if (old == null) {
             return null;
@@ -1014,6 +1039,11 @@ public class IceMapper extends ome.util.ModelMapper implements
                 || p.equals(String.class)) {
             return true;
         }
+        // Histograms and other arrays of arrays, mapped to sequences of
+        // sequences.
+        if (p.equals(int[][].class) || p.equals(byte[][].class)) {
+            return true;
+        }
         return false;
     }
 
@@ -1078,6 +1108,8 @@ public class IceMapper extends ome.util.ModelMapper implements
             return reverse((Map) arg);
         } else if (PlaneDef.class.isAssignableFrom(p)) {
             return convert((omero.romio.PlaneDef) arg);
+        } else if (RegionDef[].class.isAssignableFrom(p)) {
+            return convert((omero.romio.RegionDef[]) arg);
         } else if (Object[].class.isAssignableFrom(p)) {
             return reverseArray((List) arg, p);
         } else {
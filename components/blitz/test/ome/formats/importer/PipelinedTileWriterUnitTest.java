@@ -0,0 +1,159 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.formats.importer;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.formats.OMEROMetadataStoreClient;
+import omero.ServerError;
+import omero.api.AMI_RawPixelsStore_setTile;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Writes tiles through a {@link PipelinedTileWriter} to a store which
+ * completes each upload from another thread, checking that a single upload
+ * is outstanding at any one time and that the tiles arrive swapped and in
+ * order.
+ *
+ * @since Beta4.3.2
+ */
+public class PipelinedTileWriterUnitTest {
+
+    ExecutorService ice;
+
+    RecordingStore store;
+
+    @BeforeMethod
+    public void setup() {
+        ice = Executors.newCachedThreadPool();
+        store = new RecordingStore();
+    }
+
+    @AfterMethod
+    public void teardown() {
+        ice.shutdownNow();
+    }
+
+    @Test
+    public void testTilesWrittenInOrderOneAtATime() throws Exception {
+        int count = 50;
+        MessageDigest md = MessageDigest.getInstance("SHA-1");
+        MessageDigest expected = MessageDigest.getInstance("SHA-1");
+        PipelinedTileWriter writer = new PipelinedTileWriter(store, 1L, md,
+                true, 2, 64, 4);
+        for (int i = 0; i < count; i++) {
+            writer.write(new byte[] { (byte) i, 0, 1, 2 }, 0, 0, 0, i, 0, 2,
+                    1);
+            expected.update(new byte[] { 0, (byte) i, 2, 1 });
+        }
+        writer.finish();
+
+        assertEquals(store.tiles.size(), count);
+        for (int i = 0; i < count; i++) {
+            assertEquals(store.xs.get(i).intValue(), i);
+            assertTrue(Arrays.equals(store.tiles.get(i), new byte[] { 0,
+                    (byte) i, 2, 1 }));
+        }
+        assertEquals(store.maxOutstanding.get(), 1);
+        assertTrue(Arrays.equals(md.digest(), expected.digest()));
+    }
+
+    @Test
+    public void testBigEndianTilesNotSwapped() throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-1");
+        PipelinedTileWriter writer = new PipelinedTileWriter(store, 1L, md,
+                false, 2, 64, 4);
+        writer.write(new byte[] { 1, 2, 3, 4 }, 0, 0, 0, 0, 0, 2, 1);
+        writer.finish();
+        assertTrue(Arrays.equals(store.tiles.get(0), new byte[] { 1, 2, 3,
+                4 }));
+    }
+
+    @Test
+    public void testFailedUploadReported() throws Exception {
+        store.failAt = 3;
+        MessageDigest md = MessageDigest.getInstance("SHA-1");
+        PipelinedTileWriter writer = new PipelinedTileWriter(store, 1L, md,
+                false, 1, 8, 2);
+        try {
+            for (int i = 0; i < 50; i++) {
+                writer.write(new byte[4], 0, 0, 0, i, 0, 4, 1);
+            }
+            writer.finish();
+            fail("Expected the failed upload to be reported");
+        } catch (ServerError e) {
+            writer.abort();
+        }
+        assertEquals(store.tiles.size(), 3);
+        assertEquals(store.maxOutstanding.get(), 1);
+    }
+
+    /**
+     * Completes each upload from another thread after a short delay.
+     */
+    class RecordingStore extends OMEROMetadataStoreClient {
+
+        final List<byte[]> tiles = new ArrayList<byte[]>();
+
+        final List<Integer> xs = new ArrayList<Integer>();
+
+        final AtomicInteger outstanding = new AtomicInteger();
+
+        final AtomicInteger maxOutstanding = new AtomicInteger();
+
+        volatile int failAt = -1;
+
+        @Override
+        public void setTileAsync(Long pixId, final byte[] arrayBuf, int z,
+                int c, int t, final int x, int y, int w, int h,
+                final AMI_RawPixelsStore_setTile callback) throws ServerError {
+            int now = outstanding.incrementAndGet();
+            synchronized (maxOutstanding) {
+                if (now > maxOutstanding.get()) {
+                    maxOutstanding.set(now);
+                }
+            }
+            ice.execute(new Runnable() {
+                public void run() {
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    boolean failed;
+                    synchronized (tiles) {
+                        failed = tiles.size() == failAt;
+                        if (!failed) {
+                            tiles.add(arrayBuf.clone());
+                            xs.add(x);
+                        }
+                    }
+                    outstanding.decrementAndGet();
+                    if (failed) {
+                        callback.ice_exception(new ServerError());
+                    } else {
+                        callback.ice_response();
+                    }
+                }
+            });
+        }
+    }
+
+}
@@ -825,6 +825,20 @@ public class IceMethodInvokerUnitTest extends MockObjectTestCase {
 
     }
 
+    @Test
+    public void testRenderingEngineHistogramIsPassedThrough() throws Exception {
+
+        omero.romio.PlaneDef def = new omero.romio.PlaneDef();
+        def.slice = XY.value;
+
+        int[][] histograms = new int[][] { { 1, 2 }, { 3, 4 } };
+        init(RenderingEngine.class, "getHistogram");
+        method().will(returnValue(histograms));
+        Object rv = invoke(new int[] { 0, 1 }, 2, true, def);
+        assertTrue(rv == histograms);
+
+    }
+
     // ThumbnailStore
 
     @Test
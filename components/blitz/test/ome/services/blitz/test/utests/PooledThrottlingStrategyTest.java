@@ -0,0 +1,219 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.blitz.test.utests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import ome.security.basic.CurrentDetails;
+import ome.services.throttling.PooledThrottlingStrategy;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the queuing of calls by the {@link PooledThrottlingStrategy}.
+ *
+ * @since Beta4.3.2
+ */
+public class PooledThrottlingStrategyTest extends TestCase {
+
+    PooledThrottlingStrategy strategy;
+
+    /** Blocks the calls of the metadata pool until released. */
+    CountDownLatch gate;
+
+    /** Operations started, in order. */
+    List<String> started;
+
+    /** Operations run, in order. */
+    List<String> run;
+
+    @BeforeMethod
+    public void setUp() {
+        strategy = new PooledThrottlingStrategy(new CurrentDetails(), 1, 1,
+                1, 1, 4, 0);
+        gate = new CountDownLatch(1);
+        started = Collections.synchronizedList(new ArrayList<String>());
+        run = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        gate.countDown();
+        strategy.shutdown();
+    }
+
+    private Ice.Current current(String session, String operation) {
+        Ice.Current current = new Ice.Current();
+        current.ctx = new HashMap<String, String>();
+        current.ctx.put("omero.session", session);
+        current.operation = operation;
+        return current;
+    }
+
+    private Cb call(final String session, final String operation) {
+        final CountDownLatch gate = this.gate;
+        final List<String> started = this.started;
+        final List<String> run = this.run;
+        Cb cb = new Cb();
+        strategy.safeRunnableCall(current(session, operation), cb, true,
+                new Callable<Object>() {
+                    public Object call() throws Exception {
+                        started.add(session + ":" + operation);
+                        gate.await();
+                        run.add(session + ":" + operation);
+                        return null;
+                    }
+                });
+        return cb;
+    }
+
+    @Test
+    public void testSessionsAreServedInTurn() throws Exception {
+        Cb first = call("a", "op0");
+        Thread.sleep(100); // Let the first call take the only thread
+        call("a", "op1");
+        call("a", "op2");
+        Cb last = call("b", "op3");
+        gate.countDown();
+        assertTrue(first.done.await(5, TimeUnit.SECONDS));
+        assertTrue(last.done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(4, run.size());
+        assertEquals("a:op0", run.get(0));
+        assertEquals("a:op1", run.get(1));
+        assertEquals("b:op3", run.get(2));
+        assertEquals("a:op2", run.get(3));
+    }
+
+    @Test
+    public void testFullQueueRejects() throws Exception {
+        List<Cb> cbs = new ArrayList<Cb>();
+        for (int i = 0; i < 6; i++) {
+            cbs.add(call("a", "op" + i));
+            Thread.sleep(20); // Let the first call take the thread
+        }
+        assertEquals(1, strategy.getRejectedCount());
+        Cb rejected = cbs.get(5);
+        assertTrue(rejected.done.await(5, TimeUnit.SECONDS));
+        assertNotNull(rejected.exception);
+        gate.countDown();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(cbs.get(i).done.await(5, TimeUnit.SECONDS));
+            assertNull(cbs.get(i).exception);
+        }
+    }
+
+    @Test
+    public void testPoolsAreSeparate() throws Exception {
+        Map<String, String> rules = new HashMap<String, String>();
+        rules.put("getPlane", "io");
+        strategy.setRules(rules);
+        call("a", "metadata"); // Blocked
+        Cb io = new Cb();
+        strategy.safeRunnableCall(current("a", "getPlane"), io, true,
+                new Callable<Object>() {
+                    public Object call() throws Exception {
+                        return null;
+                    }
+                });
+        assertTrue(io.done.await(5, TimeUnit.SECONDS));
+        assertTrue(run.isEmpty());
+    }
+
+    @Test
+    public void testSessionLimit() throws Exception {
+        strategy.shutdown();
+        strategy = new PooledThrottlingStrategy(new CurrentDetails(), 1, 1,
+                1, 2, 10, 1);
+        Cb first = call("a", "op0");
+        Thread.sleep(50);
+        Cb second = call("a", "op1");
+        Thread.sleep(50);
+        Cb other = call("b", "op2");
+        Thread.sleep(100);
+        // The second thread is left to session b
+        assertEquals(2, started.size());
+        assertEquals("a:op0", started.get(0));
+        assertEquals("b:op2", started.get(1));
+        gate.countDown();
+        assertTrue(first.done.await(5, TimeUnit.SECONDS));
+        assertTrue(second.done.await(5, TimeUnit.SECONDS));
+        assertTrue(other.done.await(5, TimeUnit.SECONDS));
+        assertEquals(3, run.size());
+    }
+
+    @Test
+    public void testSessionLimitWithManyQueuedCalls() throws Exception {
+        strategy.shutdown();
+        strategy = new PooledThrottlingStrategy(new CurrentDetails(), 1, 1,
+                1, 4, 100, 1);
+        gate.countDown();
+        List<Cb> cbs = new ArrayList<Cb>();
+        for (int i = 0; i < 50; i++) {
+            cbs.add(call("a", "op" + i));
+        }
+        for (Cb cb : cbs) {
+            assertTrue(cb.done.await(5, TimeUnit.SECONDS));
+        }
+        assertEquals(50, run.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals("a:op" + i, run.get(i));
+        }
+    }
+
+    @Test
+    public void testLongCallsDoNotHoldUpIo() throws Exception {
+        Map<String, String> rules = new HashMap<String, String>();
+        rules.put("getPlane", "io");
+        rules.put("saveToDB", "long");
+        strategy.setRules(rules);
+        call("a", "saveToDB"); // Blocked
+        Cb io = new Cb();
+        strategy.safeRunnableCall(current("a", "getPlane"), io, true,
+                new Callable<Object>() {
+                    public Object call() throws Exception {
+                        return null;
+                    }
+                });
+        assertTrue(io.done.await(5, TimeUnit.SECONDS));
+        assertTrue(run.isEmpty());
+    }
+
+    /** Callback found by the Task as AMD_ interface. */
+    public interface AMD_Test {
+        void ice_response();
+
+        void ice_exception(Exception e);
+    }
+
+    public static class Cb implements AMD_Test {
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        volatile Exception exception;
+
+        public void ice_response() {
+            done.countDown();
+        }
+
+        public void ice_exception(Exception e) {
+            exception = e;
+            done.countDown();
+        }
+    }
+
+}
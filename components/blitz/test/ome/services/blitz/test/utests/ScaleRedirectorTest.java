@@ -0,0 +1,242 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.blitz.test.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import ome.services.blitz.redirect.Redirector;
+import ome.services.blitz.redirect.ScaleRedirector;
+import ome.system.Principal;
+import omero.grid.NodeLoad;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the choice of the node new sessions are created on.
+ *
+ * @since Beta4.3.2
+ */
+public class ScaleRedirectorTest {
+
+    TestRedirector redirector;
+
+    Map<String, NodeLoad> loads;
+
+    Map<String, Integer> scales;
+
+    @BeforeMethod
+    public void setup() {
+        redirector = new TestRedirector();
+        loads = new HashMap<String, NodeLoad>();
+        scales = new HashMap<String, Integer>();
+    }
+
+    @AfterMethod
+    public void teardown() {
+        redirector.stop();
+    }
+
+    @Test
+    public void testLeastLoaded() {
+        add(load("a", 10, 0));
+        add(load("b", 2, 0));
+        add(load("c", 4, 0));
+        assertEquals(choose(load("local", 10, 0)), "b");
+    }
+
+    @Test
+    public void testCallsWeighted() {
+        add(load("a", 2, 3));
+        add(load("b", 6, 0));
+        assertEquals(choose(load("local", 20, 0)), "b");
+    }
+
+    @Test
+    public void testStaysLocalWhenLeastLoaded() {
+        add(load("a", 10, 0));
+        assertNull(choose(load("local", 5, 0)));
+    }
+
+    @Test
+    public void testHysteresis() {
+        add(load("a", 8, 0));
+        assertNull(choose(load("local", 10, 0)));
+        add(load("a", 7, 0));
+        assertEquals(choose(load("local", 10, 0)), "a");
+    }
+
+    @Test
+    public void testIdleCluster() {
+        add(load("a", 0, 0));
+        assertNull(choose(load("local", 0, 0)));
+    }
+
+    @Test
+    public void testScale() {
+        add(load("a", 12, 0));
+        add(load("b", 5, 0));
+        scales.put("a", 4);
+        assertEquals(choose(load("local", 10, 0)), "a");
+    }
+
+    @Test
+    public void testDrainingNodesSkipped() {
+        NodeLoad a = load("a", 0, 0);
+        a.draining = true;
+        add(a);
+        add(load("b", 9, 0));
+        assertNull(choose(load("local", 10, 0)));
+    }
+
+    @Test
+    public void testFullHeapSkipped() {
+        NodeLoad a = load("a", 0, 0);
+        a.heapUsed = 95;
+        add(a);
+        assertNull(choose(load("local", 10, 0)));
+    }
+
+    @Test
+    public void testDrainingLocalRedirects() {
+        add(load("a", 30, 0));
+        NodeLoad local = load("local", 0, 0);
+        local.draining = true;
+        assertEquals(choose(local), "a");
+    }
+
+    @Test
+    public void testDrainingLocalWithoutHealthyNode() {
+        NodeLoad a = load("a", 0, 0);
+        a.draining = true;
+        add(a);
+        NodeLoad local = load("local", 0, 0);
+        local.draining = true;
+        assertNull(choose(local));
+    }
+
+    @Test
+    public void testRedirectsCountedUntilRefresh() throws Exception {
+        add(load("a", 0, 0));
+        Ctx ctx = new Ctx(load("local", 10, 0));
+        // Stays local until the background refresh has run once
+        long end = System.currentTimeMillis() + 5000;
+        String uuid = null;
+        while (uuid == null && System.currentTimeMillis() < end) {
+            uuid = redirector.choose(ctx);
+            Thread.sleep(10);
+        }
+        assertEquals(uuid, "a");
+        int redirects = 1;
+        while (redirector.choose(ctx) != null) {
+            redirects++;
+            assertTrue(redirects < 100);
+        }
+        // "a" scores its redirects until it is no longer below 7.5
+        assertEquals(redirects, 8);
+        redirector.refreshNow(ctx);
+        assertEquals(redirector.choose(ctx), "a");
+    }
+
+    @Test
+    public void testRingShutdownForgetsNode() throws Exception {
+        add(load("a", 0, 0));
+        Ctx ctx = new Ctx(load("local", 10, 0));
+        redirector.refreshNow(ctx);
+        redirector.handleRingShutdown(ctx, "a");
+        assertNull(redirector.choose(ctx));
+    }
+
+    private String choose(NodeLoad local) {
+        return redirector.chooseNode(local, loads, scales);
+    }
+
+    private void add(NodeLoad load) {
+        loads.put(load.uuid, load);
+    }
+
+    private NodeLoad load(String uuid, int sessions, int calls) {
+        NodeLoad load = new NodeLoad();
+        load.uuid = uuid;
+        load.sessions = sessions;
+        load.activeCalls = calls;
+        load.heapUsed = 50;
+        load.heapMax = 100;
+        return load;
+    }
+
+    /**
+     * Reads the node scales from the test rather than the database.
+     */
+    class TestRedirector extends ScaleRedirector {
+
+        TestRedirector() {
+            super(null, 10000, 0.25, 4.0, 0.9);
+        }
+
+        String choose(Context ctx) {
+            return chooseNode(ctx);
+        }
+
+        void refreshNow(Context ctx) {
+            refresh(ctx);
+        }
+
+        @Override
+        protected Map<String, Integer> getScales(Context ctx) {
+            return new HashMap<String, Integer>(scales);
+        }
+    }
+
+    /**
+     * Publishes the loads of the test.
+     */
+    class Ctx implements Redirector.Context {
+
+        final NodeLoad local;
+
+        Ctx(NodeLoad local) {
+            this.local = local;
+        }
+
+        public String uuid() {
+            return local.uuid;
+        }
+
+        public String getDirectProxy() {
+            return null;
+        }
+
+        public Principal principal() {
+            return null;
+        }
+
+        public Ice.Communicator getCommunicator() {
+            return null;
+        }
+
+        public Set<String> getManagerList(boolean activeOnly) {
+            return null;
+        }
+
+        public NodeLoad getLoad() {
+            return local;
+        }
+
+        public Map<String, NodeLoad> getClusterLoad() {
+            return new HashMap<String, NodeLoad>(loads);
+        }
+    }
+
+}
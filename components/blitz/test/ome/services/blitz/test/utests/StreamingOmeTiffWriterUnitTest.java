@@ -0,0 +1,154 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.blitz.test.utests;
+
+import static org.testng.AssertJUnit.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import loci.formats.FormatTools;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.IFDList;
+import loci.formats.tiff.TiffParser;
+import ome.services.formats.StreamingOmeTiffWriter;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the precomputed layout of streamed OME-TIFF files and reading
+ * them while they are being written.
+ *
+ * @since Beta4.3.2
+ */
+@Test(groups = "unit")
+public class StreamingOmeTiffWriterUnitTest {
+
+    private static final byte[] XML = "<OME/>".getBytes();
+
+    private File file;
+
+    private StreamingOmeTiffWriter writer;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        file = File.createTempFile("streaming", ".ome.tiff");
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        if (writer != null) {
+            writer.close();
+        }
+        file.delete();
+    }
+
+    private byte[] plane(int size, int seed) {
+        byte[] plane = new byte[size];
+        for (int i = 0; i < size; i++) {
+            plane[i] = (byte) (seed * 31 + i);
+        }
+        return plane;
+    }
+
+    private void assertReadable(int sizeX, int sizeY, int planes,
+            int pixelType) throws Exception {
+        int size = sizeX * sizeY * FormatTools.getBytesPerPixel(pixelType);
+        writer = new StreamingOmeTiffWriter(file, XML, sizeX, sizeY, planes,
+                pixelType, false);
+        for (int i = 0; i < planes; i++) {
+            writer.writePlane(plane(size, i));
+        }
+        assertEquals(writer.getLength(), file.length());
+
+        TiffParser parser = new TiffParser(file.getAbsolutePath());
+        try {
+            assertEquals("<OME/>", parser.getComment());
+            IFDList ifds = parser.getIFDs();
+            assertEquals(planes, ifds.size());
+            for (int i = 0; i < planes; i++) {
+                IFD ifd = ifds.get(i);
+                assertEquals(sizeX, ifd.getImageWidth());
+                assertEquals(sizeY, ifd.getImageLength());
+                assertEquals(pixelType, ifd.getPixelType());
+                byte[] read = parser.getSamples(ifd, new byte[size]);
+                assertTrue(Arrays.equals(plane(size, i), read));
+            }
+        } finally {
+            parser.getStream().close();
+        }
+    }
+
+    @Test
+    public void testOddPlanesArePadded() throws Exception {
+        assertReadable(5, 3, 3, FormatTools.UINT8);
+    }
+
+    @Test
+    public void testPixelTypes() throws Exception {
+        assertReadable(4, 2, 2, FormatTools.INT16);
+        tearDown();
+        setUp();
+        assertReadable(3, 3, 1, FormatTools.FLOAT);
+    }
+
+    @Test
+    public void testReadsWaitForThePlanes() throws Exception {
+        final int size = 16 * 16 * 2;
+        writer = new StreamingOmeTiffWriter(file, XML, 16, 16, 2,
+                FormatTools.UINT16, false);
+        ExecutorService threads = Executors.newSingleThreadExecutor();
+        try {
+            final long end = writer.getLength();
+            Future<byte[]> tail = threads.submit(new Callable<byte[]>() {
+                public byte[] call() throws Exception {
+                    return writer.read(end - size, size * 2);
+                }
+            });
+            writer.writePlane(plane(size, 0));
+            assertEquals('M', writer.read(0, 1)[0]);
+            Thread.sleep(50);
+            assertFalse(tail.isDone());
+            writer.writePlane(plane(size, 1));
+            byte[] read = tail.get(5, TimeUnit.SECONDS);
+            assertTrue(Arrays.equals(plane(size, 1), read));
+            assertEquals(0, writer.read(end, 10).length);
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailureWakesUpReads() throws Exception {
+        writer = new StreamingOmeTiffWriter(file, XML, 8, 8, 1,
+                FormatTools.UINT8, false);
+        ExecutorService threads = Executors.newSingleThreadExecutor();
+        try {
+            Future<byte[]> read = threads.submit(new Callable<byte[]>() {
+                public byte[] call() throws Exception {
+                    return writer.read(0, 10);
+                }
+            });
+            writer.fail(new RuntimeException("failed"));
+            try {
+                read.get(5, TimeUnit.SECONDS);
+                fail("Should have thrown");
+            } catch (java.util.concurrent.ExecutionException e) {
+                assertTrue(e.getCause() instanceof java.io.IOException);
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+}
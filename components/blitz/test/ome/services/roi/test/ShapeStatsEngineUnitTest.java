@@ -0,0 +1,64 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.roi.test;
+
+import junit.framework.TestCase;
+import ome.services.roi.GeomTool;
+import ome.services.roi.ShapeStatsEngine.Mask;
+import omero.model.SmartShape;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the rasterization of shapes into masks of row runs.
+ *
+ * @since Beta4.3.2
+ */
+@Test(groups = { "rois" })
+public class ShapeStatsEngineUnitTest extends TestCase {
+
+    GeomTool geomTool = new GeomTool(null, null, null);
+
+    @Test
+    public void testRectangleIsOneRunPerRow() throws Exception {
+        SmartShape rect = (SmartShape) geomTool.rect(2, 3, 10, 5);
+        Mask mask = Mask.rasterize(rect, 100, 100);
+        assertEquals(50, mask.getPointCount());
+        assertEquals(5, mask.getRunCount());
+    }
+
+    @Test
+    public void testPointsOutsideOfThePlaneAreDropped() throws Exception {
+        SmartShape rect = (SmartShape) geomTool.rect(95, 0, 10, 10);
+        Mask mask = Mask.rasterize(rect, 100, 5);
+        assertEquals(25, mask.getPointCount());
+        assertEquals(5, mask.getRunCount());
+    }
+
+    @Test
+    public void testRepeatedPointsAreKept() throws Exception {
+        SmartShape twice = new SmartShape() {
+            public void areaPoints(PointCallback cb) {
+                cb.handle(1, 1);
+                cb.handle(2, 1);
+                cb.handle(1, 1);
+            }
+            public java.awt.Shape asAwtShape() {
+                return null;
+            }
+            public java.util.List<omero.model.Point> asPoints() {
+                return null;
+            }
+            public void randomize(java.util.Random random) {
+            }
+        };
+        Mask mask = Mask.rasterize(twice, 10, 10);
+        assertEquals(3, mask.getPointCount());
+    }
+
+}
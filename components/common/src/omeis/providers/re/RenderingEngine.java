@@ -22,6 +22,7 @@ import ome.model.enums.Family;
 import ome.model.enums.RenderingModel;
 import omeis.providers.re.codomain.CodomainMapContext;
 import omeis.providers.re.data.PlaneDef;
+import omeis.providers.re.data.RegionDef;
 
 /**
  * Defines a service to render a given pixels set.
@@ -129,6 +130,53 @@ public interface RenderingEngine extends StatefulServiceInterface {
      * @see renderAsPackedInt()
      */
     public byte[] renderCompressed(PlaneDef pd);
+
+    /**
+     * Renders several regions of an <i>XY</i>-plane, typically the tiles of a
+     * viewport, at a resolution level in a single call. The pixels of all
+     * the regions are read before any of them is rendered and the regions
+     * are then rendered in parallel. The resolution level becomes the
+     * current one, as if {@link #setResolutionLevel(int)} had been called.
+     * 
+     * @param pd
+     *            Selects an <i>XY</i>-plane; its region, if any, is ignored.
+     * @param regions
+     *            The regions to render, with respect to the resolution level.
+     *            Regions going beyond the plane are clipped.
+     * @param resolutionLevel
+     *            The resolution level to render the regions at.
+     * @return The <i>RGB</i> images, one per region and in the same order,
+     *         ready to be displayed on screen.
+     * @throws ValidationException
+     *             If <code>pd</code> or <code>regions</code> is
+     *             <code>null</code> or <code>pd</code> is not an
+     *             <i>XY</i>-plane.
+     * @see renderAsPackedInt()
+     */
+    public int[][] renderRegionsAsPackedInt(PlaneDef pd, RegionDef[] regions,
+            int resolutionLevel);
+
+    /**
+     * Renders several regions of an <i>XY</i>-plane at a resolution level in
+     * a single call, as {@link #renderRegionsAsPackedInt}, and compresses
+     * each of the resulting images.
+     * 
+     * @param pd
+     *            Selects an <i>XY</i>-plane; its region, if any, is ignored.
+     * @param regions
+     *            The regions to render, with respect to the resolution level.
+     *            Regions going beyond the plane are clipped.
+     * @param resolutionLevel
+     *            The resolution level to render the regions at.
+     * @return The compressed JPEGs, one per region and in the same order.
+     * @throws ValidationException
+     *             If <code>pd</code> or <code>regions</code> is
+     *             <code>null</code> or <code>pd</code> is not an
+     *             <i>XY</i>-plane.
+     * @see renderCompressed()
+     */
+    public byte[][] renderRegionsCompressed(PlaneDef pd, RegionDef[] regions,
+            int resolutionLevel);
     
     
     /**
@@ -577,5 +625,22 @@ public interface RenderingEngine extends StatefulServiceInterface {
 
     public int[] getTileSize();
 
+    /**
+     * Returns the histograms of channels over a plane or a region of a
+     * plane, each pixel being counted in one of <code>binCount</code> bins
+     * of equal width spanning the range of the channel.
+     *
+     * @param channels The channel indexes.
+     * @param binCount The number of bins.
+     * @param globalRange Pass <code>true</code> to span the global minimum
+     * and maximum of the channel, <code>false</code> to span the range of
+     * the pixels type. Channels without statistics span the range of the
+     * pixels type.
+     * @param plane The XY plane, restricted to its region if one is set.
+     * @return The counts of each bin, one array per channel.
+     */
+    public int[][] getHistogram(int[] channels, int binCount,
+            boolean globalRange, PlaneDef plane);
+
 }
 
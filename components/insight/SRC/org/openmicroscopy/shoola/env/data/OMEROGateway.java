@@ -33,21 +33,31 @@ import java.nio.ByteBuffer;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.ResourceBundle;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 //Third-party libraries
 import loci.formats.FormatException;
 
 //Application-internal dependencies
+import org.openmicroscopy.shoola.env.data.events.DSCallAdapter;
+import org.openmicroscopy.shoola.env.data.events.DSCallFeedbackEvent;
 import org.openmicroscopy.shoola.env.data.login.UserCredentials;
 import org.openmicroscopy.shoola.env.data.model.AdminObject;
 import org.openmicroscopy.shoola.env.data.model.EnumerationObject;
@@ -293,6 +303,15 @@ class OMEROGateway
 	 */
 	static final int						MAX_RETRIEVAL = 50;//100;
 
+	/** The maximum number of files uploaded or downloaded at once. */
+	private static final int				MAX_TRANSFERS = 2;
+
+	/** 
+	 * The maximum number of thumbnail services open at once, each being a 
+	 * stateful service on the server.
+	 */
+	private static final int				MAX_THUMB_SERVICES = 4;
+
 	/** Maximum number of rows to retrieve at one time from a table. */
 	private static final int				MAX_TABLE_ROW_RETRIEVAL = 100000;
 
@@ -375,14 +394,23 @@ class OMEROGateway
 	 */
 	private ServiceFactoryPrx 						entryUnencrypted;
 
-	/** The thumbnail service. */
-	private ThumbnailStorePrx						thumbnailService;
+	/** 
+	 * The idle thumbnail services. A thumbnail service is used by one call
+	 * at a time, so that the thumbnails are retrieved concurrently.
+	 */
+	private LinkedList<ThumbnailStorePrx>			thumbnailServices;
 
-	/** The raw file store. */
-	private RawFileStorePrx							fileStore;
-	
-	/** The raw pixels store. */
-	private RawPixelsStorePrx						pixelsStore;
+	/** 
+	 * The number of thumbnail services open, idle or in use. Guarded by
+	 * {@link #thumbnailServices}.
+	 */
+	private int										thumbServicesOpen;
+
+	/** 
+	 * Runs the uploads and downloads so that the number of large transfers
+	 * is bounded and they do not hold the other calls.
+	 */
+	private ExecutorService							transfers;
 
 	/** The projection service. */
 	private IProjectionPrx							projService;
@@ -427,7 +455,7 @@ class OMEROGateway
 	private SharedResourcesPrx						sharedResources;
 	
 	/** Tells whether we're currently connected and logged into <i>OMERO</i>. */
-	private boolean                 				connected;
+	private volatile boolean        				connected;
 
 	/** 
 	 * Used whenever a broken link is detected to get the Login Service and
@@ -474,8 +502,11 @@ class OMEROGateway
 	/** Keep track of the file system view. */
 	private Map<Long, FSFileSystemView>				fsViews;
 	
-	/** Checks if the session is still alive. */
-	synchronized void isSessionAlive()
+	/** 
+	 * Checks if the session is still alive. The check itself is not
+	 * serialized so that it does not hold the concurrent calls.
+	 */
+	void isSessionAlive()
 	{
 		if (!connected) return;
 		try {
@@ -486,7 +517,10 @@ class OMEROGateway
 			if (cause instanceof ConnectionLostException ||
 				e instanceof ConnectionLostException)
 				index = DataServicesFactory.LOST_CONNECTION;
-			connected = false;
+			synchronized (this) {
+				if (!connected) return;
+				connected = false;
+			}
 			dsFactory.sessionExpiredExit(index);
 		}
 	}
@@ -1620,41 +1654,143 @@ class OMEROGateway
 	}
 	
 	/**
-	 * Returns the {@link ThumbnailStorePrx} service.
+	 * Returns an idle {@link ThumbnailStorePrx} service or a new one if they
+	 * are all in use, waiting for one to be handed back if 
+	 * {@link #MAX_THUMB_SERVICES} are already open. The service must be 
+	 * handed back using {@link #returnThumbService(ThumbnailStorePrx)} or, 
+	 * if it failed, {@link #discardThumbService(ThumbnailStorePrx)}.
 	 *   
 	 * @return See above.
 	 * @throws DSOutOfServiceException If the connection is broken, or logged in
 	 * @throws DSAccessException If an error occurred while trying to 
 	 * retrieve data from OMERO service. 
 	 */
-	private ThumbnailStorePrx getThumbService()
+	private ThumbnailStorePrx borrowThumbService()
 		throws DSAccessException, DSOutOfServiceException
 	{ 
-		try {
+		List<ThumbnailStorePrx> idle = null;
+		ThumbnailStorePrx service = null;
+		synchronized (thumbnailServices) {
 			if (thumbRetrieval == MAX_RETRIEVAL) {
 				thumbRetrieval = 0;
 				//to be on the save side
-				if (thumbnailService != null) thumbnailService.close();
-				services.remove(thumbnailService);
-				thumbnailService = null;
+				idle = takeThumbServices();
 			}
-			if (thumbnailService == null) {
-				if (entryUnencrypted != null)
-					thumbnailService = entryUnencrypted.createThumbnailStore();
-				else 
-					thumbnailService = entryEncrypted.createThumbnailStore();
-				if (thumbnailService == null)
+			while (thumbnailServices.size() == 0 && 
+					thumbServicesOpen >= MAX_THUMB_SERVICES) {
+				try {
+					thumbnailServices.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
 					throw new DSOutOfServiceException(
-							"Cannot access Thumbnail service.");
-				services.add(thumbnailService);
+							"Interrupted waiting for Thumbnail service.", e);
+				}
 			}
-			return thumbnailService; 
+			if (thumbnailServices.size() > 0)
+				service = thumbnailServices.removeFirst();
+			else thumbServicesOpen++;
+		}
+		closeThumbServices(idle);
+		if (service != null) return service;
+		try {
+			if (entryUnencrypted != null)
+				service = entryUnencrypted.createThumbnailStore();
+			else 
+				service = entryEncrypted.createThumbnailStore();
+			if (service == null)
+				throw new DSOutOfServiceException(
+						"Cannot access Thumbnail service.");
+			services.add(service);
+			return service; 
 		} catch (Throwable e) {
+			releaseThumbService();
 			handleException(e, "Cannot access Thumbnail service.");
 		}
 		return null;
 	}
 
+	/**
+	 * Hands back a thumbnail service after a successful call.
+	 * 
+	 * @param service The service to hand back.
+	 */
+	private void returnThumbService(ThumbnailStorePrx service)
+	{
+		synchronized (thumbnailServices) {
+			thumbnailServices.addLast(service);
+			thumbnailServices.notify();
+		}
+	}
+
+	/**
+	 * Closes a thumbnail service which failed.
+	 * 
+	 * @param service The service to close or <code>null</code>.
+	 */
+	private void discardThumbService(ThumbnailStorePrx service)
+	{
+		if (service == null) return;
+		releaseThumbService();
+		services.remove(service);
+		closeService(service);
+	}
+
+	/** 
+	 * Counts a thumbnail service as closed, so that a caller waiting for 
+	 * one may open it.
+	 */
+	private void releaseThumbService()
+	{
+		synchronized (thumbnailServices) {
+			if (thumbServicesOpen > 0) thumbServicesOpen--;
+			thumbnailServices.notify();
+		}
+	}
+
+	/**
+	 * Removes the idle thumbnail services from the pool. Must be called 
+	 * holding the lock of {@link #thumbnailServices}.
+	 * 
+	 * @return The services to close.
+	 */
+	private List<ThumbnailStorePrx> takeThumbServices()
+	{
+		List<ThumbnailStorePrx> idle = 
+			new ArrayList<ThumbnailStorePrx>(thumbnailServices);
+		thumbServicesOpen -= idle.size();
+		thumbnailServices.clear();
+		thumbnailServices.notifyAll();
+		return idle;
+	}
+
+	/**
+	 * Closes the passed thumbnail services, outside of the lock of 
+	 * {@link #thumbnailServices} since each close is a remote call.
+	 * 
+	 * @param idle The services to close or <code>null</code>.
+	 */
+	private void closeThumbServices(List<ThumbnailStorePrx> idle)
+	{
+		if (idle == null) return;
+		Iterator<ThumbnailStorePrx> i = idle.iterator();
+		ThumbnailStorePrx service;
+		while (i.hasNext()) {
+			service = i.next();
+			services.remove(service);
+			closeService(service);
+		}
+	}
+
+	/** Closes the idle thumbnail services. */
+	private void closeThumbServices()
+	{
+		List<ThumbnailStorePrx> idle;
+		synchronized (thumbnailServices) {
+			idle = takeThumbServices();
+		}
+		closeThumbServices(idle);
+	}
+
 	/**
 	 * Returns the {@link ExporterPrx} service.
 	 *   
@@ -1693,16 +1829,7 @@ class OMEROGateway
 		throws DSAccessException, DSOutOfServiceException
 	{
 		try {
-			/*
-			if (fileStore != null) {
-				services.remove(fileStore);
-				try {
-					fileStore.close();
-				} catch (Exception e) {}
-			}
-			fileStore = entry.createRawFileStore();
-			services.add(fileStore);
-			*/
+			RawFileStorePrx fileStore;
 			if (entryUnencrypted != null)
 				fileStore = entryUnencrypted.createRawFileStore();
 			else 
@@ -1756,6 +1883,7 @@ class OMEROGateway
 		throws DSAccessException, DSOutOfServiceException
 	{
 		try {
+			RawPixelsStorePrx pixelsStore;
 			if (entryUnencrypted != null)
 				pixelsStore = entryUnencrypted.createRawPixelsStore();
 			else 
@@ -1853,6 +1981,29 @@ class OMEROGateway
 		return null;
 	}
 	
+	/**
+	 * Checks if some default rendering settings have to be created
+	 * for the specified set of pixels.
+	 * 
+	 * @param pixelsID	The pixels ID.
+	 * @param service	The thumbnail service to load.
+	 * @throws DSOutOfServiceException If the connection is broken, or logged in
+	 * @throws DSAccessException If an error occurred while trying to 
+	 * retrieve data from OMERO service.
+	 */
+	private void needDefault(long pixelsID, ThumbnailStorePrx service)
+		throws DSAccessException, DSOutOfServiceException
+	{
+		try {
+			if (!(service.setPixelsId(pixelsID))) {
+				service.resetDefaults();
+				service.setPixelsId(pixelsID);
+			}
+		} catch (Throwable e) {
+			handleException(e, "Cannot set RE defaults.");
+		}
+	}
+
 	/**
 	 * Checks if some default rendering settings have to be created
 	 * for the specified set of pixels.
@@ -1863,21 +2014,13 @@ class OMEROGateway
 	 * @throws DSAccessException If an error occurred while trying to 
 	 * retrieve data from OMERO service.
 	 */
-	private synchronized void needDefault(long pixelsID, RenderingEnginePrx re)
+	private void needDefault(long pixelsID, RenderingEnginePrx re)
 		throws DSAccessException, DSOutOfServiceException
 	{
 		try {
-			if (re == null) {
-				ThumbnailStorePrx service = getThumbService();
-				if (!(service.setPixelsId(pixelsID))) {
-					service.resetDefaults();
-					service.setPixelsId(pixelsID);
-				}
-			} else {
-				if (!(re.lookupRenderingDef(pixelsID))) {
-					re.resetDefaults();
-					re.lookupRenderingDef(pixelsID);
-				}
+			if (!(re.lookupRenderingDef(pixelsID))) {
+				re.resetDefaults();
+				re.lookupRenderingDef(pixelsID);
 			}
 		} catch (Throwable e) {
 			handleException(e, "Cannot set RE defaults.");
@@ -2009,8 +2152,11 @@ class OMEROGateway
 	{
 		services.clear();
 		reServices.clear();
-		thumbnailService = null;
-		fileStore = null;
+		synchronized (thumbnailServices) {
+			thumbnailServices.clear();
+			thumbServicesOpen = 0;
+			thumbnailServices.notifyAll();
+		}
 		metadataService = null;
 		pojosService = null;
 		projService = null;
@@ -2021,7 +2167,6 @@ class OMEROGateway
 		deleteService = null;
 		pixelsService = null;
 		roiService = null;
-		pixelsStore = null;
 		updateService = null;
 		scriptService = null;
 		timeService = null;
@@ -2077,8 +2222,21 @@ class OMEROGateway
 		this.port = port;
 		thumbRetrieval = 0;
 		enumerations = new HashMap<String, List<EnumerationObject>>();
-		services = new HashSet<ServiceInterfacePrx>();
-		reServices = new HashMap<Long, StatefulServiceInterfacePrx>();
+		services = Collections.synchronizedSet(
+				new HashSet<ServiceInterfacePrx>());
+		reServices = Collections.synchronizedMap(
+				new HashMap<Long, StatefulServiceInterfacePrx>());
+		thumbnailServices = new LinkedList<ThumbnailStorePrx>();
+		transfers = Executors.newFixedThreadPool(MAX_TRANSFERS, 
+				new ThreadFactory() {
+			
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "OMEROGateway transfer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
 	}
 	
 	/**
@@ -2521,11 +2679,8 @@ class OMEROGateway
 	{
 		List<Long> l = new ArrayList<Long>();
 		if (reServices == null || reServices.size() == 0) return l;
-		Entry entry;
-		Iterator i = reServices.entrySet().iterator();
-		while (i.hasNext()) {
-			entry = (Entry) i.next();
-			l.add((Long) entry.getKey());
+		synchronized (reServices) {
+			l.addAll(reServices.keySet());
 		}
 		return l;
 	}
@@ -3157,32 +3312,27 @@ class OMEROGateway
 	 *              retrieve data from the service. 
 	 * @throws DSOutOfServiceException If the connection is broken.
 	 */
-	synchronized byte[] getThumbnail(long pixelsID, int sizeX, int sizeY, 
-									long userID)
+	byte[] getThumbnail(long pixelsID, int sizeX, int sizeY, long userID)
 		throws RenderingServiceException, DSOutOfServiceException
 	{
 		isSessionAlive();
+		ThumbnailStorePrx service = null;
 		try {
-			ThumbnailStorePrx service = getThumbService();
-			if (service == null) service = getThumbService();
-			needDefault(pixelsID, null);
+			service = borrowThumbService();
+			if (service == null) service = borrowThumbService();
+			needDefault(pixelsID, service);
 			//getRendering Def for a given pixels set.
 			if (userID >= 0) {
 				RenderingDef def = getRenderingDef(pixelsID, userID);
 				if (def != null) service.setRenderingDefId(
 						def.getId().getValue());
 			}
-			return service.getThumbnail(omero.rtypes.rint(sizeX), 
+			byte[] values = service.getThumbnail(omero.rtypes.rint(sizeX), 
 					omero.rtypes.rint(sizeY));
+			returnThumbService(service);
+			return values;
 		} catch (Throwable t) {
-			if (thumbnailService != null) {
-				try {
-					thumbnailService.close();
-				} catch (Exception e) {
-					//nothing we can do
-				}
-			}
-			thumbnailService = null;
+			discardThumbService(service);
 			if (t instanceof ServerError) {
 				throw new DSOutOfServiceException(
 						"Thumbnail service null for pixelsID: "+pixelsID, t);
@@ -3202,25 +3352,21 @@ class OMEROGateway
 	 *              retrieve data from the service. 
 	 * @throws DSOutOfServiceException If the connection is broken.
 	 */
-	synchronized byte[] getThumbnailByLongestSide(long pixelsID, int maxLength)
+	byte[] getThumbnailByLongestSide(long pixelsID, int maxLength)
 		throws RenderingServiceException, DSOutOfServiceException
 	{
 		isSessionAlive();
+		ThumbnailStorePrx service = null;
 		try {
-			ThumbnailStorePrx service = getThumbService();
-			if (service == null) service = getThumbService();
-			needDefault(pixelsID, null);
-			return service.getThumbnailByLongestSide(
+			service = borrowThumbService();
+			if (service == null) service = borrowThumbService();
+			needDefault(pixelsID, service);
+			byte[] values = service.getThumbnailByLongestSide(
 					omero.rtypes.rint(maxLength));
+			returnThumbService(service);
+			return values;
 		} catch (Throwable t) {
-			if (thumbnailService != null) {
-				try {
-					thumbnailService.close();
-				} catch (Exception e) {
-					//nothing we can do
-				}
-			}
-			thumbnailService = null;
+			discardThumbService(service);
 			if (t instanceof ServerError) {
 				throw new DSOutOfServiceException(
 						"Thumbnail service null for pixelsID: "+pixelsID, t);
@@ -3242,28 +3388,24 @@ class OMEROGateway
 	 *              retrieve data from the service. 
 	 * @throws DSOutOfServiceException If the connection is broken.
 	 */
-	synchronized Map getThumbnailSet(List<Long> pixelsID, int maxLength, boolean
-			reset)
+	Map getThumbnailSet(List<Long> pixelsID, int maxLength, boolean reset)
 		throws RenderingServiceException, DSOutOfServiceException
 	{
 		isSessionAlive();
+		ThumbnailStorePrx service = null;
 		try {
-			if (reset) thumbRetrieval = MAX_RETRIEVAL;
-			else thumbRetrieval += pixelsID.size();
-			ThumbnailStorePrx service = getThumbService();
-			if (service == null) service = getThumbService();
-			return service.getThumbnailByLongestSideSet(
+			synchronized (thumbnailServices) {
+				if (reset) thumbRetrieval = MAX_RETRIEVAL;
+				else thumbRetrieval += pixelsID.size();
+			}
+			service = borrowThumbService();
+			if (service == null) service = borrowThumbService();
+			Map values = service.getThumbnailByLongestSideSet(
 					omero.rtypes.rint(maxLength), pixelsID);
-					
+			returnThumbService(service);
+			return values;
 		} catch (Throwable t) {
-			if (thumbnailService != null) {
-				try {
-					thumbnailService.close();
-				} catch (Exception e) {
-					//nothing we can do
-				}
-			}
-			thumbnailService = null;
+			discardThumbService(service);
 			if (t instanceof ServerError) {
 				throw new DSOutOfServiceException(
 						"Thumbnail service null for pixelsID: "+pixelsID, t);
@@ -3283,7 +3425,7 @@ class OMEROGateway
 	 * @throws FSAccessException If an error occurred when trying to build a 
 	 * pyramid or access file not available.
 	 */
-	synchronized RenderingEnginePrx createRenderingEngine(long pixelsID)
+	RenderingEnginePrx createRenderingEngine(long pixelsID)
 		throws DSOutOfServiceException, DSAccessException, FSAccessException
 	{
 		isSessionAlive();
@@ -3794,6 +3936,53 @@ class OMEROGateway
 		return result;
 	}
 
+	/**
+	 * Runs a file transfer on the transfer threads and waits for it.
+	 * 
+	 * @param transfer The transfer to run.
+	 * @return The result of the transfer.
+	 * @throws DSOutOfServiceException If the connection is broken, or logged in
+	 * @throws DSAccessException If an error occurred while trying to 
+	 * retrieve data from OMERO service.  
+	 */
+	private <T> T transfer(Callable<T> transfer)
+		throws DSAccessException, DSOutOfServiceException
+	{
+		Future<T> future = transfers.submit(transfer);
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			throw new DSAccessException("The transfer was interrupted.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof DSAccessException)
+				throw (DSAccessException) cause;
+			if (cause instanceof DSOutOfServiceException)
+				throw (DSOutOfServiceException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new DSAccessException("Cannot transfer the file.", cause);
+		}
+	}
+	
+	/**
+	 * Notifies the observer of a transfer, if any, of its progress.
+	 * 
+	 * @param observer	The observer to notify or <code>null</code>.
+	 * @param file		The file transferred.
+	 * @param done		The number of bytes transferred.
+	 * @param size		The size of the file.
+	 */
+	private void notifyTransfer(DSCallAdapter observer, File file, long done, 
+			long size)
+	{
+		if (observer == null) return;
+		int percent = size <= 0 ? -1 : (int) (done*100/size);
+		observer.update(new DSCallFeedbackEvent(percent, file.getName(), 
+				null));
+	}
+	
 	/**
 	 * Downloads a file previously uploaded to the server.
 	 * 
@@ -3805,11 +3994,57 @@ class OMEROGateway
 	 * @throws DSAccessException If an error occurred while trying to 
 	 * retrieve data from OMERO service.  
 	 */
-	synchronized File downloadFile(File file, long fileID, long size)
+	File downloadFile(File file, long fileID, long size)
+		throws DSAccessException, DSOutOfServiceException
+	{
+		return downloadFile(file, fileID, size, null);
+	}
+	
+	/**
+	 * Downloads a file previously uploaded to the server. The download runs
+	 * on one of the transfer threads, so that at most {@link #MAX_TRANSFERS}
+	 * files are transferred at once whatever the number of callers.
+	 * 
+	 * @param file		The file to copy the data into.	
+	 * @param fileID	The id of the file to download.
+	 * @param size		The size of the file.
+	 * @param observer	Notified of the progress of the download from the 
+	 * 					transfer thread, or <code>null</code>.
+	 * @return See above.
+	 * @throws DSOutOfServiceException If the connection is broken, or logged in
+	 * @throws DSAccessException If an error occurred while trying to 
+	 * retrieve data from OMERO service.  
+	 */
+	File downloadFile(final File file, final long fileID, final long size, 
+			final DSCallAdapter observer)
 		throws DSAccessException, DSOutOfServiceException
 	{
 		if (file == null) return null;
 		isSessionAlive();
+		return transfer(new Callable<File>() {
+			public File call() throws Exception {
+				return download(file, fileID, size, observer);
+			}
+		});
+	}
+	
+	/**
+	 * Downloads a file previously uploaded to the server.
+	 * 
+	 * @param file		The file to copy the data into.	
+	 * @param fileID	The id of the file to download.
+	 * @param size		The size of the file.
+	 * @param observer	Notified of the progress of the download or 
+	 * 					<code>null</code>.
+	 * @return See above.
+	 * @throws DSOutOfServiceException If the connection is broken, or logged in
+	 * @throws DSAccessException If an error occurred while trying to 
+	 * retrieve data from OMERO service.  
+	 */
+	private File download(File file, long fileID, long size, 
+			DSCallAdapter observer)
+		throws DSAccessException, DSOutOfServiceException
+	{
 		if (size <= 0) {
 			OriginalFile of = getOriginalFile(fileID);
 			if (of != null) size = of.getSize().getValue();
@@ -3831,10 +4066,12 @@ class OMEROGateway
 					for (offset = 0; (offset+INC) < size;) {
 						stream.write(store.read(offset, INC));
 						offset += INC;
+						notifyTransfer(observer, file, offset, size);
 					}	
 				} finally {
 					stream.write(store.read(offset, length-offset)); 
 					stream.close();
+					notifyTransfer(observer, file, size, size);
 				}
 			} catch (Exception e) {
 				if (stream != null) stream.close();
@@ -3871,27 +4108,21 @@ class OMEROGateway
 	 */
 	private void shutDownServices(boolean rendering)
 	{
-		if (thumbnailService != null)
-			closeService(thumbnailService);
-		if (pixelsStore != null)
-			closeService(pixelsStore);
-		if (fileStore != null)
-			closeService(fileStore);
+		closeThumbServices();
 		if (importStore != null) {
 			importStore.closeServices();
 			importStore = null;
 		}
-		Collection<StatefulServiceInterfacePrx> l = reServices.values();
-		if (l != null && rendering) {
-			Iterator<StatefulServiceInterfacePrx> i = l.iterator();
-			while (i.hasNext()) {
-				closeService(i.next());
+		if (rendering) {
+			synchronized (reServices) {
+				Iterator<StatefulServiceInterfacePrx> i = 
+					reServices.values().iterator();
+				while (i.hasNext()) {
+					closeService(i.next());
+				}
+				reServices.clear();
 			}
-			reServices.clear();
 		}
-		thumbnailService = null;
-		pixelsStore = null;
-		fileStore = null;
 	}
 	
 	/**
@@ -3964,15 +4195,62 @@ class OMEROGateway
 	 * @throws DSAccessException If an error occurred while trying to 
 	 * retrieve data from OMERO service.  
 	 */
-	synchronized OriginalFile uploadFile(File file, String mimeType, 
-			long originalFileID)
+	OriginalFile uploadFile(File file, String mimeType, long originalFileID)
+		throws DSAccessException, DSOutOfServiceException
+	{
+		return uploadFile(file, mimeType, originalFileID, null);
+	}
+	
+	/**
+	 * Uploads the passed file to the server and returns the 
+	 * original file i.e. the server object. The upload runs on one of the 
+	 * transfer threads, so that at most {@link #MAX_TRANSFERS} files are 
+	 * transferred at once whatever the number of callers.
+	 * 
+	 * @param file		     The file to upload.
+	 * @param mimeType		 The mimeType of the file.
+	 * @param originalFileID The id of the file or <code>-1</code>.
+	 * @param observer		 Notified of the progress of the upload from the
+	 * 						 transfer thread, or <code>null</code>.
+	 * @return See above.
+	 * @throws DSOutOfServiceException If the connection is broken, or logged in
+	 * @throws DSAccessException If an error occurred while trying to 
+	 * retrieve data from OMERO service.  
+	 */
+	OriginalFile uploadFile(final File file, final String mimeType, 
+			final long originalFileID, final DSCallAdapter observer)
 		throws DSAccessException, DSOutOfServiceException
 	{
 		if (file == null)
 			throw new IllegalArgumentException("No file to upload");
+		isSessionAlive();
+		return transfer(new Callable<OriginalFile>() {
+			public OriginalFile call() throws Exception {
+				return upload(file, mimeType, originalFileID, observer);
+			}
+		});
+	}
+	
+	/**
+	 * Uploads the passed file to the server and returns the 
+	 * original file i.e. the server object.
+	 * 
+	 * @param file		     The file to upload.
+	 * @param mimeType		 The mimeType of the file.
+	 * @param originalFileID The id of the file or <code>-1</code>.
+	 * @param observer		 Notified of the progress of the upload or 
+	 * 						 <code>null</code>.
+	 * @return See above.
+	 * @throws DSOutOfServiceException If the connection is broken, or logged in
+	 * @throws DSAccessException If an error occurred while trying to 
+	 * retrieve data from OMERO service.  
+	 */
+	private OriginalFile upload(File file, String mimeType, 
+			long originalFileID, DSCallAdapter observer)
+		throws DSAccessException, DSOutOfServiceException
+	{
 		if (mimeType == null || mimeType.length() == 0)
 			mimeType =  DEFAULT_MIMETYPE;
-		isSessionAlive();
 		RawFileStorePrx store = null;
 		OriginalFile save = null;
 		boolean fileCreated = false;
@@ -4042,11 +4320,13 @@ class OMEROGateway
 			long pos = 0;
 			int rlen;
 			ByteBuffer bbuf;
+			long size = file.length();
 			while ((rlen = stream.read(buf)) > 0) {
 				store.write(buf, pos, rlen);
 				pos += rlen;
 				bbuf = ByteBuffer.wrap(buf);
 				bbuf.limit(rlen);
+				notifyTransfer(observer, file, pos, size);
 			}
 			stream.close();
 			save = store.save();
@@ -4255,22 +4535,23 @@ class OMEROGateway
 	 * @throws DSAccessException        If an error occurred while trying to 
 	 *                                  retrieve data from OMEDS service.
 	 */
-	synchronized byte[] getPlane(long pixelsID, int z, int t, int c)
+	byte[] getPlane(long pixelsID, int z, int t, int c)
 		throws DSOutOfServiceException, DSAccessException, FSAccessException
 	{
 		isSessionAlive();
+		RawPixelsStorePrx service = null;
 		try {
-			RawPixelsStorePrx service = getPixelsStore();
+			service = getPixelsStore();
 			if (service == null) service = getPixelsStore();
 			service.setPixelsId(pixelsID, false);
-			byte[] plane = service.getPlane(z, c, t);
-			service.close();
-			return plane;
+			return service.getPlane(z, c, t);
 		} catch (Throwable e) {
 			String s = "Cannot retrieve the plane " +
 			"(z="+z+", t="+t+", c="+c+") for pixelsID: "+pixelsID;
 			handleFSException(e, s);
 			handleException(e, s);
+		} finally {
+			if (service != null) closeService(service);
 		}
 		return null;
 	}
@@ -5285,8 +5566,12 @@ class OMEROGateway
 	{
 		Collection<ServiceInterfacePrx> 
 			all = new HashSet<ServiceInterfacePrx>();
-		if (services.size() > 0) all.addAll(services);
-		if (reServices.size() > 0) all.addAll(reServices.values());
+		synchronized (services) {
+			all.addAll(services);
+		}
+		synchronized (reServices) {
+			all.addAll(reServices.values());
+		}
 		/*
 		int n = services.size()+reServices.size();
 		ServiceInterfacePrx[] entries = new ServiceInterfacePrx[n];
@@ -7891,7 +8176,7 @@ class OMEROGateway
 	 * @throws DSAccessException        If an error occurred while trying to 
 	 *                                  retrieve data from OMEDS service.
 	 */
-	synchronized byte[] getUserPhoto(long fileID, long size)
+	byte[] getUserPhoto(long fileID, long size)
 		throws DSOutOfServiceException, DSAccessException
 	{
 		isSessionAlive();
@@ -7907,8 +8192,9 @@ class OMEROGateway
 		try {
 			return store.read(0, (int) size);
 		} catch (Exception e) {
-			closeService(store);
 			throw new DSAccessException("Cannot read the file" +fileID, e);
+		} finally {
+			closeService(store);
 		}
 	}
 	
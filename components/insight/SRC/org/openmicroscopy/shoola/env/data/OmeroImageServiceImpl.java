@@ -80,6 +80,7 @@ import org.openmicroscopy.shoola.env.rnd.RenderingControl;
 import org.openmicroscopy.shoola.env.rnd.RenderingServiceException;
 import org.openmicroscopy.shoola.env.rnd.PixelsServicesFactory;
 import org.openmicroscopy.shoola.env.rnd.RndProxyDef;
+import org.openmicroscopy.shoola.env.rnd.data.Tile;
 import org.openmicroscopy.shoola.util.image.geom.Factory;
 import org.openmicroscopy.shoola.util.image.io.WriterImage;
 import pojos.ChannelData;
@@ -472,6 +473,22 @@ class OmeroImageServiceImpl
 		}
 	}
 	
+	/** 
+	 * Implemented as specified by {@link OmeroImageService}. 
+	 * @see OmeroImageService#renderTiles(long, PlaneDef, Collection, boolean)
+	 */
+	public void renderTiles(long pixelsID, PlaneDef pDef, 
+			Collection<Tile> tiles, boolean asTexture)
+		throws RenderingServiceException
+	{
+		try {
+			PixelsServicesFactory.renderTiles(context, 
+					Long.valueOf(pixelsID), pDef, tiles, asTexture);
+		} catch (Exception e) {
+			throw new RenderingServiceException("RenderTiles", e);
+		}
+	}
+	
 	/** 
 	 * Implemented as specified by {@link OmeroImageService}. 
 	 * @see OmeroImageService#shutDown(long)
@@ -51,6 +51,7 @@ import omero.model.MicroscopeType;
 import omero.model.PhotometricInterpretation;
 import omero.model.Pulse;
 
+import org.openmicroscopy.shoola.env.data.events.DSCallAdapter;
 import org.openmicroscopy.shoola.env.data.model.TableParameters;
 import org.openmicroscopy.shoola.env.data.model.TableResult;
 import org.openmicroscopy.shoola.env.data.model.TimeRefObject;
@@ -405,6 +406,25 @@ public interface OmeroMetadataService
 	public File downloadFile(File file, long fileID, long size)
 		throws DSOutOfServiceException, DSAccessException;
 	
+	/**
+	 * Downloads a file previously uploaded to the server, notifying the
+	 * observer of the progress of the transfer.
+	 * 
+	 * @param file		The file to write the data into.
+	 * @param fileID	The id of the file to download.
+	 * @param size		The size of the file to download
+	 * @param observer	Notified of the progress of the download from the 
+	 * 					transfer thread, or <code>null</code>.
+	 * @return See above.
+	 * @throws DSOutOfServiceException  If the connection is broken, or logged
+	 *                                   in.
+	 * @throws DSAccessException        If an error occurred while trying to 
+	 *                                  retrieve data from OMEDS service.
+	 */
+	public File downloadFile(File file, long fileID, long size, 
+			DSCallAdapter observer)
+		throws DSOutOfServiceException, DSAccessException;
+	
 	/**
 	 * Loads the ratings associated to the passed objects.
 	 * 
@@ -535,6 +555,27 @@ public interface OmeroMetadataService
 	public Object archivedFile(FileAnnotationData fileAnnotation, File file, int
 			index, DataObject linkTo)
 		throws DSOutOfServiceException, DSAccessException;
+	
+	/**
+	 * Saves the file back to the server, notifying the observer of the
+	 * progress of the upload.
+	 * 
+	 * @param fileAnnotation 	The annotation hosting the previous info.
+     * @param file				The file to save.
+     * @param index				One of the constants defined by this class.
+     * @param linkTo			The <code>DataObject</code> to link the 
+     *  						annotation to.
+     * @param observer			Notified of the progress of the upload from
+     * 							the transfer thread, or <code>null</code>.
+	 * @return See above.
+	 * @throws DSOutOfServiceException  If the connection is broken, or logged
+	 *                                  in.
+	 * @throws DSAccessException        If an error occurred while trying to 
+	 *                                  retrieve data from OMEDS service.
+	 */
+	public Object archivedFile(FileAnnotationData fileAnnotation, File file, int
+			index, DataObject linkTo, DSCallAdapter observer)
+		throws DSOutOfServiceException, DSAccessException;
 
 	/**
 	 * Loads the <code>Tag Set</code> object(s) or <code>Tag</code> object(s)
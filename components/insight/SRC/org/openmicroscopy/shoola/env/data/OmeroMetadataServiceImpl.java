@@ -67,6 +67,7 @@ import omero.sys.Parameters;
 import omero.sys.ParametersI;
 import org.openmicroscopy.shoola.env.LookupNames;
 import org.openmicroscopy.shoola.env.config.Registry;
+import org.openmicroscopy.shoola.env.data.events.DSCallAdapter;
 import org.openmicroscopy.shoola.env.data.model.TableParameters;
 import org.openmicroscopy.shoola.env.data.model.TableResult;
 import org.openmicroscopy.shoola.env.data.model.TimeRefObject;
@@ -1196,12 +1197,23 @@ class OmeroMetadataServiceImpl
 	 */
 	public File downloadFile(File file, long fileID, long size) 
 		throws DSOutOfServiceException, DSAccessException
+	{
+		return downloadFile(file, fileID, size, null);
+	}
+	
+	/**
+	 * Implemented as specified by {@link OmeroDataService}.
+	 * @see OmeroMetadataService#downloadFile(File, long, long, DSCallAdapter)
+	 */
+	public File downloadFile(File file, long fileID, long size, 
+			DSCallAdapter observer) 
+		throws DSOutOfServiceException, DSAccessException
 	{
 		if (fileID < 0)
 			throw new IllegalArgumentException("File ID not valid");
 		if (file == null)
 			throw new IllegalArgumentException("File path not valid");
-		return gateway.downloadFile(file, fileID, size);
+		return gateway.downloadFile(file, fileID, size, observer);
 	}
 	
 	/**
@@ -1716,6 +1728,18 @@ class OmeroMetadataServiceImpl
 	public Object archivedFile(FileAnnotationData fileAnnotation, File file, 
 			int index, DataObject linkTo) 
 		throws DSOutOfServiceException, DSAccessException
+	{
+		return archivedFile(fileAnnotation, file, index, linkTo, null);
+	}
+	
+	/** 
+	 * Implemented as specified by {@link OmeroImageService}. 
+	 * @see OmeroMetadataService#archivedFile(FileAnnotationData, File, int,
+	 * 											DataObject, DSCallAdapter)
+	 */
+	public Object archivedFile(FileAnnotationData fileAnnotation, File file, 
+			int index, DataObject linkTo, DSCallAdapter observer) 
+		throws DSOutOfServiceException, DSAccessException
 	{
 		if (file == null) 
 			throw new IllegalArgumentException("No file to save.");
@@ -1732,7 +1756,7 @@ class OmeroMetadataServiceImpl
 		long id = fileAnnotation.getId();
 		long originalID = fileAnnotation.getFileID();
 		OriginalFile of = gateway.uploadFile(file, 
-				fileAnnotation.getServerFileMimetype(), originalID);
+				fileAnnotation.getServerFileMimetype(), originalID, observer);
 		//Need to relink and delete the previous one.
 		FileAnnotation fa;
 		String desc = fileAnnotation.getDescription();
@@ -25,12 +25,15 @@ package org.openmicroscopy.shoola.env.data.views;
 
 
 //Java imports
+import javax.swing.SwingUtilities;
 
 //Third-party libraries
 
 //Application-internal dependencies
 import org.openmicroscopy.shoola.env.LookupNames;
 import org.openmicroscopy.shoola.env.config.Registry;
+import org.openmicroscopy.shoola.env.data.events.DSCallAdapter;
+import org.openmicroscopy.shoola.env.data.events.DSCallFeedbackEvent;
 import org.openmicroscopy.shoola.env.event.AgentEventListener;
 import org.openmicroscopy.shoola.util.concur.tasks.CmdProcessor;
 import org.openmicroscopy.shoola.util.concur.tasks.ExecHandle;
@@ -76,6 +79,9 @@ public abstract class BatchCallTree
     /** Subclasses use it to gain access to the container's services. */
     protected final Registry    context;
     
+    /** The observer of the execution, set when the tree is executed. */
+    private AgentEventListener  observer;
+    
     
     /**
      * Creates a new instance.
@@ -147,6 +153,7 @@ public abstract class BatchCallTree
         if (hasExecuted()) throw new IllegalStateException();
         
         //Only one thread will ever make it here b/c hasExecuted is sync.
+        this.observer = observer;
         buildTree();
         ExecHandle handle = getProcessor().exec(root, getMonitor(observer));
         return new CallHandle(handle);
@@ -182,6 +189,29 @@ public abstract class BatchCallTree
         return mf.makeNew(this, observer);
     }
     
+    /**
+     * Returns an adapter forwarding the progress of a file transfer made by
+     * a call of this tree to the observer of the execution.
+     * Like the other feedback events, the progress events are delivered 
+     * within the <i>Swing</i> dispatching thread, the transfer itself running
+     * on another thread.
+     * 
+     * @return See above.
+     */
+    protected DSCallAdapter getTransferObserver()
+    {
+        final AgentEventListener adaptee = observer;
+        return new DSCallAdapter() {
+            public void update(final DSCallFeedbackEvent fe)
+            {
+                if (adaptee == null) return;
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() { adaptee.eventFired(fe); }
+                });
+            }
+        };
+    }
+    
     /**
      * Adds a new child node to the root.
      * The root node maintained by <code>BatchCallTree</code> is an instance
@@ -76,7 +76,8 @@ public class ArchivedFilesSaver
             public void doCall() throws Exception
             {
                 OmeroMetadataService os = context.getMetadataService();
-                result = os.archivedFile(fileAnnotation, file, index, linkTo);
+                result = os.archivedFile(fileAnnotation, file, index, linkTo,
+                		getTransferObserver());
             }
         };
     }
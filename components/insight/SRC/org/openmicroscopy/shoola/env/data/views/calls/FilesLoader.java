@@ -91,7 +91,8 @@ public class FilesLoader
             public void doCall() throws Exception
             {
                 OmeroMetadataService service = context.getMetadataService();
-                File f = service.downloadFile(file, fileID, size);
+                File f = service.downloadFile(file, fileID, size, 
+                		getTransferObserver());
                 result = f;
             }
         };
@@ -112,7 +113,7 @@ public class FilesLoader
                 FileAnnotationData fa = (FileAnnotationData) 
                 	service.loadAnnotation(id);
                 File f = service.downloadFile(new File(fa.getFileName()), 
-                		fa.getFileID(), fa.getFileSize());
+                		fa.getFileID(), fa.getFileSize(), getTransferObserver());
 
                 result = f;
             }
@@ -136,7 +137,7 @@ public class FilesLoader
                 Map<FileAnnotationData, File> m = 
                 	new HashMap<FileAnnotationData, File>();
                 File f = service.downloadFile(new File(fa.getFileName()), 
-                		fa.getFileID(), fa.getFileSize());
+                		fa.getFileID(), fa.getFileSize(), getTransferObserver());
                 m.put(fa, f);
                 result = m;
             }
@@ -158,7 +159,7 @@ public class FilesLoader
         of = ((FileAnnotation) fa.asAnnotation()).getFile();
         try {
         	service.downloadFile(f, of.getId().getValue(), 
-    				of.getSize().getValue());
+    				of.getSize().getValue(), getTransferObserver());
         	m.put(fa, f);
         	currentFile = m;
 		} catch (Exception e) {
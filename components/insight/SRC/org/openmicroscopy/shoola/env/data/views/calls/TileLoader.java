@@ -31,7 +31,6 @@ import java.util.Iterator;
 
 //Application-internal dependencies
 import omero.romio.PlaneDef;
-import omero.romio.RegionDef;
 import org.openmicroscopy.shoola.env.data.OmeroImageService;
 import org.openmicroscopy.shoola.env.data.views.BatchCall;
 import org.openmicroscopy.shoola.env.data.views.BatchCallTree;
@@ -75,22 +74,24 @@ public class TileLoader
     private PlaneDef pDef;
     
     /**
-     * Loads the tile.
-     * 
-     * @param tile The tile to load.
+     * Renders all the tiles in one call to the server. The default image is
+     * set for each tile if the tiles could not be rendered.
      */
-    private void loadTile(Tile tile) 
+    private void loadTiles() 
     {
-    	Region rt = tile.getRegion();
     	try {
-    		pDef.region = new RegionDef(rt.getX(), rt.getY(), 
-    				rt.getWidth(), rt.getHeight());
-        	tile.setImage(service.renderImage(pixelsID, pDef, asTexture, false));
+    		service.renderTiles(pixelsID, pDef, tiles, asTexture);
 		} catch (Exception e) {
-			tile.setImage(Factory.createDefaultImageThumbnail(rt.getWidth(), 
-					rt.getHeight()));
+			Iterator<Tile> i = tiles.iterator();
+			Tile tile;
+			Region rt;
+			while (i.hasNext()) {
+				tile = i.next();
+				rt = tile.getRegion();
+				tile.setImage(Factory.createDefaultImageThumbnail(
+						rt.getWidth(), rt.getHeight()));
+			}
 		}
-    	currentTile = tile;
     }
     
     /**
@@ -110,12 +111,18 @@ public class TileLoader
     protected Object getResult() { return null; }
     
     /**
-     * Adds a {@link BatchCall} to the tree for each tile to retrieve.
-     * The batch call simply invokes {@link #loadTile(Tile)}.
+     * Adds a {@link BatchCall} to the tree rendering all the tiles in one
+     * go, invoking {@link #loadTiles()}, then a {@link BatchCall} for each
+     * tile so that the tiles are delivered one by one.
      * @see BatchCallTree#buildTree()
      */
     protected void buildTree()
     {
+    	add(new BatchCall("Loading tiles") {
+    		public void doCall() { 
+    			loadTiles();
+    		}
+    	});
     	Iterator<Tile> i = tiles.iterator();
     	String description = "Loading tile";
     	Tile tile;
@@ -124,7 +131,7 @@ public class TileLoader
 			final Tile t = tile;
 			add(new BatchCall(description) {
         		public void doCall() { 
-        			loadTile(t);
+        			currentTile = t;
         		}
         	});  
 		}
@@ -27,6 +27,7 @@ package org.openmicroscopy.shoola.env.rnd;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.image.BufferedImage;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -37,6 +38,7 @@ import com.sun.opengl.util.texture.TextureData;
 //Application-internal dependencies
 import omero.romio.PlaneDef;
 import org.openmicroscopy.shoola.env.data.DSOutOfServiceException;
+import org.openmicroscopy.shoola.env.rnd.data.Tile;
 import pojos.ChannelData;
 import pojos.PixelsData;
 
@@ -773,6 +775,23 @@ public interface RenderingControl
 	public TextureData renderAsTexture(PlaneDef pDef)
 		throws RenderingServiceException, DSOutOfServiceException;
 
+	/**
+	 * Renders the tiles of the specified {@link PlaneDef 2D-plane} at the
+	 * selected resolution level in one call to the server, setting the image
+	 * of each tile.
+	 * 
+	 * @param pDef   	Information about the plane to render.
+	 * @param tiles  	The tiles to render.
+	 * @param asTexture	Pass <code>true</code> to set textures,
+	 * 					<code>false</code> to set buffered images.
+	 * @throws RenderingServiceException 	If an error occurred while setting 
+     * 										the value.
+     * @throws DSOutOfServiceException  	If the connection is broken.
+	 */
+	public void renderTiles(PlaneDef pDef, Collection<Tile> tiles,
+			boolean asTexture)
+		throws RenderingServiceException, DSOutOfServiceException;
+
 	/**
 	 * Returns the list of settings previously saved.
 	 * 
@@ -32,6 +32,7 @@ import java.awt.image.DataBufferInt;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -53,11 +54,14 @@ import omero.model.Pixels;
 import omero.model.QuantumDef;
 import omero.model.RenderingModel;
 import omero.romio.PlaneDef;
+import omero.romio.RegionDef;
 import org.openmicroscopy.shoola.env.cache.CacheService;
 import org.openmicroscopy.shoola.env.config.Registry;
 import org.openmicroscopy.shoola.env.data.DSOutOfServiceException;
 import org.openmicroscopy.shoola.env.data.DataServicesFactory;
 import org.openmicroscopy.shoola.env.data.model.ProjectionParam;
+import org.openmicroscopy.shoola.env.rnd.data.Region;
+import org.openmicroscopy.shoola.env.rnd.data.Tile;
 import org.openmicroscopy.shoola.util.image.geom.Factory;
 import org.openmicroscopy.shoola.util.image.io.WriterImage;
 import pojos.ChannelData;
@@ -1819,6 +1823,63 @@ class RenderingControlProxy
 	     return renderUncompressedAsTexture(pDef);
 	}
 
+	/** 
+	 * Implemented as specified by {@link RenderingControl}. 
+	 * @see RenderingControl#renderTiles(PlaneDef, Collection, boolean)
+	 */
+	public void renderTiles(PlaneDef pDef, Collection<Tile> tiles,
+			boolean asTexture)
+		throws RenderingServiceException, DSOutOfServiceException
+	{
+		isSessionAlive();
+		if (pDef == null) 
+			throw new IllegalArgumentException("Plane def cannot be null.");
+		if (tiles == null || tiles.size() == 0) return;
+		RegionDef[] regions = new RegionDef[tiles.size()];
+		Iterator<Tile> i = tiles.iterator();
+		Region r;
+		int index = 0;
+		while (i.hasNext()) {
+			r = i.next().getRegion();
+			regions[index++] = new RegionDef(r.getX(), r.getY(), 
+					r.getWidth(), r.getHeight());
+		}
+		int level = getSelectedResolutionLevel();
+		try {
+			Tile tile;
+			i = tiles.iterator();
+			if (isCompressed()) {
+				byte[][] values = servant.renderRegionsCompressed(pDef, 
+						regions, level);
+				for (index = 0; index < values.length; index++) {
+					tile = i.next();
+					r = tile.getRegion();
+					if (asTexture)
+						tile.setImage(PixelsServicesFactory.createTexture(
+							WriterImage.bytesToBytes(values[index]), 
+							r.getWidth(), r.getHeight()));
+					else
+						tile.setImage(WriterImage.bytesToImage(values[index]));
+				}
+			} else {
+				int[][] values = servant.renderRegionsAsPackedInt(pDef, 
+						regions, level);
+				for (index = 0; index < values.length; index++) {
+					tile = i.next();
+					r = tile.getRegion();
+					if (asTexture)
+						tile.setImage(createTexture(values[index], 
+								r.getWidth(), r.getHeight()));
+					else
+						tile.setImage(Factory.createImage(values[index], 32, 
+								r.getWidth(), r.getHeight()));
+				}
+			}
+		} catch (Throwable e) {
+			handleException(e, ERROR_RENDER+"the tiles.");
+		}
+	}
+
 	/** 
 	 * Implemented as specified by {@link RenderingControl}. 
 	 * @see RenderingControl#isActiveImageRGB(List)
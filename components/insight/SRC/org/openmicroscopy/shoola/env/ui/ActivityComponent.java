@@ -366,6 +366,7 @@ public abstract class ActivityComponent
 		exceptionButton.setVisible(false);
 		status.setBusy(false);
 		status.setVisible(false);
+		messageLabel.setText("");
 		statusPane = iconLabel;
 		remove(statusPane);
 		add(statusPane, "0, 0, CENTER, CENTER");
@@ -520,6 +521,16 @@ public abstract class ActivityComponent
 		status.setBusy(true);
 	}
 	
+	/**
+	 * Shows the percentage of the activity done while it is ongoing.
+	 * 
+	 * @param percent The percentage done.
+	 */
+	void setProgress(int percent)
+	{
+		if (isOngoingActivity()) messageLabel.setText(percent+"%");
+	}
+	
 	/**
 	 * Returns <code>true</code> if the result can be displayed, 
 	 * <code>false</code> otherwise.
@@ -30,6 +30,7 @@ import java.io.File;
 
 //Application-internal dependencies
 import org.openmicroscopy.shoola.env.config.Registry;
+import org.openmicroscopy.shoola.env.data.events.DSCallFeedbackEvent;
 import org.openmicroscopy.shoola.env.data.views.CallHandle;
 import org.openmicroscopy.shoola.env.data.views.MetadataHandlerView;
 
@@ -156,6 +157,16 @@ public class FileLoader
 		file.delete();
 	}
 	
+	/**
+	 * Shows the progress of the download.
+	 * @see UserNotifierLoader#update(DSCallFeedbackEvent)
+	 */
+	public void update(DSCallFeedbackEvent fe)
+	{
+		int percent = fe.getPercentDone();
+		if (activity != null && percent >= 0) activity.setProgress(percent);
+	}
+	
 	/** 
 	 * Notifies the user that the data retrieval has been canceled.
 	 * @see UserNotifierLoader#handleResult(Object)
@@ -181,6 +181,15 @@ public interface SqlAction {
 
     void insertLogs(List<Object[]> batchData);
 
+    /**
+     * Inserts {@link ome.model.core.PlaneInfo} rows without going through
+     * Hibernate. Each row holds the id, permissions, theZ, theC, theT,
+     * deltaT, exposureTime, positionX, positionY, positionZ, pixels,
+     * creation event, group, owner and update event, the ids having been
+     * allocated from "seq_planeinfo" with {@link #nextValue(String, int)}.
+     */
+    void insertPlaneInfos(List<Object[]> batchData);
+
     List<Map<String, Object>> roiByImageAndNs(final long imageId,
             final String ns);
 
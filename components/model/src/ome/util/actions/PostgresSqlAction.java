@@ -33,6 +33,15 @@ import org.springframework.jdbc.core.simple.SimpleJdbcOperations;
 
 public class PostgresSqlAction extends SqlAction.Impl {
 
+    /**
+     * Number of rows from which {@link #insertLogs(List)} and
+     * {@link #insertPlaneInfos(List)} switch to multi-row inserts.
+     */
+    public final static int INSERT_LOGS_THRESHOLD = 64;
+
+    /** Maximum number of rows per multi-row insert. */
+    public final static int INSERT_LOGS_ROWS = 1000;
+
     private final SimpleJdbcOperations jdbc;
 
     public PostgresSqlAction(SimpleJdbcOperations jdbc) {
@@ -260,8 +269,70 @@ public class PostgresSqlAction extends SqlAction.Impl {
         }
     }
 
+    /**
+     * Small batches are sent as a JDBC batch. Larger ones are sent as
+     * multi-row inserts of up to {@link #INSERT_LOGS_ROWS} rows, which
+     * PostgreSQL parses and plans once per statement rather than once per
+     * row.
+     */
     public void insertLogs(List<Object[]> batchData) {
-        _jdbc().batchUpdate(_lookup("insert_logs"), batchData); //$NON-NLS-1$
+        insert("insert_logs", batchData); //$NON-NLS-1$
+    }
+
+    /**
+     * Inserted as {@link #insertLogs(List)}.
+     */
+    public void insertPlaneInfos(List<Object[]> batchData) {
+        insert("insert_plane_infos", batchData); //$NON-NLS-1$
+    }
+
+    /**
+     * Inserts rows with the statement of the given key, or with the
+     * multi-row statement built from the "_multi" and "_row" suffixed keys
+     * for large batches.
+     */
+    private void insert(String key, List<Object[]> batchData) {
+        if (batchData.size() < INSERT_LOGS_THRESHOLD) {
+            _jdbc().batchUpdate(_lookup(key), batchData);
+            return;
+        }
+        String prefix = _lookup(key + "_multi"); //$NON-NLS-1$
+        String row = _lookup(key + "_row"); //$NON-NLS-1$
+        String full = null;
+        for (int i = 0; i < batchData.size(); i += INSERT_LOGS_ROWS) {
+            List<Object[]> rows = batchData.subList(i,
+                    Math.min(batchData.size(), i + INSERT_LOGS_ROWS));
+            String sql;
+            if (rows.size() == INSERT_LOGS_ROWS && full != null) {
+                sql = full;
+            } else {
+                sql = multiRowInsert(prefix, row, rows.size());
+                if (rows.size() == INSERT_LOGS_ROWS) {
+                    full = sql;
+                }
+            }
+            List<Object> args = new ArrayList<Object>(rows.size()
+                    * rows.get(0).length);
+            for (Object[] values : rows) {
+                for (Object value : values) {
+                    args.add(value);
+                }
+            }
+            _jdbc().update(sql, args.toArray());
+        }
+    }
+
+    private static String multiRowInsert(String prefix, String row, int rows) {
+        StringBuilder sb = new StringBuilder(prefix.length() + rows
+                * (row.length() + 1));
+        sb.append(prefix);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(row);
+        }
+        return sb.toString();
     }
 
     public List<Map<String, Object>> roiByImageAndNs(final long imageId,
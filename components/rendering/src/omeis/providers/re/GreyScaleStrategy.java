@@ -15,7 +15,6 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 // Application-internal dependencies
-import ome.conditions.ResourceError;
 import ome.io.nio.PixelBuffer;
 import ome.model.core.Pixels;
 import ome.model.display.ChannelBinding;
@@ -145,16 +144,7 @@ class GreyScaleStrategy extends RenderingStrategy {
         	performanceStats.endIO(channel);
 		} finally
 		{
-			try
-            {
-                pixels.close();
-            } 
-            catch (IOException e)
-            {
-                log.error("Pixels could not be closed successfully.", e);
-    			throw new ResourceError(
-    					e.getMessage() + " Please check server log.");
-            }
+			closePixels(pixels);
 		}
        
 	
@@ -162,9 +152,78 @@ class GreyScaleStrategy extends RenderingStrategy {
 	    // create the RGB buffer.
 	    initAxesSize(planeDef, metadata);
 	    RGBIntBuffer dataBuf = getIntBuffer();
-	    
-        int alpha = channelBinding.getAlpha();
-        int[] buf = ((RGBIntBuffer) dataBuf).getDataBuffer();
+	    pack(plane, qs, cc, channelBinding.getAlpha(), sizeX1, sizeX2,
+	            dataBuf.getDataBuffer());
+	    return dataBuf;
+	}
+
+	/**
+	 * Overridden to read the planar data of all the planes before closing
+	 * the pixel buffer once, and to then pack the planes in parallel.
+	 * 
+	 * @see RenderingStrategy#renderAsPackedInt(Renderer ctx, PlaneDef[] planeDefs)
+	 */
+	@Override
+	RGBIntBuffer[] renderAsPackedInt(Renderer ctx, PlaneDef[] planeDefs)
+	        throws IOException, QuantizationException {
+        // Set the context and retrieve objects we're gonna use.
+        renderer = ctx;
+        findFirstActiveChannelBinding();
+        PixelBuffer pixels = renderer.getPixels();
+        Pixels metadata = renderer.getMetadata();
+        RenderingStats performanceStats = renderer.getStats();
+        final QuantumStrategy qs = 
+        	renderer.getQuantumManager().getStrategyFor(channel);
+        final CodomainChain cc = renderer.getCodomainChain();
+        final int alpha = channelBinding.getAlpha();
+
+        RGBIntBuffer[] bufs = new RGBIntBuffer[planeDefs.length];
+        RenderingTask[] tasks = new RenderingTask[planeDefs.length];
+        try {
+        	for (int i = 0; i < planeDefs.length; i++) {
+        		performanceStats.startIO(channel);
+        		final Plane2D plane = PlaneFactory.createPlane(planeDefs[i],
+        				channel, metadata, pixels);
+        		performanceStats.endIO(channel);
+        		initAxesSize(planeDefs[i], metadata);
+        		final RGBIntBuffer buf = getIntBuffer();
+        		final int size1 = sizeX1;
+        		final int size2 = sizeX2;
+        		bufs[i] = buf;
+        		tasks[i] = new RenderingTask() {
+        			public Object call() throws QuantizationException {
+        				pack(plane, qs, cc, alpha, size1, size2,
+        						buf.getDataBuffer());
+        				return null;
+        			}
+        		};
+        	}
+		} finally
+		{
+			closePixels(pixels);
+		}
+        performanceStats.startRendering();
+        runTasks(tasks);
+        performanceStats.endRendering();
+        return bufs;
+	}
+
+	/**
+	 * Quantizes a plane into a packed integer greyscale image.
+	 * 
+	 * @param plane The planar data.
+	 * @param qs The quantum strategy of the channel.
+	 * @param cc The codomain chain.
+	 * @param alpha The alpha component of the image.
+	 * @param sizeX1 The size of the image along the X1-axis.
+	 * @param sizeX2 The size of the image along the X2-axis.
+	 * @param buf The buffer to pack the image into.
+	 * @throws QuantizationException
+	 *             If an error occurred while quantizing the pixels raw data.
+	 */
+	private static void pack(Plane2D plane, QuantumStrategy qs,
+			CodomainChain cc, int alpha, int sizeX1, int sizeX2, int[] buf)
+			throws QuantizationException {
         int x1, x2, discreteValue, pixelIndex;
         if (plane.isXYPlanar())
         {
@@ -191,7 +250,6 @@ class GreyScaleStrategy extends RenderingStrategy {
         		}
         	}
         }
-	    return dataBuf;
 	}
 
 	/**
@@ -12,18 +12,15 @@ import java.awt.Color;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
 // Third-party libraries
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 // Application-internal dependencies
-import ome.conditions.ResourceError;
 import ome.io.nio.PixelBuffer;
 import ome.model.core.Pixels;
 import ome.model.display.ChannelBinding;
@@ -44,9 +41,10 @@ import omeis.providers.re.quantum.QuantumStrategy;
  * each wavelength is mapped to a color. All these things are specified by the
  * rendering context.
  * <p>
- * This strategy renders the in "regions", dividing the planar data up based
- * on {@link #maxTasks} and assigning each task to its own thread. This should
- * result in parallel rendering on multi-processor machines.
+ * This strategy renders the in "regions", dividing the planar data up into
+ * balanced bands of rows based on {@link #maxTasks} and submitting each task
+ * to the shared {@link RenderingExecutor}. This should result in parallel
+ * rendering on multi-processor machines.
  * </p>
  * <p>
  * Thread-safety relies on the fact that the rendering context is not going to
@@ -68,20 +66,26 @@ class HSBStrategy extends RenderingStrategy {
     /** The logger for this particular class */
     private static Log log = LogFactory.getLog(HSBStrategy.class);
     
+    /**
+     * The minimum number of pixels a single rendering task should process.
+     * Smaller regions are not worth the hand off to another thread.
+     */
+    private static final int MIN_PIXELS_PER_TASK = 128 * 128;
+
     /**
      * Retrieves the maximum number of reasonable tasks to schedule based on
-     * image size and <i>maxTasks</i>.
+     * image size and <i>maxTasks</i>. Regions are split into balanced bands
+     * of rows regardless of whether or not <code>sizeX2</code> is divisible
+     * by the number of tasks.
      * 
-     * @param size The width along the X2 axis.
+     * @param size1 The width along the X1 axis.
+     * @param size2 The width along the X2 axis.
      * @return the number of tasks to schedule.
      */
-    private int numTasks(int size) {
-        for (int i = maxTasks; i > 0; i--) {
-            if (size % i == 0) {
-                return i;
-            }
-        }
-        return 1;
+    private int numTasks(int size1, int size2) {
+        int n = (int) Math.min((long) size1 * size2 / MIN_PIXELS_PER_TASK,
+                               maxTasks);
+        return Math.max(1, Math.min(n, size2));
     }
 
     /**
@@ -90,49 +94,47 @@ class HSBStrategy extends RenderingStrategy {
      * @return the wavelength data.
      */
     private List<Plane2D> getWavelengthData(PlaneDef pDef) {
-        ChannelBinding[] channelBindings = renderer.getChannelBindings();
-        Pixels metadata = renderer.getMetadata();
-        PixelBuffer pixels = renderer.getPixels();
-        List<Plane2D> wData = null;
         try
         {
-        	RenderingStats performanceStats = renderer.getStats();
-        	wData = new ArrayList<Plane2D>();
-
-        	for (int w = 0; w < channelBindings.length; w++) {
-        		if (channelBindings[w].getActive()) {
-        			performanceStats.startIO(w);
-        			wData.add(PlaneFactory.createPlane(pDef, w, metadata, 
-        					pixels));
-        			performanceStats.endIO(w);
-        		}
-        	}
-        	Map<byte[], Integer> overlays = renderer.getOverlays();
-        	if (overlays != null)
-        	{
-        		for (byte[] overlay : overlays.keySet())
-        		{
-				ome.util.PixelData data =
-					new PixelData(PlaneFactory.BIT, ByteBuffer.wrap(overlay));
-        			wData.add(new Plane2D(pDef, metadata, data));
-        		}
-        	}
+            return readWavelengthData(pDef);
         }
         finally
         {
             // Make sure that the pixel buffer is cleansed properly.
-            try
-            {
-                pixels.close();
-            } 
-            catch (IOException e)
-            {
-                log.error("Pixels could not be closed successfully.", e);
-    			throw new ResourceError(
-    					e.getMessage() + " Please check server log.");
-            }        	
+            closePixels(renderer.getPixels());
         }
+    }
+
+    /**
+     * Reads the wavelength data for all the active channels and overlays,
+     * leaving the pixel buffer open.
+     * 
+     * @return the wavelength data.
+     */
+    private List<Plane2D> readWavelengthData(PlaneDef pDef) {
+        ChannelBinding[] channelBindings = renderer.getChannelBindings();
+        Pixels metadata = renderer.getMetadata();
+        PixelBuffer pixels = renderer.getPixels();
+        RenderingStats performanceStats = renderer.getStats();
+        List<Plane2D> wData = new ArrayList<Plane2D>();
 
+        for (int w = 0; w < channelBindings.length; w++) {
+            if (channelBindings[w].getActive()) {
+                performanceStats.startIO(w);
+                wData.add(PlaneFactory.createPlane(pDef, w, metadata, pixels));
+                performanceStats.endIO(w);
+            }
+        }
+        Map<byte[], Integer> overlays = renderer.getOverlays();
+        if (overlays != null)
+        {
+            for (byte[] overlay : overlays.keySet())
+            {
+                ome.util.PixelData data =
+                    new PixelData(PlaneFactory.BIT, ByteBuffer.wrap(overlay));
+                wData.add(new Plane2D(pDef, metadata, data));
+            }
+        }
         return wData;
     }
 
@@ -205,27 +207,30 @@ class HSBStrategy extends RenderingStrategy {
      *            The plane to render.
      * @param buf
      *            The buffer to render into.
+     * @param wData
+     *            The wavelength data of the plane.
      * @return An array containing the tasks.
      */
-    private RenderingTask[] makeRenderingTasks(PlaneDef def, RGBBuffer buf) {
+    private RenderingTask[] makeRenderingTasks(PlaneDef def, RGBBuffer buf,
+            List<Plane2D> wData) {
         List<RenderHSBRegionTask> tasks = new ArrayList<RenderHSBRegionTask>();
 
         // Get all objects we need to create the tasks.
         CodomainChain cc = renderer.getCodomainChain();
-        //RenderingStats performanceStats = renderer.getStats();
-        List<Plane2D> wData = getWavelengthData(def);
         List<int[]> colors = getColors();
         List<QuantumStrategy> strategies = getStrategies();
         // Create a number of rendering tasks.
-        int taskCount = numTasks(sizeX2);
-        int delta = sizeX2/taskCount;
+        int taskCount = numTasks(sizeX1, sizeX2);
         int x1Start = 0;
         int x1End = sizeX1;
         int x2Start, x2End;
-        log.info("taskCount: "+taskCount+" delta: "+delta);
+        if (log.isDebugEnabled()) {
+            log.debug("taskCount: "+taskCount+" sizeX2: "+sizeX2);
+        }
         for (int i = 0; i < taskCount; i++) {
-            x2Start = i*delta;
-            x2End = (i+1)*delta;
+            // Bands differ in height by at most one row.
+            x2Start = (int) ((long) i*sizeX2/taskCount);
+            x2End = (int) ((long) (i+1)*sizeX2/taskCount);
             tasks.add(new RenderHSBRegionTask(buf, wData, strategies, cc,
             		colors, renderer.getOptimizations(),
             		x1Start, x1End, x2Start, x2End));
@@ -276,6 +281,42 @@ class HSBStrategy extends RenderingStrategy {
         return buf;
     }
 
+    /**
+     * Overridden to read the wavelength data of all the planes before
+     * closing the pixel buffer once, and to then render the bands of all the
+     * planes in parallel.
+     * 
+     * @see RenderingStrategy#renderAsPackedInt(Renderer ctx, PlaneDef[] planeDefs)
+     */
+    @Override
+    RGBIntBuffer[] renderAsPackedInt(Renderer ctx, PlaneDef[] planeDefs)
+            throws IOException, QuantizationException {
+        // Set the context and retrieve objects we're gonna use.
+        renderer = ctx;
+        Pixels metadata = renderer.getMetadata();
+        RenderingStats performanceStats = renderer.getStats();
+
+        RGBIntBuffer[] bufs = new RGBIntBuffer[planeDefs.length];
+        List<RenderingTask> tasks = new ArrayList<RenderingTask>();
+        try
+        {
+            for (int i = 0; i < planeDefs.length; i++) {
+                initAxesSize(planeDefs[i], metadata);
+                bufs[i] = getIntBuffer();
+                tasks.addAll(Arrays.asList(makeRenderingTasks(planeDefs[i],
+                        bufs[i], readWavelengthData(planeDefs[i]))));
+            }
+        }
+        finally
+        {
+            closePixels(renderer.getPixels());
+        }
+        performanceStats.startRendering();
+        runTasks(tasks.toArray(new RenderingTask[tasks.size()]));
+        performanceStats.endRendering();
+        return bufs;
+    }
+
     /**
      * Implemented as specified by the superclass.
      * 
@@ -308,35 +349,10 @@ class HSBStrategy extends RenderingStrategy {
         // Process each active wavelength. If their number N > 1, then
         // process N-1 async and one in the current thread. If N = 1,
         // just use the current thread.
-        RenderingTask[] tasks = makeRenderingTasks(planeDef, buf);
+        RenderingTask[] tasks = makeRenderingTasks(planeDef, buf,
+                getWavelengthData(planeDef));
         performanceStats.startRendering();
-        int n = tasks.length;
-        Future[] rndTskFutures = new Future[n]; // [0] unused.
-        ExecutorService processor = Executors.newCachedThreadPool();
-
-        while (0 < --n) {
-            rndTskFutures[n] = processor.submit(tasks[n]);
-        }
-
-        // Call the task in the current thread.
-        if (n == 0) {
-            tasks[0].call();
-        }
-
-        // Wait for all forked tasks (if any) to complete.
-        for (n = 1; n < rndTskFutures.length; ++n) {
-            try {
-                rndTskFutures[n].get();
-            } catch (Exception e) {
-                if (e instanceof QuantizationException) {
-                    throw (QuantizationException) e;
-                }
-                throw new RuntimeException(e);
-            }
-        }
-
-        // Shutdown the task processor
-        processor.shutdown();
+        runTasks(tasks);
 
         // End the performance metrics for this rendering event.
         performanceStats.endRendering();
@@ -22,6 +22,12 @@ public class Optimizations
 	/** We can do alphaless rendering */
 	public boolean alphalessRendering = false;
 
+	/**
+	 * Planes are rendered using type-specialized kernels when the pixel
+	 * type and quantum strategy allow it.
+	 */
+	public boolean specializedKernels = true;
+
 	/**
 	 * Enable or disable the primary color optimization.
 	 * @param enabled whether or not to enable the primary color optimization.
@@ -64,4 +70,24 @@ public class Optimizations
 	{
 		return alphalessRendering;
 	}
+
+	/**
+	 * Enable or disable the type-specialized rendering kernels. When
+	 * disabled every plane is rendered through the generic code path.
+	 * @param enabled whether or not to enable the specialized kernels.
+	 */
+	public void setSpecializedKernels(boolean enabled)
+	{
+		specializedKernels = enabled;
+	}
+
+	/**
+	 * Returns <code>true</code> if the type-specialized rendering kernels are
+	 * enabled, and <code>false</code> if they are not.
+	 * @return See above.
+	 */
+	public boolean isSpecializedKernels()
+	{
+		return specializedKernels;
+	}
 }
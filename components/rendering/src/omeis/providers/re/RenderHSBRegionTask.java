@@ -143,6 +143,10 @@ class RenderHSBRegionTask implements RenderingTask {
         byte[] r = dataBuffer.getRedBand();
         byte[] g = dataBuffer.getGreenBand();
         byte[] b = dataBuffer.getBlueBand();
+        // Planes are read with their own row stride here so rows can only be
+        // handed to the specialized kernel if the region starts at x1 = 0.
+        boolean isSpecialized =
+            optimizations.isSpecializedKernels() && x1Start == 0;
         for (Plane2D plane : wData) {
             int[] color = colors.get(i);
             QuantumStrategy qs = strategies.get(i);
@@ -152,6 +156,13 @@ class RenderHSBRegionTask implements RenderingTask {
 
             float alpha = new Float(
             		color[ColorsFactory.ALPHA_INDEX]).floatValue() / 65025;// 255*255
+            RowQuantizer rq =
+                isSpecialized? RowQuantizer.make(plane, qs) : null;
+            if (rq != null) {
+                renderBanded(rq, makeBandedColorTable(color, alpha), r, g, b);
+                i++;
+                continue;
+            }
             for (int x2 = x2Start; x2 < x2End; ++x2) {
                 for (int x1 = x1Start; x1 < x1End; ++x1) {
                     pix = width * x2 + x1;
@@ -206,6 +217,7 @@ class RenderHSBRegionTask implements RenderingTask {
         int[] buf = ((RGBIntBuffer) dataBuffer).getDataBuffer();
         boolean isPrimaryColor = optimizations.isPrimaryColorEnabled();
         boolean isAlphaless = optimizations.isAlphalessRendering();
+        boolean isSpecialized = optimizations.isSpecializedKernels();
         for (Plane2D plane : wData) {
             int[] color = colors.get(i);
             QuantumStrategy qs = strategies.get(i);
@@ -227,6 +239,19 @@ class RenderHSBRegionTask implements RenderingTask {
             
             float alpha = new Integer(
             		color[ColorsFactory.ALPHA_INDEX]).floatValue() / 255;
+            RowQuantizer rq =
+                isSpecialized? RowQuantizer.make(plane, qs) : null;
+            if (rq != null) {
+                if (colorOffset != 24) {
+                    renderPrimaryColor(rq, buf, colorOffset, 0xFF000000);
+                } else {
+                    renderPackedInt(rq, buf, makeColorTable(
+                            redRatio, greenRatio, blueRatio,
+                            isAlphaless, alpha));
+                }
+                i++;
+                continue;
+            }
             for (int x2 = x2Start; x2 < x2End; ++x2) {
                 for (int x1 = x1Start; x1 < x1End; ++x1) {
                     pix = width * x2 + x1;
@@ -328,6 +353,7 @@ class RenderHSBRegionTask implements RenderingTask {
         int[] buf = ((RGBAIntBuffer) dataBuffer).getDataBuffer();
         boolean isPrimaryColor = optimizations.isPrimaryColorEnabled();
         boolean isAlphaless = optimizations.isAlphalessRendering();
+        boolean isSpecialized = optimizations.isSpecializedKernels();
         for (Plane2D plane : wData) {
             int[] color = colors.get(i);
             QuantumStrategy qs = strategies.get(i);
@@ -347,6 +373,19 @@ class RenderHSBRegionTask implements RenderingTask {
             	colorOffset = getColorOffsetAsRGBA(color);
 
             float alpha = new Integer(color[ColorsFactory.ALPHA_INDEX]).floatValue() / 255;
+            RowQuantizer rq =
+                isSpecialized? RowQuantizer.make(plane, qs) : null;
+            if (rq != null) {
+                if (colorOffset != 32) {
+                    renderPrimaryColor(rq, buf, colorOffset, 0x000000FF);
+                } else {
+                    renderPackedIntAsRGBA(rq, buf, makeColorTable(
+                            redRatio, greenRatio, blueRatio,
+                            isAlphaless, alpha));
+                }
+                i++;
+                continue;
+            }
             for (int x2 = x2Start; x2 < x2End; ++x2) {
                 for (int x1 = x1Start; x1 < x1End; ++x1) {
                     pix = width * x2 + x1;
@@ -419,6 +458,212 @@ class RenderHSBRegionTask implements RenderingTask {
         }
     }
     
+    /**
+     * Builds the table of colour contributions, one per quantized value,
+     * used by the specialized packed integer kernels. Each entry holds the
+     * red, green and blue components, alpha pre-multiplied if required,
+     * packed as <code>0x00RRGGBB</code> and computed exactly as the generic
+     * code path does.
+     * 
+     * @param redRatio The red ratio of the channel's colour.
+     * @param greenRatio The green ratio of the channel's colour.
+     * @param blueRatio The blue ratio of the channel's colour.
+     * @param isAlphaless Whether or not alpha is ignored.
+     * @param alpha The alpha of the channel's colour in [0, 1].
+     * @return See above.
+     */
+    private int[] makeColorTable(double redRatio, double greenRatio,
+            double blueRatio, boolean isAlphaless, float alpha)
+    {
+        int[] table = new int[QuantumStrategy.MAX + 1];
+        int newRValue, newGValue, newBValue;
+        for (int v = 0; v < table.length; v++) {
+            newRValue = (int) (redRatio * v);
+            newGValue = (int) (greenRatio * v);
+            newBValue = (int) (blueRatio * v);
+            if (!isAlphaless)
+            {
+                newRValue *= alpha;
+                newGValue *= alpha;
+                newBValue *= alpha;
+            }
+            table[v] = newRValue << 16 | newGValue << 8 | newBValue;
+        }
+        return table;
+    }
+
+    /**
+     * Builds the table of colour contributions, one per quantized value,
+     * used by the specialized banded kernel. The codomain transformations
+     * are folded into the table.
+     * 
+     * @param color The channel's colour.
+     * @param alpha The alpha of the channel's colour in [0, 1/255].
+     * @return See above.
+     */
+    private int[] makeBandedColorTable(int[] color, float alpha)
+    {
+        int[] table = new int[QuantumStrategy.MAX + 1];
+        int rColor = color[ColorsFactory.RED_INDEX];
+        int gColor = color[ColorsFactory.GREEN_INDEX];
+        int bColor = color[ColorsFactory.BLUE_INDEX];
+        float v;
+        for (int dv = 0; dv < table.length; dv++) {
+            v = cc.transform(dv) * alpha;
+            table[dv] = (int) (rColor * v) << 16 | (int) (gColor * v) << 8
+                        | (int) (bColor * v);
+        }
+        return table;
+    }
+
+    /**
+     * Specialized version of the banded rendering loop for a single plane.
+     * 
+     * @param rq The quantizer for the plane.
+     * @param table The colour table built by
+     * {@link #makeBandedColorTable(int[], float)}.
+     * @param r The red band.
+     * @param g The green band.
+     * @param b The blue band.
+     * @throws QuantizationException
+     *             if there is an error during pixel value quantization.
+     */
+    private void renderBanded(RowQuantizer rq, int[] table,
+            byte[] r, byte[] g, byte[] b) throws QuantizationException {
+        int width = x1End - x1Start;
+        int count = x1End - x1Start;
+        int[] values = new int[count];
+        int pix, c, rValue, gValue, bValue;
+        for (int x2 = x2Start; x2 < x2End; ++x2) {
+            pix = width * x2 + x1Start;
+            rq.quantize(pix, count, values);
+            for (int k = 0; k < count; k++, pix++) {
+                c = table[values[k]];
+                rValue = (c >> 16) + r[pix];
+                gValue = ((c >> 8) & 0xFF) + g[pix];
+                bValue = (c & 0xFF) + b[pix];
+                if (rValue > 255) {
+                    rValue = 255;
+                }
+                if (gValue > 255) {
+                    gValue = 255;
+                }
+                if (bValue > 255) {
+                    bValue = 255;
+                }
+                r[pix] = (byte) (rValue & 0xFF);
+                g[pix] = (byte) (gValue & 0xFF);
+                b[pix] = (byte) (bValue & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Specialized version of the packed integer rendering loop for a single
+     * plane.
+     * 
+     * @param rq The quantizer for the plane.
+     * @param buf The packed ARGB buffer to render into.
+     * @param table The colour table built by
+     * {@link #makeColorTable(double, double, double, boolean, float)}.
+     * @throws QuantizationException
+     *             if there is an error during pixel value quantization.
+     */
+    private void renderPackedInt(RowQuantizer rq, int[] buf, int[] table)
+        throws QuantizationException {
+        int width = x1End - x1Start;
+        int count = x1End - x1Start;
+        int[] values = new int[count];
+        int pix, c, rValue, gValue, bValue;
+        for (int x2 = x2Start; x2 < x2End; ++x2) {
+            pix = width * x2 + x1Start;
+            rq.quantize(pix, count, values);
+            for (int k = 0; k < count; k++, pix++) {
+                c = table[values[k]];
+                rValue = ((buf[pix] & 0x00FF0000) >> 16) + (c >> 16);
+                gValue = ((buf[pix] & 0x0000FF00) >> 8) + ((c >> 8) & 0xFF);
+                bValue = (buf[pix] & 0x000000FF) + (c & 0xFF);
+                if (rValue > 255) {
+                    rValue = 255;
+                }
+                if (gValue > 255) {
+                    gValue = 255;
+                }
+                if (bValue > 255) {
+                    bValue = 255;
+                }
+                buf[pix] = 0xFF000000 | rValue << 16 | gValue << 8 | bValue;
+            }
+        }
+    }
+
+    /**
+     * Specialized version of the packed RGBA integer rendering loop for a
+     * single plane.
+     * 
+     * @param rq The quantizer for the plane.
+     * @param buf The packed RGBA buffer to render into.
+     * @param table The colour table built by
+     * {@link #makeColorTable(double, double, double, boolean, float)}.
+     * @throws QuantizationException
+     *             if there is an error during pixel value quantization.
+     */
+    private void renderPackedIntAsRGBA(RowQuantizer rq, int[] buf,
+            int[] table) throws QuantizationException {
+        int width = x1End - x1Start;
+        int count = x1End - x1Start;
+        int[] values = new int[count];
+        int pix, c, rValue, gValue, bValue;
+        for (int x2 = x2Start; x2 < x2End; ++x2) {
+            pix = width * x2 + x1Start;
+            rq.quantize(pix, count, values);
+            for (int k = 0; k < count; k++, pix++) {
+                c = table[values[k]];
+                rValue = ((buf[pix] & 0xFF000000) >> 24) + (c >> 16);
+                gValue = ((buf[pix] & 0x00FF0000) >> 16) + ((c >> 8) & 0xFF);
+                bValue = ((buf[pix] & 0x0000FF00) >> 8) + (c & 0xFF);
+                if (rValue > 255) {
+                    rValue = 255;
+                }
+                if (gValue > 255) {
+                    gValue = 255;
+                }
+                if (bValue > 255) {
+                    bValue = 255;
+                }
+                buf[pix] = 0x000000FF | rValue << 24 | gValue << 16
+                           | bValue << 8;
+            }
+        }
+    }
+
+    /**
+     * Specialized version of the primary colour optimization for a single
+     * plane: the quantized value is shifted straight into its colour
+     * component.
+     * 
+     * @param rq The quantizer for the plane.
+     * @param buf The packed buffer to render into.
+     * @param colorOffset The offset in bits of the colour component.
+     * @param alphaMask The mask of the alpha component.
+     * @throws QuantizationException
+     *             if there is an error during pixel value quantization.
+     */
+    private void renderPrimaryColor(RowQuantizer rq, int[] buf,
+            int colorOffset, int alphaMask) throws QuantizationException {
+        int width = x1End - x1Start;
+        int count = x1End - x1Start;
+        int[] values = new int[count];
+        int pix;
+        for (int x2 = x2Start; x2 < x2End; ++x2) {
+            pix = width * x2 + x1Start;
+            rq.quantize(pix, count, values);
+            for (int k = 0; k < count; k++, pix++) {
+                buf[pix] |= alphaMask | values[k] << colorOffset;
+            }
+        }
+    }
+
     /**
      * Returns a color offset based on which color component is 0xFF.
      * @param color the color to check.
@@ -519,6 +519,67 @@ public class Renderer {
             buffer = oldBuffer;
         }
     }
+
+    /**
+     * Renders several regions of the <i>XY</i>-plane selected by
+     * <code>pd</code>, typically the tiles of a viewport, according to the
+     * current rendering settings. The data of all the regions is read before
+     * any of them is rendered and the regions are then rendered in parallel.
+     * 
+     * @param pd
+     *            Selects an <i>XY</i>-plane; its region, if any, is ignored.
+     * @param regions
+     *            The regions of the plane to render, with respect to the
+     *            current resolution level.
+     * @return The <i>RGB</i> images, one per region, ready to be displayed
+     *         on screen.
+     * @throws IOException
+     *             If an error occurred while trying to pull out data from the
+     *             pixels data repository.
+     * @throws QuantizationException
+     *             If an error occurred while quantizing the pixels raw data.
+     * @throws NullPointerException
+     *             If <code>pd</code> or <code>regions</code> is
+     *             <code>null</code>.
+     * @throws IllegalArgumentException
+     *             If <code>pd</code> is not an <i>XY</i>-plane.
+     */
+    public int[][] renderRegionsAsPackedInt(PlaneDef pd, RegionDef[] regions)
+        throws IOException, QuantizationException
+    {
+        if (pd == null) {
+            throw new NullPointerException("No plane definition.");
+        }
+        if (regions == null) {
+            throw new NullPointerException("No regions.");
+        }
+        if (pd.getSlice() != PlaneDef.XY) {
+            throw new IllegalArgumentException(
+                    "Regions can only be rendered from an XY-plane.");
+        }
+        PlaneDef[] planeDefs = new PlaneDef[regions.length];
+        for (int i = 0; i < regions.length; i++) {
+            if (regions[i] == null) {
+                throw new NullPointerException("No region: " + i);
+            }
+            checkRegionDef(regions[i]);
+            planeDefs[i] = new PlaneDef(PlaneDef.XY, pd.getT());
+            planeDefs[i].setZ(pd.getZ());
+            planeDefs[i].setStride(pd.getStride());
+            planeDefs[i].setRegion(regions[i]);
+        }
+        stats = new RenderingStats(this, pd);
+        log.info("Using: '" + renderingStrategy.getClass().getName()
+                + "' rendering strategy for " + regions.length + " regions.");
+        RGBIntBuffer[] imgs =
+            renderingStrategy.renderAsPackedInt(this, planeDefs);
+        stats.stop();
+        int[][] packed = new int[imgs.length][];
+        for (int i = 0; i < imgs.length; i++) {
+            packed[i] = imgs[i].getDataBuffer();
+        }
+        return packed;
+    }
     
     /**
      * Renders the data selected by <code>pd</code> according to the current
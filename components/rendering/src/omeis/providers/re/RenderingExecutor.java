@@ -0,0 +1,286 @@
+/*
+ * omeis.providers.re.RenderingExecutor
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re;
+
+// Java imports
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Third-party libraries
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+// Application-internal dependencies
+
+/**
+ * Process-wide, size-bounded pool of threads shared by all the
+ * {@link RenderingStrategy} implementations. Rather than creating and
+ * destroying a thread pool for every rendered plane, strategies submit their
+ * {@link RenderingTask}s to the {@link #getDefault() default} instance.
+ * <p>
+ * The pool has a fixed number of threads and a bounded queue. When the queue
+ * is full, tasks are run in the submitting thread so that the number of
+ * threads never grows with the load. Tasks submitted once the pool has been
+ * {@link #shutdown() shut down}, e.g. by holders of a previous default
+ * instance, are run in the submitting thread as well rather than being
+ * discarded. Queue depth, queue wait and task execution times are kept for
+ * monitoring.
+ * </p>
+ *
+ * @since Beta4.3.2
+ */
+public class RenderingExecutor
+{
+
+    /** The logger for this particular class */
+    private static Log log = LogFactory.getLog(RenderingExecutor.class);
+
+    /** Default maximum number of queued rendering tasks. */
+    public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+    /** The shared instance used by the rendering strategies. */
+    private static volatile RenderingExecutor defaultInstance;
+
+    /** The backing pool. */
+    private final ThreadPoolExecutor pool;
+
+    /** Number of tasks which have completed. */
+    private final AtomicLong taskCount = new AtomicLong();
+
+    /** Number of tasks which were run in the caller's thread. */
+    private final AtomicLong callerRunsCount = new AtomicLong();
+
+    /** Sum of the time, in nanoseconds, tasks spent in the queue. */
+    private final AtomicLong queueWaitTime = new AtomicLong();
+
+    /** Sum of the time, in nanoseconds, tasks spent executing. */
+    private final AtomicLong executionTime = new AtomicLong();
+
+    /**
+     * Creates an executor with one thread per available processor and a
+     * queue of {@link #DEFAULT_QUEUE_SIZE} tasks.
+     */
+    public RenderingExecutor()
+    {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Creates an executor.
+     *
+     * @param threads The number of rendering threads. Values less than one
+     * default to the number of available processors.
+     * @param queueSize The maximum number of queued tasks.
+     */
+    public RenderingExecutor(int threads, int queueSize)
+    {
+        if (threads < 1)
+        {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                new RenderingThreadFactory(), new CallerRuns());
+        log.info("RenderingExecutor(threads=" + threads + ", queueSize="
+                + queueSize + ")");
+    }
+
+    /**
+     * Returns the shared instance, creating it with default values if none
+     * has been {@link #makeDefault() registered}.
+     *
+     * @return See above.
+     */
+    public static RenderingExecutor getDefault()
+    {
+        if (defaultInstance == null)
+        {
+            synchronized (RenderingExecutor.class)
+            {
+                if (defaultInstance == null)
+                {
+                    defaultInstance = new RenderingExecutor();
+                }
+            }
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Registers this instance as the shared instance returned by
+     * {@link #getDefault()}. Usually called by the container once the
+     * instance has been configured. The previous instance is shut down once
+     * its queued tasks have run; tasks still submitted to it are run in the
+     * submitting thread.
+     */
+    public void makeDefault()
+    {
+        RenderingExecutor previous;
+        synchronized (RenderingExecutor.class)
+        {
+            previous = defaultInstance;
+            defaultInstance = this;
+        }
+        if (previous != null && previous != this)
+        {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * Submits a rendering task for execution. If the queue is full the task
+     * is run before this method returns.
+     *
+     * @param task The task to execute.
+     * @return A future representing the pending result of the task.
+     */
+    public Future<Object> submit(final RenderingTask task)
+    {
+        final long queued = System.nanoTime();
+        final Thread submitter = Thread.currentThread();
+        return pool.submit(new Callable<Object>()
+        {
+            public Object call() throws Exception
+            {
+                long start = System.nanoTime();
+                if (Thread.currentThread() == submitter)
+                {
+                    callerRunsCount.incrementAndGet();
+                }
+                try
+                {
+                    return task.call();
+                }
+                finally
+                {
+                    long stop = System.nanoTime();
+                    queueWaitTime.addAndGet(start - queued);
+                    executionTime.addAndGet(stop - start);
+                    taskCount.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops accepting new tasks. Queued tasks are still executed.
+     */
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    /** Returns the number of rendering threads. */
+    public int getPoolSize()
+    {
+        return pool.getMaximumPoolSize();
+    }
+
+    /** Returns the number of threads currently executing tasks. */
+    public int getActiveCount()
+    {
+        return pool.getActiveCount();
+    }
+
+    /** Returns the number of tasks waiting to be executed. */
+    public int getQueueDepth()
+    {
+        return pool.getQueue().size();
+    }
+
+    /** Returns the number of tasks which have completed. */
+    public long getTaskCount()
+    {
+        return taskCount.get();
+    }
+
+    /**
+     * Returns the number of tasks which were run in the submitting thread
+     * because the queue was full.
+     */
+    public long getCallerRunsCount()
+    {
+        return callerRunsCount.get();
+    }
+
+    /**
+     * Returns the mean time, in milliseconds, completed tasks waited in the
+     * queue before being executed.
+     */
+    public double getMeanQueueWait()
+    {
+        return mean(queueWaitTime.get());
+    }
+
+    /**
+     * Returns the mean time, in milliseconds, completed tasks took to
+     * execute.
+     */
+    public double getMeanTaskLatency()
+    {
+        return mean(executionTime.get());
+    }
+
+    private double mean(long totalNanos)
+    {
+        long count = taskCount.get();
+        if (count == 0)
+        {
+            return 0.0;
+        }
+        return totalNanos / 1000000.0 / count;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("RenderingExecutor(threads=%d, active=%d, " +
+                "queued=%d, tasks=%d, callerRuns=%d, wait=%.3fms, " +
+                "latency=%.3fms)", getPoolSize(), getActiveCount(),
+                getQueueDepth(), getTaskCount(), getCallerRunsCount(),
+                getMeanQueueWait(), getMeanTaskLatency());
+    }
+
+    /**
+     * Runs rejected tasks in the submitting thread, whether the queue is full
+     * or the pool has been shut down. Unlike
+     * {@link ThreadPoolExecutor.CallerRunsPolicy}, which discards the tasks
+     * of a shut down pool, this never leaves a future which is not completed.
+     */
+    private static class CallerRuns implements RejectedExecutionHandler
+    {
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor)
+        {
+            r.run();
+        }
+    }
+
+    /**
+     * Creates named daemon threads so that the pool never prevents the JVM
+     * from exiting.
+     */
+    private static class RenderingThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "Rendering-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+}
@@ -9,12 +9,16 @@ package omeis.providers.re;
 
 // Java imports
 import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 // Third-party libraries
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 // Application-internal dependencies
+import ome.conditions.ResourceError;
+import ome.io.nio.PixelBuffer;
 import ome.model.core.Pixels;
 import ome.model.enums.RenderingModel;
 import omeis.providers.re.data.PlaneDef;
@@ -206,6 +210,68 @@ abstract class RenderingStrategy {
     	return buf;
     }
 
+    /**
+     * Closes the pixel buffer of the rendering context once the planar data
+     * to render has been read.
+     * 
+     * @param pixels The pixel buffer to close.
+     */
+    protected void closePixels(PixelBuffer pixels)
+    {
+        try
+        {
+            pixels.close();
+        }
+        catch (IOException e)
+        {
+            log.error("Pixels could not be closed successfully.", e);
+            throw new ResourceError(
+                    e.getMessage() + " Please check server log.");
+        }
+    }
+
+    /**
+     * Runs rendering tasks in parallel, handing all but the first task to
+     * the shared {@link RenderingExecutor} and running the first one in the
+     * current thread, and waits for all of them to complete.
+     * 
+     * @param tasks The tasks to run.
+     * @throws QuantizationException
+     *             If an error occurred while quantizing the pixels raw data.
+     */
+    protected void runTasks(RenderingTask[] tasks)
+            throws QuantizationException
+    {
+        int n = tasks.length;
+        Future[] rndTskFutures = new Future[n]; // [0] unused.
+        RenderingExecutor processor = RenderingExecutor.getDefault();
+
+        while (0 < --n) {
+            rndTskFutures[n] = processor.submit(tasks[n]);
+        }
+
+        // Call the task in the current thread.
+        if (n == 0) {
+            tasks[0].call();
+        }
+
+        // Wait for all forked tasks (if any) to complete.
+        for (n = 1; n < rndTskFutures.length; ++n) {
+            try {
+                rndTskFutures[n].get();
+            } catch (Exception e) {
+                if (e instanceof ExecutionException && e.getCause() != null
+                        && e.getCause() instanceof Exception) {
+                    e = (Exception) e.getCause();
+                }
+                if (e instanceof QuantizationException) {
+                    throw (QuantizationException) e;
+                }
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     /**
      * Factory method to retrieve a concrete strategy. The strategy is selected
      * according to the model that dictates how transformed raw data is to be
@@ -292,6 +358,33 @@ abstract class RenderingStrategy {
     abstract RGBIntBuffer renderAsPackedInt(Renderer ctx, PlaneDef pd)
             throws IOException, QuantizationException;
 
+    /**
+     * Renders several planes, typically the tiles of a viewport, as packed
+     * integer images. This implementation renders the planes one after the
+     * other; strategies may instead read the data of all the planes first
+     * and render them in parallel.
+     * 
+     * @param ctx
+     *            Represents the rendering environment.
+     * @param planeDefs
+     *            The planes to render.
+     * @return The images, one per plane, rendered according to the current
+     *         settings hold by <code>ctx</code>.
+     * @throws IOException
+     *             If an error occurred while accessing the pixels raw data.
+     * @throws QuantizationException
+     *             If an error occurred while quantizing the pixels raw data.
+     * @see #renderAsPackedInt(Renderer, PlaneDef)
+     */
+    RGBIntBuffer[] renderAsPackedInt(Renderer ctx, PlaneDef[] planeDefs)
+            throws IOException, QuantizationException {
+        RGBIntBuffer[] bufs = new RGBIntBuffer[planeDefs.length];
+        for (int i = 0; i < planeDefs.length; i++) {
+            bufs[i] = renderAsPackedInt(ctx, planeDefs[i]);
+        }
+        return bufs;
+    }
+
     /**
      * Encapsulates a specific rendering algorithm. The image is rendered
      * according to the current settings hold by the <code>ctx</code>
@@ -0,0 +1,177 @@
+/*
+ * omeis.providers.re.RowQuantizer
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re;
+
+// Java imports
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+// Third-party libraries
+
+// Application-internal dependencies
+import ome.util.PixelData;
+import omeis.providers.re.data.Plane2D;
+import omeis.providers.re.quantum.QuantizationException;
+import omeis.providers.re.quantum.Quantization_8_16_bit;
+import omeis.providers.re.quantum.QuantumStrategy;
+
+/**
+ * Type-specialized quantization of runs of pixels of an <i>XY</i> plane.
+ * Each implementation reads straight from the typed view of the plane's
+ * backing buffer and indexes the look-up table of a
+ * {@link Quantization_8_16_bit} strategy with an <code>int</code>, avoiding
+ * the per pixel type dispatch and <code>double</code> conversion of
+ * {@link PixelData#getPixelValueDirect(int)} and
+ * {@link QuantumStrategy#quantize(double)}.
+ * <p>
+ * Instances are created per plane and per task and are not thread-safe.
+ * </p>
+ *
+ * @since Beta4.3.2
+ * @see RenderHSBRegionTask
+ */
+abstract class RowQuantizer {
+
+    /** The strategy whose look-up table is used. */
+    protected final Quantization_8_16_bit qs;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param qs The strategy to use.
+     */
+    protected RowQuantizer(Quantization_8_16_bit qs) {
+        this.qs = qs;
+    }
+
+    /**
+     * Quantizes <code>count</code> pixels starting at pixel index
+     * <code>offset</code> into <code>values</code>.
+     *
+     * @param offset The index of the first pixel within the plane.
+     * @param count The number of pixels to quantize.
+     * @param values The array to fill, of at least <code>count</code>
+     * elements.
+     * @throws QuantizationException If a value cannot be quantized.
+     */
+    abstract void quantize(int offset, int count, int[] values)
+        throws QuantizationException;
+
+    /**
+     * Returns a specialized instance for the given plane and strategy, or
+     * <code>null</code> if the combination is not handled in which case the
+     * generic code path must be used.
+     *
+     * @param plane The plane to read from.
+     * @param strategy The quantum strategy of the plane's channel.
+     * @return See above.
+     */
+    static RowQuantizer make(Plane2D plane, QuantumStrategy strategy) {
+        if (!plane.isXYPlanar()
+                || !(strategy instanceof Quantization_8_16_bit)) {
+            return null;
+        }
+        Quantization_8_16_bit qs = (Quantization_8_16_bit) strategy;
+        PixelData data = plane.getData();
+        ByteBuffer buf = data.getData().duplicate();
+        buf.order(data.getOrder());
+        buf.position(0);
+        if (data.in(new String[] { "uint8" })) {
+            return new UInt8(qs, buf);
+        } else if (data.in(new String[] { "uint16" })) {
+            return new UInt16(qs, buf.asShortBuffer());
+        } else if (data.in(new String[] { "int16" })) {
+            return new Int16(qs, buf.asShortBuffer());
+        } else if (data.in(new String[] { "float" })) {
+            return new Float32(qs, buf.asFloatBuffer());
+        }
+        return null;
+    }
+
+    /** Unsigned 8-bit data. */
+    static final class UInt8 extends RowQuantizer {
+
+        private final ByteBuffer buf;
+
+        UInt8(Quantization_8_16_bit qs, ByteBuffer buf) {
+            super(qs);
+            this.buf = buf;
+        }
+
+        @Override
+        void quantize(int offset, int count, int[] values)
+            throws QuantizationException {
+            for (int i = 0; i < count; i++) {
+                values[i] = qs.quantize(buf.get(offset + i) & 0xFF);
+            }
+        }
+    }
+
+    /** Unsigned 16-bit data. */
+    static final class UInt16 extends RowQuantizer {
+
+        private final ShortBuffer buf;
+
+        UInt16(Quantization_8_16_bit qs, ShortBuffer buf) {
+            super(qs);
+            this.buf = buf;
+        }
+
+        @Override
+        void quantize(int offset, int count, int[] values)
+            throws QuantizationException {
+            for (int i = 0; i < count; i++) {
+                values[i] = qs.quantize(buf.get(offset + i) & 0xFFFF);
+            }
+        }
+    }
+
+    /** Signed 16-bit data. */
+    static final class Int16 extends RowQuantizer {
+
+        private final ShortBuffer buf;
+
+        Int16(Quantization_8_16_bit qs, ShortBuffer buf) {
+            super(qs);
+            this.buf = buf;
+        }
+
+        @Override
+        void quantize(int offset, int count, int[] values)
+            throws QuantizationException {
+            for (int i = 0; i < count; i++) {
+                values[i] = qs.quantize((int) buf.get(offset + i));
+            }
+        }
+    }
+
+    /**
+     * 32-bit floating point data. As with
+     * {@link Quantization_8_16_bit#quantize(double)} values are truncated
+     * before the table look-up.
+     */
+    static final class Float32 extends RowQuantizer {
+
+        private final FloatBuffer buf;
+
+        Float32(Quantization_8_16_bit qs, FloatBuffer buf) {
+            super(qs);
+            this.buf = buf;
+        }
+
+        @Override
+        void quantize(int offset, int count, int[] values)
+            throws QuantizationException {
+            for (int i = 0; i < count; i++) {
+                values[i] = qs.quantize((int) buf.get(offset + i));
+            }
+        }
+    }
+
+}
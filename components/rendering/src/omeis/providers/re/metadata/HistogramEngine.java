@@ -0,0 +1,525 @@
+/*
+ * omeis.providers.re.metadata.HistogramEngine
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re.metadata;
+
+// Java imports
+import java.awt.Dimension;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+// Third-party libraries
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+// Application-internal dependencies
+import ome.conditions.ResourceError;
+import ome.io.nio.DimensionsOutOfBoundsException;
+import ome.io.nio.PixelBuffer;
+import ome.util.PixelData;
+import omeis.providers.re.RenderingExecutor;
+import omeis.providers.re.RenderingTask;
+import omeis.providers.re.data.RegionDef;
+
+/**
+ * Computes the histograms of channels over any range of optical sections of
+ * a timepoint, optionally restricted to a region. The pixels are read tile
+ * by tile through {@link PixelBuffer#getTile} and each pixel is binned by
+ * computing its bin index, so that the cost is linear in the number of
+ * pixels whatever the number of bins. Tiles are read in the calling thread,
+ * buffers not being required to be thread-safe, and binned in parallel on
+ * the {@link RenderingExecutor#getDefault() shared rendering pool} while the
+ * next tiles are read.
+ *
+ * Histograms may be kept in a process-wide cache keyed by Pixels set,
+ * channel, range and bins, pixel data not changing once imported.
+ *
+ * @since Beta4.3.2
+ */
+public class HistogramEngine
+{
+
+    /** The logger for this particular class */
+    private static Log log = LogFactory.getLog(HistogramEngine.class);
+
+    /** Default number of histograms held by the cache. */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    /** Process-wide cache of computed histograms, least recently used out. */
+    private static final Map<String, Histogram> cache =
+        new LinkedHashMap<String, Histogram>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, Histogram> eldest)
+            {
+                return size() > DEFAULT_CACHE_SIZE;
+            }
+        };
+
+    /**
+     * Histogram of a channel with bins of equal width.
+     */
+    public static class Histogram
+    {
+
+        private final double min;
+
+        private final double max;
+
+        private final long[] counts;
+
+        private final long total;
+
+        Histogram(double min, double max, long[] counts)
+        {
+            this.min = min;
+            this.max = max;
+            this.counts = counts;
+            long total = 0;
+            for (long count : counts)
+            {
+                total += count;
+            }
+            this.total = total;
+        }
+
+        /** Returns the lower bound of the first bin. */
+        public double getMin()
+        {
+            return min;
+        }
+
+        /** Returns the upper bound of the last bin. */
+        public double getMax()
+        {
+            return max;
+        }
+
+        public double getBinWidth()
+        {
+            return (max - min) / counts.length;
+        }
+
+        /** Returns the number of pixels in each bin. */
+        public long[] getCounts()
+        {
+            return counts.clone();
+        }
+
+        public long getTotal()
+        {
+            return total;
+        }
+
+        /**
+         * Returns the counts saturated to integers, as returned by
+         * {@link omeis.providers.re.RenderingEngine#getHistogram}.
+         */
+        public int[] toIntArray()
+        {
+            int[] ints = new int[counts.length];
+            for (int i = 0; i < ints.length; i++)
+            {
+                ints[i] = (int) Math.min(Integer.MAX_VALUE, counts[i]);
+            }
+            return ints;
+        }
+
+        /**
+         * Returns the value below which a percentage of the pixels fall,
+         * interpolated linearly within its bin.
+         * @param percentile Between 0 and 100.
+         * @return See above.
+         */
+        public double getPercentile(double percentile)
+        {
+            if (total == 0)
+            {
+                return min;
+            }
+            double p = Math.min(100, Math.max(0, percentile));
+            double rank = p / 100 * total;
+            double width = getBinWidth();
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++)
+            {
+                if (counts[i] > 0 && seen + counts[i] >= rank)
+                {
+                    return min + width * (i + (rank - seen) / counts[i]);
+                }
+                seen += counts[i];
+            }
+            return max;
+        }
+    }
+
+    /** The buffer to read the pixels from, only in the calling thread. */
+    private final PixelBuffer buffer;
+
+    /** The identifier of the Pixels set, or null not to cache. */
+    private final Long pixelsId;
+
+    /**
+     * Creates a new instance.
+     * @param buffer The buffer to read the pixels from.
+     * @param pixelsId The identifier of the Pixels set read by the buffer
+     * to cache the histograms with, <code>null</code> not to cache them.
+     */
+    public HistogramEngine(PixelBuffer buffer, Long pixelsId)
+    {
+        this.buffer = buffer;
+        this.pixelsId = pixelsId;
+    }
+
+    /**
+     * Computes the histograms of several channels.
+     * @param channels The channels.
+     * @param zStart The first optical section.
+     * @param zEnd The last optical section, inclusive.
+     * @param t The timepoint.
+     * @param region The region of the planes or <code>null</code> for the
+     * whole planes.
+     * @param binCount The number of bins.
+     * @param mins The lower bound of the first bin of each channel.
+     * @param maxs The upper bound of the last bin of each channel. Values
+     * outside of the bounds are counted in the first or last bin.
+     * @return The histograms in the order of <code>channels</code>.
+     */
+    public Histogram[] compute(int[] channels, final int zStart,
+            final int zEnd, final int t, RegionDef region, final int binCount,
+            double[] mins, double[] maxs)
+    {
+        if (binCount < 1)
+        {
+            throw new IllegalArgumentException("Bins: " + binCount);
+        }
+        if (zStart < 0 || zEnd < zStart || zEnd >= buffer.getSizeZ()
+            || t < 0 || t >= buffer.getSizeT())
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Bad range z:%d-%d t:%d", zStart, zEnd, t));
+        }
+        final RegionDef r = region != null? region :
+            new RegionDef(0, 0, buffer.getSizeX(), buffer.getSizeY());
+        if (r.getX() < 0 || r.getY() < 0 || r.getWidth() < 1
+            || r.getHeight() < 1
+            || r.getX() + r.getWidth() > buffer.getSizeX()
+            || r.getY() + r.getHeight() > buffer.getSizeY())
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Bad region x:%d y:%d w:%d h:%d", r.getX(), r.getY(),
+                    r.getWidth(), r.getHeight()));
+        }
+
+        Histogram[] histograms = new Histogram[channels.length];
+        double[] maxima = new double[channels.length];
+        String[] keys = new String[channels.length];
+        long[][] counts = new long[channels.length][];
+        for (int i = 0; i < channels.length; i++)
+        {
+            int c = channels[i];
+            if (c < 0 || c >= buffer.getSizeC())
+            {
+                throw new IllegalArgumentException("Channel: " + c);
+            }
+            maxima[i] = maxs[i] > mins[i]? maxs[i] : mins[i] + 1;
+            keys[i] = key(c, zStart, zEnd, t, r, binCount, mins[i], maxima[i]);
+            histograms[i] = get(keys[i]);
+            if (histograms[i] == null)
+            {
+                counts[i] = new long[binCount];
+            }
+        }
+
+        // At most two tiles per rendering thread are being binned or
+        // waiting to be merged at any one time.
+        int window = 2 * RenderingExecutor.getDefault().getPoolSize();
+        LinkedList<Bins> pending = new LinkedList<Bins>();
+        try
+        {
+            for (int i = 0; i < channels.length; i++)
+            {
+                if (counts[i] != null)
+                {
+                    bin(i, channels[i], zStart, zEnd, t, r, mins[i],
+                            binCount / (maxima[i] - mins[i]), binCount,
+                            pending, window, counts);
+                }
+            }
+            while (!pending.isEmpty())
+            {
+                merge(pending.removeFirst(), counts);
+            }
+        }
+        finally
+        {
+            for (Bins bins : pending)
+            {
+                bins.future.cancel(false);
+            }
+        }
+        for (int i = 0; i < channels.length; i++)
+        {
+            if (counts[i] != null)
+            {
+                histograms[i] = new Histogram(mins[i], maxima[i], counts[i]);
+                put(keys[i], histograms[i]);
+            }
+        }
+        return histograms;
+    }
+
+    /**
+     * The bins of a tile of a channel being counted on the rendering pool.
+     */
+    private static class Bins
+    {
+
+        /** Index of the channel in the histograms being computed. */
+        final int index;
+
+        final Future<Object> future;
+
+        Bins(int index, Future<Object> future)
+        {
+            this.index = index;
+            this.future = future;
+        }
+    }
+
+    /** Adds the bins of a tile to the counts of its channel. */
+    private void merge(Bins bins, long[][] counts)
+    {
+        long[] tile = (long[]) get(bins.future);
+        long[] total = counts[bins.index];
+        for (int b = 0; b < total.length; b++)
+        {
+            total[b] += tile[b];
+        }
+    }
+
+    private Object get(Future<Object> future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new ResourceError("Interrupted computing histograms");
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * Reads a channel tile by tile and submits the binning of each tile,
+     * merging the oldest pending tiles once <code>window</code> are pending.
+     */
+    private void bin(int index, int c, int zStart, int zEnd, int t,
+            RegionDef r, final double min, final double scale,
+            final int binCount, LinkedList<Bins> pending, int window,
+            long[][] counts)
+    {
+        Dimension tileSize = buffer.getTileSize();
+        int tileWidth = r.getWidth();
+        int tileHeight = r.getHeight();
+        if (tileSize != null)
+        {
+            tileWidth = (int) tileSize.getWidth();
+            tileHeight = (int) tileSize.getHeight();
+        }
+        int xEnd = r.getX() + r.getWidth();
+        int yEnd = r.getY() + r.getHeight();
+        for (int z = zStart; z <= zEnd; z++)
+        {
+            for (int y = r.getY(); y < yEnd; y += tileHeight)
+            {
+                int h = Math.min(tileHeight, yEnd - y);
+                for (int x = r.getX(); x < xEnd; x += tileWidth)
+                {
+                    int w = Math.min(tileWidth, xEnd - x);
+                    final PixelData tile;
+                    try
+                    {
+                        tile = buffer.getTile(z, c, t, x, y, w, h);
+                    }
+                    catch (IOException e)
+                    {
+                        String msg = "Error reading tile";
+                        log.error(msg, e);
+                        throw new ResourceError(msg + ": " + e.getMessage());
+                    }
+                    catch (DimensionsOutOfBoundsException e)
+                    {
+                        throw new IllegalArgumentException(e.getMessage());
+                    }
+                    final int n = w * h;
+                    pending.add(new Bins(index,
+                            RenderingExecutor.getDefault().submit(
+                                    new RenderingTask()
+                    {
+                        public Object call()
+                        {
+                            long[] bins = new long[binCount];
+                            bin(tile, n, min, scale, bins);
+                            return bins;
+                        }
+                    })));
+                    if (pending.size() >= window)
+                    {
+                        merge(pending.removeFirst(), counts);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the first <code>n</code> pixels of some pixel data to the bins,
+     * dispatching on the pixels type once rather than once per pixel.
+     * @param data The pixel data.
+     * @param n The number of pixels.
+     * @param min The lower bound of the first bin.
+     * @param scale The number of bins per unit.
+     * @param counts The bins.
+     */
+    static void bin(PixelData data, int n, double min, double scale,
+            long[] counts)
+    {
+        ByteBuffer buf = data.getData().duplicate();
+        buf.order(data.getOrder());
+        buf.position(0);
+        boolean signed = data.isSigned();
+        int last = counts.length - 1;
+        switch (data.javaType())
+        {
+            case PixelData.BYTE:
+                for (int i = 0; i < n; i++)
+                {
+                    double v = signed? buf.get(i) : buf.get(i) & 0xFF;
+                    counts[index(v, min, scale, last)]++;
+                }
+                break;
+            case PixelData.SHORT:
+            {
+                ShortBuffer shorts = buf.asShortBuffer();
+                for (int i = 0; i < n; i++)
+                {
+                    double v = signed? shorts.get(i) : shorts.get(i) & 0xFFFF;
+                    counts[index(v, min, scale, last)]++;
+                }
+                break;
+            }
+            case PixelData.INT:
+            {
+                IntBuffer ints = buf.asIntBuffer();
+                for (int i = 0; i < n; i++)
+                {
+                    double v = signed? ints.get(i) : ints.get(i) & 0xFFFFFFFFL;
+                    counts[index(v, min, scale, last)]++;
+                }
+                break;
+            }
+            case PixelData.FLOAT:
+            {
+                FloatBuffer floats = buf.asFloatBuffer();
+                for (int i = 0; i < n; i++)
+                {
+                    counts[index(floats.get(i), min, scale, last)]++;
+                }
+                break;
+            }
+            case PixelData.DOUBLE:
+            {
+                DoubleBuffer doubles = buf.asDoubleBuffer();
+                for (int i = 0; i < n; i++)
+                {
+                    counts[index(doubles.get(i), min, scale, last)]++;
+                }
+                break;
+            }
+            case PixelData.BIT:
+                for (int i = 0; i < n; i++)
+                {
+                    double v = data.getPixelValueDirect(i);
+                    counts[index(v, min, scale, last)]++;
+                }
+                break;
+            default:
+                for (int i = 0; i < n; i++)
+                {
+                    counts[index(data.getPixelValue(i), min, scale, last)]++;
+                }
+        }
+    }
+
+    /** Bin of a value, values out of range going to the first or last. */
+    private static int index(double v, double min, double scale, int last)
+    {
+        double d = (v - min) * scale;
+        if (d < 1)
+        {
+            return 0; // NaN too
+        }
+        return d >= last? last : (int) d;
+    }
+
+    private String key(int c, int zStart, int zEnd, int t, RegionDef r,
+            int binCount, double min, double max)
+    {
+        if (pixelsId == null)
+        {
+            return null;
+        }
+        return pixelsId + ":" + c + ":" + zStart + "-" + zEnd + ":" + t
+            + ":" + r.getX() + "," + r.getY() + "," + r.getWidth() + ","
+            + r.getHeight() + ":" + binCount + ":" + min + "-" + max;
+    }
+
+    private static Histogram get(String key)
+    {
+        if (key == null)
+        {
+            return null;
+        }
+        synchronized (cache)
+        {
+            return cache.get(key);
+        }
+    }
+
+    private static void put(String key, Histogram histogram)
+    {
+        if (key == null)
+        {
+            return;
+        }
+        synchronized (cache)
+        {
+            cache.put(key, histogram);
+        }
+    }
+
+}
@@ -113,36 +113,25 @@ public class StatsFactory {
 
         // check segment [o,e[
         double v;
-        BasicSegment segment;
+        int k;
         if (p2D.isXYPlanar()) {
             // modified code
             int size = sizeX1 * sizeX2;
             for (int j = 0; j < size; j++) {
                 v = p2D.getPixelValue(j);
-                for (int i = 0; i < segments.length; i++) {
-                    segment = segments[i];
-                    if (v >= segment.x1 && v < segment.x2) {
-                        totals[i]++;
-                        break;
-                    }
-                } // end i
+                k = findSegment(segments, gMin, v);
+                if (k >= 0) {
+                    totals[k]++;
+                }
             }
         } else {
             for (int x2 = 0; x2 < sizeX2; ++x2) {
                 for (int x1 = 0; x1 < sizeX1; ++x1) {
                     v = p2D.getPixelValue(x1, x2);
-                    for (int i = 0; i < segments.length; i++) {
-                        segment = segments[i];
-                        if (v >= segment.x1 && v < segment.x2) {
-                            totals[i]++;
-                            break;
-                        }
-                        /*
-                         * if (!segments[i].equals(1, pointX1, pointX2) &&
-                         * segments[i].lies(pointX1, pointX2)) { totals[i]++;
-                         * break; }
-                         */
-                    } // end i
+                    k = findSegment(segments, gMin, v);
+                    if (k >= 0) {
+                        totals[k]++;
+                    }
                 } // end x1
             }// end x2
         }
@@ -177,6 +166,31 @@ public class StatsFactory {
         noiseReduction = noiseReduction();
     }
 
+    /**
+     * Returns the index of the segment <code>[x1, x2[</code> containing the
+     * specified value, or <code>-1</code> if none does. The index is
+     * computed from the size of the bins and only adjusted for rounding,
+     * rather than testing each segment in turn.
+     * 
+     * @param segments The contiguous segments of size {@link #sizeBin}.
+     * @param gMin The lower bound of the first segment.
+     * @param v The value.
+     * @return See above.
+     */
+    private int findSegment(BasicSegment[] segments, double gMin, double v) {
+        int n = segments.length;
+        double d = Math.floor((v - gMin) / sizeBin);
+        int i = d < 0 ? 0 : (d >= n ? n - 1 : (int) d);
+        while (i > 0 && v < segments[i].x1) {
+            i--;
+        }
+        while (i < n - 1 && v >= segments[i].x2) {
+            i++;
+        }
+        BasicSegment segment = segments[i];
+        return v >= segment.x1 && v < segment.x2 ? i : -1;
+    }
+
     /** Determines the value of the noiseReduction flag. */
     private boolean noiseReduction() {
         double sumMin = 0, sumMax = 0;
@@ -339,4 +339,21 @@ public class Quantization_8_16_bit extends QuantumStrategy {
         return i & 0xFF; // assumed x in [min, max]
     }
 
+    /**
+     * Quantizes an integral pixel intensity value. Values inside the table
+     * are looked up directly, avoiding the conversion to <code>double</code>
+     * and the range checks of {@link #quantize(double)}; the result is
+     * identical.
+     * 
+     * @param x The pixel intensity value.
+     * @return The quantized value in [0, 255].
+     * @throws QuantizationException See {@link #quantize(double)}.
+     */
+    public final int quantize(int x) throws QuantizationException {
+        if (x >= lutMin && x <= lutMax) {
+            return LUT[x - lutMin] & 0xFF;
+        }
+        return quantize((double) x);
+    }
+
 }
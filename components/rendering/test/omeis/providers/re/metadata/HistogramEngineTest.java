@@ -0,0 +1,170 @@
+/*
+ * omeis.providers.re.metadata.HistogramEngineTest
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re.metadata;
+
+// Java imports
+import java.awt.Dimension;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+
+// Third-party libraries
+import junit.framework.TestCase;
+import org.testng.annotations.Test;
+
+// Application-internal dependencies
+import ome.io.nio.PixelBuffer;
+import ome.util.PixelData;
+import omeis.providers.re.data.RegionDef;
+import omeis.providers.re.metadata.HistogramEngine.Histogram;
+
+/**
+ * Routine unit test for {@link HistogramEngine}, reading from a
+ * <code>uint16</code> buffer of 10x6 pixels, 2 sections and 2 channels whose
+ * values are <code>x + 10 * y + 60 * z</code>, the second channel being
+ * offset by 1000.
+ *
+ * @since Beta4.3.2
+ */
+public class HistogramEngineTest extends TestCase
+{
+
+    /** Number of tiles read from the buffer. */
+    private int reads;
+
+    /** Number of tiles read by another thread than the test's. */
+    private int foreignReads;
+
+    private final Thread testThread = Thread.currentThread();
+
+    private PixelBuffer buffer()
+    {
+        return (PixelBuffer) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[] { PixelBuffer.class },
+                new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                String name = method.getName();
+                if (name.equals("getSizeX")) return 10;
+                if (name.equals("getSizeY")) return 6;
+                if (name.equals("getSizeZ")) return 2;
+                if (name.equals("getSizeC")) return 2;
+                if (name.equals("getSizeT")) return 1;
+                if (name.equals("getTileSize")) return new Dimension(4, 4);
+                if (name.equals("getTile"))
+                {
+                    reads++;
+                    if (Thread.currentThread() != testThread)
+                    {
+                        foreignReads++;
+                    }
+                    int z = (Integer) args[0], c = (Integer) args[1];
+                    int x = (Integer) args[3], y = (Integer) args[4];
+                    int w = (Integer) args[5], h = (Integer) args[6];
+                    ByteBuffer data = ByteBuffer.allocate(w * h * 2);
+                    for (int j = 0; j < h; j++)
+                    {
+                        for (int i = 0; i < w; i++)
+                        {
+                            data.putShort((short) (x + i + 10 * (y + j)
+                                    + 60 * z + 1000 * c));
+                        }
+                    }
+                    return new PixelData("uint16", data);
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    @Test
+    public void testStackHistogramAndPercentiles()
+    {
+        HistogramEngine engine = new HistogramEngine(buffer(), null);
+        Histogram[] h = engine.compute(new int[] { 1, 0 }, 0, 1, 0, null,
+                12, new double[] { 1000, 0 }, new double[] { 1120, 120 });
+        assertEquals(2, h.length);
+        for (Histogram histogram : h)
+        {
+            assertEquals(120, histogram.getTotal());
+            for (long count : histogram.getCounts())
+            {
+                assertEquals(10, count);
+            }
+        }
+        assertEquals(1000.0, h[0].getMin());
+        assertEquals(60.0, h[1].getPercentile(50), 0.001);
+        assertEquals(12.0, h[1].getPercentile(10), 0.001);
+        assertEquals(120.0, h[1].getPercentile(100), 0.001);
+        assertEquals(0.0, h[1].getPercentile(0), 0.001);
+    }
+
+    @Test
+    public void testTilesReadInCallingThread()
+    {
+        HistogramEngine engine = new HistogramEngine(buffer(), null);
+        int read = reads;
+        Histogram[] h = engine.compute(new int[] { 0, 1 }, 0, 1, 0, null,
+                4, new double[] { 0, 1000 }, new double[] { 120, 1120 });
+        assertEquals(120, h[0].getTotal());
+        assertEquals(120, h[1].getTotal());
+        assertEquals(24, reads - read);
+        assertEquals(0, foreignReads);
+    }
+
+    @Test
+    public void testRegionAndOutOfRangeValues()
+    {
+        HistogramEngine engine = new HistogramEngine(buffer(), null);
+        Histogram h = engine.compute(new int[] { 0 }, 0, 0, 0,
+                new RegionDef(2, 1, 3, 2), 12, new double[] { 0 },
+                new double[] { 120 })[0];
+        assertEquals(6, h.getTotal());
+        assertEquals(3, h.getCounts()[1]);
+        assertEquals(3, h.getCounts()[2]);
+
+        h = engine.compute(new int[] { 0 }, 0, 0, 0, null, 2,
+                new double[] { 50 }, new double[] { 60 })[0];
+        assertEquals(55, h.getCounts()[0]);
+        assertEquals(5, h.getCounts()[1]);
+
+        try
+        {
+            engine.compute(new int[] { 0 }, 0, 0, 0,
+                    new RegionDef(8, 0, 4, 4), 2, new double[] { 0 },
+                    new double[] { 1 });
+            fail("Region out of the plane");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCachedPerPixelsSet()
+    {
+        HistogramEngine engine = new HistogramEngine(buffer(), -1L);
+        int[] counts = engine.compute(new int[] { 0 }, 0, 1, 0, null, 4,
+                new double[] { 0 }, new double[] { 120 })[0].toIntArray();
+        int read = reads;
+        assertTrue(read > 0);
+        int[] cached = engine.compute(new int[] { 0 }, 0, 1, 0, null, 4,
+                new double[] { 0 }, new double[] { 120 })[0].toIntArray();
+        assertEquals(read, reads);
+        assertEquals(30, cached[3]);
+        assertEquals(counts[0], cached[0]);
+
+        engine.compute(new int[] { 0 }, 0, 1, 0, null, 8,
+                new double[] { 0 }, new double[] { 120 });
+        assertTrue(reads > read);
+    }
+
+}
@@ -25,12 +25,12 @@ import loci.formats.out.TiffWriter;
 import loci.formats.services.OMEXMLService;
 import loci.formats.tiff.IFD;
 import loci.formats.tiff.IFDList;
-import loci.formats.tiff.TiffCompression;
 import ome.conditions.ApiUsageException;
 import ome.conditions.LockTimeout;
 import ome.io.nio.ConfiguredTileSizes;
 import ome.io.nio.DimensionsOutOfBoundsException;
 import ome.io.nio.PixelBuffer;
+import ome.io.nio.TileCache;
 import ome.io.nio.TileSizes;
 import ome.model.core.Pixels;
 import ome.util.PixelData;
@@ -122,8 +122,36 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /** The byte order of the compressed pyramid. */
     private ByteOrder byteOrder = ByteOrder.BIG_ENDIAN;
 
+    /**
+     * Reduced resolution levels built by the caller while writing tiles, if
+     * any.
+     */
+    private PyramidLevelBuilder levelBuilder;
+
+    /** Codec the tiles are compressed with when writing. */
+    private PyramidCodec codec = PyramidCodec.DEFAULT;
+
+    /** Size of the full resolution tiles being written. */
+    private Dimension writerTileSize;
+
     public static final String PYR_LOCK_EXT = ".pyr_lock";
 
+    /**
+     * Readers, other than the delegate's, shared by all the pyramids to read
+     * tiles concurrently. If null, tiles are read through the delegate while
+     * holding the lock of this instance.
+     */
+    private PyramidReaderPool readerPool;
+
+    /** Decoded tiles shared by all the pyramids, or null. */
+    private TileCache tileCache;
+
+    /** Length of the pyramid file when the reader was initialized. */
+    private long readerLength;
+
+    /** Modification time of the pyramid file when the reader was initialized. */
+    private long readerModified;
+
     /**
      * We may want a constructor that takes the id of an imported file
      * or that takes a File object?
@@ -187,6 +215,8 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
             throw new LockTimeout(String.format("%s is locked by others",
                     readerFile.getAbsolutePath()), 15*1000, 0);
         }
+        readerLength = readerFile.length();
+        readerModified = readerFile.lastModified();
         reader = new OmeroPixelsPyramidReader();
         delegate = new BfPixelBuffer(readerFile.getAbsolutePath(), reader);
         byteOrder = delegate.isLittleEndian()? ByteOrder.LITTLE_ENDIAN
@@ -218,8 +248,10 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
             OMEXMLService service =
                 lociServiceFactory.getInstance(OMEXMLService.class);
             metadata = service.createOMEXMLMetadata();
+            writerTileSize = new Dimension(tileWidth, tileLength);
             addSeries(tileWidth, tileLength);
             writer = new OmeroPixelsPyramidWriter();
+            writer.setCodec(codec);
             writer.setMetadataRetrieve(metadata);
             writer.setCompression(compression);
             writer.setWriteSequentially(true);
@@ -280,33 +312,12 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         throws EnumerationException
     {
         int series = 0;
-        for (int level : new int[] { 0, 5, 4 })
+        for (int level : codec.getLevels())
         {
-            long imageWidth = pixels.getSizeX();
-            long imageLength = pixels.getSizeY();
-            long factor = (long) Math.pow(2, level);
-            long newTileWidth = Math.round((double) tileWidth / factor);
-            newTileWidth = newTileWidth < 1? 1 : newTileWidth;
-            long newTileLength = Math.round((double) tileLength / factor);
-            newTileLength = newTileLength < 1? 1: newTileLength;
-            long evenTilesPerRow = imageWidth / tileWidth;
-            long evenTilesPerColumn = imageLength / tileLength;
-            double remainingWidth =
-                    ((double) (imageWidth - (evenTilesPerRow * tileWidth))) /
-                    factor;
-            remainingWidth = remainingWidth < 1? Math.ceil(remainingWidth) :
-                Math.round(remainingWidth);
-            double remainingLength =
-              ((double) imageLength - (evenTilesPerColumn * tileLength)) /
-              factor;
-            remainingLength = remainingLength < 1? Math.ceil(remainingLength) :
-                Math.round(remainingLength);
-            int newImageWidth = (int) ((evenTilesPerRow * newTileWidth) +
-                remainingWidth);
-            int newImageLength = (int) ((evenTilesPerColumn * newTileLength) +
-                remainingLength);
-
-            createSeries(series, newImageWidth, newImageLength);
+            Dimension size = PyramidLevelBuilder.getLevelSize(
+                    pixels.getSizeX(), pixels.getSizeY(),
+                    tileWidth, tileLength, level);
+            createSeries(series, size.width, size.height);
             series++;
         }
     }
@@ -412,6 +423,15 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     {
         try {
             if (writer != null) {
+                if (levelBuilder != null && levelBuilder.isComplete()) {
+                    writer.setLevelBuilder(levelBuilder);
+                } else if (!codec.hasResolutionLevels()) {
+                    // The writer reduces the full resolution tiles itself.
+                    writer.setLevelBuilder(new PyramidLevelBuilder(pixels,
+                            writerTileSize.width, writerTileSize.height,
+                            byteOrder, codec.getLevels()));
+                }
+                levelBuilder = null;
                 writer.close();
                 writer = null;
             }
@@ -514,10 +534,18 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     {
         if (lastT == -1 && lastC == -1 && lastZ == -1)
         {
+            if (!codec.hasResolutionLevels()
+                && "bit".equals(pixels.getPixelsType().getValue()))
+            {
+                // Bit pixels cannot be reduced into stored levels.
+                log.warn("Using " + PyramidCodec.DEFAULT + " rather than "
+                        + codec + " for bit pixels.");
+                codec = PyramidCodec.DEFAULT;
+            }
             try
             {
                 initializeWriter(writerFile.getAbsolutePath(),
-                        TiffCompression.JPEG_2000.getCodecName(), true, w, h);
+                        codec.getWriterCompression(), true, w, h);
             }
             catch (Exception e)
             {
@@ -531,6 +559,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
                         OmeroPixelsPyramidWriter.IMAGE_DESCRIPTION);
             lastIFD.put(IFD.TILE_WIDTH, w);
             lastIFD.put(IFD.TILE_LENGTH, h);
+            codec.apply(lastIFD);
             if (log.isDebugEnabled())
             {
                 log.debug(String.format(
@@ -599,6 +628,126 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         this.byteOrder = byteOrder;
     }
 
+    /**
+     * Sets the reduced resolution levels which are being built from the
+     * tiles passed to {@link #setTile(byte[], Integer, Integer, Integer,
+     * Integer, Integer, Integer, Integer)}. If every tile has been added by
+     * the time the writer is closed, the reduced resolution series are
+     * written from them rather than from the decoded full resolution series.
+     * @param levelBuilder The reduced resolution levels.
+     */
+    public synchronized void setLevelBuilder(PyramidLevelBuilder levelBuilder)
+    {
+        this.levelBuilder = levelBuilder;
+    }
+
+    /**
+     * Sets the codec the tiles are compressed with. Must be called before
+     * the first tile is written; pyramids are always read with the codec
+     * they were written with.
+     * @param codec The codec.
+     */
+    public synchronized void setCodec(PyramidCodec codec)
+    {
+        this.codec = codec;
+    }
+
+    /**
+     * Returns the codec the tiles are compressed with when writing.
+     */
+    public synchronized PyramidCodec getCodec()
+    {
+        return codec;
+    }
+
+    /**
+     * Sets the cache of decoded tiles consulted before reading tiles.
+     * @param tileCache The cache or <code>null</code> not to cache tiles.
+     */
+    public void setTileCache(TileCache tileCache)
+    {
+        this.tileCache = tileCache;
+    }
+
+    /**
+     * Sets the pool of the readers tiles are read with, so that they can be
+     * read concurrently. Each reader holds its own copy of the directory of
+     * the file.
+     * @param readerPool The pool or <code>null</code> to serialize tile reads
+     * through the single reader of this instance.
+     */
+    public void setReaderPool(PyramidReaderPool readerPool)
+    {
+        this.readerPool = readerPool;
+    }
+
+    /**
+     * Reads a tile of the rasterized timepoint <code>t</code>, from the
+     * {@link #tileCache} if possible or through a reader of the
+     * {@link #readerPool}.
+     * @return <code>buffer</code>, holding the tile.
+     */
+    private byte[] readTile(int t, int x, int y, int w, int h, byte[] buffer)
+        throws IOException
+    {
+        int resolutionLevel;
+        int length;
+        long fileLength;
+        long fileModified;
+        synchronized (this)
+        {
+            BfPixelBuffer readerDelegate = delegate();
+            resolutionLevel = readerDelegate.getResolutionLevel();
+            length = w * h * readerDelegate.getByteWidth();
+            fileLength = readerLength;
+            fileModified = readerModified;
+        }
+        if (buffer == null)
+        {
+            buffer = new byte[length];
+        }
+        TileCache.Key key = null;
+        if (tileCache != null)
+        {
+            key = new TileCache.Key(readerFile.getAbsolutePath(),
+                    fileLength, fileModified, resolutionLevel, t,
+                    x, y, w, h);
+            if (tileCache.get(key, buffer))
+            {
+                return buffer;
+            }
+        }
+        PyramidReaderPool pool = readerPool;
+        BfPixelBuffer tileReader = pool == null ? null : pool.borrow(
+                readerFile.getAbsolutePath(), fileLength, fileModified,
+                resolutionLevel);
+        if (tileReader == null)
+        {
+            synchronized (this)
+            {
+                delegate().getTileDirect(0, 0, t, x, y, w, h, buffer);
+            }
+        }
+        else
+        {
+            boolean failed = true;
+            try
+            {
+                tileReader.getTileDirect(0, 0, t, x, y, w, h, buffer);
+                failed = false;
+            }
+            finally
+            {
+                pool.giveBack(tileReader, failed);
+            }
+        }
+        if (key != null)
+        {
+            tileCache.put(key, buffer, length);
+        }
+        return buffer;
+    }
+
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#calculateMessageDigest()
      */
@@ -783,7 +932,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlaneRegion(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getPlaneRegion(Integer x, Integer y,
+    public PixelData getPlaneRegion(Integer x, Integer y,
             Integer width, Integer height, Integer z, Integer c, Integer t,
             Integer stride)
             throws IOException, DimensionsOutOfBoundsException
@@ -791,9 +940,45 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        PixelData data =
-            delegate().getPlaneRegion(x, y, width, height, z, c, t, stride);
-        data.setOrder(byteOrder);
+        int resolutionLevel;
+        ByteOrder order;
+        long fileLength;
+        long fileModified;
+        synchronized (this)
+        {
+            resolutionLevel = delegate().getResolutionLevel();
+            order = byteOrder;
+            fileLength = readerLength;
+            fileModified = readerModified;
+        }
+        PixelData data;
+        PyramidReaderPool pool = readerPool;
+        BfPixelBuffer tileReader = pool == null ? null : pool.borrow(
+                readerFile.getAbsolutePath(), fileLength, fileModified,
+                resolutionLevel);
+        if (tileReader == null)
+        {
+            synchronized (this)
+            {
+                data = delegate().getPlaneRegion(
+                        x, y, width, height, z, c, t, stride);
+            }
+        }
+        else
+        {
+            boolean failed = true;
+            try
+            {
+                data = tileReader.getPlaneRegion(
+                        x, y, width, height, z, c, t, stride);
+                failed = false;
+            }
+            finally
+            {
+                pool.giveBack(tileReader, failed);
+            }
+        }
+        data.setOrder(order);
         return data;
     }
 
@@ -982,14 +1167,18 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTile(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getTile(Integer z, Integer c, Integer t,
+    public PixelData getTile(Integer z, Integer c, Integer t,
             Integer x, Integer y, Integer w, Integer h) throws IOException
     {
         checkTileParameters(x, y, w, h);
         t = getRasterizedT(z, c, t);
-        c = 0;
-        z = 0;
-        PixelData data = delegate().getTile(z, c, t, x, y, w, h);
+        byte[] buffer = readTile(t, x, y, w, h, null);
+        String pixelsType;
+        synchronized (this)
+        {
+            pixelsType = delegate().reader().getPixelsType();
+        }
+        PixelData data = new PixelData(pixelsType, ByteBuffer.wrap(buffer));
         data.setOrder(ByteOrder.LITTLE_ENDIAN);
         return data;
     }
@@ -997,15 +1186,13 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTileDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getTileDirect(Integer z, Integer c, Integer t,
+    public byte[] getTileDirect(Integer z, Integer c, Integer t,
             Integer x, Integer y, Integer w, Integer h, byte[] buffer)
         throws IOException
     {
         checkTileParameters(x, y, w, h);
         t = getRasterizedT(z, c, t);
-        c = 0;
-        z = 0;
-        return delegate().getTileDirect(z, c, t, x, y, w, h, buffer);
+        return readTile(t, x, y, w, h, buffer);
     }
 
     /* (non-Javadoc)
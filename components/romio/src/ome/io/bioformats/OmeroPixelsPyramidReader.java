@@ -8,6 +8,7 @@
 package ome.io.bioformats;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -15,9 +16,11 @@ import org.apache.commons.logging.LogFactory;
 import loci.common.RandomAccessInputStream;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
+import loci.formats.FormatTools;
 import loci.formats.in.MinimalTiffReader;
 import loci.formats.tiff.IFD;
 import loci.formats.tiff.IFDList;
+import loci.formats.tiff.TiffCompression;
 import loci.formats.tiff.TiffParser;
 
 /**
@@ -32,6 +35,12 @@ public class OmeroPixelsPyramidReader extends MinimalTiffReader {
     private final static Log log =
         LogFactory.getLog(OmeroPixelsPyramidReader.class);
 
+    /**
+     * Whether the reduced resolution series are all read from stored IFDs,
+     * as the tiles are not JPEG-2000 compressed (see {@link PyramidCodec}).
+     */
+    private boolean storedLevels;
+
    /* (non-Javadoc)
     * @see loci.formats.FormatReader#isThisType(java.lang.String, boolean)
     */
@@ -100,6 +109,24 @@ public class OmeroPixelsPyramidReader extends MinimalTiffReader {
     {
         log.debug("close(" + currentId + ")");
         super.close();
+        storedLevels = false;
+    }
+
+    /* (non-Javadoc)
+     * @see loci.formats.in.MinimalTiffReader#openBytes(int, byte[], int, int, int, int)
+     */
+    @Override
+    public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h)
+        throws FormatException, IOException
+    {
+        if (!storedLevels || series == 0)
+        {
+            return super.openBytes(no, buf, x, y, w, h);
+        }
+        FormatTools.checkPlaneParameters(this, no, buf.length, x, y, w, h);
+        IFD ifd = subResolutionIFDs.get(no).get(series - 1);
+        tiffParser.getSamples(ifd, buf, x, y, w, h);
+        return buf;
     }
 
     /* (non-Javadoc)
@@ -109,6 +136,13 @@ public class OmeroPixelsPyramidReader extends MinimalTiffReader {
     protected void initFile(String id) throws FormatException, IOException
     {
         super.initFile(id);
+        TiffCompression compression = ifds.get(0).getCompression();
+        storedLevels = compression != TiffCompression.JPEG_2000
+            && compression != TiffCompression.JPEG_2000_LOSSY;
+        if (storedLevels && subResolutionIFDs == null)
+        {
+            subResolutionIFDs = new ArrayList<IFDList>();
+        }
         IFDList newIFDs = new IFDList();
         for (IFD ifd : ifds)
         {
@@ -118,6 +152,10 @@ public class OmeroPixelsPyramidReader extends MinimalTiffReader {
                     ifd.get(OmeroPixelsPyramidWriter.IFD_TAG_PLANE_NUMBER);
             if (resolutionLevel != null)
             {
+                if (storedLevels)
+                {
+                    growLevels(imageNumber, resolutionLevel);
+                }
                 subResolutionIFDs.get(imageNumber).set(resolutionLevel, ifd);
                 for (CoreMetadata coreMetadata : core)
                 {
@@ -131,6 +169,48 @@ public class OmeroPixelsPyramidReader extends MinimalTiffReader {
             }
         }
         ifds = newIFDs;
+        if (storedLevels && subResolutionIFDs.size() > 0)
+        {
+            addStoredLevels();
+        }
+    }
+
+    /**
+     * Makes room for the stored IFD of a plane at a resolution level.
+     */
+    private void growLevels(int imageNumber, int resolutionLevel)
+    {
+        while (subResolutionIFDs.size() <= imageNumber)
+        {
+            subResolutionIFDs.add(new IFDList());
+        }
+        IFDList levels = subResolutionIFDs.get(imageNumber);
+        while (levels.size() <= resolutionLevel)
+        {
+            levels.add(null);
+        }
+    }
+
+    /**
+     * Exposes the stored reduced resolution levels as series, in the same
+     * way as {@link MinimalTiffReader} exposes the resolution levels of
+     * JPEG-2000 tiles.
+     */
+    private void addStoredLevels() throws FormatException
+    {
+        IFDList levels = subResolutionIFDs.get(0);
+        CoreMetadata[] newCore = new CoreMetadata[levels.size() + 1];
+        newCore[0] = core[0];
+        for (int i = 0; i < levels.size(); i++)
+        {
+            IFD ifd = levels.get(i);
+            CoreMetadata level = new CoreMetadata(this, 0);
+            level.sizeX = (int) ifd.getImageWidth();
+            level.sizeY = (int) ifd.getImageLength();
+            level.thumbnail = true;
+            newCore[i + 1] = level;
+        }
+        core = newCore;
     }
 
     /* (non-Javadoc)
@@ -7,15 +7,20 @@
 
 package ome.io.bioformats;
 
+import java.awt.Dimension;
 import java.io.IOException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import loci.common.FileHandle;
+import loci.common.RandomAccessInputStream;
 import loci.formats.FormatException;
 import loci.formats.in.TiffReader;
 import loci.formats.out.TiffWriter;
 import loci.formats.tiff.IFD;
+import loci.formats.tiff.IFDList;
+import loci.formats.tiff.TiffParser;
 
 /**
  * File format writer for OMERO pixels pyramid files.
@@ -38,6 +43,35 @@ public class OmeroPixelsPyramidWriter extends TiffWriter {
     /** TIFF tag we're using to store the Bio-Formats plane number. */
     public static final int IFD_TAG_PLANE_NUMBER = 65001;
 
+    /** Reduced resolution levels built while the tiles were written. */
+    private PyramidLevelBuilder levelBuilder;
+
+    /** Codec the reduced resolution levels are compressed with. */
+    private PyramidCodec codec = PyramidCodec.DEFAULT;
+
+    /**
+     * Sets the codec the reduced resolution levels are compressed with
+     * during post processing.
+     * @param codec The codec of the full resolution tiles.
+     */
+    public void setCodec(PyramidCodec codec)
+    {
+        this.codec = codec;
+    }
+
+    /**
+     * Sets the reduced resolution levels to write during post processing
+     * instead of decoding them from the full resolution series. Unless the
+     * codec holds the reduced resolutions, a builder is required: if it is
+     * not complete, it is used to reduce the full resolution tiles read
+     * back from the pyramid.
+     * @param levelBuilder Reduced resolution levels.
+     */
+    public void setLevelBuilder(PyramidLevelBuilder levelBuilder)
+    {
+        this.levelBuilder = levelBuilder;
+    }
+
     /* (non-Javadoc)
      * @see loci.formats.out.TiffWriter#close()
      */
@@ -79,6 +113,11 @@ public class OmeroPixelsPyramidWriter extends TiffWriter {
      */
     protected void postProcess() throws IOException, FormatException
     {
+        if (!codec.hasResolutionLevels())
+        {
+            writeLevels();
+            return;
+        }
         TiffReader reader = new TiffReader();
         try
         {
@@ -90,13 +129,14 @@ public class OmeroPixelsPyramidWriter extends TiffWriter {
             // with resolution levels exposed, are in reverse order).
             recompressSeries(reader, 2);
         } finally {
+            levelBuilder = null;
             reader.close();
         }
     }
 
     /**
-     * Re-compresses a source series, that is JPEG 2000 compressed, via its
-     * resolution level.
+     * Re-compresses a source series, that is compressed with the codec of
+     * the pyramid, via its resolution level.
      * @param source Reader created of ourselves.
      * @param series Target series for the re-compressed data which is the
      * inverse of the source resolution level.
@@ -109,14 +149,25 @@ public class OmeroPixelsPyramidWriter extends TiffWriter {
         int sourceSeries = source.getSeriesCount() - series;
         source.setSeries(sourceSeries);
         int imageCount = source.getImageCount();
+        boolean useLevels = levelBuilder != null
+            && levelBuilder.getSize(series).width == source.getSizeX()
+            && levelBuilder.getSize(series).height == source.getSizeY();
+        if (levelBuilder != null && !useLevels)
+        {
+            log.warn(String.format("Level size %s does not match %dx%d " +
+                    "for series %d; decoding.", levelBuilder.getSize(series),
+                    source.getSizeX(), source.getSizeY(), series));
+        }
         setSeries(series);
         for (int i = 0; i < imageCount; i++)
         {
-            byte[] plane = source.openBytes(i);
+            byte[] plane = useLevels? levelBuilder.getPlane(series, i)
+                    : source.openBytes(i);
             IFD ifd = new IFD();
             // Ensure that we're compressing all rows of the image in a single
-            // JPEG 2000 block.
+            // block.
             ifd.put(IFD.ROWS_PER_STRIP, new long[] { source.getSizeY() });
+            codec.apply(ifd);
             // Set the TIFF image description so that we are able to
             // differentiate ourselves from basic TIFFs.
             ifd.put(IFD.IMAGE_DESCRIPTION, IMAGE_DESCRIPTION);
@@ -127,4 +178,120 @@ public class OmeroPixelsPyramidWriter extends TiffWriter {
             saveBytes(i, plane, ifd);
         }
     }
+
+    /**
+     * Writes the reduced resolution series, tiled like the full resolution
+     * series, for the codecs whose tiles do not hold reduced resolutions.
+     * The file grows while the full resolution tiles are read back, so they
+     * are read through a plain file handle rather than a mapped one which
+     * would not see the growth.
+     * @throws FormatException
+     * @throws IOException
+     */
+    protected void writeLevels() throws IOException, FormatException
+    {
+        if (levelBuilder == null)
+        {
+            throw new FormatException(
+                    "No resolution levels for codec " + codec);
+        }
+        RandomAccessInputStream in = new RandomAccessInputStream(
+                new FileHandle(currentId, "r"));
+        try
+        {
+            TiffParser source = new TiffParser(in);
+            IFDList ifds = source.getIFDs();
+            for (int series = 1; series < levelBuilder.getSeriesCount();
+                 series++)
+            {
+                writeSeries(source, ifds, series);
+            }
+        } finally {
+            levelBuilder = null;
+            in.close();
+        }
+    }
+
+    /**
+     * Writes a reduced resolution series. The tiles are copied from the
+     * complete levels of the level builder or reduced from the full
+     * resolution tiles of the source, one reduced tile at a time.
+     * @param source Parser of ourselves.
+     * @param ifds IFDs of the full resolution series, one per plane.
+     * @param series Target series, see {@link PyramidLevelBuilder}.
+     * @throws FormatException
+     * @throws IOException
+     */
+    protected void writeSeries(TiffParser source, IFDList ifds, int series)
+        throws FormatException, IOException
+    {
+        int sizeX = (int) ifds.get(0).getImageWidth();
+        int sizeY = (int) ifds.get(0).getImageLength();
+        int fullTileWidth = levelBuilder.getTileWidth();
+        int fullTileHeight = levelBuilder.getTileHeight();
+        int bytesPerPixel = levelBuilder.getBytesPerPixel();
+        int factor = 1 << levelBuilder.getLevel(series);
+        Dimension size = levelBuilder.getSize(series);
+        Dimension tileSize = levelBuilder.getTileSize(series);
+        boolean useLevels = levelBuilder.isComplete();
+        setSeries(series);
+        for (int i = 0; i < ifds.size(); i++)
+        {
+            byte[] plane = useLevels? levelBuilder.getPlane(series, i) : null;
+            IFD ifd = new IFD();
+            ifd.put(IFD.TILE_WIDTH, tileSize.width);
+            ifd.put(IFD.TILE_LENGTH, tileSize.height);
+            codec.apply(ifd);
+            ifd.put(IFD.IMAGE_DESCRIPTION, IMAGE_DESCRIPTION);
+            ifd.put(IFD_TAG_SERIES, levelBuilder.getLevel(series) - 1);
+            ifd.put(IFD_TAG_PLANE_NUMBER, i);
+            for (int y = 0, row = 0; y < size.height;
+                 y += tileSize.height, row++)
+            {
+                for (int x = 0, column = 0; x < size.width;
+                     x += tileSize.width, column++)
+                {
+                    int w = Math.min(tileSize.width, size.width - x);
+                    int h = Math.min(tileSize.height, size.height - y);
+                    byte[] tile = new byte[w * h * bytesPerPixel];
+                    if (plane != null)
+                    {
+                        for (int j = 0; j < h; j++)
+                        {
+                            System.arraycopy(plane,
+                                    ((y + j) * size.width + x) * bytesPerPixel,
+                                    tile, j * w * bytesPerPixel,
+                                    w * bytesPerPixel);
+                        }
+                    }
+                    else
+                    {
+                        // The reduced tile is made of the reductions of a
+                        // square of factor by factor full resolution tiles.
+                        int fullX = column * factor * fullTileWidth;
+                        int fullY = row * factor * fullTileHeight;
+                        for (int fy = fullY; fy < Math.min(sizeY,
+                                fullY + factor * fullTileHeight);
+                             fy += fullTileHeight)
+                        {
+                            for (int fx = fullX; fx < Math.min(sizeX,
+                                    fullX + factor * fullTileWidth);
+                                 fx += fullTileWidth)
+                            {
+                                int fw = Math.min(fullTileWidth, sizeX - fx);
+                                int fh = Math.min(fullTileHeight, sizeY - fy);
+                                byte[] fullTile = new byte[
+                                        fw * fh * bytesPerPixel];
+                                source.getSamples(ifds.get(i), fullTile,
+                                        fx, fy, fw, fh);
+                                levelBuilder.reduceTile(fullTile, fx, fy,
+                                        fw, fh, series, tile, x, y, w, h);
+                            }
+                        }
+                    }
+                    saveBytes(i, tile, ifd, x, y, w, h);
+                }
+            }
+        }
+    }
 }
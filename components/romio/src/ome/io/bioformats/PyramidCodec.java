@@ -0,0 +1,122 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.bioformats;
+
+import loci.formats.out.TiffWriter;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.TiffCompression;
+
+/**
+ * Lossless codecs the tiles of a pixels pyramid may be compressed with. The
+ * codec is recorded in the TIFF compression tag of every IFD of the pyramid,
+ * so that pyramids written with different codecs are all read back with the
+ * right decoder, whatever the codec currently configured.
+ *
+ * {@link #JPEG_2000} gives the smallest pyramids but by far the slowest
+ * decoding; {@link #LZW} and {@link #DEFLATE} trade disk space for much
+ * cheaper tile reads and {@link #UNCOMPRESSED} does not compress at all.
+ *
+ * A JPEG-2000 codestream holds reduced resolutions of its tile, so those
+ * pyramids only store their smallest levels besides the full resolution
+ * tiles. The pyramids of the other codecs store every level, tiled like
+ * the full resolution series.
+ *
+ * @since Beta4.3.2
+ * @see BfPyramidPixelBuffer#setCodec(PyramidCodec)
+ */
+public enum PyramidCodec {
+
+    UNCOMPRESSED(TiffCompression.UNCOMPRESSED,
+            TiffWriter.COMPRESSION_UNCOMPRESSED),
+
+    LZW(TiffCompression.LZW, TiffWriter.COMPRESSION_LZW),
+
+    /**
+     * The writer has no name for deflate; as the compression tag is set on
+     * every IFD, the name only matters for the pixel types it accepts.
+     */
+    DEFLATE(TiffCompression.DEFLATE, TiffWriter.COMPRESSION_UNCOMPRESSED),
+
+    JPEG_2000(TiffCompression.JPEG_2000, TiffWriter.COMPRESSION_J2K);
+
+    /** Codec of the pyramids written before the codec was configurable. */
+    public static final PyramidCodec DEFAULT = JPEG_2000;
+
+    private final TiffCompression compression;
+
+    private final String writerCompression;
+
+    private PyramidCodec(TiffCompression compression,
+            String writerCompression) {
+        this.compression = compression;
+        this.writerCompression = writerCompression;
+    }
+
+    /**
+     * Returns the TIFF compression tiles are written with.
+     */
+    public TiffCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Returns the compression name to configure the {@link TiffWriter}
+     * with.
+     */
+    public String getWriterCompression() {
+        return writerCompression;
+    }
+
+    /**
+     * Returns <code>true</code> if the compressed tiles hold their reduced
+     * resolutions, which the reader then decodes rather than reading them
+     * from reduced resolution series.
+     */
+    public boolean hasResolutionLevels() {
+        return this == JPEG_2000;
+    }
+
+    /**
+     * Returns the resolution levels, as powers of two, of the series of the
+     * pyramids written with this codec. Series 0 is the full resolution
+     * series.
+     */
+    public int[] getLevels() {
+        return hasResolutionLevels()? PyramidLevelBuilder.LEVELS.clone()
+                : PyramidLevelBuilder.ALL_LEVELS.clone();
+    }
+
+    /**
+     * Sets the compression tag of an IFD about to be written.
+     */
+    public void apply(IFD ifd) {
+        ifd.put(IFD.COMPRESSION, compression.getCode());
+    }
+
+    /**
+     * Looks a codec up by name, ignoring case; "-" may be used for "_".
+     *
+     * @throws IllegalArgumentException
+     *             If there is no such codec.
+     */
+    public static PyramidCodec forName(String name) {
+        String key = name.trim().toUpperCase().replace('-', '_');
+        for (PyramidCodec codec : values()) {
+            if (codec.name().equals(key)) {
+                return codec;
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (PyramidCodec codec : values()) {
+            sb.append(sb.length() == 0 ? "" : ", ");
+            sb.append(codec.name().toLowerCase());
+        }
+        throw new IllegalArgumentException("Unknown pyramid codec: " + name
+                + " (expected one of " + sb + ")");
+    }
+
+}
@@ -0,0 +1,473 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.bioformats;
+
+import java.awt.Dimension;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ome.model.core.Pixels;
+import ome.util.PixelData;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Builds the reduced resolution levels of a pixels pyramid while the full
+ * resolution tiles are being written, so that
+ * {@link OmeroPixelsPyramidWriter} does not have to decode the freshly
+ * written full resolution series again when it is closed.
+ *
+ * Each full resolution tile is box filtered into the same position of every
+ * level that {@link BfPyramidPixelBuffer} declares, i.e. level <code>n</code>
+ * of series <code>s</code> has its tiles reduced by a factor of
+ * <code>2^n</code>. Tiles which do not overlap may be added concurrently.
+ * The levels depend on the {@link PyramidCodec} of the pyramid: JPEG-2000
+ * pyramids only store {@link #LEVELS}, the others {@link #ALL_LEVELS}.
+ *
+ * @since Beta4.3.2
+ * @see BfPyramidPixelBuffer#setLevelBuilder(PyramidLevelBuilder)
+ */
+public class PyramidLevelBuilder {
+
+    private final static Log log = LogFactory.getLog(PyramidLevelBuilder.class);
+
+    /**
+     * The resolution levels, as powers of two, of the pyramid series. Series
+     * 0 is the full resolution series.
+     */
+    public static final int[] LEVELS = new int[] { 0, 5, 4 };
+
+    /**
+     * The resolution levels of the pyramids whose codec does not hold the
+     * intermediate levels, each of which is then stored.
+     */
+    public static final int[] ALL_LEVELS = new int[] { 0, 1, 2, 3, 4, 5 };
+
+    private final int[] levels;
+
+    private final String pixelsType;
+
+    private final int bytesPerPixel;
+
+    private final ByteOrder byteOrder;
+
+    private final int sizeZ;
+
+    private final int sizeC;
+
+    private final int planeCount;
+
+    private final int tileWidth;
+
+    private final int tileHeight;
+
+    private final Dimension[] sizes;
+
+    /** Reduced planes indexed by series and plane number. */
+    private final byte[][][] planes;
+
+    private final long expectedTiles;
+
+    private final AtomicLong addedTiles = new AtomicLong();
+
+    /**
+     * @param pixels
+     *            The pixels set the pyramid is being built for.
+     * @param tileWidth
+     *            Width of the full resolution tiles.
+     * @param tileHeight
+     *            Height of the full resolution tiles.
+     * @param byteOrder
+     *            The byte order of the tiles added.
+     */
+    public PyramidLevelBuilder(Pixels pixels, int tileWidth, int tileHeight,
+            ByteOrder byteOrder) {
+        this(pixels, tileWidth, tileHeight, byteOrder, LEVELS);
+    }
+
+    /**
+     * @param pixels
+     *            The pixels set the pyramid is being built for.
+     * @param tileWidth
+     *            Width of the full resolution tiles.
+     * @param tileHeight
+     *            Height of the full resolution tiles.
+     * @param byteOrder
+     *            The byte order of the tiles added.
+     * @param levels
+     *            The resolution levels of the pyramid series, see
+     *            {@link PyramidCodec#getLevels()}.
+     */
+    public PyramidLevelBuilder(Pixels pixels, int tileWidth, int tileHeight,
+            ByteOrder byteOrder, int[] levels) {
+        this.levels = levels.clone();
+        this.sizes = new Dimension[levels.length];
+        this.planes = new byte[levels.length][][];
+        this.pixelsType = pixels.getPixelsType().getValue();
+        if ("bit".equals(pixelsType)) {
+            throw new IllegalArgumentException("Unsupported type: bit");
+        }
+        this.bytesPerPixel = PixelData.getBitDepth(pixelsType) / 8;
+        this.byteOrder = byteOrder;
+        this.sizeZ = pixels.getSizeZ();
+        this.sizeC = pixels.getSizeC();
+        this.planeCount = sizeZ * sizeC * pixels.getSizeT();
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        for (int series = 1; series < levels.length; series++) {
+            sizes[series] = getLevelSize(pixels.getSizeX(), pixels.getSizeY(),
+                    tileWidth, tileHeight, levels[series]);
+            planes[series] = new byte[planeCount][];
+        }
+        long tilesX = (pixels.getSizeX() + tileWidth - 1) / tileWidth;
+        long tilesY = (pixels.getSizeY() + tileHeight - 1) / tileHeight;
+        this.expectedTiles = tilesX * tilesY * planeCount;
+    }
+
+    /**
+     * Returns the size of a reduced resolution level as declared in the
+     * pyramid metadata. Tiles are reduced independently of each other, the
+     * last partial tile of a row or column being rounded separately.
+     *
+     * @param imageWidth
+     *            Full resolution width.
+     * @param imageLength
+     *            Full resolution height.
+     * @param tileWidth
+     *            Width of the full resolution tiles.
+     * @param tileLength
+     *            Height of the full resolution tiles.
+     * @param level
+     *            Resolution level as a power of two.
+     * @return See above.
+     */
+    public static Dimension getLevelSize(long imageWidth, long imageLength,
+            int tileWidth, int tileLength, int level) {
+        long factor = (long) Math.pow(2, level);
+        long newTileWidth = getReducedTileSize(tileWidth, factor);
+        long newTileLength = getReducedTileSize(tileLength, factor);
+        long evenTilesPerRow = imageWidth / tileWidth;
+        long evenTilesPerColumn = imageLength / tileLength;
+        long remainingWidth = getReducedRemainder(
+                imageWidth - (evenTilesPerRow * tileWidth), factor);
+        long remainingLength = getReducedRemainder(
+                imageLength - (evenTilesPerColumn * tileLength), factor);
+        return new Dimension(
+                (int) ((evenTilesPerRow * newTileWidth) + remainingWidth),
+                (int) ((evenTilesPerColumn * newTileLength) + remainingLength));
+    }
+
+    private static long getReducedTileSize(int size, long factor) {
+        long reduced = Math.round((double) size / factor);
+        return reduced < 1? 1 : reduced;
+    }
+
+    private static long getReducedRemainder(long remainder, long factor) {
+        double reduced = ((double) remainder) / factor;
+        return (long) (reduced < 1? Math.ceil(reduced) : Math.round(reduced));
+    }
+
+    /**
+     * Returns the number of bytes needed to hold all the reduced resolution
+     * levels of a pixels set.
+     *
+     * @param pixels
+     *            The pixels set.
+     * @param tileWidth
+     *            Width of the full resolution tiles.
+     * @param tileHeight
+     *            Height of the full resolution tiles.
+     * @return See above.
+     */
+    public static long getMemorySize(Pixels pixels, int tileWidth,
+            int tileHeight) {
+        return getMemorySize(pixels, tileWidth, tileHeight, LEVELS);
+    }
+
+    /**
+     * Returns the number of bytes needed to hold the given reduced
+     * resolution levels of a pixels set.
+     *
+     * @param pixels
+     *            The pixels set.
+     * @param tileWidth
+     *            Width of the full resolution tiles.
+     * @param tileHeight
+     *            Height of the full resolution tiles.
+     * @param levels
+     *            The resolution levels of the pyramid series.
+     * @return See above.
+     */
+    public static long getMemorySize(Pixels pixels, int tileWidth,
+            int tileHeight, int[] levels) {
+        long planeCount = (long) pixels.getSizeZ() * pixels.getSizeC()
+                * pixels.getSizeT();
+        long bytesPerPixel =
+            PixelData.getBitDepth(pixels.getPixelsType().getValue()) / 8;
+        long size = 0;
+        for (int series = 1; series < levels.length; series++) {
+            Dimension d = getLevelSize(pixels.getSizeX(), pixels.getSizeY(),
+                    tileWidth, tileHeight, levels[series]);
+            size += (long) d.width * d.height;
+        }
+        return size * planeCount * Math.max(bytesPerPixel, 1);
+    }
+
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    public int getBytesPerPixel() {
+        return bytesPerPixel;
+    }
+
+    /**
+     * Returns the number of series, including the full resolution series.
+     */
+    public int getSeriesCount() {
+        return levels.length;
+    }
+
+    /**
+     * Returns the resolution level, as a power of two, of a series.
+     *
+     * @param series
+     *            Pyramid series.
+     * @return See above.
+     */
+    public int getLevel(int series) {
+        return levels[series];
+    }
+
+    /**
+     * Returns the size of the tiles a reduced resolution series is stored
+     * with when the pyramid holds all its levels: each such tile is made of
+     * the reductions of a square of full resolution tiles, so that it is
+     * about as large as a full resolution tile.
+     *
+     * @param series
+     *            Pyramid series, greater than zero.
+     * @return See above.
+     */
+    public Dimension getTileSize(int series) {
+        long factor = (long) Math.pow(2, levels[series]);
+        return new Dimension(
+                (int) (getReducedTileSize(tileWidth, factor) * factor),
+                (int) (getReducedTileSize(tileHeight, factor) * factor));
+    }
+
+    /**
+     * Returns the size of a reduced resolution series.
+     *
+     * @param series
+     *            Pyramid series, greater than zero.
+     * @return See above.
+     */
+    public Dimension getSize(int series) {
+        return sizes[series];
+    }
+
+    /**
+     * Returns <code>true</code> once every full resolution tile of the
+     * pixels set has been added.
+     */
+    public boolean isComplete() {
+        return addedTiles.get() == expectedTiles;
+    }
+
+    /**
+     * Returns a plane of a reduced resolution series in the byte order of
+     * the tiles which were added.
+     *
+     * @param series
+     *            Pyramid series, greater than zero.
+     * @param planeNumber
+     *            Rasterized plane number (XYZCT).
+     * @return See above.
+     */
+    public synchronized byte[] getPlane(int series, int planeNumber) {
+        byte[] plane = planes[series][planeNumber];
+        if (plane == null) {
+            Dimension size = sizes[series];
+            plane = new byte[size.width * size.height * bytesPerPixel];
+            planes[series][planeNumber] = plane;
+        }
+        return plane;
+    }
+
+    /**
+     * Reduces a full resolution tile into every reduced resolution series.
+     * The tile must be aligned on the tile grid this instance was created
+     * for.
+     *
+     * @param tile
+     *            Full resolution tile data.
+     * @param z
+     *            Z-section offset of the tile.
+     * @param c
+     *            Channel offset of the tile.
+     * @param t
+     *            Timepoint offset of the tile.
+     * @param x
+     *            X offset of the tile.
+     * @param y
+     *            Y offset of the tile.
+     * @param w
+     *            Width of the tile.
+     * @param h
+     *            Height of the tile.
+     */
+    public void addTile(byte[] tile, int z, int c, int t, int x, int y,
+            int w, int h) {
+        PixelData source = new PixelData(pixelsType, ByteBuffer.wrap(tile));
+        source.setOrder(byteOrder);
+        int planeNumber = (t * sizeC * sizeZ) + (c * sizeZ) + z;
+        for (int series = 1; series < levels.length; series++) {
+            Dimension size = sizes[series];
+            reduceInto(source, x, y, w, h, series,
+                    getPlane(series, planeNumber), 0, 0,
+                    size.width, size.height);
+        }
+        addedTiles.incrementAndGet();
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Reduced tile z:%d c:%d t:%d x:%d y:%d " +
+                    "w:%d h:%d", z, c, t, x, y, w, h));
+        }
+    }
+
+    /**
+     * Reduces a full resolution tile into a region of a reduced resolution
+     * series held by the caller rather than by this builder, such as a
+     * single tile of the series. The tile must be aligned on the tile grid
+     * this instance was created for.
+     *
+     * @param tile
+     *            Full resolution tile data, in the byte order of this
+     *            builder.
+     * @param x
+     *            X offset of the tile.
+     * @param y
+     *            Y offset of the tile.
+     * @param w
+     *            Width of the tile.
+     * @param h
+     *            Height of the tile.
+     * @param series
+     *            Pyramid series, greater than zero.
+     * @param region
+     *            Pixels of the region, row after row.
+     * @param regionX
+     *            X offset of the region within the series.
+     * @param regionY
+     *            Y offset of the region within the series.
+     * @param regionWidth
+     *            Width of the region.
+     * @param regionHeight
+     *            Height of the region.
+     */
+    public void reduceTile(byte[] tile, int x, int y, int w, int h,
+            int series, byte[] region, int regionX, int regionY,
+            int regionWidth, int regionHeight) {
+        PixelData source = new PixelData(pixelsType, ByteBuffer.wrap(tile));
+        source.setOrder(byteOrder);
+        reduceInto(source, x, y, w, h, series, region, regionX, regionY,
+                regionWidth, regionHeight);
+    }
+
+    /**
+     * Box filters a full resolution tile into the part of a region of a
+     * reduced resolution series it covers.
+     */
+    private void reduceInto(PixelData source, int x, int y, int w, int h,
+            int series, byte[] region, int regionX, int regionY,
+            int regionWidth, int regionHeight) {
+        long factor = (long) Math.pow(2, levels[series]);
+        Dimension size = sizes[series];
+        int newTileWidth = (int) getReducedTileSize(tileWidth, factor);
+        int newTileHeight = (int) getReducedTileSize(tileHeight, factor);
+        int dx = (x / tileWidth) * newTileWidth;
+        int dy = (y / tileHeight) * newTileHeight;
+        int dw = w == tileWidth? newTileWidth
+                : (int) getReducedRemainder(w, factor);
+        int dh = h == tileHeight? newTileHeight
+                : (int) getReducedRemainder(h, factor);
+        dw = Math.min(dw, Math.min(size.width, regionX + regionWidth) - dx);
+        dh = Math.min(dh, Math.min(size.height, regionY + regionHeight) - dy);
+        if (dw <= 0 || dh <= 0 || dx < regionX || dy < regionY) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(region);
+        buffer.order(byteOrder);
+        reduce(source, w, h, buffer, regionWidth, dx - regionX, dy - regionY,
+                dw, dh);
+    }
+
+    /**
+     * Box filters a <code>w</code> by <code>h</code> tile into a
+     * <code>dw</code> by <code>dh</code> region of a plane.
+     */
+    private void reduce(PixelData source, int w, int h, ByteBuffer plane,
+            int planeWidth, int dx, int dy, int dw, int dh) {
+        boolean isFloat = source.isFloat();
+        for (int j = 0; j < dh; j++) {
+            int y0 = (int) ((long) j * h / dh);
+            int y1 = Math.max(y0 + 1, (int) ((long) (j + 1) * h / dh));
+            for (int i = 0; i < dw; i++) {
+                int x0 = (int) ((long) i * w / dw);
+                int x1 = Math.max(x0 + 1, (int) ((long) (i + 1) * w / dw));
+                double sum = 0;
+                for (int sy = y0; sy < y1; sy++) {
+                    for (int sx = x0; sx < x1; sx++) {
+                        sum += source.getPixelValue(sy * w + sx);
+                    }
+                }
+                double value = sum / ((y1 - y0) * (x1 - x0));
+                if (!isFloat) {
+                    value = Math.floor(value + 0.5);
+                }
+                put(plane, ((dy + j) * planeWidth + dx + i) * bytesPerPixel,
+                        source.javaType(), value);
+            }
+        }
+    }
+
+    /**
+     * Unlike {@link PixelData#setPixelValueDirect(int, double)} integral
+     * values are narrowed through <code>long</code> so that unsigned 32-bit
+     * values are preserved.
+     */
+    private static void put(ByteBuffer plane, int offset, int javaType,
+            double value) {
+        switch (javaType) {
+            case PixelData.BYTE:
+                plane.put(offset, (byte) (long) value);
+                break;
+            case PixelData.SHORT:
+                plane.putShort(offset, (short) (long) value);
+                break;
+            case PixelData.INT:
+                plane.putInt(offset, (int) (long) value);
+                break;
+            case PixelData.FLOAT:
+                plane.putFloat(offset, (float) value);
+                break;
+            case PixelData.DOUBLE:
+                plane.putDouble(offset, value);
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "Unsupported type: " + javaType);
+        }
+    }
+
+}
@@ -0,0 +1,338 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.bioformats;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Process-wide pool of the readers {@link BfPyramidPixelBuffer}s decode
+ * tiles with, so that the viewers of a pyramid share its readers rather
+ * than each opening its own. Readers are keyed by pyramid path along with
+ * the length and modification time of the file, as for the
+ * {@link ome.io.nio.TileCache}, so that the readers of a file which has
+ * been replaced are never reused. At most {@link #getMaxReaders()} readers
+ * are open per file, further reads waiting for one to be returned, and at
+ * most {@link #getMaxIdle()} readers are kept open while idle, the least
+ * recently used being closed first.
+ *
+ * @since Beta4.3.2
+ */
+@ManagedResource(objectName = "omero:type=PyramidReaderPool",
+        description = "Readers of the pyramid files")
+public class PyramidReaderPool {
+
+    private final static Log log = LogFactory.getLog(PyramidReaderPool.class);
+
+    /** Default maximum number of readers per pyramid file. */
+    public static final int DEFAULT_MAX_READERS = 4;
+
+    /** Default maximum number of idle readers kept open. */
+    public static final int DEFAULT_MAX_IDLE = 32;
+
+    private final int maxReaders;
+
+    private final int maxIdle;
+
+    /** Readers of each file, for the files with open readers. */
+    private final Map<Key, Readers> files = new HashMap<Key, Readers>();
+
+    /** Files of the open readers, borrowed or idle. */
+    private final Map<BfPixelBuffer, Readers> owners =
+        new IdentityHashMap<BfPixelBuffer, Readers>();
+
+    /** Idle readers of all the files, least recently returned first. */
+    private final LinkedHashSet<BfPixelBuffer> idle =
+        new LinkedHashSet<BfPixelBuffer>();
+
+    public PyramidReaderPool() {
+        this(DEFAULT_MAX_READERS, DEFAULT_MAX_IDLE);
+    }
+
+    /**
+     * @param maxReaders
+     *            Maximum number of readers open per file. With 0, no readers
+     *            are lent and pyramid pixel buffers read tiles through their
+     *            own reader, one at a time.
+     * @param maxIdle
+     *            Maximum number of idle readers kept open over all files.
+     */
+    public PyramidReaderPool(int maxReaders, int maxIdle) {
+        if (maxReaders < 0 || maxIdle < 0) {
+            throw new IllegalArgumentException("Bad limits: " + maxReaders
+                    + ", " + maxIdle);
+        }
+        this.maxReaders = maxReaders;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Takes a reader of the given version of a pyramid file, opening one if
+     * none is idle and fewer than {@link #getMaxReaders()} are open, or
+     * waiting for one to be returned. The reader is set to the given
+     * resolution level and must be handed back with
+     * {@link #giveBack(BfPixelBuffer, boolean)}.
+     *
+     * @return The reader or <code>null</code> if the pool is disabled.
+     */
+    public BfPixelBuffer borrow(String path, long length, long modified,
+            int resolutionLevel) throws IOException {
+        if (maxReaders == 0) {
+            return null;
+        }
+        Key key = new Key(path, length, modified);
+        Readers readers;
+        BfPixelBuffer reader = null;
+        synchronized (this) {
+            while (true) {
+                readers = files.get(key);
+                if (readers == null) {
+                    readers = new Readers(key);
+                    files.put(key, readers);
+                }
+                if (!readers.idle.isEmpty()) {
+                    reader = readers.idle.removeFirst();
+                    idle.remove(reader);
+                    break;
+                }
+                if (readers.open < maxReaders) {
+                    readers.open++;
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for reader");
+                }
+            }
+        }
+        try {
+            if (reader == null) {
+                // Opened outside of the lock
+                reader = new BfPixelBuffer(path,
+                        new OmeroPixelsPyramidReader());
+                synchronized (this) {
+                    owners.put(reader, readers);
+                }
+            }
+            reader.setResolutionLevel(resolutionLevel);
+            return reader;
+        } catch (Exception e) {
+            if (reader == null) {
+                synchronized (this) {
+                    release(readers);
+                }
+            } else {
+                giveBack(reader, true);
+            }
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns a reader taken by {@link #borrow(String, long, long, int)}.
+     *
+     * @param failed
+     *            If set, the reader is closed rather than kept, e.g. because
+     *            it failed to read.
+     */
+    public void giveBack(BfPixelBuffer reader, boolean failed) {
+        List<BfPixelBuffer> closing = new ArrayList<BfPixelBuffer>();
+        synchronized (this) {
+            Readers readers = owners.get(reader);
+            if (readers == null) {
+                return;
+            }
+            if (failed || readers.evicted) {
+                owners.remove(reader);
+                release(readers);
+                closing.add(reader);
+            } else {
+                readers.idle.addLast(reader);
+                idle.add(reader);
+                trim(closing);
+            }
+            notifyAll();
+        }
+        close(closing);
+    }
+
+    /**
+     * Closes the readers of all the versions of a file, e.g. because it has
+     * been removed. Borrowed readers are closed when handed back.
+     */
+    public void evict(String path) {
+        List<BfPixelBuffer> closing = new ArrayList<BfPixelBuffer>();
+        synchronized (this) {
+            Iterator<Readers> it = files.values().iterator();
+            while (it.hasNext()) {
+                Readers readers = it.next();
+                if (readers.key.path.equals(path)) {
+                    it.remove();
+                    readers.evicted = true;
+                    closeIdle(readers, closing);
+                }
+            }
+            notifyAll();
+        }
+        close(closing);
+    }
+
+    @ManagedOperation(description = "Closes the idle readers")
+    public void clear() {
+        List<BfPixelBuffer> closing = new ArrayList<BfPixelBuffer>();
+        synchronized (this) {
+            for (Readers readers : new ArrayList<Readers>(files.values())) {
+                closeIdle(readers, closing);
+            }
+            notifyAll();
+        }
+        close(closing);
+    }
+
+    @ManagedAttribute(description = "Maximum number of readers per file")
+    public int getMaxReaders() {
+        return maxReaders;
+    }
+
+    @ManagedAttribute(description = "Maximum number of idle readers")
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    @ManagedAttribute(description = "Number of open readers")
+    public synchronized int getOpen() {
+        int open = 0;
+        for (Readers readers : files.values()) {
+            open += readers.open;
+        }
+        return open;
+    }
+
+    @ManagedAttribute(description = "Number of idle readers")
+    public synchronized int getIdle() {
+        return idle.size();
+    }
+
+    /** Counts a reader of the file as closed. Called holding the lock. */
+    private void release(Readers readers) {
+        readers.open--;
+        if (readers.open == 0 && files.get(readers.key) == readers) {
+            files.remove(readers.key);
+        }
+        notifyAll();
+    }
+
+    /** Closes the idle readers beyond {@link #maxIdle}. */
+    private void trim(List<BfPixelBuffer> closing) {
+        Iterator<BfPixelBuffer> it = idle.iterator();
+        while (idle.size() > maxIdle && it.hasNext()) {
+            BfPixelBuffer reader = it.next();
+            it.remove();
+            Readers readers = owners.remove(reader);
+            readers.idle.remove(reader);
+            release(readers);
+            closing.add(reader);
+        }
+    }
+
+    private void closeIdle(Readers readers, List<BfPixelBuffer> closing) {
+        for (BfPixelBuffer reader : readers.idle) {
+            idle.remove(reader);
+            owners.remove(reader);
+            release(readers);
+            closing.add(reader);
+        }
+        readers.idle.clear();
+    }
+
+    /** Closes readers, outside of the lock. */
+    private void close(List<BfPixelBuffer> readers) {
+        for (BfPixelBuffer reader : readers) {
+            if (reader.reader.get() == null) {
+                continue; // Never opened
+            }
+            try {
+                reader.close();
+            } catch (Exception e) {
+                log.warn("Failed to close pyramid reader", e);
+            }
+        }
+    }
+
+    /** Identifies a version of a pyramid file. */
+    private static final class Key {
+
+        final String path;
+
+        private final long length, modified;
+
+        Key(String path, long length, long modified) {
+            this.path = path;
+            this.length = length;
+            this.modified = modified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return path.equals(k.path) && length == k.length
+                    && modified == k.modified;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = path.hashCode();
+            hash = 31 * hash + (int) (length ^ (length >>> 32));
+            hash = 31 * hash + (int) (modified ^ (modified >>> 32));
+            return hash;
+        }
+    }
+
+    /** Readers of a version of a file. Guarded by the pool. */
+    private static final class Readers {
+
+        final Key key;
+
+        /** Readers opened, idle or not, including those being opened. */
+        int open = 0;
+
+        final LinkedList<BfPixelBuffer> idle = new LinkedList<BfPixelBuffer>();
+
+        /** Set once evicted, after which returned readers are closed. */
+        boolean evicted = false;
+
+        Readers(Key key) {
+            this.key = key;
+        }
+    }
+
+}
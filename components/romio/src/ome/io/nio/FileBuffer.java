@@ -62,11 +62,12 @@ public class FileBuffer extends AbstractBuffer {
     }
 
     /**
-     * Retrieve the NIO channel that corresponds to this file.
+     * Retrieve the NIO channel that corresponds to this file, opening it if
+     * needed. The channel is closed by {@link #close()}.
      * 
      * @return the file channel.
      */
-    private FileChannel getFileChannel() throws FileNotFoundException {
+    public FileChannel getFileChannel() throws FileNotFoundException {
         if (channel == null) {
             RandomAccessFile file = new RandomAccessFile(getPath(), "rw");
             channel = file.getChannel();
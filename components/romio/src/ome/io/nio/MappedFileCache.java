@@ -0,0 +1,251 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Process-wide cache of read-only memory mapped windows onto ROMIO pixels
+ * files. Regions handed out by {@link #getRegion(String, long, int)} are
+ * slices of a shared {@link MappedByteBuffer} and therefore do not copy any
+ * data onto the Java heap.
+ *
+ * Each file is split into windows of {@link #getWindowSize()} bytes. Window
+ * <code>i</code> maps the bytes <code>[i * windowSize, (i + 2) *
+ * windowSize)</code> so that any region no larger than a window which
+ * starts in window <code>i</code> is fully contained in it. This keeps the
+ * size of every single mapping below the 2GB limit of the NIO API while
+ * still permitting files of any size. At most {@link #getMaxWindows()}
+ * windows are kept, least recently used windows being released first.
+ *
+ * The last window of a file only maps up to the end of the file as it was
+ * when the window was mapped. If a region beyond it is requested because
+ * the file has since grown, e.g. while a pixel buffer is being written,
+ * the window is mapped again.
+ *
+ * @since Beta4.3.2
+ * @see RomioPixelBuffer
+ */
+public class MappedFileCache {
+
+    private final static Log log = LogFactory.getLog(MappedFileCache.class);
+
+    /** Default window size (128MB); every mapping spans two windows. */
+    public static final long DEFAULT_WINDOW_SIZE = 128L * 1024 * 1024;
+
+    /** Default maximum number of windows to keep mapped. */
+    public static final int DEFAULT_MAX_WINDOWS = 64;
+
+    private final long windowSize;
+
+    private final int maxWindows;
+
+    private final Map<Window, MappedByteBuffer> windows;
+
+    public MappedFileCache() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_MAX_WINDOWS);
+    }
+
+    /**
+     * @param windowSize
+     *            Size in bytes of a single window. Must be positive and no
+     *            larger than 1GB since a mapping spans two windows.
+     * @param maxWindows
+     *            Maximum number of windows kept mapped at any one time.
+     */
+    public MappedFileCache(long windowSize, int maxWindows) {
+        if (windowSize <= 0 || windowSize > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("Bad window size: "
+                    + windowSize);
+        }
+        if (maxWindows < 1) {
+            throw new IllegalArgumentException("Bad max windows: "
+                    + maxWindows);
+        }
+        this.windowSize = windowSize;
+        this.maxWindows = maxWindows;
+        this.windows = new LinkedHashMap<Window, MappedByteBuffer>(16, 0.75f,
+                true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Window, MappedByteBuffer> eldest) {
+                return size() > MappedFileCache.this.maxWindows;
+            }
+        };
+    }
+
+    public long getWindowSize() {
+        return windowSize;
+    }
+
+    public int getMaxWindows() {
+        return maxWindows;
+    }
+
+    /**
+     * Returns a read-only view of <code>size</code> bytes of the given file
+     * starting at <code>offset</code>. The returned buffer is positioned at
+     * zero, is in big endian byte order and may be freely modified (position,
+     * limit, order) by the caller without affecting other callers.
+     *
+     * @param path
+     *            Path of the file to map.
+     * @param offset
+     *            Offset in bytes of the region within the file.
+     * @param size
+     *            Size in bytes of the region.
+     * @return See above.
+     * @throws IOException
+     *             If the region could not be mapped or lies beyond the end of
+     *             the file.
+     */
+    public ByteBuffer getRegion(String path, long offset, int size)
+            throws IOException {
+        if (size > windowSize) {
+            // Too large to be served from a window. Mapped directly rather
+            // than pushing every other window out of the cache.
+            return map(path, offset, size);
+        }
+
+        long index = offset / windowSize;
+        int start = (int) (offset - index * windowSize);
+        MappedByteBuffer window = getWindow(path, index, start + size);
+        if (start + size > window.capacity()) {
+            throw new IOException(String.format(
+                    "Region %d+%d beyond end of file: %s",
+                    offset, size, path));
+        }
+        ByteBuffer region = window.duplicate();
+        region.limit(start + size);
+        region.position(start);
+        return region.slice();
+    }
+
+    /**
+     * Releases all the windows of a given file, e.g. because the file has
+     * been removed or replaced. The memory is returned to the operating
+     * system once the mapped buffers are garbage collected.
+     *
+     * @param path
+     *            Path of the file to release.
+     */
+    public synchronized void evict(String path) {
+        Iterator<Window> it = windows.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().path.equals(path)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Releases all windows.
+     */
+    public synchronized void clear() {
+        windows.clear();
+    }
+
+    /**
+     * Returns the number of currently cached windows.
+     */
+    public synchronized int size() {
+        return windows.size();
+    }
+
+    /**
+     * Returns the window <code>index</code> of the file, mapping it again if
+     * it is shorter than <code>minSize</code> bytes but the file has grown.
+     */
+    private synchronized MappedByteBuffer getWindow(String path, long index,
+            int minSize) throws IOException {
+        Window key = new Window(path, index);
+        MappedByteBuffer window = windows.get(key);
+        if (window != null && window.capacity() < minSize
+                && window.capacity() < 2 * windowSize) {
+            windows.remove(key);
+            window = null;
+        }
+        if (window == null) {
+            long start = index * windowSize;
+            long length = new File(path).length();
+            if (start >= length) {
+                throw new IOException(String.format(
+                        "Offset %d beyond end of file: %s", start, path));
+            }
+            int size = (int) Math.min(length - start, 2 * windowSize);
+            window = map(path, start, size);
+            windows.put(key, window);
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Mapped window %d (%d bytes) of %s",
+                        index, size, path));
+            }
+        }
+        return window;
+    }
+
+    /**
+     * The mapping stays valid once the channel is closed so no file handles
+     * are held for cached windows.
+     */
+    private MappedByteBuffer map(String path, long offset, int size)
+            throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            return channel.map(MapMode.READ_ONLY, offset, size);
+        } finally {
+            try {
+                file.close();
+            } catch (IOException e) {
+                log.error("Error closing file: " + path, e);
+            }
+        }
+    }
+
+    private static class Window {
+
+        final String path;
+
+        final long index;
+
+        Window(String path, long index) {
+            this.path = path;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Window)) {
+                return false;
+            }
+            Window other = (Window) obj;
+            return index == other.index && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * path.hashCode() + (int) (index ^ (index >>> 32));
+        }
+
+    }
+
+}
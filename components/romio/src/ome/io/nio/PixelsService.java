@@ -11,23 +11,37 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import loci.formats.ChannelFiller;
 import loci.formats.ChannelSeparator;
 import loci.formats.IFormatReader;
 import loci.formats.ImageReader;
-import loci.formats.MinMaxCalculator;
 import loci.formats.meta.IMinMaxStore;
 import ome.conditions.LockTimeout;
 import ome.conditions.MissingPyramidException;
 import ome.conditions.ResourceError;
 import ome.io.bioformats.BfPixelBuffer;
 import ome.io.bioformats.BfPyramidPixelBuffer;
+import ome.io.bioformats.PyramidCodec;
+import ome.io.bioformats.PyramidLevelBuilder;
+import ome.io.bioformats.PyramidReaderPool;
 import ome.io.messages.MissingPyramidMessage;
 import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
 import ome.model.stats.StatsInfo;
 import ome.util.PixelData;
 
@@ -73,6 +87,33 @@ public class PixelsService extends AbstractFileSystemService
 	/** TileSizes implementation for default values */
 	protected TileSizes sizes;
 
+	/** Memory mapped windows shared by all read-only ROMIO pixel buffers. */
+	protected MappedFileCache mappedFiles = new MappedFileCache();
+
+	/** Decoded pyramid tiles shared by all pyramid pixel buffers. */
+	protected TileCache tileCache = new TileCache();
+
+	/** Readers shared by all pyramid pixel buffers to read tiles with. */
+	protected PyramidReaderPool pyramidReaders = new PyramidReaderPool();
+
+	/** Codec the tiles of new pyramids are compressed with. */
+	protected PyramidCodec pyramidCodec = PyramidCodec.DEFAULT;
+
+	/** Default limit on the memory used for in-memory resolution levels. */
+	public static final long DEFAULT_MAX_LEVEL_MEMORY = 256L * 1024 * 1024;
+
+	/** Number of workers reading and reducing tiles during pyramid creation. */
+	protected int pyramidThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Maximum number of bytes the reduced resolution levels of a pyramid may
+	 * use to be built in memory while the tiles are written.
+	 */
+	protected long maxLevelMemory = DEFAULT_MAX_LEVEL_MEMORY;
+
+	/** Executor shared by all pyramid creations. */
+	private ExecutorService pyramidExecutor;
+
 	/** Null plane byte array. */
 	public static final byte[] nullPlane = new byte[] { -128, 127, -128, 127,
 			-128, 127, -128, 127, -128, 127, // 10
@@ -135,6 +176,74 @@ public class PixelsService extends AbstractFileSystemService
         this.resolver = resolver;
     }
 
+    /**
+     * Sets the cache of memory mapped windows used by read-only ROMIO pixel
+     * buffers. If <code>null</code>, read-only buffers copy their data out of
+     * the file channel as read-write buffers do.
+     */
+    public void setMappedFileCache(MappedFileCache mappedFiles)
+    {
+        this.mappedFiles = mappedFiles;
+    }
+
+    /**
+     * Sets the cache of decoded tiles shared by the pyramid pixel buffers.
+     * If <code>null</code>, every tile read is decoded.
+     */
+    public void setTileCache(TileCache tileCache)
+    {
+        this.tileCache = tileCache;
+    }
+
+    /**
+     * Sets the pool of readers the pyramid pixel buffers read tiles with,
+     * keyed by pyramid file so that all the buffers of a pyramid share its
+     * readers. If <code>null</code>, the tile reads of a pixel buffer are
+     * serialized.
+     */
+    public void setPyramidReaders(PyramidReaderPool pyramidReaders)
+    {
+        this.pyramidReaders = pyramidReaders;
+    }
+
+    /**
+     * Sets the codec the tiles of the pyramids created from now on are
+     * compressed with. Existing pyramids keep their codec.
+     * @param codec Name of a {@link PyramidCodec}, e.g. "jpeg_2000" or
+     * "deflate".
+     */
+    public void setPyramidCodec(String codec)
+    {
+        this.pyramidCodec = PyramidCodec.forName(codec);
+    }
+
+    /**
+     * Sets the number of workers reading and reducing tiles in parallel
+     * during pyramid creation. The workers are shared by all pyramids being
+     * created at any one time. Must be called before the first pyramid is
+     * created.
+     * @param threads Number of workers. Values less than one default to the
+     * number of available processors.
+     */
+    public synchronized void setPyramidThreads(int threads)
+    {
+        if (threads < 1)
+        {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        this.pyramidThreads = threads;
+    }
+
+    /**
+     * Sets the maximum number of bytes the reduced resolution levels of a
+     * pyramid may use to be built in memory. Larger pyramids have their
+     * levels decoded from the full resolution series once it is written.
+     */
+    public void setMaxLevelMemory(long maxLevelMemory)
+    {
+        this.maxLevelMemory = maxLevelMemory;
+    }
+
 	/**
 	 * Creates a PixelBuffer for a given pixels set.
 	 * 
@@ -158,12 +267,88 @@ public class PixelsService extends AbstractFileSystemService
      * @since OMERO-Beta4.3
      */
     public StatsInfo[] makePyramid(Pixels pixels)
+    {
+        return preparePyramid(pixels).call();
+    }
+
+    /**
+     * Resolves, in the calling thread, the original file path and series of
+     * a set of pixels and returns the creation of its pyramid. The returned
+     * task works on a copy of the pixels metadata and only accesses the
+     * file system, so that it may be run in another thread than the one of
+     * the caller's transaction.
+     *
+     * @param pixels Pixels set, with its pixels type loaded.
+     * @since Beta4.3.2
+     * @see #makePyramid(Pixels)
+     */
+    public PyramidCreation preparePyramid(Pixels pixels)
+    {
+        final String originalFilePath = getOriginalFilePath(pixels);
+        final int series = originalFilePath == null? 0 : getSeries(pixels);
+        return new PyramidCreation(copyMetadata(pixels), originalFilePath,
+                series);
+    }
+
+    /**
+     * The creation of the pyramid of a set of pixels whose files have been
+     * resolved by {@link PixelsService#preparePyramid(Pixels)}.
+     */
+    public class PyramidCreation implements Callable<StatsInfo[]>
+    {
+        private final Pixels pixels;
+
+        private final String originalFilePath;
+
+        private final int series;
+
+        private PyramidCreation(Pixels pixels, String originalFilePath,
+                int series)
+        {
+            this.pixels = pixels;
+            this.originalFilePath = originalFilePath;
+            this.series = series;
+        }
+
+        /**
+         * Creates the pyramid. If the pyramid file already exists, then a
+         * DEBUG message is logged and this method returns.
+         *
+         * @return The channel min/max values read from the original file,
+         * or <code>null</code>.
+         */
+        public StatsInfo[] call()
+        {
+            return makePyramid(pixels, originalFilePath, series);
+        }
+    }
+
+    /**
+     * Returns a detached copy of the metadata of a set of pixels read by the
+     * pixel buffers.
+     */
+    private static Pixels copyMetadata(Pixels pixels)
+    {
+        PixelsType type = new PixelsType();
+        type.setValue(pixels.getPixelsType().getValue());
+        Pixels copy = new Pixels();
+        copy.setId(pixels.getId());
+        copy.setSizeX(pixels.getSizeX());
+        copy.setSizeY(pixels.getSizeY());
+        copy.setSizeZ(pixels.getSizeZ());
+        copy.setSizeC(pixels.getSizeC());
+        copy.setSizeT(pixels.getSizeT());
+        copy.setPixelsType(type);
+        return copy;
+    }
+
+    private StatsInfo[] makePyramid(Pixels pixels,
+            final String originalFilePath, final int series)
     {
         final String pixelsFilePath = getPixelsPath(pixels.getId());
         final File pixelsFile = new File(pixelsFilePath);
         final String pixelsPyramidFilePath = pixelsFilePath + PYRAMID_SUFFIX;
         final File pixelsPyramidFile = new File(pixelsPyramidFilePath);
-        final String originalFilePath = getOriginalFilePath(pixels);
 
         // This was called perhaps while a pyramid was
         // being generated, and is no longer needed.
@@ -193,7 +378,7 @@ public class PixelsService extends AbstractFileSystemService
 
             PixelsPyramidMinMaxStore minMaxStore = performWrite(
                     pixels, pixelsPyramidFile, pixelsPyramid,
-                    pixelsFile, pixelsFilePath, originalFilePath);
+                    pixelsFile, pixelsFilePath, originalFilePath, series);
             if (minMaxStore != null)
             {
                 return minMaxStore.createStatsInfo();
@@ -220,7 +405,8 @@ public class PixelsService extends AbstractFileSystemService
     private PixelsPyramidMinMaxStore performWrite(
             final Pixels pixels,final File pixelsPyramidFile,
             final BfPyramidPixelBuffer pixelsPyramid, final File pixelsFile,
-            final String pixelsFilePath, final String originalFilePath) {
+            final String pixelsFilePath, final String originalFilePath,
+            final int series) {
 
         final PixelBuffer source;
         final Dimension tileSize;
@@ -238,9 +424,8 @@ public class PixelsService extends AbstractFileSystemService
         else
         {
             minMaxStore = new PixelsPyramidMinMaxStore(pixels.getSizeC());
-            int series = getSeries(pixels);
-            BfPixelBuffer bfPixelBuffer = createMinMaxBfPixelBuffer(
-                    originalFilePath, series, minMaxStore);
+            BfPixelBuffer bfPixelBuffer = (BfPixelBuffer) createBfPixelBuffer(
+                    originalFilePath, series);
             pixelsPyramid.setByteOrder(
                     bfPixelBuffer.isLittleEndian()? ByteOrder.LITTLE_ENDIAN
                             : ByteOrder.BIG_ENDIAN);
@@ -280,68 +465,327 @@ public class PixelsService extends AbstractFileSystemService
         }
         log.info("Destination pyramid tile size: " + tileSize);
 
+        final List<PixelBuffer> sources = new ArrayList<PixelBuffer>();
+        sources.add(source);
         try
         {
             final double totalTiles =
                 source.getSizeZ() * source.getSizeC() * source.getSizeT() *
                 (Math.ceil(source.getSizeX() / tileSize.getWidth())) *
                 (Math.ceil(source.getSizeY() / tileSize.getHeight()));
-            final int tenPercent = Math.max((int) totalTiles / 10, 1);
+            // Every worker reads through its own pixel buffer as neither
+            // ROMIO nor Bio-Formats pixel buffers may be read concurrently.
+            final int workers =
+                (int) Math.max(1, Math.min(pyramidThreads, totalTiles));
+            while (sources.size() < workers)
+            {
+                sources.add(pixelsFile.exists()?
+                        createRomioPixelBuffer(pixelsFilePath, pixels, false)
+                        : createBfPixelBuffer(originalFilePath, series));
+            }
+            final PyramidLevelBuilder levels = createLevelBuilder(
+                    pixels, tileSize, pixelsPyramid.getByteOrder(),
+                    pixelsPyramid.getCodec());
+            pixelsPyramid.setLevelBuilder(levels);
+            final PyramidWrite write = new PyramidWrite(pixels,
+                    pixelsPyramidFile, pixelsPyramid, sources, levels,
+                    minMaxStore, totalTiles);
+            log.info(String.format("Pyramid creation for Pixels:%d using " +
+                    "%d worker(s)%s.", pixels.getId(), workers,
+                    levels == null? "" : " and in-memory resolution levels"));
             Utils.forEachTile(new TileLoopIteration() {
                 public void run(int z, int c, int t, int x, int y, int w,
                             int h, int tileCount)
             {
-                if (log.isInfoEnabled()
-                    && tileCount % tenPercent == 0)
+                write.submit(z, c, t, x, y, w, h, tileCount);
+            }
+            }, source, (int) tileSize.getWidth(), (int) tileSize.getHeight());
+            if (write.finish())
+            {
+                log.info("SUCCESS -- Pyramid created for pixels id:"
+                        + pixels.getId());
+            }
+        }
+
+        finally
+        {
+            for (PixelBuffer buffer : sources)
+            {
+                if (buffer == null)
                 {
-                    log.info(String.format(
-                            "Pyramid creation for Pixels:%d %d/%d (%d%%).",
-                            pixels.getId(), tileCount + 1, (int) totalTiles,
-                            (int) (tileCount / totalTiles * 100)));
+                    continue;
                 }
                 try
                 {
-                    PixelData tile = source.getTile(z, c, t, x, y, w, h);
-                    pixelsPyramid.setTile(
-                            tile.getData().array(), z, c, t, x, y, w, h);
+                    buffer.close();
                 }
-                catch (IOException e1)
+                catch (IOException e)
                 {
-                    log.error("FAIL -- Error during tile population", e1);
-                    try
-                    {
-                        pixelsPyramidFile.delete();
-                        FileUtils.touch(pixelsPyramidFile); // ticket:5189
-                    }
-                    catch (Exception e2)
-                    {
-                        log.warn("Error clearing empty or incomplete pixel " +
-                                 "buffer.", e2);
-                    }
-                    return;
+                    log.error("Error closing pixel pyramid.", e);
                 }
             }
-            }, source, (int) tileSize.getWidth(), (int) tileSize.getHeight());
+        }
+        return minMaxStore;
+    }
 
-            log.info("SUCCESS -- Pyramid created for pixels id:" + pixels.getId());
+    /**
+     * Creates the builder of the reduced resolution levels of a pyramid, or
+     * returns <code>null</code> if they would not fit within
+     * {@link #maxLevelMemory} or cannot be built for the pixels type.
+     */
+    private PyramidLevelBuilder createLevelBuilder(Pixels pixels,
+            Dimension tileSize, ByteOrder byteOrder, PyramidCodec codec)
+    {
+        if ("bit".equals(pixels.getPixelsType().getValue()))
+        {
+            return null;
+        }
+        int tileWidth = (int) tileSize.getWidth();
+        int tileHeight = (int) tileSize.getHeight();
+        long size = PyramidLevelBuilder.getMemorySize(
+                pixels, tileWidth, tileHeight, codec.getLevels());
+        if (size > maxLevelMemory)
+        {
+            log.info(String.format("Resolution levels for Pixels:%d need " +
+                    "%d bytes (limit %d); they will be decoded on close.",
+                    pixels.getId(), size, maxLevelMemory));
+            return null;
+        }
+        return new PyramidLevelBuilder(pixels, tileWidth, tileHeight,
+                byteOrder, codec.getLevels());
+    }
 
+    /**
+     * Returns the executor shared by all pyramid creations, creating it on
+     * first use.
+     */
+    private synchronized ExecutorService getPyramidExecutor()
+    {
+        if (pyramidExecutor == null)
+        {
+            pyramidExecutor = Executors.newFixedThreadPool(pyramidThreads,
+                    new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread t = new Thread(r,
+                                    "PyramidWorker-" + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
         }
+        return pyramidExecutor;
+    }
 
-        finally
+    /**
+     * Reads, reduces and measures the tiles of a single pyramid on the
+     * {@link #getPyramidExecutor() shared executor} while writing them, in
+     * order, from the calling thread. At most twice as many tiles as there
+     * are source pixel buffers are held in memory at any one time.
+     */
+    private class PyramidWrite
+    {
+        private final Pixels pixels;
+
+        private final File pixelsPyramidFile;
+
+        private final BfPyramidPixelBuffer pixelsPyramid;
+
+        private final BlockingQueue<PixelBuffer> idle;
+
+        private final PyramidLevelBuilder levels;
+
+        private final PixelsPyramidMinMaxStore minMaxStore;
+
+        private final double totalTiles;
+
+        private final int tenPercent;
+
+        private final int window;
+
+        private final LinkedList<PyramidTile> pending =
+            new LinkedList<PyramidTile>();
+
+        private boolean failed;
+
+        PyramidWrite(Pixels pixels, File pixelsPyramidFile,
+                BfPyramidPixelBuffer pixelsPyramid, List<PixelBuffer> sources,
+                PyramidLevelBuilder levels,
+                PixelsPyramidMinMaxStore minMaxStore, double totalTiles)
+        {
+            this.pixels = pixels;
+            this.pixelsPyramidFile = pixelsPyramidFile;
+            this.pixelsPyramid = pixelsPyramid;
+            this.idle = new LinkedBlockingQueue<PixelBuffer>(sources);
+            this.levels = levels;
+            this.minMaxStore = minMaxStore;
+            this.totalTiles = totalTiles;
+            this.tenPercent = Math.max((int) totalTiles / 10, 1);
+            this.window = 2 * sources.size();
+        }
+
+        /**
+         * Queues a tile for reading and writes the oldest pending tiles
+         * until no more than the window of tiles is outstanding.
+         */
+        void submit(int z, int c, int t, int x, int y, int w, int h,
+                int tileCount)
+        {
+            if (failed)
+            {
+                return;
+            }
+            PyramidTile tile = new PyramidTile(z, c, t, x, y, w, h, tileCount);
+            tile.future = getPyramidExecutor().submit(tile);
+            pending.add(tile);
+            while (!failed && pending.size() > window)
+            {
+                write(pending.removeFirst());
+            }
+        }
+
+        /**
+         * Writes all remaining tiles.
+         * @return <code>true</code> if every tile was written.
+         */
+        boolean finish()
         {
-            if (source != null)
+            while (!failed && !pending.isEmpty())
             {
+                write(pending.removeFirst());
+            }
+            return !failed;
+        }
+
+        private void write(PyramidTile tile)
+        {
+            if (log.isInfoEnabled()
+                && tile.tileCount % tenPercent == 0)
+            {
+                log.info(String.format(
+                        "Pyramid creation for Pixels:%d %d/%d (%d%%).",
+                        pixels.getId(), tile.tileCount + 1, (int) totalTiles,
+                        (int) (tile.tileCount / totalTiles * 100)));
+            }
+            try
+            {
+                pixelsPyramid.setTile(tile.get(), tile.z, tile.c, tile.t,
+                        tile.x, tile.y, tile.w, tile.h);
+            }
+            catch (IOException e1)
+            {
+                log.error("FAIL -- Error during tile population", e1);
+                fail();
                 try
                 {
-                    source.close();
+                    pixelsPyramidFile.delete();
+                    FileUtils.touch(pixelsPyramidFile); // ticket:5189
                 }
-                catch (IOException e)
+                catch (Exception e2)
                 {
-                    log.error("Error closing pixel pyramid.", e);
+                    log.warn("Error clearing empty or incomplete pixel " +
+                             "buffer.", e2);
+                }
+            }
+        }
+
+        /** Stops all outstanding work after a failure. */
+        private void fail()
+        {
+            failed = true;
+            for (PyramidTile tile : pending)
+            {
+                tile.future.cancel(false);
+            }
+            pending.clear();
+        }
+
+        /**
+         * A single tile to read from one of the idle source pixel buffers.
+         */
+        private class PyramidTile implements Callable<byte[]>
+        {
+            final int z, c, t, x, y, w, h, tileCount;
+
+            Future<byte[]> future;
+
+            PyramidTile(int z, int c, int t, int x, int y, int w, int h,
+                    int tileCount)
+            {
+                this.z = z;
+                this.c = c;
+                this.t = t;
+                this.x = x;
+                this.y = y;
+                this.w = w;
+                this.h = h;
+                this.tileCount = tileCount;
+            }
+
+            public byte[] call() throws Exception
+            {
+                PixelBuffer source = idle.take();
+                PixelData tile;
+                try
+                {
+                    tile = source.getTile(z, c, t, x, y, w, h);
+                }
+                finally
+                {
+                    idle.add(source);
+                }
+                byte[] buffer = tile.getData().array();
+                if (minMaxStore != null)
+                {
+                    tile.setOrder(pixelsPyramid.getByteOrder());
+                    minMaxStore.update(c, tile);
+                }
+                if (levels != null)
+                {
+                    levels.addTile(buffer, z, c, t, x, y, w, h);
+                }
+                return buffer;
+            }
+
+            /**
+             * Waits for the tile to be read, rethrowing any I/O error.
+             */
+            byte[] get() throws IOException
+            {
+                try
+                {
+                    return future.get();
+                }
+                catch (InterruptedException e)
+                {
+                    IOException ioe = new IOException(
+                            "Interrupted while reading tile.");
+                    ioe.initCause(e);
+                    throw ioe;
+                }
+                catch (ExecutionException e)
+                {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException)
+                    {
+                        throw (IOException) cause;
+                    }
+                    if (cause instanceof RuntimeException)
+                    {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error)
+                    {
+                        throw (Error) cause;
+                    }
+                    IOException ioe = new IOException(
+                            "Error reading tile.");
+                    ioe.initCause(cause);
+                    throw ioe;
                 }
             }
         }
-        return minMaxStore;
     }
 
     /**
@@ -367,7 +811,9 @@ public class PixelsService extends AbstractFileSystemService
      * @param pixels Pixels set to retrieve a pixel buffer for.
      * @param write Whether or not to open the pixel buffer as read-write.
      * <code>true</code> opens as read-write, <code>false</code> opens as
-     * read-only.
+     * read-only. Read-only ROMIO pixel buffers are served from the shared
+     * memory mapped windows of the {@link MappedFileCache} and return
+     * {@link PixelData} instances which are not backed by an array.
      * @return A pixel buffer instance.
      * @since OMERO-Beta4.3
      */
@@ -441,6 +887,11 @@ public class PixelsService extends AbstractFileSystemService
             }
         }
 
+        if (!write && mappedFiles != null) {
+            log.info("Pixel buffer file exists returning memory mapped " +
+                     "ROMIO pixel buffer.");
+            return new RomioPixelBuffer(pixelsFilePath, pixels, mappedFiles);
+        }
         log.info("Pixel buffer file exists returning read-only " +
                  "ROMIO pixel buffer.");
         return createRomioPixelBuffer(pixelsFilePath, pixels, false);
@@ -555,40 +1006,6 @@ public class PixelsService extends AbstractFileSystemService
         backOff.throwMissingPyramidException(msg, pixels);
     }
 
-    /**
-     * Helper method to properly log any exceptions raised by Bio-Formats and
-     * add a min/max calculator wrapper to the reader stack.
-     * @param filePath Non-null.
-     * @param store Min/max store to use with the min/max calculator.
-     * @param series series to use
-     * @param reader passed to {@link BfPixelBuffer}
-     * @return
-     */
-    protected BfPixelBuffer createMinMaxBfPixelBuffer(final String filePath,
-                                                      final int series,
-                                                      final IMinMaxStore store)
-    {
-        try
-        {
-            IFormatReader reader = new ImageReader();
-            reader = new ChannelFiller(reader);
-            reader = new ChannelSeparator(reader);
-            MinMaxCalculator calculator = new MinMaxCalculator(reader);
-            calculator.setMinMaxStore(store);
-            BfPixelBuffer pixelBuffer = new BfPixelBuffer(filePath, calculator);
-            pixelBuffer.setSeries(series);
-            log.info(String.format("Creating BfPixelBuffer: %s Series: %d",
-                    filePath, series));
-            return pixelBuffer;
-        }
-        catch (Exception e)
-        {
-            String msg = "Error instantiating pixel buffer: " + filePath;
-            log.error(msg, e);
-            throw new ResourceError(msg);
-        }
-    }
-
     /**
      * Helper method to properly log any exceptions raised by Bio-Formats.
      * @param filePath Non-null.
@@ -632,7 +1049,12 @@ public class PixelsService extends AbstractFileSystemService
                 // #5159. Creating the path if we need to write.
                 createSubpath(filePath);
             }
-            return new BfPyramidPixelBuffer(pixels, filePath, write);
+            BfPyramidPixelBuffer pixelsPyramid =
+                new BfPyramidPixelBuffer(pixels, filePath, write);
+            pixelsPyramid.setTileCache(tileCache);
+            pixelsPyramid.setReaderPool(pyramidReaders);
+            pixelsPyramid.setCodec(pyramidCodec);
+            return pixelsPyramid;
         }
         catch (Exception e)
         {
@@ -674,6 +1096,9 @@ public class PixelsService extends AbstractFileSystemService
 			Long id = iter.next();
 
 			String pixelPath = getPixelsPath(id);
+			if (mappedFiles != null) {
+				mappedFiles.evict(pixelPath);
+			}
 			file = new File(pixelPath);
 			fileName = file.getName();
 			if (file.exists()) {
@@ -694,25 +1119,73 @@ public class PixelsService extends AbstractFileSystemService
     {
         final double[][] channelGlobalMinMax;
 
+        final boolean[] channelSeen;
+
         final int sizeC;
 
         public PixelsPyramidMinMaxStore(int sizeC)
         {
             this.sizeC = sizeC;
             channelGlobalMinMax = new double[sizeC][2];
+            channelSeen = new boolean[sizeC];
+        }
+
+        /**
+         * Widens the minimum and maximum of a channel to include all the
+         * values of a tile. Called concurrently by the pyramid workers.
+         * @param channel The channel of the tile.
+         * @param tile The tile's pixel data.
+         */
+        public void update(int channel, PixelData tile)
+        {
+            int size = tile.size();
+            if (size == 0)
+            {
+                return;
+            }
+            double minimum = tile.getPixelValue(0);
+            double maximum = minimum;
+            double value;
+            for (int i = 1; i < size; i++)
+            {
+                value = tile.getPixelValue(i);
+                if (value < minimum)
+                {
+                    minimum = value;
+                }
+                if (value > maximum)
+                {
+                    maximum = value;
+                }
+            }
+            synchronized (this)
+            {
+                if (!channelSeen[channel])
+                {
+                    channelSeen[channel] = true;
+                    channelGlobalMinMax[channel][0] = minimum;
+                    channelGlobalMinMax[channel][1] = maximum;
+                    return;
+                }
+                channelGlobalMinMax[channel][0] =
+                    Math.min(channelGlobalMinMax[channel][0], minimum);
+                channelGlobalMinMax[channel][1] =
+                    Math.max(channelGlobalMinMax[channel][1], maximum);
+            }
         }
 
         /* (non-Javadoc)
          * @see loci.formats.meta.IMinMaxStore#setChannelGlobalMinMax(int, double, double, int)
          */
-        public void setChannelGlobalMinMax(int channel, double minimum,
-                                           double maximum, int series)
+        public synchronized void setChannelGlobalMinMax(int channel,
+                double minimum, double maximum, int series)
         {
+            channelSeen[channel] = true;
             channelGlobalMinMax[channel][0] = minimum;
             channelGlobalMinMax[channel][1] = maximum;
         }
 
-        public StatsInfo[] createStatsInfo()
+        public synchronized StatsInfo[] createStatsInfo()
         {
             StatsInfo[] statsInfo = new StatsInfo[sizeC];
             for (int c = 0; c < sizeC; c++)
@@ -0,0 +1,317 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Reads a file through windows of a {@link ReadAheadPool}. Once a read
+ * starts where the previous one ended, the file is read a window at a time
+ * and the window following the current one is read ahead by the pool
+ * threads, so that a client streaming a file does not wait on the disk for
+ * each block it requests. Reads within the current window are served from
+ * memory. Other reads, reads at least as large as a window and reads made
+ * while every window of the pool is in use are made directly into the
+ * returned array, so that random access does not read whole windows.
+ *
+ * The channel is owned by the caller, which must call {@link #invalidate()}
+ * after writing to it and {@link #close()} before closing it. Read aheads
+ * are never interrupted, since an interrupt would close the channel.
+ *
+ * @since Beta4.3.2
+ */
+public class ReadAhead {
+
+    private final static Log log = LogFactory.getLog(ReadAhead.class);
+
+    private final FileChannel channel;
+
+    private final ReadAheadPool pool;
+
+    /** Window holding the last bytes read, or null. */
+    private Window current;
+
+    /** Window being read ahead, or null. */
+    private Future<Window> next;
+
+    /** Offset of the window being read ahead. */
+    private long nextOffset = -1;
+
+    /** End of the last read, used to detect sequential access. */
+    private long lastEnd = -1;
+
+    private boolean closed = false;
+
+    ReadAhead(FileChannel channel, ReadAheadPool pool) {
+        this.channel = channel;
+        this.pool = pool;
+    }
+
+    /**
+     * Reads <code>length</code> bytes from <code>position</code>. Bytes past
+     * the end of the file are left zeroed, as with a read of the channel
+     * into a zeroed array.
+     */
+    public synchronized byte[] read(long position, int length)
+            throws IOException {
+        if (closed) {
+            throw new IOException("Read ahead closed");
+        }
+        byte[] bytes = new byte[length];
+        boolean sequential = position == lastEnd;
+        lastEnd = position + length;
+        boolean windowed = sequential
+                || (current != null && current.contains(position));
+        if (length >= pool.getWindowSize() || !windowed) {
+            readDirect(position, bytes, 0, length);
+            return bytes;
+        }
+
+        int done = 0;
+        while (done < length) {
+            long offset = position + done;
+            Window window = window(offset);
+            if (window == null) {
+                // No window available
+                readDirect(offset, bytes, done, length - done);
+                break;
+            }
+            if (window.isEmpty()) {
+                break; // End of file
+            }
+            done += window.copy(offset, bytes, done, length - done);
+        }
+        if (sequential) {
+            long following = current == null ? -1 : current.end();
+            if (following > 0 && following < channel.size()) {
+                prefetch(following);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Drops the windows read so far. Must be called after the channel is
+     * written to or truncated.
+     */
+    public synchronized void invalidate() {
+        releaseNext();
+        releaseCurrent();
+        lastEnd = -1;
+    }
+
+    /**
+     * Releases the windows to the pool. The channel is not closed.
+     */
+    public synchronized void close() {
+        invalidate();
+        closed = true;
+    }
+
+    /**
+     * Reads from the channel until <code>length</code> bytes are read or the
+     * end of the file is reached.
+     */
+    private void readDirect(long position, byte[] bytes, int start,
+            int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, start, length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer,
+                    position + buffer.position() - start);
+            if (read < 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the window holding <code>offset</code>, reading it if
+     * needed, which is empty if <code>offset</code> is past the end of the
+     * file, or null if no buffer is available.
+     */
+    private Window window(long offset) throws IOException {
+        if (current != null && current.contains(offset)) {
+            return current;
+        }
+        Window window = null;
+        if (next != null && nextOffset == offset) {
+            window = takeNext();
+        } else {
+            releaseNext();
+        }
+        releaseCurrent();
+        if (window == null) {
+            window = load(offset);
+        }
+        current = window;
+        return window;
+    }
+
+    /**
+     * Reads the window starting at <code>offset</code>, or returns null if
+     * no buffer is available.
+     */
+    private Window load(long offset) throws IOException {
+        ByteBuffer buffer = pool.acquire();
+        if (buffer == null) {
+            return null;
+        }
+        try {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, offset + buffer.position());
+                if (read < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            pool.release(buffer);
+            throw e;
+        }
+        buffer.flip();
+        return new Window(offset, buffer);
+    }
+
+    private void prefetch(final long offset) {
+        if (next != null || closed) {
+            return;
+        }
+        Future<Window> future = pool.submit(new Callable<Window>() {
+            public Window call() throws Exception {
+                return load(offset);
+            }
+        });
+        if (future != null) {
+            next = future;
+            nextOffset = offset;
+        }
+    }
+
+    /**
+     * Waits on the window being read ahead, returning null if it failed, so
+     * that the caller reads it again and gets the error itself, or if no
+     * buffer was available.
+     */
+    private Window takeNext() {
+        Future<Window> future = next;
+        next = null;
+        nextOffset = -1;
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            releaseLater(future);
+        } catch (ExecutionException e) {
+            log.debug("Read ahead failed", e.getCause());
+        }
+        return null;
+    }
+
+    private void releaseNext() {
+        if (next != null) {
+            releaseLater(next);
+            next = null;
+            nextOffset = -1;
+        }
+    }
+
+    private void releaseCurrent() {
+        if (current != null) {
+            pool.release(current.buffer);
+            current = null;
+        }
+    }
+
+    /**
+     * Returns the buffer of a read ahead to the pool once it has completed,
+     * without waiting on it unless the pool no longer runs tasks.
+     */
+    private void releaseLater(final Future<Window> future) {
+        if (future.cancel(false)) {
+            return; // Never started, no buffer acquired
+        }
+        Future<Object> release = pool.submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                release(future);
+                return null;
+            }
+        });
+        if (release == null) {
+            release(future);
+        }
+    }
+
+    /**
+     * Waits on a read ahead and returns its buffer to the pool.
+     */
+    private void release(Future<Window> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    Window window = future.get();
+                    if (window != null) {
+                        pool.release(window.buffer);
+                    }
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    return; // Buffer already released by load()
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Bytes of the file starting at <code>offset</code>.
+     */
+    private static class Window {
+
+        final long offset;
+
+        final ByteBuffer buffer;
+
+        Window(long offset, ByteBuffer buffer) {
+            this.offset = offset;
+            this.buffer = buffer;
+        }
+
+        boolean isEmpty() {
+            return buffer.limit() == 0;
+        }
+
+        long end() {
+            return offset + buffer.limit();
+        }
+
+        boolean contains(long position) {
+            return position >= offset && position < end();
+        }
+
+        int copy(long position, byte[] bytes, int start, int length) {
+            ByteBuffer view = buffer.duplicate();
+            view.position((int) (position - offset));
+            int count = Math.min(length, view.remaining());
+            view.get(bytes, start, count);
+            return count;
+        }
+    }
+
+}
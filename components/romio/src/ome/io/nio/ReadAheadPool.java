@@ -0,0 +1,209 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide pool of the direct buffers and threads used by
+ * {@link ReadAhead} instances to stream original files. Buffers are all of
+ * {@link #getWindowSize()} bytes and at most {@link #getMaxBuffers()} of
+ * them exist at once, whether in use or idle, so that the direct memory
+ * held by the pool is bounded however many files are streamed. When every
+ * buffer is in use, readers do not wait but read straight from their
+ * channel.
+ *
+ * @since Beta4.3.2
+ * @see RawFileBean
+ */
+public class ReadAheadPool {
+
+    /** Default window size (8MB). */
+    public static final int DEFAULT_WINDOW_SIZE = 8 * 1024 * 1024;
+
+    /** Default number of buffers. */
+    public static final int DEFAULT_MAX_BUFFERS = 16;
+
+    /** Default number of threads reading ahead. */
+    public static final int DEFAULT_THREADS = 2;
+
+    private static ReadAheadPool defaultPool;
+
+    private final int windowSize;
+
+    private final int maxBuffers;
+
+    private final int threads;
+
+    private final LinkedList<ByteBuffer> idle = new LinkedList<ByteBuffer>();
+
+    /** Buffers in use or idle. */
+    private int allocated = 0;
+
+    private ExecutorService executor;
+
+    private boolean closed = false;
+
+    public ReadAheadPool() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_MAX_BUFFERS, DEFAULT_THREADS);
+    }
+
+    /**
+     * @param windowSize
+     *            Size in bytes of a single read ahead window.
+     * @param maxBuffers
+     *            Maximum number of windows, in use or idle.
+     * @param threads
+     *            Number of threads reading ahead. With 0, windows are only
+     *            read on demand.
+     */
+    public ReadAheadPool(int windowSize, int maxBuffers, int threads) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Bad window size: "
+                    + windowSize);
+        }
+        if (maxBuffers < 0 || threads < 0) {
+            throw new IllegalArgumentException("Bad buffers or threads: "
+                    + maxBuffers + "/" + threads);
+        }
+        this.windowSize = windowSize;
+        this.maxBuffers = maxBuffers;
+        this.threads = threads;
+    }
+
+    /**
+     * Returns a pool with the default settings shared by the users which
+     * are not configured with one.
+     */
+    public static synchronized ReadAheadPool getDefault() {
+        if (defaultPool == null) {
+            defaultPool = new ReadAheadPool();
+        }
+        return defaultPool;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public int getMaxBuffers() {
+        return maxBuffers;
+    }
+
+    /**
+     * Number of buffers currently idle in the pool.
+     */
+    public synchronized int getIdleBuffers() {
+        return idle.size();
+    }
+
+    /**
+     * Number of buffers currently in use or idle.
+     */
+    public synchronized int getAllocatedBuffers() {
+        return allocated;
+    }
+
+    /**
+     * Creates a reader streaming the given channel through this pool.
+     */
+    public ReadAhead open(FileChannel channel) {
+        return new ReadAhead(channel, this);
+    }
+
+    /**
+     * Returns a cleared buffer of {@link #getWindowSize()} bytes, or null if
+     * every buffer is in use or the pool is closed.
+     */
+    synchronized ByteBuffer acquire() {
+        ByteBuffer buffer = idle.poll();
+        if (buffer == null) {
+            if (closed || allocated >= maxBuffers) {
+                return null;
+            }
+            buffer = ByteBuffer.allocateDirect(windowSize);
+            allocated++;
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #acquire()} to the pool,
+     * dropping it if the pool is closed.
+     */
+    synchronized void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        if (closed) {
+            allocated--;
+        } else {
+            idle.add(buffer);
+        }
+    }
+
+    /**
+     * Runs a read ahead, or returns null if reading ahead is disabled or
+     * the pool is closed.
+     */
+    <T> Future<T> submit(Callable<T> task) {
+        ExecutorService service = executor();
+        if (service == null) {
+            return null;
+        }
+        try {
+            return service.submit(task);
+        } catch (RejectedExecutionException ree) {
+            return null;
+        }
+    }
+
+    private synchronized ExecutorService executor() {
+        if (threads == 0 || closed) {
+            return null;
+        }
+        if (executor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads,
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "ReadAhead-"
+                                    + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        return executor;
+    }
+
+    /**
+     * Stops the read ahead threads and drops the idle buffers. The buffers
+     * in use are dropped once released.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        allocated -= idle.size();
+        idle.clear();
+    }
+
+}
@@ -78,6 +78,12 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
      */
     private final boolean permitModification;
 
+    /**
+     * Shared cache of memory mapped windows used for all reads when this
+     * buffer is in read-only mapped mode, <code>null</code> otherwise.
+     */
+    private final MappedFileCache mappedFiles;
+
     /**
      * Creates a new instance. {@link #permitModification} defaults to false.
      * 
@@ -102,6 +108,41 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
         }
         this.pixels = pixels;
         this.permitModification = permitModification;
+        this.mappedFiles = null;
+    }
+
+    /**
+     * Creates a new read-only instance whose reads are served as zero-copy
+     * slices of the memory mapped windows held by <code>mappedFiles</code>.
+     * The {@link PixelData} instances returned by such a buffer are not
+     * backed by an accessible array.
+     *
+     * @param path The path to the file.
+     * @param pixels The pixels object to handle.
+     * @param mappedFiles Shared cache of mapped windows. Not null.
+     */
+    public RomioPixelBuffer(String path, Pixels pixels,
+            MappedFileCache mappedFiles) {
+        super(path);
+        if (pixels == null) {
+            throw new NullPointerException(
+                    "Expecting a not-null pixels element.");
+        }
+        if (mappedFiles == null) {
+            throw new NullPointerException(
+                    "Expecting a not-null mapped file cache.");
+        }
+        this.pixels = pixels;
+        this.permitModification = false;
+        this.mappedFiles = mappedFiles;
+    }
+
+    /**
+     * Returns whether or not reads are served from the shared memory mapped
+     * windows of a {@link MappedFileCache}.
+     */
+    public boolean isMapped() {
+        return mappedFiles != null;
     }
 
     private void throwIfReadOnly() {
@@ -142,9 +183,15 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
         }
     }
 
-    private FileChannel getFileChannel() throws FileNotFoundException {
+    /**
+     * Opens the file on first use. Synchronized with {@link #close()} as
+     * several threads may read from the same buffer.
+     */
+    private synchronized FileChannel getFileChannel()
+            throws FileNotFoundException {
         if (channel == null) {
-            file = new RandomAccessFile(getPath(), "rw");
+            file = new RandomAccessFile(getPath(),
+                    permitModification? "rw" : "r");
             channel = file.getChannel();
         }
 
@@ -157,7 +204,7 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
      * @throws IOException
      *             if an I/O error occurs.
      */
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
         if (channel != null) {
             try {
                 channel.close();
@@ -315,6 +362,11 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
 	 */
     public PixelData getRegion(Integer size, Long offset)
             throws IOException {
+        if (mappedFiles != null) {
+            return new PixelData(pixels.getPixelsType().getValue(),
+                    mappedFiles.getRegion(getPath(), offset, size));
+        }
+
         FileChannel fileChannel = getFileChannel();
 
         /*
@@ -499,16 +551,26 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
     	int offset;
     	
     	if (stride == 0) {
-    		size =  width*height*getByteWidth();
-            buf = ByteBuffer.wrap(new byte[size]);
-            region = new PixelData(pixels.getPixelsType().getValue(), buf);
-            for (int i = 0; i < height; i++) {
-            	for (int j = 0; j < width; j++) {
-            		offset = (i+y)*getSizeX()+x+j;
-            		region.setPixelValue(i*width+j, plane.getPixelValue(offset));
-            	}
-            }
-            return region;
+    		int byteWidth = getByteWidth();
+    		int rowSize = getRowSize();
+    		if (mappedFiles != null && x == 0 && width == getSizeX()) {
+    			// Full rows are contiguous, hand out a view on the mapping.
+    			ByteBuffer b = plane.getData().duplicate();
+    			b.position(y * rowSize);
+    			b.limit((y + height) * rowSize);
+    			return new PixelData(pixels.getPixelsType().getValue(),
+    					b.slice());
+    		}
+    		size =  width*height*byteWidth;
+    		byte[] bytes = new byte[size];
+    		ByteBuffer src = plane.getData().duplicate();
+    		int regionRowSize = width*byteWidth;
+    		for (int i = 0; i < height; i++) {
+    			src.position((i+y)*rowSize + x*byteWidth);
+    			src.get(bytes, i*regionRowSize, regionRowSize);
+    		}
+    		return new PixelData(pixels.getPixelsType().getValue(),
+    				ByteBuffer.wrap(bytes));
     	}
     	stride++;
     	int w = width/stride;
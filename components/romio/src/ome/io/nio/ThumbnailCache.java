@@ -0,0 +1,409 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Process-wide, in-memory cache of encoded thumbnails which sits in front of
+ * the on disk thumbnails of {@link ThumbnailService}. Entries are keyed by
+ * Pixels set, rendering settings, version of those settings and thumbnail
+ * size, so that a change of rendering settings simply stops old entries from
+ * being hit. At most {@link #getMaxBytes()} bytes are kept, least recently
+ * used entries being evicted first.
+ *
+ * Concurrent requests for a key which is not cached share a single load:
+ * the first request creates the thumbnail while the others wait for its
+ * result. Loads may either be run in the calling thread,
+ * {@link #get(Key, Callable)}, or on the pool of this cache,
+ * {@link #submit(Key, Callable)}, which lets the misses of a thumbnail set
+ * be rendered in parallel.
+ *
+ * @since Beta4.3.2
+ * @see ThumbnailService
+ */
+public class ThumbnailCache {
+
+    private final static Log log = LogFactory.getLog(ThumbnailCache.class);
+
+    /** Default maximum size of the cached thumbnails (64MB). */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private final long maxBytes;
+
+    /** Guarded by itself, as is {@link #bytes}. */
+    private final Map<Key, byte[]> entries;
+
+    private long bytes;
+
+    /** Loads in progress. */
+    private final ConcurrentMap<Key, FutureTask<byte[]>> loading =
+        new ConcurrentHashMap<Key, FutureTask<byte[]>>();
+
+    private final ExecutorService pool;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ThumbnailCache() {
+        this(DEFAULT_MAX_BYTES, 0);
+    }
+
+    /**
+     * @param maxBytes
+     *            Maximum number of thumbnail bytes kept in memory. A value of
+     *            zero disables caching but not the sharing of loads.
+     * @param threads
+     *            Number of threads used by {@link #submit(Key, Callable)}.
+     *            Values less than one default to the number of available
+     *            processors.
+     */
+    public ThumbnailCache(long maxBytes, int threads) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Bad max bytes: " + maxBytes);
+        }
+        if (threads < 1) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        this.maxBytes = maxBytes;
+        this.entries = new LinkedHashMap<Key, byte[]>(16, 0.75f, true);
+        this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r,
+                        "ThumbnailWorker-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        log.info("ThumbnailCache(maxBytes=" + maxBytes + ", threads="
+                + threads + ")");
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the cached thumbnail for a key or <code>null</code> if it is
+     * not cached. Never loads anything.
+     *
+     * @param key
+     *            The thumbnail key.
+     * @return See above.
+     */
+    public byte[] get(Key key) {
+        byte[] thumbnail;
+        synchronized (entries) {
+            thumbnail = entries.get(key);
+        }
+        if (thumbnail != null) {
+            hits.incrementAndGet();
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Returns the cached thumbnail for a key, loading it in the calling
+     * thread if it is neither cached nor already being loaded by another
+     * request, in which case the result of that request is waited for.
+     *
+     * @param key
+     *            The thumbnail key.
+     * @param loader
+     *            Creates the encoded thumbnail. May be called from the
+     *            calling thread only.
+     * @return See above.
+     * @throws Exception
+     *             Any exception thrown by the loader which was used.
+     */
+    public byte[] get(Key key, Callable<byte[]> loader) throws Exception {
+        byte[] thumbnail = get(key);
+        if (thumbnail != null) {
+            return thumbnail;
+        }
+        FutureTask<byte[]> task = new FutureTask<byte[]>(
+                new Load(key, loader));
+        FutureTask<byte[]> current = loading.putIfAbsent(key, task);
+        if (current == null) {
+            misses.incrementAndGet();
+            task.run();
+            current = task;
+        } else {
+            coalesced.incrementAndGet();
+        }
+        return unwrap(current);
+    }
+
+    /**
+     * Like {@link #get(Key, Callable)} but loads the thumbnail on the pool of
+     * this cache. The returned future will throw any exception thrown by the
+     * loader as the cause of an {@link ExecutionException}.
+     *
+     * @param key
+     *            The thumbnail key.
+     * @param loader
+     *            Creates the encoded thumbnail. Will be called from another
+     *            thread and so must not use any thread bound resources, e.g.
+     *            the current Hibernate session.
+     * @return See above.
+     */
+    public Future<byte[]> submit(Key key, Callable<byte[]> loader) {
+        byte[] thumbnail = get(key);
+        if (thumbnail != null) {
+            FutureTask<byte[]> done = new FutureTask<byte[]>(
+                    new Cached(thumbnail));
+            done.run();
+            return done;
+        }
+        FutureTask<byte[]> task = new FutureTask<byte[]>(
+                new Load(key, loader));
+        FutureTask<byte[]> current = loading.putIfAbsent(key, task);
+        if (current == null) {
+            misses.incrementAndGet();
+            pool.execute(task);
+            return task;
+        }
+        coalesced.incrementAndGet();
+        return current;
+    }
+
+    /**
+     * Adds a thumbnail to the cache, evicting least recently used thumbnails
+     * as needed. Thumbnails larger than the cache itself are ignored.
+     *
+     * @param key
+     *            The thumbnail key.
+     * @param thumbnail
+     *            The encoded thumbnail.
+     */
+    public void put(Key key, byte[] thumbnail) {
+        if (thumbnail == null || thumbnail.length > maxBytes) {
+            return;
+        }
+        synchronized (entries) {
+            byte[] previous = entries.put(key, thumbnail);
+            if (previous != null) {
+                bytes -= previous.length;
+            }
+            bytes += thumbnail.length;
+            Iterator<byte[]> it = entries.values().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                bytes -= it.next().length;
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes all the cached thumbnails of a Pixels set.
+     *
+     * @param pixelsId
+     *            The Pixels set id.
+     */
+    public void evict(long pixelsId) {
+        synchronized (entries) {
+            Iterator<Map.Entry<Key, byte[]>> it =
+                entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Key, byte[]> entry = it.next();
+                if (entry.getKey().pixelsId == pixelsId) {
+                    bytes -= entry.getValue().length;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Stops the threads of this cache. Loads already submitted are
+     * completed.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /** Returns the number of requests served from memory. */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** Returns the number of requests which started a load. */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** Returns the number of requests which waited for another's load. */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /** Returns the number of thumbnails evicted to make room. */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /** Returns the number of thumbnails currently cached. */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /** Returns the number of thumbnail bytes currently cached. */
+    public long getSize() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    private static byte[] unwrap(Future<byte[]> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * Runs a loader, caches its result and unregisters the load whatever
+     * the outcome so that failures are retried by later requests.
+     */
+    private class Load implements Callable<byte[]> {
+
+        private final Key key;
+
+        private final Callable<byte[]> loader;
+
+        Load(Key key, Callable<byte[]> loader) {
+            this.key = key;
+            this.loader = loader;
+        }
+
+        public byte[] call() throws Exception {
+            try {
+                byte[] thumbnail = loader.call();
+                put(key, thumbnail);
+                return thumbnail;
+            } finally {
+                loading.remove(key);
+            }
+        }
+    }
+
+    private static class Cached implements Callable<byte[]> {
+
+        private final byte[] thumbnail;
+
+        Cached(byte[] thumbnail) {
+            this.thumbnail = thumbnail;
+        }
+
+        public byte[] call() {
+            return thumbnail;
+        }
+    }
+
+    /**
+     * Identifies an encoded thumbnail.
+     */
+    public static class Key {
+
+        private final long pixelsId;
+
+        private final long renderingDefId;
+
+        private final long renderingDefVersion;
+
+        private final int sizeX;
+
+        private final int sizeY;
+
+        /**
+         * @param pixelsId
+         *            The Pixels set the thumbnail is of.
+         * @param renderingDefId
+         *            The rendering settings the thumbnail was rendered with.
+         * @param renderingDefVersion
+         *            Any value which changes whenever the rendering settings
+         *            are modified, e.g. the id of their last update event.
+         * @param sizeX
+         *            Width of the thumbnail.
+         * @param sizeY
+         *            Height of the thumbnail.
+         */
+        public Key(long pixelsId, long renderingDefId,
+                long renderingDefVersion, int sizeX, int sizeY) {
+            this.pixelsId = pixelsId;
+            this.renderingDefId = renderingDefId;
+            this.renderingDefVersion = renderingDefVersion;
+            this.sizeX = sizeX;
+            this.sizeY = sizeY;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return pixelsId == other.pixelsId
+                    && renderingDefId == other.renderingDefId
+                    && renderingDefVersion == other.renderingDefVersion
+                    && sizeX == other.sizeX && sizeY == other.sizeY;
+        }
+
+        public int hashCode() {
+            long h = pixelsId;
+            h = 31 * h + renderingDefId;
+            h = 31 * h + renderingDefVersion;
+            h = 31 * h + sizeX;
+            h = 31 * h + sizeY;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        public String toString() {
+            return String.format("Key(pixels=%d, def=%d:%d, size=%dx%d)",
+                    pixelsId, renderingDefId, renderingDefVersion, sizeX,
+                    sizeY);
+        }
+    }
+
+}
@@ -0,0 +1,231 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Process-wide cache of the decoded tiles of pyramid files, so that the
+ * tiles of popular images are only decoded once for all the viewers. Tiles
+ * are keyed by file, resolution level, rasterized plane and tile region;
+ * the key includes the length and modification time of the file, so that
+ * the tiles of a file which has been replaced are never served. At most
+ * {@link #getMaxBytes()} bytes of tiles are kept, least recently used
+ * tiles being dropped first.
+ *
+ * The cached tiles are never handed out: {@link #get(Key, byte[])} and
+ * {@link #put(Key, byte[], int)} each copy a whole tile, since the pixel
+ * buffer API fills and returns buffers owned by the callers, which may
+ * modify them. The copy is a single {@link System#arraycopy} of at most a
+ * tile, small next to the decoding it saves, and is made outside of the
+ * lock of the cache.
+ *
+ * @since Beta4.3.2
+ * @see ome.io.bioformats.BfPyramidPixelBuffer
+ */
+@ManagedResource(objectName = "omero:type=TileCache",
+        description = "Decoded pyramid tiles")
+public class TileCache {
+
+    /** Default maximum size of the cached tiles (64MB). */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private final long maxBytes;
+
+    private final Map<Key, byte[]> tiles = new LinkedHashMap<Key, byte[]>(
+            16, 0.75f, true);
+
+    private long bytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    public TileCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxBytes
+     *            Maximum size in bytes of the cached tiles. With 0, nothing
+     *            is cached.
+     */
+    public TileCache(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Bad max bytes: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Copies the cached tile into <code>buffer</code>, which must be at
+     * least as long as the tile.
+     *
+     * @return <code>false</code> if the tile is not cached, leaving the
+     *         buffer untouched.
+     */
+    public boolean get(Key key, byte[] buffer) {
+        byte[] tile;
+        synchronized (this) {
+            tile = tiles.get(key);
+        }
+        if (tile == null) {
+            misses.incrementAndGet();
+            return false;
+        }
+        hits.incrementAndGet();
+        System.arraycopy(tile, 0, buffer, 0, tile.length);
+        return true;
+    }
+
+    /**
+     * Caches a copy of the first <code>length</code> bytes of
+     * <code>buffer</code> as the tile of the given key, so that the caller
+     * keeps ownership of <code>buffer</code>.
+     */
+    public void put(Key key, byte[] buffer, int length) {
+        if (length > maxBytes) {
+            return;
+        }
+        byte[] tile = new byte[length];
+        System.arraycopy(buffer, 0, tile, 0, length);
+        synchronized (this) {
+            byte[] old = tiles.put(key, tile);
+            if (old != null) {
+                bytes -= old.length;
+            }
+            bytes += length;
+            Iterator<byte[]> it = tiles.values().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                bytes -= it.next().length;
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drops all the tiles of a file, e.g. because it has been removed.
+     */
+    public synchronized void evict(String path) {
+        Iterator<Map.Entry<Key, byte[]>> it = tiles.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, byte[]> entry = it.next();
+            if (entry.getKey().path.equals(path)) {
+                bytes -= entry.getValue().length;
+                it.remove();
+            }
+        }
+    }
+
+    @ManagedOperation(description = "Drops all the tiles")
+    public synchronized void clear() {
+        tiles.clear();
+        bytes = 0;
+    }
+
+    @ManagedAttribute(description = "Maximum size of the tiles in bytes")
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @ManagedAttribute(description = "Size of the tiles in bytes")
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    @ManagedAttribute(description = "Number of tiles")
+    public synchronized int getSize() {
+        return tiles.size();
+    }
+
+    @ManagedAttribute(description = "Reads served from the cache")
+    public long getHits() {
+        return hits.get();
+    }
+
+    @ManagedAttribute(description = "Reads which had to decode the tile")
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @ManagedAttribute(description = "Tiles dropped to make room")
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @ManagedAttribute(description = "Fraction of the reads served from "
+            + "the cache")
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Identifies a tile of a pyramid file. The length and modification time
+     * of the file are those of the file when its reader was opened.
+     */
+    public static final class Key {
+
+        final String path;
+
+        private final long length, modified;
+
+        private final int level, plane, x, y, w, h;
+
+        public Key(String path, long length, long modified, int level,
+                int plane, int x, int y, int w, int h) {
+            this.path = path;
+            this.length = length;
+            this.modified = modified;
+            this.level = level;
+            this.plane = plane;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return path.equals(k.path) && length == k.length
+                    && modified == k.modified && level == k.level
+                    && plane == k.plane && x == k.x && y == k.y && w == k.w
+                    && h == k.h;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = path.hashCode();
+            hash = 31 * hash + (int) (length ^ (length >>> 32));
+            hash = 31 * hash + (int) (modified ^ (modified >>> 32));
+            hash = 31 * hash + level;
+            hash = 31 * hash + plane;
+            hash = 31 * hash + x;
+            hash = 31 * hash + y;
+            hash = 31 * hash + w;
+            hash = 31 * hash + h;
+            return hash;
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.AssertJUnit.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import ome.io.nio.MappedFileCache;
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.RomioPixelBuffer;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the read-only memory mapped mode of {@link RomioPixelBuffer}.
+ *
+ * @since Beta4.3.2
+ */
+public class MappedFileCacheUnitTest {
+
+    private static final String ROOT =
+        PathUtil.getInstance().getTemporaryDataFilePath();
+
+    private static final int SIZE_X = 16, SIZE_Y = 8, SIZE_Z = 3;
+
+    private String path;
+
+    private Pixels pixels;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        pixels.setSizeZ(SIZE_Z);
+        pixels.setSizeC(1);
+        pixels.setSizeT(1);
+        PixelsType type = new PixelsType();
+        type.setValue("uint8");
+        pixels.setPixelsType(type);
+
+        path = ROOT + "mapped";
+        byte[] data = new byte[SIZE_X * SIZE_Y * SIZE_Z];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        FileOutputStream stream = new FileOutputStream(path);
+        try {
+            stream.write(data);
+        } finally {
+            stream.close();
+        }
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(new File(ROOT));
+    }
+
+    @Test
+    public void testRegionSpanningWindows() throws IOException {
+        MappedFileCache cache = new MappedFileCache(100, 4);
+        ByteBuffer region = cache.getRegion(path, 90, 50);
+        assertEquals(50, region.remaining());
+        for (int i = 0; i < 50; i++) {
+            assertEquals((byte) (90 + i), region.get(i));
+        }
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testRegionLargerThanWindowIsNotCached() throws IOException {
+        MappedFileCache cache = new MappedFileCache(10, 4);
+        ByteBuffer region = cache.getRegion(path, 5, 100);
+        assertEquals((byte) 5, region.get(0));
+        assertEquals((byte) 104, region.get(99));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testWindowsAreBoundedAndEvicted() throws IOException {
+        MappedFileCache cache = new MappedFileCache(10, 2);
+        cache.getRegion(path, 0, 10);
+        cache.getRegion(path, 10, 10);
+        cache.getRegion(path, 20, 10);
+        assertEquals(2, cache.size());
+        cache.evict(path);
+        assertEquals(0, cache.size());
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testRegionBeyondEndOfFile() throws IOException {
+        MappedFileCache cache = new MappedFileCache(1000, 2);
+        cache.getRegion(path, SIZE_X * SIZE_Y * SIZE_Z - 10, 20);
+    }
+
+    @Test
+    public void testFileGrowingBetweenReads() throws IOException {
+        String grown = ROOT + "growing";
+        FileOutputStream stream = new FileOutputStream(grown);
+        try {
+            stream.write(new byte[] { 0, 1, 2, 3, 4, 5, 6, 7 });
+            stream.flush();
+            MappedFileCache cache = new MappedFileCache(100, 4);
+            assertEquals((byte) 7, cache.getRegion(grown, 4, 4).get(3));
+            stream.write(new byte[] { 8, 9, 10, 11 });
+            stream.flush();
+            ByteBuffer region = cache.getRegion(grown, 6, 6);
+            assertEquals((byte) 6, region.get(0));
+            assertEquals((byte) 11, region.get(5));
+            assertEquals(1, cache.size());
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testMappedBufferMatchesCopyingBuffer() throws Exception {
+        PixelBuffer copying = new RomioPixelBuffer(path, pixels);
+        PixelBuffer mapped = new RomioPixelBuffer(path, pixels,
+                new MappedFileCache(64, 4));
+        try {
+            for (int z = 0; z < SIZE_Z; z++) {
+                assertPixelData(copying.getPlane(z, 0, 0),
+                        mapped.getPlane(z, 0, 0));
+                assertPixelData(copying.getRow(3, z, 0, 0),
+                        mapped.getRow(3, z, 0, 0));
+                assertPixelData(copying.getTile(z, 0, 0, 0, 2, SIZE_X, 4),
+                        mapped.getTile(z, 0, 0, 0, 2, SIZE_X, 4));
+                assertPixelData(copying.getTile(z, 0, 0, 3, 1, 5, 6),
+                        mapped.getTile(z, 0, 0, 3, 1, 5, 6));
+            }
+            assertPixelData(copying.getStack(0, 0), mapped.getStack(0, 0));
+        } finally {
+            copying.close();
+            mapped.close();
+        }
+    }
+
+    private void assertPixelData(PixelData expected, PixelData actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getPixelValue(i), actual.getPixelValue(i));
+        }
+    }
+}
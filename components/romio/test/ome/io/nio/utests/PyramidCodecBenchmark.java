@@ -0,0 +1,171 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import loci.formats.codec.CodecOptions;
+import loci.formats.tiff.IFD;
+import ome.io.bioformats.PyramidCodec;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.testng.annotations.Test;
+
+/**
+ * Measures the encode and decode throughput and the size ratio of the
+ * pyramid codecs on synthetic microscopy-like tiles: a smooth background,
+ * a few bright blobs and shot noise, 8-bit and 16-bit. The figures are
+ * logged, one line per codec and pixel type, to choose the codec of
+ * <code>omero.pixeldata.pyramid_codec</code> from data. Run manually, e.g.:
+ *
+ * <pre>
+ * java org.testng.TestNG -groups manual \
+ *     -testclass ome.io.nio.utests.PyramidCodecBenchmark
+ * </pre>
+ *
+ * @since Beta4.3.2
+ */
+@Test(groups = "manual")
+public class PyramidCodecBenchmark {
+
+    private final static Log log =
+        LogFactory.getLog(PyramidCodecBenchmark.class);
+
+    /** Width and height of the tiles, as written by the pyramid buffer. */
+    private static final int TILE_SIZE = 256;
+
+    /** Distinct tiles encoded and decoded in turn. */
+    private static final int TILES = 16;
+
+    /** Passes over the tiles before measuring. */
+    private static final int WARM_UP = 2;
+
+    /** Passes over the tiles measured. */
+    private static final int PASSES = 10;
+
+    public void testUint8() throws Exception {
+        benchmark(1);
+    }
+
+    public void testUint16() throws Exception {
+        benchmark(2);
+    }
+
+    private void benchmark(int bytesPerPixel) throws Exception {
+        byte[][] tiles = new byte[TILES][];
+        Random random = new Random(42L);
+        for (int i = 0; i < TILES; i++) {
+            tiles[i] = createTile(random, bytesPerPixel);
+        }
+        for (PyramidCodec codec : PyramidCodec.values()) {
+            try {
+                benchmark(codec, tiles, bytesPerPixel);
+            } catch (Throwable t) {
+                log.warn(String.format("%s %d-bit: unavailable (%s)",
+                        codec, bytesPerPixel * 8, t));
+            }
+        }
+    }
+
+    private void benchmark(PyramidCodec codec, byte[][] tiles,
+            int bytesPerPixel) throws Exception {
+        IFD ifd = new IFD();
+        ifd.put(IFD.LITTLE_ENDIAN, Boolean.FALSE);
+        ifd.put(IFD.IMAGE_WIDTH, TILE_SIZE);
+        ifd.put(IFD.IMAGE_LENGTH, TILE_SIZE);
+        ifd.put(IFD.BITS_PER_SAMPLE, new int[] { bytesPerPixel * 8 });
+        ifd.put(IFD.SAMPLES_PER_PIXEL, 1);
+        codec.apply(ifd);
+        CodecOptions encodeOptions =
+            codec.getCompression().getCompressionCodecOptions(ifd);
+        CodecOptions decodeOptions = new CodecOptions(encodeOptions);
+        decodeOptions.interleaved = true;
+        decodeOptions.maxBytes = TILE_SIZE * TILE_SIZE * bytesPerPixel;
+
+        byte[][] encoded = new byte[tiles.length][];
+        for (int i = 0; i < tiles.length; i++) {
+            encoded[i] = codec.getCompression().compress(tiles[i],
+                    encodeOptions);
+            byte[] decoded = codec.getCompression().decompress(encoded[i],
+                    decodeOptions);
+            if (!Arrays.equals(tiles[i], decoded)) {
+                throw new IllegalStateException("Lossy round trip");
+            }
+        }
+
+        long encodeTime = 0, decodeTime = 0, encodedBytes = 0;
+        for (int pass = 0; pass < WARM_UP + PASSES; pass++) {
+            boolean measured = pass >= WARM_UP;
+            for (int i = 0; i < tiles.length; i++) {
+                long start = System.nanoTime();
+                encoded[i] = codec.getCompression().compress(tiles[i],
+                        encodeOptions);
+                long encodedAt = System.nanoTime();
+                codec.getCompression().decompress(encoded[i],
+                        decodeOptions);
+                long decodedAt = System.nanoTime();
+                if (measured) {
+                    encodeTime += encodedAt - start;
+                    decodeTime += decodedAt - encodedAt;
+                    encodedBytes += encoded[i].length;
+                }
+            }
+        }
+        double rawBytes = (double) PASSES * tiles.length * tiles[0].length;
+        log.info(String.format("%s %d-bit: encode %.1f MB/s, "
+                + "decode %.1f MB/s, size ratio %.3f", codec,
+                bytesPerPixel * 8, megabytesPerSecond(rawBytes, encodeTime),
+                megabytesPerSecond(rawBytes, decodeTime),
+                encodedBytes / rawBytes));
+    }
+
+    private static double megabytesPerSecond(double bytes, long nanos) {
+        return bytes / (1024 * 1024) / (nanos / 1e9);
+    }
+
+    /**
+     * Creates a big-endian tile, as written by the pyramid buffer, of a
+     * sparse fluorescence-like sample using the full range of the type.
+     */
+    private static byte[] createTile(Random random, int bytesPerPixel) {
+        int max = (1 << (bytesPerPixel * 8)) - 1;
+        double background = max * 0.05;
+        double[][] blobs = new double[8][];
+        for (int i = 0; i < blobs.length; i++) {
+            blobs[i] = new double[] { random.nextDouble() * TILE_SIZE,
+                    random.nextDouble() * TILE_SIZE,
+                    4 + random.nextDouble() * 24,
+                    max * (0.2 + random.nextDouble() * 0.6) };
+        }
+        ByteBuffer tile = ByteBuffer.allocate(
+                TILE_SIZE * TILE_SIZE * bytesPerPixel);
+        tile.order(ByteOrder.BIG_ENDIAN);
+        for (int y = 0; y < TILE_SIZE; y++) {
+            for (int x = 0; x < TILE_SIZE; x++) {
+                double value = background * (1 + 0.5 * x / TILE_SIZE);
+                for (double[] blob : blobs) {
+                    double dx = x - blob[0], dy = y - blob[1];
+                    value += blob[3] * Math.exp(
+                            -(dx * dx + dy * dy) / (2 * blob[2] * blob[2]));
+                }
+                value += random.nextGaussian() * Math.sqrt(value) * 0.5;
+                int v = (int) Math.max(0, Math.min(max, Math.round(value)));
+                if (bytesPerPixel == 1) {
+                    tile.put((byte) v);
+                } else {
+                    tile.putShort((short) v);
+                }
+            }
+        }
+        return tile.array();
+    }
+
+}
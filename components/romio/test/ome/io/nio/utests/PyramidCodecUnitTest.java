@@ -0,0 +1,173 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.IFDList;
+import loci.formats.tiff.TiffParser;
+import ome.io.bioformats.PyramidCodec;
+import ome.io.nio.TileLoopIteration;
+import ome.io.nio.Utils;
+import ome.util.PixelData;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Writes pyramids with the lossless codecs other than JPEG-2000 and checks
+ * that they are read back with the codec they were written with.
+ *
+ * @since Beta4.3.2
+ */
+public class PyramidCodecUnitTest extends AbstractPyramidPixelBufferUnitTest {
+
+    @BeforeMethod
+    public void setup() {
+        createService();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if (pixelBuffer != null) {
+            pixelBuffer.close();
+            pixelBuffer = null;
+        }
+        deleteRoot();
+    }
+
+    @Test
+    public void testForName() {
+        assertEquals(PyramidCodec.forName("jpeg-2000"), PyramidCodec.JPEG_2000);
+        assertEquals(PyramidCodec.forName(" Deflate "), PyramidCodec.DEFLATE);
+        try {
+            PyramidCodec.forName("lz4");
+            fail("Should have thrown");
+        } catch (IllegalArgumentException iae) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testUncompressed() throws Exception {
+        assertRoundTrip(PyramidCodec.UNCOMPRESSED);
+    }
+
+    @Test
+    public void testLzw() throws Exception {
+        assertRoundTrip(PyramidCodec.LZW);
+    }
+
+    @Test
+    public void testDeflate() throws Exception {
+        assertRoundTrip(PyramidCodec.DEFLATE);
+    }
+
+    @Test
+    public void testLevelsReducedOnClose() throws Exception {
+        List<String> inMemory = assertRoundTrip(PyramidCodec.DEFLATE);
+        tearDown();
+        createService();
+        service.setMaxLevelMemory(0);
+        assertEquals(assertRoundTrip(PyramidCodec.DEFLATE), inMemory);
+    }
+
+    /**
+     * Writes and reads back a pyramid.
+     * @return The digests of the tiles of every reduced resolution level.
+     */
+    private List<String> assertRoundTrip(PyramidCodec codec)
+        throws Exception {
+        service.setPyramidCodec(codec.name());
+        final List<String> hashDigests = new ArrayList<String>();
+        pixelBuffer = service.getPixelBuffer(pixels);
+        assertEquals(writeTiles(hashDigests), 768);
+        pixelBuffer.close();
+
+        // Whatever the codec configured, the pyramid is read with its own.
+        service.setPyramidCodec(PyramidCodec.JPEG_2000.name());
+        pixelBuffer = service.getPixelBuffer(pixels);
+        assertCompression(codec);
+        pixelBuffer.setResolutionLevel(pixelBuffer.getResolutionLevels() - 1);
+        short tileCount = (short) Utils.forEachTile(new TileLoopIteration() {
+            public void run(int z, int c, int t, int x, int y, int tileWidth,
+                            int tileHeight, int tileCount) {
+                try
+                {
+                    PixelData tile = pixelBuffer.getTile(z, c, t, x, y,
+                            tileWidth, tileHeight);
+                    String readDigest = ome.util.Utils.bytesToHex(
+                            ome.util.Utils.calculateMessageDigest(
+                                    tile.getData()));
+                    assertEquals(readDigest, hashDigests.get(tileCount),
+                            String.format("z:%d c:%d t:%d x:%d y:%d",
+                                    z, c, t, x, y));
+                }
+                catch (IOException e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, pixelBuffer, tileWidth, tileHeight);
+        assertEquals(tileCount, 768);
+
+        assertEquals(pixelBuffer.getResolutionLevels(),
+                codec.getLevels().length);
+        final List<String> levelDigests = new ArrayList<String>();
+        for (int level = pixelBuffer.getResolutionLevels() - 2; level >= 0;
+             level--) {
+            pixelBuffer.setResolutionLevel(level);
+            Utils.forEachTile(new TileLoopIteration() {
+                public void run(int z, int c, int t, int x, int y,
+                                int tileWidth, int tileHeight, int tileCount) {
+                    try
+                    {
+                        PixelData tile = pixelBuffer.getTile(z, c, t, x, y,
+                                tileWidth, tileHeight);
+                        assertEquals(tile.size(), tileWidth * tileHeight);
+                        levelDigests.add(ome.util.Utils.bytesToHex(
+                                ome.util.Utils.calculateMessageDigest(
+                                        tile.getData())));
+                    }
+                    catch (IOException e)
+                    {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }, pixelBuffer, tileWidth, tileHeight);
+        }
+        return levelDigests;
+    }
+
+    /**
+     * Checks the compression tag of every IFD of the pyramid file, including
+     * those of the reduced resolution levels.
+     */
+    private void assertCompression(PyramidCodec codec) throws Exception {
+        String path = service.getPixelsPath(pixels.getId())
+                + ome.io.nio.PixelsService.PYRAMID_SUFFIX;
+        TiffParser parser = new TiffParser(path);
+        try {
+            IFDList ifds = parser.getIFDs();
+            assertEquals(ifds.size(),
+                    sizeZ * sizeC * sizeT * codec.getLevels().length);
+            for (IFD ifd : ifds) {
+                assertEquals(ifd.getCompression(), codec.getCompression());
+            }
+        } finally {
+            parser.getStream().close();
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.AssertJUnit.*;
+
+import java.awt.Dimension;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import ome.io.bioformats.PyramidLevelBuilder;
+import ome.io.nio.TileLoopIteration;
+import ome.io.nio.Utils;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the in-memory reduced resolution levels of a pixels pyramid.
+ *
+ * @since Beta4.3.2
+ */
+public class PyramidLevelBuilderUnitTest {
+
+    private Pixels createPixels(String type, int sizeX, int sizeY, int sizeC) {
+        Pixels pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(sizeX);
+        pixels.setSizeY(sizeY);
+        pixels.setSizeZ(1);
+        pixels.setSizeC(sizeC);
+        pixels.setSizeT(1);
+        PixelsType pixelsType = new PixelsType();
+        pixelsType.setValue(type);
+        pixels.setPixelsType(pixelsType);
+        return pixels;
+    }
+
+    @Test
+    public void testLevelSizes() {
+        assertEquals(new Dimension(2048, 1024),
+                PyramidLevelBuilder.getLevelSize(2048, 1024, 256, 256, 0));
+        assertEquals(new Dimension(64, 32),
+                PyramidLevelBuilder.getLevelSize(2048, 1024, 256, 256, 5));
+        assertEquals(new Dimension(128, 64),
+                PyramidLevelBuilder.getLevelSize(2048, 1024, 256, 256, 4));
+        // Partial last tiles are rounded separately: 100 / 32 -> 3
+        assertEquals(new Dimension(67, 64),
+                PyramidLevelBuilder.getLevelSize(2148, 2048, 256, 256, 5));
+        // ... unless they would vanish: 10 / 32 -> 1
+        assertEquals(new Dimension(65, 64),
+                PyramidLevelBuilder.getLevelSize(2058, 2048, 256, 256, 5));
+    }
+
+    @Test
+    public void testUniformTilesReduceToTheirValue() {
+        final Pixels pixels = createPixels("uint16", 600, 300, 2);
+        final PyramidLevelBuilder builder = new PyramidLevelBuilder(
+                pixels, 256, 256, ByteOrder.LITTLE_ENDIAN);
+        Utils.forEachTile(new TileLoopIteration() {
+            public void run(int z, int c, int t, int x, int y, int w, int h,
+                    int tileCount) {
+                assertFalse(builder.isComplete());
+                ByteBuffer tile = ByteBuffer.allocate(w * h * 2);
+                tile.order(ByteOrder.LITTLE_ENDIAN);
+                for (int i = 0; i < w * h; i++) {
+                    tile.putShort((short) (40000 + tileCount));
+                }
+                builder.addTile(tile.array(), z, c, t, x, y, w, h);
+            }
+        }, 600, 300, 1, 2, 1, 256, 256);
+        assertTrue(builder.isComplete());
+
+        Dimension size = builder.getSize(2);
+        assertEquals(PyramidLevelBuilder.getLevelSize(600, 300, 256, 256, 4),
+                size);
+        ByteBuffer plane = ByteBuffer.wrap(builder.getPlane(2, 1));
+        plane.order(ByteOrder.LITTLE_ENDIAN);
+        // Channel 1, second row of tiles, third column: tile 6 + 5
+        int x = 2 * 16, y = 16;
+        assertEquals(40011, plane.getShort(2 * (y * size.width + x)) & 0xFFFF);
+        assertEquals(40011, plane.getShort(
+                2 * (size.width * size.height - 1)) & 0xFFFF);
+    }
+
+    @Test
+    public void testBoxFilter() {
+        Pixels pixels = createPixels("uint8", 32, 32, 1);
+        PyramidLevelBuilder builder = new PyramidLevelBuilder(
+                pixels, 32, 32, ByteOrder.BIG_ENDIAN);
+        byte[] tile = new byte[32 * 32];
+        for (int y = 0; y < 32; y++) {
+            for (int x = 0; x < 32; x++) {
+                tile[y * 32 + x] = (byte) (x < 16? 10 : 200);
+            }
+        }
+        builder.addTile(tile, 0, 0, 0, 0, 0, 32, 32);
+        assertTrue(builder.isComplete());
+        // 2x2 at level 4, one pixel at level 5
+        byte[] level4 = builder.getPlane(2, 0);
+        assertEquals(4, level4.length);
+        assertEquals(10, level4[0] & 0xFF);
+        assertEquals(200, level4[1] & 0xFF);
+        byte[] level5 = builder.getPlane(1, 0);
+        assertEquals(1, level5.length);
+        assertEquals(105, level5[0] & 0xFF);
+    }
+
+    @Test
+    public void testMemorySize() {
+        Pixels pixels = createPixels("uint16", 2048, 1024, 3);
+        assertEquals((64 * 32 + 128 * 64) * 3 * 2,
+                PyramidLevelBuilder.getMemorySize(pixels, 256, 256));
+    }
+}
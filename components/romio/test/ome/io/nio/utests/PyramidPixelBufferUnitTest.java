@@ -7,13 +7,21 @@
 package ome.io.nio.utests;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import ome.io.bioformats.BfPyramidPixelBuffer;
+import ome.io.bioformats.PyramidReaderPool;
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.TileCache;
 import ome.io.nio.TileLoopIteration;
 import ome.io.nio.Utils;
 import ome.util.PixelData;
@@ -134,4 +142,89 @@ public class PyramidPixelBufferUnitTest extends AbstractPyramidPixelBufferUnitTe
         assertEquals(tileCount, 192);
     }
 
+    /**
+     * Digests of all the tiles of the second resolution level.
+     */
+    private List<String> readDigests(final PixelBuffer buffer)
+    {
+        final List<String> digests = new ArrayList<String>();
+        buffer.setResolutionLevel(buffer.getResolutionLevels() - 2);
+        Utils.forEachTile(new TileLoopIteration() {
+            public void run(int z, int c, int t, int x, int y, int tileWidth,
+                            int tileHeight, int tileCount) {
+                try
+                {
+                    digests.add(ome.util.Utils.bytesToHex(
+                            ome.util.Utils.calculateMessageDigest(
+                                    buffer.getTile(z, c, t, x, y,
+                                            tileWidth, tileHeight).getData())));
+                }
+                catch (IOException e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, buffer, tileWidth, tileHeight);
+        return digests;
+    }
+
+    @Test(dependsOnMethods={"testPyramidWriteTiles"}, enabled=true)
+    public void testConcurrentTileReads() throws Exception {
+        final BfPyramidPixelBuffer buffer =
+            (BfPyramidPixelBuffer) service.getPixelBuffer(pixels);
+        final BfPyramidPixelBuffer other =
+            (BfPyramidPixelBuffer) service.getPixelBuffer(pixels);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            buffer.setTileCache(null);
+            buffer.setReaderPool(null);
+            List<String> expected = readDigests(buffer);
+            // Both buffers share the readers of the pyramid
+            PyramidReaderPool pool = new PyramidReaderPool(3, 2);
+            buffer.setReaderPool(pool);
+            other.setTileCache(null);
+            other.setReaderPool(pool);
+            List<Future<List<String>>> futures =
+                new ArrayList<Future<List<String>>>();
+            for (int i = 0; i < 4; i++) {
+                final BfPyramidPixelBuffer reading = i % 2 == 0 ? buffer
+                        : other;
+                futures.add(executor.submit(new Callable<List<String>>() {
+                    public List<String> call() {
+                        return readDigests(reading);
+                    }
+                }));
+            }
+            for (Future<List<String>> future : futures) {
+                assertEquals(future.get(), expected);
+            }
+            assertEquals(pool.getIdle(), pool.getOpen());
+            assertTrue(pool.getOpen() >= 1 && pool.getOpen() <= 2);
+            pool.evict(buffer.getPath());
+            assertEquals(pool.getOpen(), 0);
+        } finally {
+            executor.shutdown();
+            buffer.close();
+            other.close();
+        }
+    }
+
+    @Test(dependsOnMethods={"testPyramidWriteTiles"}, enabled=true)
+    public void testTileCacheHits() throws Exception {
+        BfPyramidPixelBuffer buffer =
+            (BfPyramidPixelBuffer) service.getPixelBuffer(pixels);
+        try {
+            TileCache cache = new TileCache();
+            buffer.setTileCache(cache);
+            List<String> expected = readDigests(buffer);
+            assertEquals(cache.getHits(), 0);
+            assertEquals(cache.getSize(), expected.size());
+            assertEquals(readDigests(buffer), expected);
+            assertEquals(cache.getHits(), (long) expected.size());
+            assertEquals(cache.getHitRate(), 0.5);
+        } finally {
+            buffer.close();
+        }
+    }
+
 }
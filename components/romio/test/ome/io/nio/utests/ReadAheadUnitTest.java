@@ -0,0 +1,164 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.AssertJUnit.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import ome.io.nio.ReadAhead;
+import ome.io.nio.ReadAheadPool;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the reads of {@link ReadAhead} against those of the channel.
+ *
+ * @since Beta4.3.2
+ */
+public class ReadAheadUnitTest {
+
+    private static final int WINDOW = 64, SIZE = 1000;
+
+    private File file;
+
+    private RandomAccessFile rafile;
+
+    private ReadAheadPool pool;
+
+    private ReadAhead readAhead;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        file = File.createTempFile("readahead", ".bin");
+        byte[] bytes = new byte[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            bytes[i] = (byte) i;
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        rafile = new RandomAccessFile(file, "rw");
+        pool = new ReadAheadPool(WINDOW, 2, 1);
+        readAhead = pool.open(rafile.getChannel());
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        readAhead.close();
+        pool.close();
+        rafile.close();
+        file.delete();
+    }
+
+    private byte[] expected(long position, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        rafile.getChannel().read(ByteBuffer.wrap(bytes), position);
+        return bytes;
+    }
+
+    private void assertRead(long position, int length) throws IOException {
+        assertTrue(position + "/" + length, Arrays.equals(
+                expected(position, length), readAhead.read(position, length)));
+    }
+
+    @Test
+    public void testSequentialReads() throws IOException {
+        for (int position = 0; position < SIZE; position += 30) {
+            assertRead(position, 30);
+        }
+    }
+
+    @Test
+    public void testRandomAndLargeReads() throws IOException {
+        assertRead(500, 10);
+        assertRead(10, 100);
+        assertRead(63, 2);
+        assertRead(200, WINDOW);
+        assertRead(0, SIZE);
+    }
+
+    @Test
+    public void testReadsPastTheEnd() throws IOException {
+        assertRead(SIZE - 10, 30);
+        assertRead(SIZE + 10, 5);
+        assertRead(SIZE - 10, 2 * WINDOW);
+    }
+
+    @Test
+    public void testInvalidate() throws IOException {
+        assertRead(0, 10);
+        rafile.getChannel().write(ByteBuffer.wrap(new byte[] { 42 }), 5);
+        readAhead.invalidate();
+        assertEquals(42, readAhead.read(5, 1)[0]);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testReadAfterClose() throws IOException {
+        readAhead.close();
+        readAhead.read(0, 1);
+    }
+
+    @Test
+    public void testRandomReadsAreDirect() throws IOException {
+        assertRead(500, 10);
+        assertRead(10, 20);
+        assertRead(900, 5);
+        assertEquals(0, pool.getAllocatedBuffers());
+    }
+
+    @Test
+    public void testReadsWhenEveryBufferIsInUse() throws IOException {
+        ReadAheadPool single = new ReadAheadPool(WINDOW, 1, 0);
+        ReadAhead first = single.open(rafile.getChannel());
+        ReadAhead second = single.open(rafile.getChannel());
+        try {
+            for (int position = 0; position < SIZE; position += 30) {
+                assertTrue(Arrays.equals(expected(position, 30),
+                        first.read(position, 30)));
+                assertTrue(Arrays.equals(expected(position, 30),
+                        second.read(position, 30)));
+                assertTrue(single.getAllocatedBuffers() <= 1);
+            }
+            assertEquals(1, single.getAllocatedBuffers());
+        } finally {
+            first.close();
+            second.close();
+            single.close();
+        }
+    }
+
+    @Test
+    public void testBuffersDroppedOnceThePoolIsClosed() throws IOException {
+        for (int position = 0; position < SIZE / 2; position += 10) {
+            assertRead(position, 10);
+        }
+        pool.close();
+        readAhead.close();
+        assertEquals(0, pool.getAllocatedBuffers());
+    }
+
+    @Test
+    public void testBuffersAreReused() throws IOException {
+        for (int position = 0; position < SIZE; position += 10) {
+            readAhead.read(position, 10);
+        }
+        readAhead.close();
+        assertTrue(pool.getIdleBuffers() <= pool.getMaxBuffers());
+        assertTrue(pool.getIdleBuffers() > 0);
+    }
+}
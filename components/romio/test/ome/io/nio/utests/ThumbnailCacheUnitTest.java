@@ -0,0 +1,144 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.AssertJUnit.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.io.nio.ThumbnailCache;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the in-memory thumbnail cache.
+ *
+ * @since Beta4.3.2
+ */
+public class ThumbnailCacheUnitTest {
+
+    private ThumbnailCache cache;
+
+    @BeforeMethod
+    public void setUp() {
+        cache = new ThumbnailCache(100, 2);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        cache.shutdown();
+    }
+
+    private ThumbnailCache.Key key(long pixelsId) {
+        return new ThumbnailCache.Key(pixelsId, 1L, 1L, 96, 96);
+    }
+
+    private Callable<byte[]> loader(final int size, final AtomicInteger calls) {
+        return new Callable<byte[]>() {
+            public byte[] call() {
+                calls.incrementAndGet();
+                return new byte[size];
+            }
+        };
+    }
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        assertNull(cache.get(key(1)));
+        assertEquals(10, cache.get(key(1), loader(10, calls)).length);
+        assertEquals(10, cache.get(key(1), loader(10, calls)).length);
+        assertEquals(10, cache.submit(key(1), loader(10, calls)).get().length);
+        assertEquals(1, calls.get());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+        // A new version of the rendering settings is another thumbnail
+        cache.get(new ThumbnailCache.Key(1L, 1L, 2L, 96, 96),
+                loader(10, calls));
+        assertEquals(2, calls.get());
+        assertEquals(2, cache.size());
+        assertEquals(20, cache.getSize());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedAreEvicted() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        cache.get(key(1), loader(40, calls));
+        cache.get(key(2), loader(40, calls));
+        cache.get(key(1), loader(40, calls));
+        cache.get(key(3), loader(40, calls));
+        assertEquals(1, cache.getEvictionCount());
+        assertNotNull(cache.get(key(1)));
+        assertNull(cache.get(key(2)));
+        assertNotNull(cache.get(key(3)));
+        assertEquals(80, cache.getSize());
+        // Larger than the cache itself
+        cache.get(key(4), loader(101, calls));
+        assertNull(cache.get(key(4)));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<byte[]> blocking = new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+                calls.incrementAndGet();
+                started.countDown();
+                release.await();
+                return new byte[5];
+            }
+        };
+        Future<byte[]> first = cache.submit(key(1), blocking);
+        started.await();
+        Future<byte[]> second = cache.submit(key(1), blocking);
+        assertSame(first, second);
+        release.countDown();
+        assertSame(first.get(), cache.get(key(1), blocking));
+        assertEquals(1, calls.get());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getCoalescedCount());
+    }
+
+    @Test
+    public void testFailedLoadsAreRetried() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<byte[]> failing = new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+                calls.incrementAndGet();
+                throw new IllegalStateException("failed");
+            }
+        };
+        try {
+            cache.get(key(1), failing);
+            fail("Should have thrown");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertNull(cache.get(key(1)));
+        assertEquals(5, cache.get(key(1), loader(5, calls)).length);
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testEvictPixels() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        cache.get(key(1), loader(10, calls));
+        cache.get(key(2), loader(10, calls));
+        cache.evict(1L);
+        assertNull(cache.get(key(1)));
+        assertNotNull(cache.get(key(2)));
+        assertEquals(10, cache.getSize());
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.AssertJUnit.*;
+
+import ome.io.nio.TileCache;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the bounds and metrics of the {@link TileCache}.
+ *
+ * @since Beta4.3.2
+ */
+public class TileCacheUnitTest {
+
+    private TileCache.Key key(String path, int x) {
+        return new TileCache.Key(path, 100L, 1L, 0, 0, x, 0, 4, 4);
+    }
+
+    @Test
+    public void testCopiesTiles() {
+        TileCache cache = new TileCache(1024);
+        byte[] tile = new byte[] { 1, 2, 3, 4, 5 };
+        cache.put(key("a", 0), tile, 4);
+        tile[0] = 9;
+        byte[] buffer = new byte[5];
+        assertTrue(cache.get(key("a", 0), buffer));
+        assertEquals(1, buffer[0]);
+        assertEquals(4, buffer[3]);
+        assertEquals(0, buffer[4]);
+        assertFalse(cache.get(key("a", 1), buffer));
+        assertFalse(cache.get(new TileCache.Key("a", 101L, 1L, 0, 0, 0, 0,
+                4, 4), buffer));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        TileCache cache = new TileCache(100);
+        byte[] tile = new byte[40];
+        cache.put(key("a", 0), tile, 40);
+        cache.put(key("a", 1), tile, 40);
+        cache.get(key("a", 0), tile);
+        cache.put(key("a", 2), tile, 40);
+        assertEquals(80, cache.getBytes());
+        assertEquals(1, cache.getEvictions());
+        assertTrue(cache.get(key("a", 0), tile));
+        assertFalse(cache.get(key("a", 1), tile));
+        cache.put(key("b", 0), tile, 101);
+        assertEquals(2, cache.getSize());
+    }
+
+    @Test
+    public void testEvictFile() {
+        TileCache cache = new TileCache(1000);
+        byte[] tile = new byte[10];
+        cache.put(key("a", 0), tile, 10);
+        cache.put(key("b", 0), tile, 10);
+        cache.evict("a");
+        assertEquals(1, cache.getSize());
+        assertEquals(10, cache.getBytes());
+        assertFalse(cache.get(key("a", 0), tile));
+    }
+}
@@ -46,6 +46,7 @@ import ome.model.core.OriginalFile;
 import ome.model.core.Pixels;
 import ome.model.core.PlaneInfo;
 import ome.model.experiment.Experiment;
+import ome.model.internal.Details;
 import ome.model.experiment.MicrobeamManipulation;
 import ome.model.roi.Roi;
 import ome.model.roi.Shape;
@@ -59,6 +60,8 @@ import ome.model.stats.StatsInfo;
 import ome.system.ServiceFactory;
 import ome.conditions.ApiUsageException;
 import ome.util.LSID;
+import ome.util.SqlAction;
+import ome.util.Utils;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -92,6 +95,18 @@ public class OMEROMetadataStore
     /** OMERO update service */
     private IUpdate iUpdate;
 
+    /**
+     * Number of plane infos from which {@link #saveToDB()} inserts them
+     * through {@link #sql} rather than the Hibernate cascade.
+     */
+    public static final int BULK_PLANE_INFO_THRESHOLD = 1000;
+
+    /** Maximum number of plane infos per id block and insert. */
+    public static final int BULK_PLANE_INFO_BATCH = 10000;
+
+    /** Used for bulk inserts, which are disabled if null. */
+    private SqlAction sql;
+
     /** A map of imageIndex vs. Image object ordered by first access. */
     private Map<Integer, Image> imageList = 
     	new LinkedHashMap<Integer, Image>();
@@ -287,12 +302,13 @@ public class OMEROMetadataStore
      */
     public void updateReferences(Map<String, String[]> referenceCache)
     {
-    	for (String target : referenceCache.keySet())
+    	for (Map.Entry<String, String[]> entry : referenceCache.entrySet())
     	{
-    		for (String reference : referenceCache.get(target))
+    		String target = entry.getKey();
+    		LSID targetLSID = new LSID(target);
+    		IObject targetObject = lsidMap.get(targetLSID);
+    		for (String reference : entry.getValue())
     		{
-    			LSID targetLSID = new LSID(target);
-    			IObject targetObject = lsidMap.get(targetLSID);
     			LSID referenceLSID = new LSID(reference);
     			IObject referenceObject = lsidMap.get(
     					new LSID(stripCustomSuffix(reference)));
@@ -1556,6 +1572,16 @@ public class OMEROMetadataStore
         iUpdate = sf.getUpdateService();
     }
 
+    /**
+     * Enables the bulk insertion of large homogeneous object types, which
+     * otherwise go through the Hibernate cascade of {@link #saveToDB()}.
+     * @param sql SQL action of the transaction saving the graph.
+     */
+    public void setSqlAction(SqlAction sql)
+    {
+        this.sql = sql;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -1830,14 +1856,21 @@ public class OMEROMetadataStore
     	// Check the entire object graph, optimizing and sections that may
     	// be collapsed.
     	checkAndCollapseGraph();
+    	Image[] imageArray = 
+    		imageList.values().toArray(new Image[imageList.size()]);
+    	List<List<PlaneInfo>> planeInfos = detachPlaneInfos(imageArray);
     	// Save the entire Image rooted graph using the "insert only"
     	// saveAndReturnIds(). DISABLED until we can find out what is causing
     	// the extreme memory usage on the graph reload.
     	StopWatch s1 = new CommonsLogStopWatch("omero.saveImportGraph");
-    	Image[] imageArray = 
-    		imageList.values().toArray(new Image[imageList.size()]);
     	IObject[] saved = iUpdate.saveAndReturnArray(imageArray);
     	s1.stop();
+    	if (planeInfos != null)
+    	{
+    		StopWatch s3 = new CommonsLogStopWatch("omero.saveImportPlaneInfos");
+    		insertPlaneInfos(saved, planeInfos);
+    		s3.stop();
+    	}
     	
     	// To conform loosely with the method contract, reload a subset of
     	// the original graph so that it may be manipulated by the caller.
@@ -1876,6 +1909,125 @@ public class OMEROMetadataStore
    		return toReturn;
     }
     
+    /**
+     * Removes the plane infos from the primary pixels of each image if the
+     * graph holds at least {@link #BULK_PLANE_INFO_THRESHOLD} of them and
+     * bulk inserts are enabled. Plane infos with annotations are left to
+     * the Hibernate cascade.
+     * @param imageArray Images about to be saved.
+     * @return The detached plane infos of each image, in the same order, or
+     * <code>null</code> if all are saved by Hibernate.
+     */
+    private List<List<PlaneInfo>> detachPlaneInfos(Image[] imageArray)
+    {
+    	if (sql == null)
+    	{
+    		return null;
+    	}
+    	int count = 0;
+    	for (Image image : imageArray)
+    	{
+    		Pixels pixels = image.getPrimaryPixels();
+    		if (pixels != null)
+    		{
+    			count += Math.max(0, pixels.sizeOfPlaneInfo());
+    		}
+    	}
+    	if (count < BULK_PLANE_INFO_THRESHOLD)
+    	{
+    		return null;
+    	}
+    	List<List<PlaneInfo>> planeInfos =
+    		new ArrayList<List<PlaneInfo>>(imageArray.length);
+    	for (Image image : imageArray)
+    	{
+    		List<PlaneInfo> detached = new ArrayList<PlaneInfo>();
+    		Pixels pixels = image.getPrimaryPixels();
+    		if (pixels != null)
+    		{
+    			for (PlaneInfo planeInfo : pixels.unmodifiablePlaneInfo())
+    			{
+    				if (planeInfo.sizeOfAnnotationLinks() <= 0)
+    				{
+    					detached.add(planeInfo);
+    				}
+    			}
+    			for (PlaneInfo planeInfo : detached)
+    			{
+    				pixels.removePlaneInfo(planeInfo);
+    			}
+    		}
+    		planeInfos.add(detached);
+    	}
+    	log.debug("Bulk inserting " + count + " plane infos.");
+    	return planeInfos;
+    }
+
+    /**
+     * Inserts the plane infos detached by {@link #detachPlaneInfos(Image[])}
+     * with ids allocated in blocks and the details of their saved pixels.
+     * @param saved Saved images, in the order the plane infos were detached.
+     * @param planeInfos Plane infos of each image.
+     */
+    private void insertPlaneInfos(IObject[] saved,
+    		                      List<List<PlaneInfo>> planeInfos)
+    {
+    	List<Object[]> rows = new ArrayList<Object[]>();
+    	for (int i = 0; i < saved.length; i++)
+    	{
+    		Pixels pixels = ((Image) saved[i]).getPrimaryPixels();
+    		for (PlaneInfo planeInfo : planeInfos.get(i))
+    		{
+    			rows.add(planeInfoRow(planeInfo, pixels));
+    			if (rows.size() == BULK_PLANE_INFO_BATCH)
+    			{
+    				insertPlaneInfoRows(rows);
+    				rows.clear();
+    			}
+    		}
+    	}
+    	if (rows.size() > 0)
+    	{
+    		insertPlaneInfoRows(rows);
+    	}
+    }
+
+    private Object[] planeInfoRow(PlaneInfo planeInfo, Pixels pixels)
+    {
+    	Details d = pixels.getDetails();
+    	return new Object[] { null,
+    			Utils.internalForm(d.getPermissions()),
+    			planeInfo.getTheZ(), planeInfo.getTheC(), planeInfo.getTheT(),
+    			planeInfo.getDeltaT(), planeInfo.getExposureTime(),
+    			planeInfo.getPositionX(), planeInfo.getPositionY(),
+    			planeInfo.getPositionZ(), pixels.getId(),
+    			d.getCreationEvent().getId(), d.getGroup().getId(),
+    			d.getOwner().getId(), d.getUpdateEvent().getId() };
+    }
+
+    /**
+     * Allocates a block of ids from the plane info sequence, which
+     * {@link SqlAction#nextValue(String, int)} returns the last of, and
+     * inserts the rows. The "INSERT" event logs which the Hibernate cascade
+     * would have raised are written alongside, as the security system does
+     * once the call returns, so that indexing and the other event log
+     * consumers see the plane infos.
+     */
+    private void insertPlaneInfoRows(List<Object[]> rows)
+    {
+    	long id = sql.nextValue("seq_planeinfo", rows.size()) - rows.size();
+    	long logId = sql.nextValue("seq_eventlog", rows.size()) - rows.size();
+    	List<Object[]> logs = new ArrayList<Object[]>(rows.size());
+    	for (Object[] row : rows)
+    	{
+    		row[0] = ++id;
+    		logs.add(new Object[] { ++logId, -35L, row[0],
+    				PlaneInfo.class.getName(), "INSERT", row[11] });
+    	}
+    	sql.insertPlaneInfos(rows);
+    	sql.insertLogs(logs);
+    }
+
     /**
      * Synchronize the minimum and maximum intensity values with those
      * specified by the client and save them in the DB.
@@ -17,6 +17,7 @@ import ome.conditions.ApiUsageException;
 import ome.conditions.InternalException;
 import ome.model.meta.Event;
 import ome.model.meta.EventLog;
+import ome.services.util.EventLogNotifier;
 import ome.system.EventContext;
 import ome.tools.hibernate.SessionFactory;
 import ome.util.SqlAction;
@@ -63,6 +64,8 @@ public class EventHandler implements MethodInterceptor {
 
     protected final boolean readOnly;
 
+    protected EventLogNotifier notifier;
+
     /**
      * only public constructor, used for dependency injection. Requires an
      * active {@link HibernateTemplate} and {@link BasicSecuritySystem}.
@@ -89,6 +92,14 @@ public class EventHandler implements MethodInterceptor {
         this.readOnly = readOnly;
     }
 
+    /**
+     * Sets the channel signalled once the {@link EventLog} instances saved
+     * by a transaction are committed.
+     */
+    public void setEventLogNotifier(EventLogNotifier notifier) {
+        this.notifier = notifier;
+    }
+
     /**
      * invocation interceptor for prepairing this {@link Thread} for execution
      * and subsequently reseting it.
@@ -261,6 +272,9 @@ public class EventHandler implements MethodInterceptor {
             }
 
             sql.insertLogs(batchData);
+            if (notifier != null) {
+                notifier.afterCommit();
+            }
 
         } catch (Exception ex) {
             log.error("Error saving event logs: " + logs, ex);
@@ -23,6 +23,8 @@ import ome.conditions.ResourceError;
 import ome.conditions.RootException;
 import ome.io.nio.FileBuffer;
 import ome.io.nio.OriginalFilesService;
+import ome.io.nio.ReadAhead;
+import ome.io.nio.ReadAheadPool;
 import ome.model.core.OriginalFile;
 import ome.util.ShallowCopy;
 import ome.util.Utils;
@@ -64,6 +66,12 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
 
     /** The file buffer for the service's original file. */
     private transient FileBuffer buffer;
+
+    /** Reads ahead of the file buffer, or null if not yet read. */
+    private transient ReadAhead readAhead;
+
+    /** Windows read ahead of the file buffer. */
+    private transient ReadAheadPool readAheadPool;
     
     /** ROMIO I/O service for files. */
     private transient OriginalFilesService ioService;
@@ -111,6 +119,17 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
         this.iRepositoryInfo = iRepositoryInfo;
     }
 
+    /**
+     * Read ahead pool Bean injector. Without a pool, the process-wide
+     * {@link ReadAheadPool#getDefault() default} is used.
+     * @param readAheadPool
+     *            a <code>ReadAheadPool</code>.
+     */
+    public final void setReadAheadPool(ReadAheadPool readAheadPool) {
+        getBeanHelper().throwIfAlreadySet(this.readAheadPool, readAheadPool);
+        this.readAheadPool = readAheadPool;
+    }
+
 
     // See documentation on JobBean#passivate
     @RolesAllowed("user")
@@ -203,6 +222,11 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
     {
 		try
 		{
+			if (readAhead != null)
+			{
+				readAhead.close();
+				readAhead = null;
+			}
 			if (buffer != null)
 				buffer.close();
 		}
@@ -273,18 +297,36 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
     @RolesAllowed("user")
     public byte[] read(long position, int length) {
         errorIfNotLoaded();
-        byte[] rawBuf = new byte[length];
-        ByteBuffer buf = ByteBuffer.wrap(rawBuf);
 
         try {
-            buffer.read(buf, position);
+            return getReadAhead().read(position, length);
         } catch (IOException e) {
             if (log.isDebugEnabled()) {
                 log.debug("Buffer could not be read.", e);
             }
             throw new ResourceError(e.getMessage());
         }
-        return rawBuf;
+    }
+
+    /**
+     * Returns the reader of the file buffer, opening it on first use.
+     */
+    private synchronized ReadAhead getReadAhead() throws IOException {
+        if (readAhead == null) {
+            ReadAheadPool pool = readAheadPool == null ?
+                    ReadAheadPool.getDefault() : readAheadPool;
+            readAhead = pool.open(buffer.getFileChannel());
+        }
+        return readAhead;
+    }
+
+    /**
+     * Drops the windows read ahead before the file buffer is modified.
+     */
+    private synchronized void invalidateReadAhead() {
+        if (readAhead != null) {
+            readAhead.invalidate();
+        }
     }
 
     @RolesAllowed("user")
@@ -293,6 +335,7 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
 
         try {
             if (length < buffer.size()) {
+                invalidateReadAhead();
                 buffer.truncate(length);
                 modified();
                 return true;
@@ -332,6 +375,7 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
         }
         
         try {
+            invalidateReadAhead();
             buffer.write(nioBuffer, position);
             modified();
         } catch (IOException e) {
@@ -41,6 +41,7 @@ import ome.model.display.RenderingDef;
 import ome.model.enums.Family;
 import ome.model.enums.RenderingModel;
 import ome.model.internal.Permissions;
+import ome.model.stats.StatsInfo;
 import ome.security.SecuritySystem;
 import ome.services.util.Executor;
 import ome.system.EventContext;
@@ -54,6 +55,7 @@ import omeis.providers.re.RenderingEngine;
 import omeis.providers.re.codomain.CodomainMapContext;
 import omeis.providers.re.data.PlaneDef;
 import omeis.providers.re.data.RegionDef;
+import omeis.providers.re.metadata.HistogramEngine;
 import omeis.providers.re.quantum.QuantizationException;
 import omeis.providers.re.quantum.QuantumFactory;
 
@@ -560,6 +562,75 @@ public class RenderingBean implements RenderingEngine, Serializable {
         }
     }
 
+    /**
+     * Implemented as specified by the {@link RenderingEngine} interface.
+     * 
+     * @see RenderingEngine#renderRegionsAsPackedInt(PlaneDef, RegionDef[], int)
+     */
+    @RolesAllowed("user")
+    public int[][] renderRegionsAsPackedInt(PlaneDef pd, RegionDef[] regions,
+            int resolutionLevel) {
+        rwl.writeLock().lock();
+
+        try {
+            errorIfInvalidState();
+            if (pd == null || regions == null) {
+                throw new ApiUsageException("No plane or regions to render.");
+            }
+            if (pd.getSlice() != PlaneDef.XY) {
+                throw new ApiUsageException(
+                        "Regions are only available for XY planes.");
+            }
+            this.resolutionLevel = resolutionLevel;
+            renderer.setResolutionLevel(resolutionLevel);
+            return renderer.renderRegionsAsPackedInt(pd, regions);
+        } catch (IOException e) {
+            log.error("IO error while rendering.", e);
+            throw new ResourceError(e.getMessage());
+        } catch (QuantizationException e) {
+            log.error("Quantization exception while rendering.", e);
+            throw new InternalException(e.getMessage());
+        } finally {
+            rwl.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Implemented as specified by the {@link RenderingEngine} interface.
+     * 
+     * @see RenderingEngine#renderRegionsCompressed(PlaneDef, RegionDef[], int)
+     */
+    @RolesAllowed("user")
+    public byte[][] renderRegionsCompressed(PlaneDef pd, RegionDef[] regions,
+            int resolutionLevel) {
+        rwl.writeLock().lock();
+
+        try {
+            int stride = pd == null? 0 : pd.getStride();
+            if (stride < 0) stride = 0;
+            stride++;
+            // The regions are clipped to the resolution level while rendering.
+            int[][] bufs = renderRegionsAsPackedInt(pd, regions,
+                    resolutionLevel);
+            byte[][] images = new byte[bufs.length][];
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            for (int i = 0; i < bufs.length; i++) {
+                BufferedImage image = ImageUtil.createBufferedImage(bufs[i],
+                        regions[i].getWidth() / stride,
+                        regions[i].getHeight() / stride);
+                byteStream.reset();
+                compressionSrv.compressToStream(image, byteStream);
+                images[i] = byteStream.toByteArray();
+            }
+            return images;
+        } catch (IOException e) {
+            log.error("Could not compress rendered image.", e);
+            throw new ResourceError(e.getMessage());
+        } finally {
+            rwl.writeLock().unlock();
+        }
+    }
+
     /**
      * Implemented as specified by the {@link RenderingEngine} interface.
      * 
@@ -1411,6 +1482,63 @@ public class RenderingBean implements RenderingEngine, Serializable {
         }
     }
 
+    /**
+     * Implemented as specified by the {@link RenderingEngine} interface.
+     *
+     * @see RenderingEngine#getHistogram(int[], int, boolean, PlaneDef)
+     */
+    @RolesAllowed("user")
+    public int[][] getHistogram(int[] channels, int binCount,
+            boolean globalRange, PlaneDef plane)
+    {
+        rwl.writeLock().lock();
+
+        try {
+            errorIfInvalidState();
+            if (plane == null || plane.getSlice() != PlaneDef.XY) {
+                throw new ApiUsageException(
+                        "Histograms are only available for XY planes.");
+            }
+            double[] mins = new double[channels.length];
+            double[] maxs = new double[channels.length];
+            for (int i = 0; i < channels.length; i++) {
+                int w = channels[i];
+                if (w < 0 || w >= pixelsObj.sizeOfChannels()) {
+                    throw new ApiUsageException("Invalid channel: " + w);
+                }
+                StatsInfo stats = globalRange?
+                        pixelsObj.getChannel(w).getStatsInfo() : null;
+                if (stats != null) {
+                    mins[i] = stats.getGlobalMin();
+                    maxs[i] = stats.getGlobalMax();
+                } else {
+                    mins[i] = renderer.getPixelsTypeLowerBound(w);
+                    maxs[i] = renderer.getPixelsTypeUpperBound(w);
+                }
+            }
+            // Histograms of lower resolution levels are not cached as the
+            // cache is keyed by Pixels set only.
+            Long pixelsId = resolutionLevel == null? pixelsObj.getId() : null;
+            HistogramEngine engine =
+                new HistogramEngine(renderer.getPixels(), pixelsId);
+            HistogramEngine.Histogram[] histograms;
+            try {
+                histograms = engine.compute(channels, plane.getZ(),
+                        plane.getZ(), plane.getT(), plane.getRegion(),
+                        binCount, mins, maxs);
+            } catch (IllegalArgumentException e) {
+                throw new ApiUsageException(e.getMessage());
+            }
+            int[][] counts = new int[histograms.length][];
+            for (int i = 0; i < histograms.length; i++) {
+                counts[i] = histograms[i].toIntArray();
+            }
+            return counts;
+        } finally {
+            rwl.writeLock().unlock();
+        }
+    }
+
     /* (non-Javadoc)
      * @see omeis.providers.re.RenderingEngine#requiresPixelsPyramid()
      */
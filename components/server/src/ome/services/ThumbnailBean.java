@@ -22,6 +22,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import ome.annotations.RolesAllowed;
@@ -39,6 +42,7 @@ import ome.conditions.ResourceError;
 import ome.conditions.ValidationException;
 import ome.io.nio.PixelBuffer;
 import ome.io.nio.PixelsService;
+import ome.io.nio.ThumbnailCache;
 import ome.io.nio.ThumbnailService;
 import ome.logic.AbstractLevel2Service;
 import ome.model.core.Pixels;
@@ -102,6 +106,9 @@ public class ThumbnailBean extends AbstractLevel2Service
     /** The ROMIO thumbnail service. */
     private transient ThumbnailService ioService;
 
+    /** The in-memory cache of encoded thumbnails, may be <code>null</code>. */
+    private transient ThumbnailCache thumbnailCache;
+
     /** The disk space checking service. */
     private transient IRepositoryInfo iRepositoryInfo;
 
@@ -405,6 +412,17 @@ public class ThumbnailBean extends AbstractLevel2Service
         this.ioService = ioService;
     }
 
+    /**
+     * Thumbnail cache Bean injector.
+     * 
+     * @param thumbnailCache
+     *            a <code>ThumbnailCache</code>.
+     */
+    public void setThumbnailCache(ThumbnailCache thumbnailCache) {
+        getBeanHelper().throwIfAlreadySet(this.thumbnailCache, thumbnailCache);
+        this.thumbnailCache = thumbnailCache;
+    }
+
     /**
      * Disk Space Usage service Bean injector
      * @param iRepositoryInfo
@@ -572,7 +590,29 @@ public class ThumbnailBean extends AbstractLevel2Service
         {
             return null;
         }
+        return createScaledImage(renderer, pixels, settings, thumbnailMetadata,
+                theZ, theT);
+    }
 
+    /**
+     * Creates a scaled buffered image using a given renderer. Only uses its
+     * arguments and thread-safe services so that thumbnails may be rendered
+     * concurrently.
+     * 
+     * @param renderer the renderer to use.
+     * @param pixels the pixels set the renderer was created for.
+     * @param settings the rendering settings the renderer was created with.
+     * @param thumbnailMetadata the thumbnail to create the image for.
+     * @param theZ the optical section (offset across the Z-axis) requested. 
+     * <pre>null</pre> signifies the rendering engine default.
+     * @param theT the timepoint (offset across the T-axis) requested. 
+     * <pre>null</pre> signifies the rendering engine default.
+     * @return a scaled buffered image.
+     */
+    private BufferedImage createScaledImage(Renderer renderer, Pixels pixels,
+            RenderingDef settings, Thumbnail thumbnailMetadata,
+            Integer theZ, Integer theT)
+    {
         // Retrieve our rendered data
         if (theZ == null)
             theZ = settings.getDefaultZ();
@@ -780,6 +820,7 @@ public class ThumbnailBean extends AbstractLevel2Service
             ctx.loadAndPrepareMetadata(pixelsIds, dimensions);
             thumbnailMetadata = ctx.getMetadata(pixels.getId());
             thumbnailMetadata = _createThumbnail();
+            evictCachedThumbnails();
             if (dirtyMetadata)
             {
                 thumbnailMetadata = iUpdate.saveAndReturnObject(thumbnailMetadata);
@@ -798,6 +839,38 @@ public class ThumbnailBean extends AbstractLevel2Service
     /** Actually does the work specified by {@link createThumbnail()}.*/
     private Thumbnail _createThumbnail() {
         StopWatch s1 = new CommonsLogStopWatch("omero._createThumbnail");
+        prepareMetadataForCreation();
+
+        BufferedImage image = createScaledImage(null, null);
+        try {
+            compressThumbnailToDisk(thumbnailMetadata, image);
+            s1.stop();
+            return thumbnailMetadata;
+        } catch (IOException e) {
+            log.error("Thumbnail could not be compressed.", e);
+            throw new ResourceError(e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the thumbnails of the active Pixels set from the thumbnail
+     * cache after they have been regenerated on disk. The cache keys only
+     * change with the rendering settings, so a thumbnail regenerated with the
+     * same settings would otherwise still be served from memory.
+     */
+    private void evictCachedThumbnails()
+    {
+        if (thumbnailCache != null)
+        {
+            thumbnailCache.evict(pixels.getId());
+        }
+    }
+
+    /**
+     * Validates the active thumbnail metadata and increments its version
+     * if the rendering settings have changed since it was last updated.
+     */
+    private void prepareMetadataForCreation() {
         if (thumbnailMetadata == null) {
             throw new ValidationException("Missing thumbnail metadata.");
         } else if (ctx.dirtyMetadata(pixels.getId())) {
@@ -814,16 +887,6 @@ public class ThumbnailBean extends AbstractLevel2Service
         // dirtyMetadata is left false here because we may be creating a
         // thumbnail for the first time and the Thumbnail object has just been
         // created upstream of us.
-
-        BufferedImage image = createScaledImage(null, null);
-        try {
-            compressThumbnailToDisk(thumbnailMetadata, image);
-            s1.stop();
-            return thumbnailMetadata;
-        } catch (IOException e) {
-            log.error("Thumbnail could not be compressed.", e);
-            throw new ResourceError(e.getMessage());
-        }
     }
 
     /*
@@ -842,6 +905,7 @@ public class ThumbnailBean extends AbstractLevel2Service
                 thumbnailMetadata = thumbnail;
                 _createThumbnail();
             }
+            evictCachedThumbnails();
             // We're doing the update or creation and save as a two step 
             // process due to the possible unloaded Pixels. If we do not, 
             // Pixels will be unloaded and we will hit 
@@ -916,6 +980,13 @@ public class ThumbnailBean extends AbstractLevel2Service
         Map<Long, byte[]> toReturn = new HashMap<Long, byte[]>();
 
         List<Thumbnail> toSave = new ArrayList<Thumbnail>();
+        // Thumbnails being retrieved or rendered by the thumbnail cache and
+        // their metadata, which is only saved if they are successfully
+        // created.
+        Map<Long, Future<byte[]>> pending = new HashMap<Long, Future<byte[]>>();
+        Map<Long, Thumbnail> pendingMetadata = new HashMap<Long, Thumbnail>();
+        List<ThumbnailRendering> renderings =
+            new ArrayList<ThumbnailRendering>();
         for (Long pixelsId : pixelsIds)
         {
             // Ensure that the renderer has been made dirty otherwise the
@@ -945,11 +1016,28 @@ public class ThumbnailBean extends AbstractLevel2Service
                 thumbnailMetadata = ctx.getMetadata(pixelsId);
                 try
                 {
-                    byte[] thumbnail = retrieveThumbnail();
-                    toReturn.put(pixelsId, thumbnail);
+                    if (thumbnailCache == null || inProgress)
+                    {
+                        byte[] thumbnail = retrieveThumbnail();
+                        toReturn.put(pixelsId, thumbnail);
+                        if (dirtyMetadata)
+                        {
+                            toSave.add(thumbnailMetadata);
+                        }
+                        continue;
+                    }
+                    ThumbnailCache.Key key = getCacheKey();
+                    byte[] thumbnail = thumbnailCache.get(key);
+                    if (thumbnail != null)
+                    {
+                        toReturn.put(pixelsId, thumbnail);
+                        continue;
+                    }
+                    pending.put(pixelsId, thumbnailCache.submit(
+                            key, prepareThumbnailRetrieval(renderings)));
                     if (dirtyMetadata)
                     {
-                        toSave.add(thumbnailMetadata);
+                        pendingMetadata.put(pixelsId, thumbnailMetadata);
                     }
                 }
                 finally
@@ -957,6 +1045,11 @@ public class ThumbnailBean extends AbstractLevel2Service
                     dirtyMetadata = false;
                 }
             }
+            catch (ConcurrencyException e)
+            {
+                // The pixels set's pyramid is being created (#5191)
+                toReturn.put(pixelsId, retrieveInProgressThumbnail(pixelsId));
+            }
             catch (Throwable t)
             {
                 log.warn("Retrieving thumbnail in set for " +
@@ -964,6 +1057,41 @@ public class ThumbnailBean extends AbstractLevel2Service
                 toReturn.put(pixelsId, null);
             }
         }
+        for (Map.Entry<Long, Future<byte[]>> entry : pending.entrySet())
+        {
+            Long pixelsId = entry.getKey();
+            try
+            {
+                toReturn.put(pixelsId, entry.getValue().get());
+                Thumbnail metadata = pendingMetadata.get(pixelsId);
+                if (metadata != null)
+                {
+                    toSave.add(metadata);
+                }
+            }
+            catch (Throwable t)
+            {
+                if (t instanceof ExecutionException)
+                {
+                    t = t.getCause();
+                }
+                if (t instanceof ConcurrencyException)
+                {
+                    // The pixels set's pyramid is being created (#5191)
+                    toReturn.put(pixelsId, retrieveInProgressThumbnail(pixelsId));
+                    continue;
+                }
+                log.warn("Retrieving thumbnail in set for " +
+                        "Pixels ID " + pixelsId + " failed.", t);
+                toReturn.put(pixelsId, null);
+            }
+        }
+        // Close the buffers of the renderings which the thumbnail cache did
+        // not run, as the same thumbnails were already being loaded.
+        for (ThumbnailRendering rendering : renderings)
+        {
+            rendering.release();
+        }
         // We're doing the update or creation and save as a two step 
         // process due to the possible unloaded Pixels. If we do not, 
         // Pixels will be unloaded and we will hit 
@@ -1035,7 +1163,40 @@ public class ThumbnailBean extends AbstractLevel2Service
                     thumbnailMetadata.getSizeY(),
                     0, 0);
         }
+        if (thumbnailCache == null)
+        {
+            return retrieveThumbnailFromDisk();
+        }
 
+        try
+        {
+            return thumbnailCache.get(getCacheKey(), new Callable<byte[]>()
+            {
+                public byte[] call()
+                {
+                    return retrieveThumbnailFromDisk();
+                }
+            });
+        }
+        catch (RuntimeException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            InternalException ie = new InternalException(
+                    "Could not obtain thumbnail: " + e.getMessage());
+            ie.initCause(e);
+            throw ie;
+        }
+    }
+
+    /**
+     * Creates the thumbnail or retrieves it from the on disk cache.
+     * @return Thumbnail bytes.
+     */
+    private byte[] retrieveThumbnailFromDisk()
+    {
         try
         {
             boolean cached = ctx.isThumbnailCached(pixels.getId());
@@ -1064,6 +1225,201 @@ public class ThumbnailBean extends AbstractLevel2Service
         }
     }
 
+    /**
+     * Returns the key of the active thumbnail in the thumbnail cache.
+     * @return See above.
+     */
+    private ThumbnailCache.Key getCacheKey()
+    {
+        return new ThumbnailCache.Key(pixels.getId(), settings.getId(),
+                settings.getDetails().getUpdateEvent().getId(),
+                thumbnailMetadata.getSizeX(), thumbnailMetadata.getSizeY());
+    }
+
+    /**
+     * Prepares, in the calling thread, the retrieval of the active thumbnail
+     * by the thumbnail cache. Everything which requires the current session
+     * is done here, including opening the pixel buffer, the returned loader
+     * only reading the thumbnail from disk or rendering and writing it, so
+     * that it may be run concurrently with the loaders of other thumbnails.
+     * @param renderings Collects the loaders which render a thumbnail, to be
+     * released once the thumbnail cache is done with them.
+     * @return See above.
+     * @throws ConcurrencyException If the pixels set's pyramid is being
+     * created.
+     */
+    private Callable<byte[]> prepareThumbnailRetrieval(
+            List<ThumbnailRendering> renderings)
+    {
+        final Thumbnail metadata = thumbnailMetadata;
+        if (ctx.isThumbnailCached(pixels.getId()))
+        {
+            if (log.isDebugEnabled())
+            {
+                log.debug("Cache hit.");
+            }
+            return new Callable<byte[]>()
+            {
+                public byte[] call() throws IOException
+                {
+                    return ioService.getThumbnail(metadata);
+                }
+            };
+        }
+        if (log.isDebugEnabled())
+        {
+            log.debug("Cache miss, thumbnail missing or out of date.");
+        }
+        Pixels pixelsCopy = iPixels.retrievePixDescription(pixels.getId());
+        RenderingDef settingsCopy = iPixels.loadRndSettings(settings.getId());
+        QuantumFactory quantumFactory = new QuantumFactory(getFamilies());
+        List<RenderingModel> renderingModels = getRenderingModels();
+        // Opened before the metadata is changed so that a pixels set whose
+        // pyramid is being created is left untouched.
+        PixelBuffer buffer = pixelDataService.getPixelBuffer(pixelsCopy, false);
+        ThumbnailRendering rendering = new ThumbnailRendering(quantumFactory,
+                renderingModels, pixelsCopy, settingsCopy, buffer, metadata);
+        renderings.add(rendering);
+        prepareMetadataForCreation();
+        if (diskSpaceChecking) {
+            iRepositoryInfo.sanityCheckRepository();
+        }
+        return rendering;
+    }
+
+    /**
+     * Renders a thumbnail with a pixel buffer opened by the thread which
+     * prepared it. The buffer is closed once the thumbnail has been rendered
+     * or by {@link #release()} if the rendering is never run.
+     */
+    private class ThumbnailRendering implements Callable<byte[]>
+    {
+        private final QuantumFactory quantumFactory;
+
+        private final List<RenderingModel> renderingModels;
+
+        private final Pixels pixels;
+
+        private final RenderingDef settings;
+
+        private final Thumbnail metadata;
+
+        /** <code>null</code> once taken by the rendering or released. */
+        private PixelBuffer buffer;
+
+        ThumbnailRendering(QuantumFactory quantumFactory,
+                List<RenderingModel> renderingModels, Pixels pixels,
+                RenderingDef settings, PixelBuffer buffer, Thumbnail metadata)
+        {
+            this.quantumFactory = quantumFactory;
+            this.renderingModels = renderingModels;
+            this.pixels = pixels;
+            this.settings = settings;
+            this.buffer = buffer;
+            this.metadata = metadata;
+        }
+
+        public byte[] call() throws IOException
+        {
+            PixelBuffer buffer = take();
+            if (buffer == null)
+            {
+                throw new InternalException("Thumbnail rendering released.");
+            }
+            return renderThumbnail(quantumFactory, renderingModels,
+                    pixels, settings, buffer, metadata);
+        }
+
+        private synchronized PixelBuffer take()
+        {
+            PixelBuffer taken = buffer;
+            buffer = null;
+            return taken;
+        }
+
+        /** Closes the buffer if the thumbnail has not been rendered. */
+        void release()
+        {
+            PixelBuffer taken = take();
+            if (taken != null)
+            {
+                try
+                {
+                    taken.close();
+                }
+                catch (IOException e)
+                {
+                    log.error("Buffer did not close successfully.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders a thumbnail with its own renderer, compresses it and writes it
+     * to disk. May be called from any thread. The buffer is closed.
+     * @return Thumbnail bytes.
+     */
+    private byte[] renderThumbnail(QuantumFactory quantumFactory,
+            List<RenderingModel> renderingModels, Pixels pixels,
+            RenderingDef settings, PixelBuffer buffer, Thumbnail metadata)
+        throws IOException
+    {
+        StopWatch s1 = new CommonsLogStopWatch("omero._createThumbnail");
+        Renderer renderer = new Renderer(quantumFactory, renderingModels,
+                pixels, settings, buffer);
+        try
+        {
+            BufferedImage image = createScaledImage(
+                    renderer, pixels, settings, metadata, null, null);
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            compressionService.compressToStream(image, byteStream);
+            byte[] thumbnail = byteStream.toByteArray();
+            FileOutputStream stream = ioService.getThumbnailOutputStream(metadata);
+            try
+            {
+                stream.write(thumbnail);
+            }
+            finally
+            {
+                stream.close();
+            }
+            s1.stop();
+            return thumbnail;
+        }
+        finally
+        {
+            renderer.close();
+        }
+    }
+
+    /**
+     * Creates the <i>in progress</i> thumbnail of a Pixels set of the
+     * current thumbnail set whose pyramid is being created.
+     * @param pixelsId The Pixels set ID.
+     * @return Thumbnail bytes or <code>null</code> if it could not be
+     * created.
+     */
+    private byte[] retrieveInProgressThumbnail(Long pixelsId)
+    {
+        resetMetadata();
+        try
+        {
+            inProgress = true;
+            pixels = ctx.getPixels(pixelsId);
+            this.pixelsId = pixels.getId();
+            settings = ctx.getSettings(pixelsId);
+            thumbnailMetadata = ctx.getMetadata(pixelsId);
+            return retrieveThumbnail();
+        }
+        catch (Throwable t)
+        {
+            log.warn("Retrieving in progress thumbnail in set for " +
+                    "Pixels ID " + pixelsId + " failed.", t);
+            return null;
+        }
+    }
+
     /*
      * (non-Javadoc)
      * 
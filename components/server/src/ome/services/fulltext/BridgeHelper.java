@@ -255,19 +255,30 @@ public abstract class BridgeHelper implements FieldBridge,
             final Map<String, FileParser> parsers) {
         if (files != null && parsers != null) {
             if (file != null && file.getMimetype() != null) {
+                Iterable<Reader> prefetched = FileParserPool.lookup(file
+                        .getId());
+                if (prefetched != null) {
+                    return prefetched;
+                }
                 String path = files.getFilesPath(file.getId());
-                String format = file.getMimetype();
-                FileParser parser = parsers.get(format);
+                FileParser parser = parser(file.getMimetype(), parsers);
                 if (parser != null) {
                     return parser.parse(new File(path));
-                } else {
-                    parser = parsers.get("*");
-                    if (parser != null) {
-                        return parser.parse(new File(path));
-                    }
                 }
             }
         }
         return FileParser.EMPTY;
     }
+
+    /**
+     * Returns the parser for a format, falling back to the catch all parser
+     * under "*", or null if there is none.
+     */
+    static FileParser parser(String format, Map<String, FileParser> parsers) {
+        FileParser parser = parsers.get(format);
+        if (parser == null) {
+            parser = parsers.get("*");
+        }
+        return parser;
+    }
 }
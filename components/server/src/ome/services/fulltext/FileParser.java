@@ -10,8 +10,11 @@ package ome.services.fulltext;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import ome.services.messages.RegisterServiceCleanupMessage;
@@ -37,6 +40,10 @@ public class FileParser implements ApplicationContextAware {
 
     private final static Log log = LogFactory.getLog(FileParser.class);
 
+    /** Cleanups registered while within {@link #parseFully(File, long)}. */
+    private final static ThreadLocal<List<RegisterServiceCleanupMessage>> localCleanups =
+        new ThreadLocal<List<RegisterServiceCleanupMessage>>();
+
     protected OmeroContext context;
 
     public void setApplicationContext(ApplicationContext arg0)
@@ -130,7 +137,7 @@ public class FileParser implements ApplicationContextAware {
     public Iterable<Reader> doParse(File file) throws Exception {
         FileReader reader = new FileReader(file);
         BufferedReader buffered = new BufferedReader(reader);
-        context.publishEvent(new RegisterServiceCleanupMessage(this, buffered) {
+        registerCleanup(new RegisterServiceCleanupMessage(this, buffered) {
             @Override
             public void close() {
                 try {
@@ -145,6 +152,63 @@ public class FileParser implements ApplicationContextAware {
         return wrap(it);
     }
 
+    /**
+     * Parses a file completely into memory, as {@link #parse(File)} does
+     * lazily, so that it can be done off the indexing thread. Readers are
+     * closed before returning rather than registered for cleanup at the end
+     * of the current service call, of which there is none.
+     *
+     * @param file
+     *            Can be null.
+     * @param maxChars
+     *            Maximum number of characters read.
+     * @return The contents of each {@link Reader} returned by
+     *         {@link #parse(File)}, or null if the file is longer than
+     *         <code>maxChars</code> and should be parsed lazily.
+     */
+    public List<String> parseFully(File file, long maxChars) throws IOException {
+        List<RegisterServiceCleanupMessage> cleanups =
+            new ArrayList<RegisterServiceCleanupMessage>();
+        localCleanups.set(cleanups);
+        try {
+            List<String> chunks = new ArrayList<String>();
+            long total = 0;
+            char[] buf = new char[8192];
+            for (Reader reader : parse(file)) {
+                StringBuilder sb = new StringBuilder();
+                int read;
+                while ((read = reader.read(buf)) >= 0) {
+                    total += read;
+                    if (total > maxChars) {
+                        return null;
+                    }
+                    sb.append(buf, 0, read);
+                }
+                chunks.add(sb.toString());
+            }
+            return chunks;
+        } finally {
+            localCleanups.remove();
+            for (RegisterServiceCleanupMessage cleanup : cleanups) {
+                cleanup.close();
+            }
+        }
+    }
+
+    /**
+     * Registers the release of a resource opened by {@link #doParse(File)}.
+     * Within {@link #parseFully(File, long)} the resource is released on
+     * return, otherwise at the end of the current service call.
+     */
+    protected void registerCleanup(RegisterServiceCleanupMessage cleanup) {
+        List<RegisterServiceCleanupMessage> cleanups = localCleanups.get();
+        if (cleanups != null) {
+            cleanups.add(cleanup);
+        } else {
+            context.publishEvent(cleanup);
+        }
+    }
+
     /**
      * Wraps an {@link Iterator} with an {@link Iterable} instance. If the
      * {@link Iterator} is null, the {@link #EMPTY} {@link Iterable} will be
@@ -0,0 +1,193 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.fulltext;
+
+import java.io.File;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.io.nio.OriginalFilesService;
+import ome.model.core.OriginalFile;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Parses the {@link OriginalFile} instances about to be indexed on a pool of
+ * threads, so that {@link FileParser} and {@link PdfParser} work for the
+ * next objects while the indexing thread writes the Lucene documents of the
+ * previous ones. The parsed text is bound to the indexing thread by
+ * {@link #prefetch(Collection)} and picked up by
+ * {@link BridgeHelper#parse(OriginalFile, OriginalFilesService, Map)};
+ * files longer than {@link #setMaxChars(long) maxChars} are left to be parsed
+ * lazily as before.
+ *
+ * @since Beta4.3.2
+ */
+public class FileParserPool {
+
+    private final static Log log = LogFactory.getLog(FileParserPool.class);
+
+    /** Parsed files of the batch being indexed by the current thread. */
+    private final static ThreadLocal<Map<Long, Future<List<String>>>> current =
+        new ThreadLocal<Map<Long, Future<List<String>>>>();
+
+    private final OriginalFilesService files;
+
+    private final Map<String, FileParser> parsers;
+
+    private int threads = 2;
+
+    private long maxChars = 1000 * 1000;
+
+    private ExecutorService pool;
+
+    public FileParserPool(OriginalFilesService files,
+            Map<String, FileParser> parsers) {
+        this.files = files;
+        this.parsers = parsers;
+    }
+
+    /**
+     * Number of parsing threads. With 1 or fewer, files are parsed lazily
+     * on the indexing thread.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Number of characters above which a file is not kept in memory.
+     */
+    public void setMaxChars(long maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Starts parsing the given files and binds the results to the current
+     * thread until {@link #clear()}.
+     */
+    public void prefetch(Collection<OriginalFile> toParse) {
+        if (threads <= 1 || toParse.isEmpty()) {
+            return;
+        }
+        Map<Long, Future<List<String>>> parsed = current.get();
+        if (parsed == null) {
+            parsed = new HashMap<Long, Future<List<String>>>();
+            current.set(parsed);
+        }
+        for (OriginalFile file : toParse) {
+            final Long id = file.getId();
+            final String format = file.getMimetype();
+            if (id == null || format == null || parsed.containsKey(id)) {
+                continue;
+            }
+            final FileParser parser = BridgeHelper.parser(format, parsers);
+            if (parser == null) {
+                continue;
+            }
+            final File path = new File(files.getFilesPath(id));
+            parsed.put(id, pool().submit(new Callable<List<String>>() {
+                public List<String> call() throws Exception {
+                    return parser.parseFully(path, maxChars);
+                }
+            }));
+        }
+    }
+
+    /**
+     * Discards the files parsed for the current thread, cancelling those not
+     * parsed yet.
+     */
+    public void clear() {
+        Map<Long, Future<List<String>>> parsed = current.get();
+        current.remove();
+        if (parsed != null) {
+            for (Future<List<String>> future : parsed.values()) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    public void close() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the contents of a file prefetched by the current thread,
+     * waiting for it to be parsed if necessary, or null if the file must be
+     * parsed lazily.
+     */
+    static Iterable<Reader> lookup(Long fileId) {
+        Map<Long, Future<List<String>>> parsed = current.get();
+        if (parsed == null || fileId == null) {
+            return null;
+        }
+        Future<List<String>> future = parsed.get(fileId);
+        if (future == null) {
+            return null;
+        }
+        final List<String> chunks;
+        try {
+            chunks = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            log.warn("Failed to parse file " + fileId, e.getCause());
+            return null;
+        }
+        if (chunks == null) {
+            return null;
+        }
+        return new Iterable<Reader>() {
+            public Iterator<Reader> iterator() {
+                List<Reader> readers = new ArrayList<Reader>(chunks.size());
+                for (String chunk : chunks) {
+                    readers.add(new StringReader(chunk));
+                }
+                return readers.iterator();
+            }
+        };
+    }
+
+    private synchronized ExecutorService pool() {
+        if (pool == null) {
+            final AtomicInteger count = new AtomicInteger();
+            pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "FileParserPool-"
+                            + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return pool;
+    }
+
+}
@@ -10,6 +10,13 @@ package ome.services.fulltext;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import ome.api.local.LocalShare;
 import ome.conditions.InternalException;
@@ -17,6 +24,9 @@ import ome.model.IAnnotated;
 import ome.model.IGlobal;
 import ome.model.IMutable;
 import ome.model.IObject;
+import ome.model.annotations.Annotation;
+import ome.model.annotations.FileAnnotation;
+import ome.model.core.OriginalFile;
 import ome.model.meta.EventLog;
 import ome.services.eventlogs.*;
 import ome.services.util.Executor.SimpleWork;
@@ -31,6 +41,8 @@ import org.hibernate.FlushMode;
 import org.hibernate.Session;
 import org.hibernate.search.FullTextSession;
 import org.hibernate.search.Search;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -38,10 +50,16 @@ import org.springframework.transaction.annotation.Transactional;
  * Simple action which can be done in an asynchronous thread in order to index
  * Hibernate entities. Attempts to index each {@link EventLog} passed from the
  * {@link EventLogLoader} multiple times on failure. Eventually
+ *
+ * The objects of each batch are loaded with one query per type and the files
+ * attached to them are parsed ahead of indexing by the {@link FileParserPool},
+ * if any, while the Lucene documents are still written by the calling thread.
+ * The backlog, throughput and lag of the last run are exported via JMX.
  * 
  * @author Josh Moore, josh at glencoesoftware.com
  * @since 3.0-Beta3
  */
+@ManagedResource(objectName = "omero:type=FullTextIndexer", description = "Full-text indexing progress")
 public class FullTextIndexer extends SimpleWork {
 
     private final static Log log = LogFactory.getLog(FullTextIndexer.class);
@@ -92,10 +110,28 @@ public class FullTextIndexer extends SimpleWork {
         }
     }
 
+    /**
+     * Maximum number of ids of a single type loaded by one query.
+     */
+    public final static int PREFETCH_SIZE = 500;
+
     final protected EventLogLoader loader;
 
     protected int reps = 5;
 
+    protected FileParserPool parserPool;
+
+    /** Last {@link EventLog} processed by the current run. */
+    private EventLog lastProcessed;
+
+    private final AtomicLong indexed = new AtomicLong();
+
+    private volatile long backlog = -1;
+
+    private volatile long lag = -1;
+
+    private volatile double throughput = 0.0;
+
     /**
      * Spring injector. Sets the number of indexing runs will be made if there
      * is a substantial backlog.
@@ -105,6 +141,14 @@ public class FullTextIndexer extends SimpleWork {
         ;
     }
 
+    /**
+     * Spring injector. Sets the pool parsing files ahead of indexing. If
+     * null, files are parsed lazily while indexing.
+     */
+    public void setParserPool(FileParserPool parserPool) {
+        this.parserPool = parserPool;
+    }
+
     public FullTextIndexer(EventLogLoader ll) {
         super("FullTextIndexer", "index");
         this.loader = ll;
@@ -129,7 +173,9 @@ public class FullTextIndexer extends SimpleWork {
     public Object doWork(Session session, ServiceFactory sf) {
         int count = 1;
         int perbatch = 0;
+        int total = 0;
         long start = System.currentTimeMillis();
+        lastProcessed = null;
         do {
 
             // ticket:1254 -
@@ -147,17 +193,75 @@ public class FullTextIndexer extends SimpleWork {
             fullTextSession.setFlushMode(FlushMode.MANUAL);
             fullTextSession.setCacheMode(CacheMode.IGNORE);
             perbatch = doIndexingWithWorldRead(sf, fullTextSession);
+            total += perbatch;
             count++;
         } while (doMore(count));
+        long elapsed = System.currentTimeMillis() - start;
+        updateMetrics(session, total, elapsed);
         if (perbatch > 0) {
-            log.info(String.format("INDEXED %s objects in %s batch(es) [%s ms.]",
-                    perbatch, (count - 1), (System.currentTimeMillis() - start)));
+            log.info(String.format("INDEXED %s objects in %s batch(es) [%s ms.] "
+                    + "backlog=%s lag=%s ms.", perbatch, (count - 1), elapsed,
+                    backlog, lag));
         } else {
             log.debug("No objects indexed");
         }
         return null;
     }
 
+    /**
+     * Records the throughput of this run, and the backlog and the lag in
+     * event time between the newest {@link EventLog} and the last one
+     * processed. Failures are only logged since the indexing itself succeeded.
+     */
+    private void updateMetrics(Session session, int total, long elapsed) {
+        throughput = elapsed > 0 ? total * 1000.0 / elapsed : 0.0;
+        try {
+            long more = loader.more();
+            backlog = more;
+            if (more <= 0) {
+                lag = 0;
+            } else if (lastProcessed != null) {
+                EventLog newest = loader.lastEventLog();
+                Timestamp last = time(session, lastProcessed.getId());
+                Timestamp next = newest == null ? null : time(session, newest
+                        .getId());
+                if (last != null && next != null) {
+                    lag = Math.max(0, next.getTime() - last.getTime());
+                }
+            }
+        } catch (Exception e) {
+            log.debug("Failed to update indexing metrics", e);
+        } finally {
+            lastProcessed = null;
+        }
+    }
+
+    private Timestamp time(Session session, Long eventLogId) {
+        return (Timestamp) session.createQuery(
+                "select el.event.time from EventLog el where el.id = :id")
+                .setParameter("id", eventLogId).uniqueResult();
+    }
+
+    @ManagedAttribute(description = "Event logs waiting to be indexed, or -1 if unknown")
+    public long getBacklog() {
+        return backlog;
+    }
+
+    @ManagedAttribute(description = "Milliseconds between the newest event and the last one indexed, or -1 if unknown")
+    public long getLag() {
+        return lag;
+    }
+
+    @ManagedAttribute(description = "Objects indexed per second in the last run")
+    public double getThroughput() {
+        return throughput;
+    }
+
+    @ManagedAttribute(description = "Objects indexed since startup")
+    public long getIndexedCount() {
+        return indexed.get();
+    }
+
     private int doIndexingWithWorldRead(ServiceFactory sf, FullTextSession session) {
 
         LocalShare share = (LocalShare) sf.getShareService();
@@ -179,48 +283,160 @@ public class FullTextIndexer extends SimpleWork {
 
         int count = 0;
 
+        // Taking the whole batch at once so that the objects can be loaded
+        // with a query per type and their files parsed ahead of indexing.
+        List<EventLog> batch = new ArrayList<EventLog>();
         for (EventLog eventLog : loader) {
             if (eventLog != null) {
-                String act = eventLog.getAction();
-                Class type = asClassOrNull(eventLog.getEntityType());
-                if (type != null) {
-                    long id = eventLog.getEntityId();
-
-                    Action action = null;
-                    if ("DELETE".equals(act)) {
-                        action = new Purge(type, id);
-                    } else if ("REINDEX".equals(act) || "UPDATE".equals(act) || "INSERT".equals(act)) {
-                        IObject obj = get(session, type, id);
-                        if (obj == null) {
-                            log.error(String.format("Null returned! Purging "
-                                    + "since cannot index %s:Id_%s for %s", type
-                                    .getName(), id, eventLog));
-                            action = new Purge(type, id);
-                        } else {
-                            action = new Index(obj);
-                        }
-                    } else {
-                        log.error("Unknown action type: " + act);
-                    }
+                batch.add(eventLog);
+            }
+        }
+        Map<Class, Map<Long, IObject>> loaded = prefetch(session, batch);
+        if (parserPool != null) {
+            parserPool.prefetch(files(loaded));
+        }
+
+        try {
+            for (EventLog eventLog : batch) {
+                lastProcessed = eventLog;
+                if (index(session, eventLog, loaded)) {
+                    count++;
+                }
+            }
+        } finally {
+            if (parserPool != null) {
+                parserPool.clear();
+            }
+        }
+        indexed.addAndGet(count);
+        return count;
+    }
 
-                    if (action != null) {
-                        try {
-                            action.go(session);
-                            count++;
-                        } catch (Exception e) {
-                            String msg = "FullTextIndexer stuck! "
-                                    + "Failed to index EventLog: " + eventLog;
-                            log.error(msg, e);
-                            loader.rollback(eventLog);
-                            throw new InternalException(msg);
+    /**
+     * Purges or indexes the object of a single {@link EventLog}, returning
+     * true if an action was taken.
+     */
+    private boolean index(FullTextSession session, EventLog eventLog,
+            Map<Class, Map<Long, IObject>> loaded) {
+        String act = eventLog.getAction();
+        Class type = asClassOrNull(eventLog.getEntityType());
+        if (type == null) {
+            return false;
+        }
+        long id = eventLog.getEntityId();
+
+        Action action = null;
+        if ("DELETE".equals(act)) {
+            action = new Purge(type, id);
+        } else if (isIndexAction(act)) {
+            IObject obj = loaded.get(type).get(id);
+            if (obj == null) {
+                log.error(String.format("Null returned! Purging "
+                        + "since cannot index %s:Id_%s for %s", type
+                        .getName(), id, eventLog));
+                action = new Purge(type, id);
+            } else {
+                action = new Index(obj);
+            }
+        } else {
+            log.error("Unknown action type: " + act);
+        }
+
+        if (action == null) {
+            return false;
+        }
+        try {
+            action.go(session);
+        } catch (Exception e) {
+            String msg = "FullTextIndexer stuck! "
+                    + "Failed to index EventLog: " + eventLog;
+            log.error(msg, e);
+            loader.rollback(eventLog);
+            throw new InternalException(msg);
+        }
+        action.log(log);
+        return true;
+    }
+
+    private boolean isIndexAction(String act) {
+        return "REINDEX".equals(act) || "UPDATE".equals(act)
+                || "INSERT".equals(act);
+    }
+
+    /**
+     * Loads the objects to be indexed for a batch of {@link EventLog}
+     * instances with one query per type and {@link #PREFETCH_SIZE} ids,
+     * rather than one query per object. Objects not found are missing from
+     * the returned maps.
+     */
+    protected Map<Class, Map<Long, IObject>> prefetch(Session session,
+            List<EventLog> batch) {
+        Map<Class, List<Long>> ids = new HashMap<Class, List<Long>>();
+        Map<Class, Map<Long, IObject>> loaded = new HashMap<Class, Map<Long, IObject>>();
+        for (EventLog eventLog : batch) {
+            if (!isIndexAction(eventLog.getAction())) {
+                continue;
+            }
+            Class type = asClassOrNull(eventLog.getEntityType());
+            if (type == null) {
+                continue;
+            }
+            List<Long> list = ids.get(type);
+            if (list == null) {
+                list = new ArrayList<Long>();
+                ids.put(type, list);
+                loaded.put(type, new HashMap<Long, IObject>());
+            }
+            list.add(eventLog.getEntityId());
+        }
+        for (Map.Entry<Class, List<Long>> entry : ids.entrySet()) {
+            Class type = entry.getKey();
+            List<Long> list = new ArrayList<Long>(new HashSet<Long>(entry
+                    .getValue()));
+            Map<Long, IObject> objects = loaded.get(type);
+            for (int i = 0; i < list.size(); i += PREFETCH_SIZE) {
+                List<Long> chunk = list.subList(i, Math.min(list.size(), i
+                        + PREFETCH_SIZE));
+                for (IObject obj : getAll(session, type, chunk)) {
+                    objects.put(obj.getId(), obj);
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Returns the files which the {@link FullTextBridge} will parse when
+     * indexing the given objects.
+     */
+    protected List<OriginalFile> files(Map<Class, Map<Long, IObject>> loaded) {
+        List<OriginalFile> files = new ArrayList<OriginalFile>();
+        for (Map<Long, IObject> objects : loaded.values()) {
+            for (IObject obj : objects.values()) {
+                if (obj instanceof OriginalFile) {
+                    files.add((OriginalFile) obj);
+                }
+                if (obj instanceof FileAnnotation) {
+                    addFile(files, (FileAnnotation) obj);
+                }
+                if (obj instanceof IAnnotated) {
+                    for (Annotation annotation : ((IAnnotated) obj)
+                            .linkedAnnotationList()) {
+                        if (annotation instanceof FileAnnotation) {
+                            addFile(files, (FileAnnotation) annotation);
                         }
-                        action.log(log);
                     }
                 }
             }
+        }
+        return files;
+    }
 
+    private void addFile(List<OriginalFile> files, FileAnnotation annotation) {
+        OriginalFile file = annotation.getFile();
+        if (file != null) {
+            files.add(file);
         }
-        return count;
     }
 
     /**
@@ -253,6 +469,29 @@ public class FullTextIndexer extends SimpleWork {
     }
 
     protected IObject get(Session session, Class type, long id) {
+        QueryBuilder qb = query(type);
+        qb.where().and("this.id = :id");
+        qb.param("id", id);
+
+        return (IObject) qb.query(session).uniqueResult();
+    }
+
+    /**
+     * Loads several objects of a type as {@link #get(Session, Class, long)}
+     * does, each object possibly being returned several times.
+     */
+    @SuppressWarnings("unchecked")
+    protected List<IObject> getAll(Session session, Class type, List<Long> ids) {
+        QueryBuilder qb = query(type);
+        qb.where().and("this.id in (:ids)");
+        qb.paramList("ids", ids);
+        return qb.query(session).list();
+    }
+
+    /**
+     * Selects objects of a type with their annotations and details fetched.
+     */
+    private QueryBuilder query(Class type) {
         QueryBuilder qb = new QueryBuilder();
         qb.select("this").from(type.getName(), "this");
         if (IAnnotated.class.isAssignableFrom(type)) {
@@ -269,9 +508,6 @@ public class FullTextIndexer extends SimpleWork {
             qb.join("this.details.owner", "owner", false, true);
             qb.join("this.details.group", "group", false, true);
         }
-        qb.where().and("this.id = :id");
-        qb.param("id", id);
-
-        return (IObject) qb.query(session).uniqueResult();
+        return qb;
     }
 }
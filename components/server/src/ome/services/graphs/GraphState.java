@@ -17,6 +17,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 import ome.model.IObject;
 import ome.security.basic.CurrentDetails;
@@ -56,6 +57,13 @@ import org.perf4j.commonslog.CommonsLogStopWatch;
 public class GraphState implements GraphStep.Callback {
 
     private final static Log log = LogFactory.getLog(GraphState.class);
+
+    /**
+     * Default maximum number of steps executed together by
+     * {@link #execute(int, int)}.
+     */
+    public final static int DEFAULT_BATCH_SIZE = 500;
+
     /**
      * List of each individual {@link GraphStep} which this instance will
      * perform.
@@ -85,6 +93,8 @@ public class GraphState implements GraphStep.Callback {
 
     private final SqlAction sql;
 
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
     /**
      * @param ctx
      *            Stored the {@link OmeroContext} instance for raising event
@@ -194,6 +204,14 @@ public class GraphState implements GraphStep.Callback {
         }
     }
 
+    /**
+     * Sets the maximum number of steps returned by {@link #getBatchCount(int)}.
+     * A value of one executes every step on its own.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
     //
     // Found and deleted Ids
     //
@@ -332,6 +350,139 @@ public class GraphState implements GraphStep.Callback {
         }
     }
 
+    /**
+     * Returns the number of steps, starting with step <code>j</code>, which
+     * can be passed to {@link #execute(int, int)}: consecutive steps which
+     * delete rows of the same table for the same {@link GraphEntry} below the
+     * same parent steps. Always at least one.
+     */
+    public int getBatchCount(int j) {
+        final GraphStep first = steps.get(j);
+        if (first == null || first.isFinalization()) {
+            return 1;
+        }
+        int count = 1;
+        while (count < batchSize && j + count < steps.size()) {
+            final GraphStep next = steps.get(j + count);
+            if (next == null || next.isFinalization()
+                    || next.entry != first.entry
+                    || !next.stack.equals(first.stack)) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Executes <code>count</code> steps, as returned by
+     * {@link #getBatchCount(int)}, with a single savepoint and a single
+     * statement per phase. If the batch cannot be deleted as a whole, e.g.
+     * because of a {@link ConstraintViolationException} or of rows which are
+     * already missing, its savepoint is rolled back and every step of the
+     * batch is {@link #execute(int) executed} on its own so that SOFT
+     * requirements are handled as usual.
+     *
+     * @return Any warnings which were noted during execution.
+     * @throws GraphException
+     *             See {@link #execute(int)}.
+     */
+    public String execute(int j, int count) throws GraphException {
+
+        if (count <= 1) {
+            return execute(j);
+        }
+
+        final StringBuilder warnings = new StringBuilder();
+        final List<GraphStep> batch = new ArrayList<GraphStep>(count);
+        for (int i = j; i < j + count; i++) {
+            final GraphStep step = steps.get(i);
+            String msgOrNull = step.start(this);
+            if (msgOrNull != null) {
+                warnings.append(msgOrNull);
+            } else {
+                batch.add(step);
+            }
+        }
+        if (batch.size() == 0) {
+            return warnings.toString(); // EARLY EXIT
+        }
+
+        final GraphStep first = batch.get(0);
+        final List<Long> ids = new ArrayList<Long>(batch.size());
+        for (GraphStep step : batch) {
+            ids.add(step.id);
+        }
+
+        first.push(opts);
+        try {
+
+            for (GraphStep parent : first.stack) {
+                if (!parent.hasSavepoint()) {
+                    parent.savepoint(this);
+                }
+            }
+            add();
+            final String savepoint = "batch"
+                    + UUID.randomUUID().toString().replaceAll("-", "");
+            savepoint(savepoint);
+
+            try {
+
+                // Phase 1: top-levels
+                if (first.stack.size() <= 1) {
+                    StopWatch swTop = new CommonsLogStopWatch();
+                    first.spec.runTopLevel(session, ids);
+                    swTop.stop("omero.delete.top.batch." + ids.size());
+                }
+
+                // Phase 2: NULL
+                optionallyNullFields(session, optionalNullBuilder(first, true), ids);
+
+                // Phase 3: primary delete
+                StopWatch swStep = new CommonsLogStopWatch();
+                final QueryBuilder qb = queryBuilder(first, true);
+                qb.paramList("ids", ids);
+                int deleted = qb.query(session).executeUpdate();
+                swStep.stop("omero.delete." + first.table + ".batch."
+                        + ids.size());
+
+                if (deleted == ids.size()) {
+                    for (GraphStep step : batch) {
+                        addGraphIds(step);
+                    }
+                    release(savepoint, collapse(true));
+                    if (log.isDebugEnabled()) {
+                        log.debug(String.format("Graphd %s ids from %s: " +
+                                "root=%s", deleted, first.pathMsg,
+                                first.entry.getId()));
+                    }
+                    return warnings.toString();
+                }
+
+                // Some rows are missing or not permitted.
+                rollback(savepoint, collapse(false));
+                log.debug(String.format("Batch of %s ids from %s deleted " +
+                        "%s rows. Retrying singly.", ids.size(),
+                        first.pathMsg, deleted));
+
+            } catch (ConstraintViolationException cve) {
+                rollback(savepoint, collapse(false));
+                log.debug(String.format("Batch of %s ids from %s failed " +
+                        "due to %s. Retrying singly.", ids.size(),
+                        first.pathMsg, cve.getConstraintName()));
+            }
+
+        } finally {
+            first.pop(opts);
+        }
+
+        for (GraphStep step : batch) {
+            warnings.append(execute(step.idx));
+        }
+        return warnings.toString();
+    }
+
     private void logResults(final GraphStep step, final int count) {
         if (count > 0) {
             if (log.isDebugEnabled()) {
@@ -415,6 +566,11 @@ public class GraphState implements GraphStep.Callback {
     }
 
     private QueryBuilder optionalNullBuilder(final GraphStep step) {
+        return optionalNullBuilder(step, false);
+    }
+
+    private QueryBuilder optionalNullBuilder(final GraphStep step,
+            boolean batch) {
         QueryBuilder nullOp = null;
         if (step.entry.isNull()) { // WORKAROUND see #2776, #2966
             // If this is a null operation, we don't want to delete the row,
@@ -424,7 +580,7 @@ public class GraphState implements GraphStep.Callback {
             nullOp.update(step.table);
             nullOp.append("set relatedTo = null ");
             nullOp.where();
-            nullOp.and("relatedTo.id = :id");
+            nullOp.and(batch ? "relatedTo.id in (:ids)" : "relatedTo.id = :id");
         }
         return nullOp;
     }
@@ -441,11 +597,32 @@ public class GraphState implements GraphStep.Callback {
         }
     }
 
+    private void optionallyNullFields(Session session,
+            final QueryBuilder nullOp, List<Long> ids) {
+        if (nullOp != null) {
+            nullOp.paramList("ids", ids);
+            Query q = nullOp.query(session);
+            int updated = q.executeUpdate();
+            if (log.isDebugEnabled()) {
+                log.debug("Nulled " + updated + " Pixels.relatedTo fields");
+            }
+        }
+    }
+
     private QueryBuilder queryBuilder(GraphStep step) {
+        return queryBuilder(step, false);
+    }
+
+    /**
+     * @param batch
+     *            If true, the ids to delete are bound as the <code>ids</code>
+     *            parameter list rather than as the single <code>id</code>.
+     */
+    private QueryBuilder queryBuilder(GraphStep step, boolean batch) {
         final QueryBuilder qb = new QueryBuilder();
         qb.delete(step.table);
         qb.where();
-        qb.and("id = :id");
+        qb.and(batch ? "id in (:ids)" : "id = :id");
         if (!opts.isForce()) {
             permissionsClause(step.ec, qb);
         }
@@ -182,6 +182,14 @@ public abstract class GraphStep {
         return savepoint != null;
     }
 
+    /**
+     * Whether this step only finalizes the savepoint of a sub-spec rather
+     * than deleting a row.
+     */
+    public boolean isFinalization() {
+        return ids == null;
+    }
+
     public String start(Callback cb) throws GraphException {
         if (savepoint != null && savepoint.startsWith(INVALIDATED)) {
             log.debug("Skipping closed savepoint: " + savepoint);
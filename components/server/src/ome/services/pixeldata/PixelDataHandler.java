@@ -7,8 +7,21 @@
 
 package ome.services.pixeldata;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import ome.api.IQuery;
-import ome.api.IUpdate;
 import ome.io.nio.PixelsService;
 import ome.model.core.Channel;
 import ome.model.core.Pixels;
@@ -43,6 +56,12 @@ public class PixelDataHandler extends SimpleWork {
 
     protected int reps = 5;
 
+    /** Number of pixels sets whose pyramids are created concurrently. */
+    protected int threads = 1;
+
+    /** Created on first use if more than one thread is configured. */
+    private ExecutorService executor;
+
     /**
      * Spring injector. Sets the number of indexing runs will be made if there
      * is a substantial backlog.
@@ -52,6 +71,16 @@ public class PixelDataHandler extends SimpleWork {
         ;
     }
 
+    /**
+     * Spring injector. Sets the number of pixels sets handled by a single
+     * call to {@link #doWork(Session, ServiceFactory)}, each of which has its
+     * pyramid created in its own thread. Must be called before the first
+     * call.
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
     public PixelDataHandler(PersistentEventLogLoader ll, PixelsService pixelsService) {
         super("PixelDataHandler", "process");
         this.loader = ll;
@@ -70,7 +99,8 @@ public class PixelDataHandler extends SimpleWork {
     }
 
     /**
-     * Handles only single elements from the {@link PersistentEventLogLoader}
+     * Handles at most {@link #setThreads(int) threads} elements from the
+     * {@link PersistentEventLogLoader}, creating their pyramids concurrently,
      * in order to keep transactions short and safe.
      *
      * @see ticket:5814
@@ -84,11 +114,19 @@ public class PixelDataHandler extends SimpleWork {
         }
 
         long start = System.currentTimeMillis();
-        EventLog eventLog = loader.next();
-        process(eventLog.getEntityId(), sf, session);
+        // The loader may return the same pixels set more than once. Two
+        // concurrent creations of one pyramid would fail on its lock.
+        final Set<Long> ids = new LinkedHashSet<Long>();
+        int count = 0;
+        while (count < threads && loader.hasNext()) {
+            EventLog eventLog = loader.next();
+            ids.add(eventLog.getEntityId());
+            count++;
+        }
+        process(new ArrayList<Long>(ids), sf, session);
 
         log.info(String.format("HANDLED %s object(s) in %s batch(es) [%s ms.]",
-                1, 1, (System.currentTimeMillis() - start)));
+                count, 1, (System.currentTimeMillis() - start)));
 
         return null;
     }
@@ -104,44 +142,120 @@ public class PixelDataHandler extends SimpleWork {
      * @return
      */
     public boolean process(Long id, ServiceFactory sf, Session s) {
+        return process(Collections.singletonList(id), sf, s) == 1;
+    }
+
+    /**
+     * Creates the pyramids of several pixels sets concurrently. Pixels sets
+     * are loaded, their files resolved and their {@link StatsInfo} saved in
+     * the calling thread as neither the {@link Session}, the
+     * {@link ServiceFactory} nor the {@link SqlAction} may be used by other
+     * threads.
+     *
+     * @param ids Pixels set ids.
+     * @param sf
+     * @param s
+     * @return The number of pixels sets whose min/max values were saved.
+     */
+    public int process(List<Long> ids, ServiceFactory sf, Session s) {
 
         final IQuery iQuery = sf.getQueryService();
-        final IUpdate iUpdate = sf.getUpdateService();
-        final Pixels pixels = iQuery.findByQuery(
-                "select p from Pixels as p " +
-                "left outer join fetch p.channels ch " + // For statsinfo
-                "join fetch p.pixelsType where p.id = :id ",
-                new Parameters().addId(id));
-
-        if (pixels == null) {
-            log.error("No valid pixels found with id=" + id);
-            return false;
+        final List<Pixels> pixelsList = new ArrayList<Pixels>();
+        final List<Future<StatsInfo[]>> futures =
+            new ArrayList<Future<StatsInfo[]>>();
+
+        for (Long id : ids) {
+            final Pixels pixels = iQuery.findByQuery(
+                    "select p from Pixels as p " +
+                    "left outer join fetch p.channels ch " + // For statsinfo
+                    "join fetch p.pixelsType where p.id = :id ",
+                    new Parameters().addId(id));
+
+            if (pixels == null) {
+                log.error("No valid pixels found with id=" + id);
+                continue;
+            }
+
+            // Paths are resolved here; the creation only touches files.
+            final Callable<StatsInfo[]> creation;
+            try {
+                creation = pixelsService.preparePyramid(pixels);
+            } catch (Exception e) {
+                log.error("Failed to resolve pixels " + id, e);
+                continue;
+            }
+            pixelsList.add(pixels);
+            futures.add(submit(creation));
         }
 
-        try
-        {
-            StatsInfo[] statsInfo = pixelsService.makePyramid(pixels);
-            if(statsInfo == null) {
-                // Either exists or failed to be created, but that's
-                // the PixelsService's business. It should throw an exception
-                // if it wants us to more concretely handle any issues.
-                log.debug("No min/max values for pixels " + id);
-                return false;
+        int handled = 0;
+        for (int i = 0; i < pixelsList.size(); i++) {
+            final Pixels pixels = pixelsList.get(i);
+            final Long id = pixels.getId();
+            try
+            {
+                StatsInfo[] statsInfo = get(futures.get(i));
+                if(statsInfo == null) {
+                    // Either exists or failed to be created, but that's
+                    // the PixelsService's business. It should throw an exception
+                    // if it wants us to more concretely handle any issues.
+                    log.debug("No min/max values for pixels " + id);
+                    continue;
+                }
+
+                for(int c=0;c<statsInfo.length;c++) {
+                    final StatsInfo si = statsInfo[c];
+                    final Channel ch = pixels.getChannel(c);
+                    long siId = getSqlAction().setStatsInfo(ch, si);
+                    log.info(String.format("Added StatsInfo:%s for %s - C:%s Max:%s Min:%s",
+                            siId, ch, c, si.getGlobalMax(), si.getGlobalMin()));
+                }
+                handled++;
+            } catch (Exception t) {
+                log.error("Failed to handle pixels " + id, t);
             }
+        }
 
-            for(int c=0;c<statsInfo.length;c++) {
-                final StatsInfo si = statsInfo[c];
-                final Channel ch = pixels.getChannel(c);
-                long siId = getSqlAction().setStatsInfo(ch, si);
-                log.info(String.format("Added StatsInfo:%s for %s - C:%s Max:%s Min:%s",
-                        siId, ch, c, si.getGlobalMax(), si.getGlobalMin()));
+        return handled;
+    }
+
+    /**
+     * Runs a pyramid creation in the calling thread if only one pixels set
+     * is handled at a time, otherwise on the {@link #executor}.
+     */
+    private Future<StatsInfo[]> submit(Callable<StatsInfo[]> task) {
+        if (threads <= 1) {
+            FutureTask<StatsInfo[]> future = new FutureTask<StatsInfo[]>(task);
+            future.run();
+            return future;
+        }
+        synchronized (this) {
+            if (executor == null) {
+                executor = Executors.newFixedThreadPool(threads,
+                        new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r,
+                                "PixelDataHandler-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
             }
-        } catch (Exception t) {
-            log.error("Failed to handle pixels " + id, t);
-            return false;
         }
+        return executor.submit(task);
+    }
 
-        return true;
+    private StatsInfo[] get(Future<StatsInfo[]> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
     }
 
 }
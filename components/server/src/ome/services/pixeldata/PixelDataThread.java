@@ -11,6 +11,8 @@ import java.sql.Timestamp;
 import java.util.Date;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import ome.conditions.InternalException;
 import ome.io.messages.MissingPyramidMessage;
@@ -60,6 +62,8 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
      */
     private final boolean performProcessing;
 
+    private final Lock running = new ReentrantLock();
+
     /**
      * Uses default {@link Principal} for processing
      */
@@ -92,7 +96,17 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
     @Override
     public void doRun() {
         if (performProcessing) {
-            this.executor.execute(getPrincipal(), work);
+            // Runs may also be triggered by the EventLogNotifier alongside
+            // the scheduled ones; skip rather than process concurrently.
+            if (!running.tryLock()) {
+                log.info("Currently running; skipping");
+                return;
+            }
+            try {
+                this.executor.execute(getPrincipal(), work);
+            } finally {
+                running.unlock();
+            }
         }
     }
 
@@ -9,7 +9,20 @@ package ome.services.projection;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -53,6 +66,19 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
     /** Reference to the service used to retrieve the pixels data. */
     protected transient PixelsService pixelsService;
     
+    /** Number of stacks projected concurrently by projectPixels(). */
+    protected int threads =
+        Runtime.getRuntime().availableProcessors();
+    
+    /**
+     * Memory, in bytes, of the working arrays of the stack projections of a
+     * single call, shared between its concurrent projections.
+     */
+    protected long maxMemory = StackProjector.DEFAULT_MAX_MEMORY;
+    
+    /** Created on first use if more than one thread is configured. */
+    private transient ExecutorService executor;
+    
     /**
      * Returns the interface this implementation is for.
      * @see AbstractLevel2Service#getServiceInterface()
@@ -82,6 +108,28 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         this.pixelsService = pixelsService;
     }
     
+    /**
+     * Sets the number of stacks projected concurrently by
+     * {@link #projectPixels}. Values less than one use the number of
+     * available processors. For use during configuration.
+     */
+    public void setThreads(int threads)
+    {
+        this.threads = threads < 1?
+                Runtime.getRuntime().availableProcessors() : threads;
+    }
+    
+    /**
+     * Sets the memory, in bytes, of the working arrays of the stack
+     * projections of a single call. It is divided between the stacks
+     * projected concurrently and bounds the number of rows each reads at
+     * once. For use during configuration.
+     */
+    public void setMaxMemory(long maxMemory)
+    {
+        this.maxMemory = maxMemory;
+    }
+    
     /* (non-Javadoc)
      * @see ome.api.IProjection#projectStack(long, ome.model.enums.PixelsType, int, int, int, int, int, int)
      */
@@ -90,53 +138,28 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
                                int algorithm, int timepoint, int channelIndex, 
                                int stepping, int start, int end)
     {
-        ProjectionContext ctx = new ProjectionContext();
-        ctx.pixels = iQuery.get(Pixels.class, pixelsId);
-        PixelBuffer pixelBuffer = pixelsService.getPixelBuffer(
-                ctx.pixels, false);
+        Pixels pixels = iQuery.get(Pixels.class, pixelsId);
+        PixelBuffer pixelBuffer = pixelsService.getPixelBuffer(pixels, false);
         try
         {
 
             if (pixelsType == null)
             {
-                pixelsType = ctx.pixels.getPixelsType();
+                pixelsType = pixels.getPixelsType();
             }
             else
             {
                 pixelsType = iQuery.get(PixelsType.class, pixelsType.getId());
             }
 
-            ctx.planeSizeInPixels = 
-                ctx.pixels.getSizeX() * ctx.pixels.getSizeY();
+            int planeSizeInPixels = pixels.getSizeX() * pixels.getSizeY();
             int planeSize = 
-                ctx.planeSizeInPixels * (iPixels.getBitDepth(pixelsType) / 8);
+                planeSizeInPixels * (iPixels.getBitDepth(pixelsType) / 8);
             byte[] buf = new byte[planeSize];
-            ctx.from = pixelBuffer.getStack(channelIndex, timepoint);
-            ctx.to = new PixelData(pixelsType.getValue(), ByteBuffer.wrap(buf));
-
-            switch (algorithm)
-            {
-                case IProjection.MAXIMUM_INTENSITY:
-                {
-                    projectStackMax(ctx, stepping, start, end, false);
-                    break;
-                }
-                case IProjection.MEAN_INTENSITY:
-                {
-                    projectStackMean(ctx, stepping, start, end, false);
-                    break;
-                }
-                case IProjection.SUM_INTENSITY:
-                {
-                    projectStackSum(ctx, stepping, start, end, false);
-                    break;
-                }
-                default:
-                {
-                    throw new IllegalArgumentException(
-                            "Unknown algorithm: " + algorithm);
-                }
-            }
+            PixelData to =
+                new PixelData(pixelsType.getValue(), ByteBuffer.wrap(buf));
+            new StackProjector(pixelBuffer, algorithm, stepping, start, end,
+                    maxMemory).project(channelIndex, timepoint, to);
             return buf;
         }
         catch (IOException e)
@@ -151,7 +174,7 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         {
             String error = String.format(
                     "C=%d or T=%d out of range for Pixels Id %d: %s",
-                    channelIndex, timepoint, ctx.pixels.getId(), e.getMessage());
+                    channelIndex, timepoint, pixels.getId(), e.getMessage());
             log.error(error, e);
             throw new ValidationException(error);
         }
@@ -180,10 +203,10 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
                               List<Integer> channels, int stepping,
                               int zStart, int zEnd, String name)
     {
+        StackProjector.validate(algorithm, stepping);
         // First, copy and resize our image with sizeZ = 1.
-        ProjectionContext ctx = new ProjectionContext();
-        ctx.pixels = iQuery.get(Pixels.class, pixelsId);
-        Image image = ctx.pixels.getImage();
+        Pixels pixels = iQuery.get(Pixels.class, pixelsId);
+        Image image = pixels.getImage();
         name = name == null? image.getName() + " Projection" : name;
         //size of the new buffer.
         Integer sizeT = tEnd-tStart+1;
@@ -197,91 +220,69 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         Pixels newPixels = newImage.getPixels(0);
         if (pixelsType == null)
         {
-            pixelsType = ctx.pixels.getPixelsType();
+            pixelsType = pixels.getPixelsType();
         }
         else
         {
             pixelsType = iQuery.get(PixelsType.class, pixelsType.getId());
         }
         newPixels.setPixelsType(pixelsType);
-        
+        int planeSize = pixels.getSizeX() * pixels.getSizeY()
+            * (iPixels.getBitDepth(pixelsType) / 8);
+
         // Project each stack for each channel and each timepoint in the
         // entire image, copying into the pixel buffer the projected pixels.
-        PixelBuffer sourceBuffer = pixelsService.getPixelBuffer(
-                ctx.pixels, false);
+        // Stacks are projected concurrently, each by a worker with its own
+        // source buffer, while the projected planes are written in order.
+        int stackCount = tEnd >= tStart?
+                channels.size() * (tEnd - tStart + 1) : 0;
+        int workers = Math.max(1, Math.min(threads, stackCount));
+        List<PixelBuffer> sources = new ArrayList<PixelBuffer>();
+        BlockingQueue<PixelBuffer> idle =
+            new LinkedBlockingQueue<PixelBuffer>();
+        LinkedList<Future<Projection>> pending =
+            new LinkedList<Future<Projection>>();
+        double[] minimum = new double[channels.size()];
+        double[] maximum = new double[channels.size()];
+        Arrays.fill(minimum, Double.MAX_VALUE);
+        Arrays.fill(maximum, Double.MIN_VALUE);
         try {
+            for (int i = 0; i < workers; i++)
+            {
+                PixelBuffer sourceBuffer =
+                    pixelsService.getPixelBuffer(pixels, false);
+                sources.add(sourceBuffer);
+                idle.add(sourceBuffer);
+            }
             PixelBuffer destinationBuffer = pixelsService.getPixelBuffer(
                     newPixels, true);
             try
             {
-                ctx.planeSizeInPixels = ctx.pixels.getSizeX() * ctx.pixels.getSizeY();
-                int planeSize =
-                    ctx.planeSizeInPixels * (iPixels.getBitDepth(pixelsType) / 8);
-                byte[] buf = new byte[planeSize];
-                ctx.to = new PixelData(pixelsType.getValue(), ByteBuffer.wrap(buf));
+                // At most two stacks per worker are being projected or
+                // waiting to be written at any one time.
+                int window = workers * 2;
                 int newC = 0;
                 for (Integer c : channels)
                 {
-                    ctx.minimum = Double.MAX_VALUE;
-                    ctx.maximum = Double.MIN_VALUE;
                     for (int t = tStart; t <= tEnd; t++)
                     {
-                        try
+                        pending.add(submit(new Projection(idle, pixels.getId(),
+                                pixelsType.getValue(), planeSize, algorithm,
+                                stepping, zStart, zEnd, c, t, newC,
+                                maxMemory / workers)));
+                        if (pending.size() >= window)
                         {
-                            ctx.from = sourceBuffer.getStack(c, t);
-                            switch (algorithm)
-                            {
-                                case IProjection.MAXIMUM_INTENSITY:
-                                {
-                                    projectStackMax(ctx, stepping, zStart, zEnd, true);
-                                    break;
-                                }
-                                case IProjection.MEAN_INTENSITY:
-                                {
-                                    projectStackMean(ctx, stepping, zStart, zEnd, true);
-                                    break;
-                                }
-                                case IProjection.SUM_INTENSITY:
-                                {
-                                    projectStackSum(ctx, stepping, zStart, zEnd, true);
-                                    break;
-                                }
-                                default:
-                                {
-                                    throw new IllegalArgumentException(
-                                            "Unknown algorithm: " + algorithm);
-                                }
-                            }
-                            destinationBuffer.setPlane(buf, 0, newC, t);
-                        }
-                        catch (IOException e)
-                        {
-                            String error = String.format(
-                                    "I/O error retrieving stack C=%d T=%d: %s",
-                                    c, t, e.getMessage());
-                            log.error(error, e);
-                            throw new ResourceError(error);
-                        }
-                        catch (DimensionsOutOfBoundsException e)
-                        {
-                            String error = String.format(
-                                    "C=%d or T=%d out of range for Pixels Id %d: %s",
-                                    c, t, ctx.pixels.getId(), e.getMessage());
-                            log.error(error, e);
-                            throw new ValidationException(error);
+                            write(pending.removeFirst(), destinationBuffer,
+                                  minimum, maximum);
                         }
                     }
-                    // Handle the change of minimum and maximum for this channel.
-                    Channel channel = newPixels.getChannel(newC);
-                    StatsInfo si = new StatsInfo();
-                    si.setGlobalMin(ctx.minimum);
-                    si.setGlobalMax(ctx.maximum);
-                    channel.setStatsInfo(si);
-                    // Set our methodology
-                    newPixels.setMethodology(
-                            IProjection.METHODOLOGY_STRINGS[algorithm]);
                     newC++;
                 }
+                while (!pending.isEmpty())
+                {
+                    write(pending.removeFirst(), destinationBuffer,
+                          minimum, maximum);
+                }
             }
             finally
             {
@@ -297,192 +298,230 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
                 }
             }
         } finally {
-            try
+            // Stop projecting and wait for the workers to release their
+            // source buffers before closing them.
+            for (Future<Projection> future : pending)
             {
-                sourceBuffer.close();
+                future.cancel(false);
             }
-            catch (IOException e)
+            for (int i = 0; i < sources.size(); i++)
             {
-                log.error("Buffer did not close successfully: " + sourceBuffer, e);
-                throw new ResourceError(
-                        e.getMessage() + " Please check server log.");
+                try
+                {
+                    idle.take();
+                }
+                catch (InterruptedException e)
+                {
+                    log.warn("Interrupted waiting for projections.");
+                    break;
+                }
+            }
+            for (PixelBuffer sourceBuffer : sources)
+            {
+                try
+                {
+                    sourceBuffer.close();
+                }
+                catch (IOException e)
+                {
+                    log.error("Buffer did not close successfully: " + sourceBuffer, e);
+                    throw new ResourceError(
+                            e.getMessage() + " Please check server log.");
+                }
             }
         }
+        for (int newC = 0; newC < channels.size(); newC++)
+        {
+            // Handle the change of minimum and maximum for this channel.
+            Channel channel = newPixels.getChannel(newC);
+            StatsInfo si = new StatsInfo();
+            si.setGlobalMin(minimum[newC]);
+            si.setGlobalMax(maximum[newC]);
+            channel.setStatsInfo(si);
+            // Set our methodology
+            newPixels.setMethodology(
+                    IProjection.METHODOLOGY_STRINGS[algorithm]);
+        }
         newImage = iUpdate.saveAndReturnObject(newImage);
         return newImage.getId();
     }
-    
+
     /**
-     * Projects a stack based on the maximum intensity at each XY coordinate.
-     * @param ctx The context of our projection.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
+     * Runs a stack projection in the calling thread if only one thread is
+     * configured, otherwise on the {@link #executor}.
      */
-    private void projectStackMax(ProjectionContext ctx, int stepping,
-                                 int start, int end, boolean doMinMax)
+    private Future<Projection> submit(Projection projection)
     {
-        int currentPlaneStart;
-        double projectedValue, stackValue;
-        double minimum = ctx.minimum;
-        double maximum = ctx.maximum;
-        for (int i = 0; i < ctx.planeSizeInPixels; i++)
+        if (threads <= 1)
         {
-            projectedValue = 0;
-            for (int z = start; z <= end; z += stepping)
-            {
-                currentPlaneStart = ctx.planeSizeInPixels * z;
-                stackValue = ctx.from.getPixelValue(currentPlaneStart + i);
-                if (stackValue > projectedValue)
-                {
-                    projectedValue = stackValue;
-                }
-            }
-            ctx.to.setPixelValue(i, projectedValue);
-            if (doMinMax)
+            FutureTask<Projection> future =
+                new FutureTask<Projection>(projection);
+            future.run();
+            return future;
+        }
+        synchronized (this)
+        {
+            if (executor == null)
             {
-                minimum = projectedValue < minimum? projectedValue : minimum;
-                maximum = projectedValue > maximum? projectedValue : maximum;
+                executor = Executors.newFixedThreadPool(threads,
+                        new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r,
+                                "ProjectionWorker-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
             }
         }
-        ctx.minimum = minimum;
-        ctx.maximum = maximum;
-    }
-    
-    /**
-     * Projects a stack based on the mean intensity at each XY coordinate.
-     * @param from The raw pixel data from the stack to project from.
-     * @param ctx The context of our projection.
-     * source Pixels set pixels type will be used.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
-     */
-    private void projectStackMean(ProjectionContext ctx, int stepping, 
-                                  int start, int end, boolean doMinMax)
-    {
-        projectStackMeanOrSum(ctx, stepping, start, end, true, doMinMax);
+        return executor.submit(projection);
     }
-    
+
     /**
-     * Projects a stack based on the sum intensity at each XY coordinate.
-     * @param ctx The context of our projection.
-     * @param pixelsType The destination Pixels type. If <code>null</code>, the
-     * source Pixels set pixels type will be used.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
+     * Writes a projected stack to the destination buffer and merges its
+     * minimum and maximum into those of its channel.
      */
-    private void projectStackSum(ProjectionContext ctx, int stepping, 
-                                 int start, int end, boolean doMinMax)
+    private void write(Future<Projection> future,
+                       PixelBuffer destinationBuffer,
+                       double[] minimum, double[] maximum)
     {
-        projectStackMeanOrSum(ctx, stepping, start, end, false, doMinMax);
+        Projection p;
+        try
+        {
+            p = future.get();
+        }
+        catch (InterruptedException e)
+        {
+            throw new ResourceError("Interrupted while projecting.");
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+        try
+        {
+            destinationBuffer.setPlane(p.buf, 0, p.newC, p.t);
+        }
+        catch (IOException e)
+        {
+            String error = String.format(
+                    "I/O error retrieving stack C=%d T=%d: %s",
+                    p.c, p.t, e.getMessage());
+            log.error(error, e);
+            throw new ResourceError(error);
+        }
+        catch (DimensionsOutOfBoundsException e)
+        {
+            String error = String.format(
+                    "C=%d or T=%d out of range for Pixels Id %d: %s",
+                    p.c, p.t, p.pixelsId, e.getMessage());
+            log.error(error, e);
+            throw new ValidationException(error);
+        }
+        minimum[p.newC] = Math.min(minimum[p.newC], p.minimum);
+        maximum[p.newC] = Math.max(maximum[p.newC], p.maximum);
     }
-    
+
     /**
-     * Projects a stack based on the sum intensity at each XY coordinate with
-     * the option to also average the sum intensity.
-     * @param ctx The context of our projection.
-     * @param pixelsType The destination Pixels type. If <code>null</code>, the
-     * source Pixels set pixels type will be used.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param mean Whether or not we're performing an average post sum
-     * intensity projection.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
+     * Projects a single stack with one of a set of idle source buffers.
      */
-    private void projectStackMeanOrSum(ProjectionContext ctx, int stepping,
-                                       int start, int end, 
-                                       boolean mean, boolean doMinMax)
+    private class Projection implements Callable<Projection>
     {
-        double planeMaximum = ctx.to.getMaximum();
+        /** Idle source buffers; one is used for the projection. */
+        private final BlockingQueue<PixelBuffer> sources;
+
+        private final long pixelsId;
+
+        private final String pixelsType;
+
+        private final int planeSize;
+
+        private final int algorithm;
+
+        private final int stepping;
+
+        private final int zStart;
+
+        private final int zEnd;
+
+        private final int c;
+
+        private final int t;
 
-        int currentPlaneStart;
-        double projectedValue, stackValue;
-        double minimum = ctx.minimum;
-        double maximum = ctx.maximum;
-        for (int i = 0; i < ctx.planeSizeInPixels; i++)
+        /** Index of the channel in the projected Pixels set. */
+        private final int newC;
+
+        /** This projection's share of the working memory. */
+        private final long maxBytes;
+
+        /** The projected plane. */
+        private byte[] buf;
+
+        /** Minimum of the projected plane. */
+        private double minimum;
+
+        /** Maximum of the projected plane. */
+        private double maximum;
+
+        Projection(BlockingQueue<PixelBuffer> sources, long pixelsId,
+                   String pixelsType, int planeSize, int algorithm,
+                   int stepping, int zStart, int zEnd, int c, int t, int newC,
+                   long maxBytes)
+        {
+            this.sources = sources;
+            this.pixelsId = pixelsId;
+            this.pixelsType = pixelsType;
+            this.planeSize = planeSize;
+            this.algorithm = algorithm;
+            this.stepping = stepping;
+            this.zStart = zStart;
+            this.zEnd = zEnd;
+            this.c = c;
+            this.t = t;
+            this.newC = newC;
+            this.maxBytes = maxBytes;
+        }
+
+        public Projection call() throws InterruptedException
         {
-            projectedValue = 0;
-            int projectedPlaneCount = 0;
-            for (int z = start; z < end; z += stepping)
+            PixelBuffer source = sources.take();
+            try
             {
-                currentPlaneStart = ctx.planeSizeInPixels * z;
-                stackValue = ctx.from.getPixelValue(currentPlaneStart + i);
-                projectedValue += stackValue;
-                projectedPlaneCount++;
+                buf = new byte[planeSize];
+                PixelData to = new PixelData(pixelsType, ByteBuffer.wrap(buf));
+                StackProjector projector = new StackProjector(source,
+                        algorithm, stepping, zStart, zEnd, maxBytes);
+                projector.project(c, t, to);
+                minimum = projector.getMinimum();
+                maximum = projector.getMaximum();
+                return this;
             }
-            if (mean)
+            catch (IOException e)
             {
-                projectedValue = projectedValue / projectedPlaneCount;
+                String error = String.format(
+                        "I/O error retrieving stack C=%d T=%d: %s",
+                        c, t, e.getMessage());
+                log.error(error, e);
+                throw new ResourceError(error);
             }
-            if (projectedValue > planeMaximum)
+            catch (DimensionsOutOfBoundsException e)
             {
-                projectedValue = planeMaximum;
+                String error = String.format(
+                        "C=%d or T=%d out of range for Pixels Id %d: %s",
+                        c, t, pixelsId, e.getMessage());
+                log.error(error, e);
+                throw new ValidationException(error);
             }
-            ctx.to.setPixelValue(i, projectedValue);
-            if (doMinMax)
+            finally
             {
-                minimum = projectedValue < minimum? projectedValue : minimum;
-                maximum = projectedValue > maximum? projectedValue : maximum;
+                sources.add(source);
             }
         }
-        ctx.minimum = minimum;
-        ctx.maximum = maximum;
-    }
-    
-    /**
-     * Stores the context of a projection operation.
-     * 
-     * Class is static to prevent any instances from holding onto
-     * {@link ProjectionBean} instances.
-     *
-     * @author Chris Allan &nbsp;&nbsp;&nbsp;&nbsp; <a
-     *         href="mailto:callan@blackcat.ca">callan@blackcat.ca</a>
-     * @since OMERO-Beta3.1
-     */
-    private static class ProjectionContext
-    {
-        /** The Pixels set we're currently working on. */
-        public Pixels pixels;
-        
-        /** Count of the number of pixels per plane for <code>pixels</code>. */
-        public int planeSizeInPixels;
-        
-        /** Current minimum for the projected pixel data. */
-        public double minimum = Double.MAX_VALUE;
-        
-        /** Current maximum for the projected pixel data. */
-        public double maximum = Double.MIN_VALUE;
-        
-        /** The raw pixel data from the stack to project from. */
-        public PixelData from;
-        
-        /** The raw pixel data buffer to project into. */
-        public PixelData to;
     }
 }
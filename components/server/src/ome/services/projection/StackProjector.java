@@ -0,0 +1,387 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.projection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import ome.api.IProjection;
+import ome.io.nio.DimensionsOutOfBoundsException;
+import ome.io.nio.PixelBuffer;
+import ome.util.PixelData;
+
+/**
+ * Projects the optical sections of a single stack without loading the
+ * stack. The plane is processed in bands of full rows: each selected
+ * optical section of a band is read in turn and accumulated into primitive
+ * arrays, so that the working arrays take at most {@link #getMaxBytes()}
+ * bytes whatever the number of optical sections; only a single row, which
+ * the median needs for every optical section, may exceed it.
+ *
+ * Every algorithm projects the sections from <code>start</code> to
+ * <code>end</code>, both included.
+ *
+ * Instances are not thread-safe but distinct instances reading from
+ * distinct {@link PixelBuffer}s may be used concurrently.
+ *
+ * @since Beta4.3.2
+ * @see ProjectionBean
+ */
+class StackProjector
+{
+    /**
+     * Default memory, in bytes, of the working arrays of all the stack
+     * projections of a single call (64MB).
+     */
+    static final long DEFAULT_MAX_MEMORY = 64L * 1024 * 1024;
+
+    /** The buffer to read the stack from. */
+    private final PixelBuffer from;
+
+    /** One of the {@link IProjection} algorithms. */
+    private final int algorithm;
+
+    /** The optical sections to project. */
+    private final int[] sections;
+
+    private final long maxBytes;
+
+    private final int sizeX;
+
+    private final int sizeY;
+
+    /** Minimum of the projected pixel data. */
+    private double minimum = Double.MAX_VALUE;
+
+    /** Maximum of the projected pixel data. */
+    private double maximum = Double.MIN_VALUE;
+
+    /**
+     * Creates a new instance.
+     * @param from The buffer to read the stack from.
+     * @param algorithm One of the {@link IProjection} algorithms.
+     * @param stepping Stepping value to use while calculating the
+     * projection.
+     * @param start Optical section to start projecting from.
+     * @param end Optical section to finish projecting.
+     * @param maxBytes Maximum size in bytes of the working arrays.
+     */
+    StackProjector(PixelBuffer from, int algorithm, int stepping,
+                   int start, int end, long maxBytes)
+    {
+        validate(algorithm, stepping);
+        sections = sections(start, end + 1, stepping);
+        this.from = from;
+        this.algorithm = algorithm;
+        this.maxBytes = Math.max(1, maxBytes);
+        this.sizeX = from.getSizeX();
+        this.sizeY = from.getSizeY();
+    }
+
+    /**
+     * Checks the arguments of a projection.
+     * @param algorithm One of the {@link IProjection} algorithms.
+     * @param stepping Stepping value to use while calculating the
+     * projection.
+     * @throws IllegalArgumentException If either is invalid.
+     */
+    static void validate(int algorithm, int stepping)
+    {
+        if (algorithm < IProjection.MAXIMUM_INTENSITY
+            || algorithm > IProjection.STANDARD_DEVIATION)
+        {
+            throw new IllegalArgumentException(
+                    "Unknown algorithm: " + algorithm);
+        }
+        if (stepping < 1)
+        {
+            throw new IllegalArgumentException(
+                    "Stepping must be positive: " + stepping);
+        }
+    }
+
+    private static int[] sections(int start, int endExclusive, int stepping)
+    {
+        int count = 0;
+        for (int z = start; z < endExclusive; z += stepping)
+        {
+            count++;
+        }
+        int[] sections = new int[count];
+        for (int i = 0; i < count; i++)
+        {
+            sections[i] = start + i * stepping;
+        }
+        return sections;
+    }
+
+    long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    /** Returns the minimum of all the planes projected so far. */
+    double getMinimum()
+    {
+        return minimum;
+    }
+
+    /** Returns the maximum of all the planes projected so far. */
+    double getMaximum()
+    {
+        return maximum;
+    }
+
+    /**
+     * Projects a stack into a plane.
+     * @param c The channel of the stack.
+     * @param t The timepoint of the stack.
+     * @param to The plane to project into.
+     * @throws IOException If there is a problem reading the stack.
+     * @throws DimensionsOutOfBoundsException If a section, <code>c</code> or
+     * <code>t</code> is out of range.
+     */
+    void project(int c, int t, PixelData to)
+        throws IOException, DimensionsOutOfBoundsException
+    {
+        // Doubles held per pixel of a band, counting the band read, no
+        // wider than a double, and the median's values of every section.
+        boolean median = algorithm == IProjection.MEDIAN_INTENSITY;
+        boolean std = algorithm == IProjection.STANDARD_DEVIATION;
+        long perPixel = 1 + (median? sections.length : std? 3 : 2);
+        int rows = (int) Math.max(1,
+                Math.min(sizeY, maxBytes / (8 * perPixel * sizeX)));
+        int bandSize = rows * sizeX;
+        double planeMaximum = to.getMaximum();
+        double[] values = median? null : new double[bandSize];
+        double[] acc = median? null : new double[bandSize];
+        double[] acc2 = std? new double[bandSize] : null;
+        double[][] stack = median?
+                new double[sections.length][bandSize] : null;
+        double[] column = median? new double[sections.length] : null;
+
+        for (int y = 0; y < sizeY; y += rows)
+        {
+            int h = Math.min(rows, sizeY - y);
+            int n = h * sizeX;
+            if (acc != null)
+            {
+                Arrays.fill(acc, 0, n, 0.0);
+            }
+            if (acc2 != null)
+            {
+                Arrays.fill(acc2, 0, n, 0.0);
+            }
+            for (int k = 0; k < sections.length; k++)
+            {
+                PixelData band = from.getTile(sections[k], c, t, 0, y, sizeX, h);
+                double[] dest = stack != null? stack[k] : values;
+                read(band, dest, n);
+                accumulate(dest, n, k + 1, acc, acc2);
+            }
+
+            int offset = y * sizeX;
+            double minimum = this.minimum;
+            double maximum = this.maximum;
+            for (int i = 0; i < n; i++)
+            {
+                double projectedValue;
+                switch (algorithm)
+                {
+                    case IProjection.MEAN_INTENSITY:
+                        projectedValue = acc[i] / sections.length;
+                        break;
+                    case IProjection.MEDIAN_INTENSITY:
+                        projectedValue = median(stack, i, column);
+                        break;
+                    case IProjection.STANDARD_DEVIATION:
+                        projectedValue = sections.length == 0? 0 :
+                            Math.sqrt(acc2[i] / sections.length);
+                        break;
+                    default:
+                        projectedValue = acc[i];
+                }
+                if (algorithm != IProjection.MAXIMUM_INTENSITY
+                    && projectedValue > planeMaximum)
+                {
+                    projectedValue = planeMaximum;
+                }
+                to.setPixelValue(offset + i, projectedValue);
+                minimum = projectedValue < minimum? projectedValue : minimum;
+                maximum = projectedValue > maximum? projectedValue : maximum;
+            }
+            this.minimum = minimum;
+            this.maximum = maximum;
+        }
+    }
+
+    /**
+     * Adds the values of one more optical section to the accumulators.
+     * @param values The values of the section.
+     * @param n The number of values.
+     * @param count The number of sections added so far, this one included.
+     * @param acc Maximum, sum or running mean.
+     * @param acc2 Running sum of the squared differences from the mean.
+     */
+    private void accumulate(double[] values, int n, int count,
+                            double[] acc, double[] acc2)
+    {
+        switch (algorithm)
+        {
+            case IProjection.MAXIMUM_INTENSITY:
+                // Projected values have always started from zero.
+                for (int i = 0; i < n; i++)
+                {
+                    if (values[i] > acc[i])
+                    {
+                        acc[i] = values[i];
+                    }
+                }
+                break;
+            case IProjection.MEAN_INTENSITY:
+            case IProjection.SUM_INTENSITY:
+                for (int i = 0; i < n; i++)
+                {
+                    acc[i] += values[i];
+                }
+                break;
+            case IProjection.STANDARD_DEVIATION:
+                // Welford's algorithm
+                for (int i = 0; i < n; i++)
+                {
+                    double delta = values[i] - acc[i];
+                    acc[i] += delta / count;
+                    acc2[i] += delta * (values[i] - acc[i]);
+                }
+                break;
+            default:
+                // The median is computed once all sections are read.
+        }
+    }
+
+    private static double median(double[][] stack, int i, double[] column)
+    {
+        int count = column.length;
+        if (count == 0)
+        {
+            return 0;
+        }
+        for (int k = 0; k < count; k++)
+        {
+            column[k] = stack[k][i];
+        }
+        Arrays.sort(column);
+        int middle = count / 2;
+        if (count % 2 == 1)
+        {
+            return column[middle];
+        }
+        return (column[middle - 1] + column[middle]) / 2;
+    }
+
+    /**
+     * Converts the first <code>n</code> pixels of some pixel data to
+     * <code>double</code>s, dispatching on the pixels type once rather than
+     * once per pixel.
+     * @param data The pixel data to read.
+     * @param values The array to fill.
+     * @param n The number of pixels to read.
+     */
+    static void read(PixelData data, double[] values, int n)
+    {
+        ByteBuffer buf = data.getData().duplicate();
+        buf.order(data.getOrder());
+        buf.position(0);
+        boolean signed = data.isSigned();
+        switch (data.javaType())
+        {
+            case PixelData.BYTE:
+                if (signed)
+                {
+                    for (int i = 0; i < n; i++)
+                    {
+                        values[i] = buf.get(i);
+                    }
+                }
+                else
+                {
+                    for (int i = 0; i < n; i++)
+                    {
+                        values[i] = buf.get(i) & 0xFF;
+                    }
+                }
+                break;
+            case PixelData.SHORT:
+            {
+                ShortBuffer shorts = buf.asShortBuffer();
+                if (signed)
+                {
+                    for (int i = 0; i < n; i++)
+                    {
+                        values[i] = shorts.get(i);
+                    }
+                }
+                else
+                {
+                    for (int i = 0; i < n; i++)
+                    {
+                        values[i] = shorts.get(i) & 0xFFFF;
+                    }
+                }
+                break;
+            }
+            case PixelData.INT:
+            {
+                IntBuffer ints = buf.asIntBuffer();
+                if (signed)
+                {
+                    for (int i = 0; i < n; i++)
+                    {
+                        values[i] = ints.get(i);
+                    }
+                }
+                else
+                {
+                    for (int i = 0; i < n; i++)
+                    {
+                        values[i] = ints.get(i) & 0xFFFFFFFFL;
+                    }
+                }
+                break;
+            }
+            case PixelData.FLOAT:
+            {
+                FloatBuffer floats = buf.asFloatBuffer();
+                for (int i = 0; i < n; i++)
+                {
+                    values[i] = floats.get(i);
+                }
+                break;
+            }
+            case PixelData.DOUBLE:
+            {
+                DoubleBuffer doubles = buf.asDoubleBuffer();
+                for (int i = 0; i < n; i++)
+                {
+                    values[i] = doubles.get(i);
+                }
+                break;
+            }
+            default:
+                for (int i = 0; i < n; i++)
+                {
+                    values[i] = data.getPixelValue(i);
+                }
+        }
+    }
+}
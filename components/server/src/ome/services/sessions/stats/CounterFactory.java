@@ -28,6 +28,14 @@ public class CounterFactory implements ApplicationEventPublisherAware {
 
     protected int methodHardLimit = Integer.MAX_VALUE;
 
+    /**
+     * Totals of all the stats created by this factory, which never publish.
+     */
+    private final SimpleSessionStats global = new SimpleSessionStats(
+            new ObjectsReadCounter(Integer.MAX_VALUE),
+            new ObjectsWrittenCounter(Integer.MAX_VALUE),
+            new MethodCounter(Integer.MAX_VALUE));
+
     public void setApplicationEventPublisher(
             ApplicationEventPublisher applicationEventPublisher) {
         this.publisher = applicationEventPublisher;
@@ -53,7 +61,14 @@ public class CounterFactory implements ApplicationEventPublisherAware {
         written.setApplicationEventPublisher(publisher);
         MethodCounter methods = new MethodCounter(methodHardLimit);
         methods.setApplicationEventPublisher(publisher);
-        return new SimpleSessionStats(read, written, methods);
+        return new SimpleSessionStats(read, written, methods, global);
+    }
+
+    /**
+     * Returns the totals of all the stats created by this factory.
+     */
+    public StatsSnapshot snapshot() {
+        return global.snapshot();
     }
 
 }
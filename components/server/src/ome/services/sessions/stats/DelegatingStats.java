@@ -83,4 +83,13 @@ public class DelegatingStats implements SessionStats {
         }
     }
 
+    public StatsSnapshot snapshot() {
+        StatsSnapshot snapshot = null;
+        for (SessionStats stats : stats()) {
+            StatsSnapshot next = stats.snapshot();
+            snapshot = snapshot == null ? next : snapshot.max(next);
+        }
+        return snapshot == null ? StatsSnapshot.EMPTY : snapshot;
+    }
+
 }
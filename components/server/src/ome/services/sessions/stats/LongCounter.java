@@ -6,6 +6,8 @@
  */
 package ome.services.sessions.stats;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.BeansException;
@@ -22,6 +24,12 @@ import ome.util.messages.InternalMessage;
  * Counter object which increments an internal long by some integer value,
  * and according to some strategy publishes an {@link InternalMessage} subclass.
  * 
+ * The long is a {@link StripedLong} so that concurrent increments do not
+ * contend. The sum is only computed when the cell of the incrementing
+ * thread crosses a fraction of the interval, and the message is published
+ * outside of any lock by the single thread which moves the threshold.
+ * Messages may therefore be published up to one interval late.
+ * 
  * @author Josh Moore, josh at glencoesoftware.com
  * @since Beta4
  */
@@ -33,14 +41,17 @@ public abstract class LongCounter implements ApplicationEventPublisherAware {
     
     private int interval = 0;
     
-    private long last = 0;
-    
-    private final Object mutex = new Object();
+    /** Increments of a cell between two checks of the sum. */
+    private final long check;
+
+    /** Sum at which the last message was published. */
+    private final AtomicLong last = new AtomicLong(0);
     
-    protected long count = 0;
+    private final StripedLong count = new StripedLong();
     
     public LongCounter(int interval) {
         this.interval = interval;
+        this.check = Math.max(1, interval / StripedLong.stripes());
     }
 
     public void setApplicationEventPublisher(
@@ -49,21 +60,32 @@ public abstract class LongCounter implements ApplicationEventPublisherAware {
     }
 
     public void increment(int incr) {
-        synchronized (mutex) {
-            count = count + incr;
-            if (count >= (last+interval)) {
-                last = count;
-                InternalMessage message = message();
-                try {
-                    log.info("Publishing "+ message);
-                    publisher.publishEvent(message);
-                } catch (Throwable t) {
-                    log.error(message + " produced an error: "+t);
-                }
+        long cell = count.add(incr);
+        if (publisher == null || incr <= 0
+                || (cell - incr) / check == cell / check) {
+            return;
+        }
+        long previous = last.get();
+        long current = count.sum();
+        if (current >= (previous + interval)
+                && last.compareAndSet(previous, current)) {
+            InternalMessage message = message();
+            try {
+                log.info("Publishing "+ message);
+                publisher.publishEvent(message);
+            } catch (Throwable t) {
+                log.error(message + " produced an error: "+t);
             }
         }
     }
  
+    /**
+     * Returns the current value of the counter.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
     /**
      * 
      * @return
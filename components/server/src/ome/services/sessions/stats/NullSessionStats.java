@@ -45,4 +45,8 @@ public class NullSessionStats implements SessionStats {
         // nothing
     }
 
+    public StatsSnapshot snapshot() {
+        return StatsSnapshot.EMPTY;
+    }
+
 }
@@ -23,7 +23,7 @@ public class ObjectsReadCounter extends LongCounter {
     }
 
     protected InternalMessage message() {
-        return new ObjectsReadStatsMessage(this, count);
+        return new ObjectsReadStatsMessage(this, getCount());
     }
 
 
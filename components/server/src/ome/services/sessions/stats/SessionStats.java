@@ -27,4 +27,10 @@ public interface SessionStats {
     void loadedObjects(int objects);
 
     void updatedObjects(int objects);
+
+    /**
+     * Returns the current values of the counters without publishing any
+     * message.
+     */
+    StatsSnapshot snapshot();
 }
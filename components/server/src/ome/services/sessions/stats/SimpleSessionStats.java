@@ -6,10 +6,6 @@
  */
 package ome.services.sessions.stats;
 
-import ome.util.messages.InternalMessage;
-
-
-
 /**
  * 
  * 
@@ -21,27 +17,50 @@ public class SimpleSessionStats implements SessionStats {
     private final ObjectsReadCounter read;
     private final ObjectsWrittenCounter written;
     private final MethodCounter methods;
+    private final StripedLong calls = new StripedLong();
+    private final long start = System.currentTimeMillis();
+
+    /**
+     * Totals of all the stats created by the same factory, if any.
+     */
+    private final SimpleSessionStats global;
     
     public SimpleSessionStats(ObjectsReadCounter read, ObjectsWrittenCounter written, MethodCounter methods) {
+        this(read, written, methods, null);
+    }
+
+    public SimpleSessionStats(ObjectsReadCounter read, ObjectsWrittenCounter written, MethodCounter methods,
+            SimpleSessionStats global) {
         this.read = read;
         this.written = written;
         this.methods = methods;
+        this.global = global;
     }
 
     public void methodIn() {
         this.methods.increment(1);
+        this.calls.add(1);
+        if (global != null) {
+            global.methodIn();
+        }
     }
 
     public long methodCount() {
-        return this.methods.count;
+        return this.methods.getCount();
     }
 
     public void methodOut() {
         this.methods.increment(-1);
+        if (global != null) {
+            global.methodOut();
+        }
     }
 
     public void loadedObjects(int objects) {
         this.read.increment(objects);
+        if (global != null) {
+            global.loadedObjects(objects);
+        }
     }
 
     public void readBytes(int bytes) {
@@ -50,10 +69,22 @@ public class SimpleSessionStats implements SessionStats {
 
     public void updatedObjects(int objects) {
         this.written.increment(objects);
+        if (global != null) {
+            global.updatedObjects(objects);
+        }
     }
 
     public void writtenBytes(int bytes) {
         throw new UnsupportedOperationException();   
     }
 
+    public StatsSnapshot snapshot() {
+        return new StatsSnapshot(start, System.currentTimeMillis(),
+                count(read), count(written), count(methods), calls.sum());
+    }
+
+    private static long count(LongCounter counter) {
+        return counter == null ? 0 : counter.getCount();
+    }
+
 }
@@ -0,0 +1,123 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.sessions.stats;
+
+/**
+ * Immutable view of the counters of a {@link SessionStats} at some point in
+ * time, for polling by monitoring code without any
+ * {@link ome.services.messages.stats.AbstractStatsMessage} being published.
+ * Rates are per second over the period covered by the snapshot, which is
+ * the lifetime of the counters unless narrowed with
+ * {@link #since(StatsSnapshot)}.
+ *
+ * @since Beta4.3.2
+ */
+public class StatsSnapshot {
+
+    /** Snapshot of counters which never count anything. */
+    public final static StatsSnapshot EMPTY = new StatsSnapshot(0, 0, 0, 0,
+            0, 0);
+
+    private final long start;
+
+    private final long time;
+
+    private final long objectsRead;
+
+    private final long objectsWritten;
+
+    private final long methodsActive;
+
+    private final long methodCalls;
+
+    public StatsSnapshot(long start, long time, long objectsRead,
+            long objectsWritten, long methodsActive, long methodCalls) {
+        this.start = start;
+        this.time = time;
+        this.objectsRead = objectsRead;
+        this.objectsWritten = objectsWritten;
+        this.methodsActive = methodsActive;
+        this.methodCalls = methodCalls;
+    }
+
+    /** Milliseconds since the epoch at which counting started. */
+    public long getStart() {
+        return start;
+    }
+
+    /** Milliseconds since the epoch at which the snapshot was taken. */
+    public long getTime() {
+        return time;
+    }
+
+    public long getObjectsRead() {
+        return objectsRead;
+    }
+
+    public long getObjectsWritten() {
+        return objectsWritten;
+    }
+
+    /** Number of methods in flight when the snapshot was taken. */
+    public long getMethodsActive() {
+        return methodsActive;
+    }
+
+    /** Number of methods entered. */
+    public long getMethodCalls() {
+        return methodCalls;
+    }
+
+    public double getReadRate() {
+        return rate(objectsRead);
+    }
+
+    public double getWriteRate() {
+        return rate(objectsWritten);
+    }
+
+    public double getMethodRate() {
+        return rate(methodCalls);
+    }
+
+    /**
+     * Returns the counts between an earlier snapshot of the same counters
+     * and this one, the methods in flight being those of this one.
+     */
+    public StatsSnapshot since(StatsSnapshot earlier) {
+        return new StatsSnapshot(earlier.time, time,
+                objectsRead - earlier.objectsRead,
+                objectsWritten - earlier.objectsWritten, methodsActive,
+                methodCalls - earlier.methodCalls);
+    }
+
+    /**
+     * Returns the greatest of each count of two snapshots of counters
+     * counting the same events, as {@link DelegatingStats#methodCount()}.
+     */
+    public StatsSnapshot max(StatsSnapshot other) {
+        return new StatsSnapshot(Math.min(start, other.start),
+                Math.max(time, other.time),
+                Math.max(objectsRead, other.objectsRead),
+                Math.max(objectsWritten, other.objectsWritten),
+                Math.max(methodsActive, other.methodsActive),
+                Math.max(methodCalls, other.methodCalls));
+    }
+
+    private double rate(long count) {
+        long elapsed = time - start;
+        return elapsed <= 0 ? 0 : count * 1000.0 / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StatsSnapshot(read=%d, written=%d, " +
+                "active=%d, calls=%d, ms=%d)", objectsRead, objectsWritten,
+                methodsActive, methodCalls, time - start);
+    }
+
+}
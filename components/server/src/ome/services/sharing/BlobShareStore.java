@@ -15,6 +15,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -82,6 +83,35 @@ public class BlobShareStore extends ShareStore implements
 
     protected OmeroContext ctx;
 
+    /** Default number of shares whose index is kept. */
+    public final static int DEFAULT_CACHE_SIZE = 1000;
+
+    /** Number of ids bound to a single query when loading an index. */
+    private final static int BATCH_SIZE = 1000;
+
+    /**
+     * Decoded shares by id, least recently used first. Entries are dropped
+     * by {@link #doSet(Share, ShareData, List)} and ignored once the
+     * version of the share in the database differs.
+     */
+    private final Map<Long, ShareIndex> indexes =
+        new LinkedHashMap<Long, ShareIndex>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Long, ShareIndex> eldest) {
+                return size() > cacheSize;
+            }
+        };
+
+    private volatile int cacheSize = DEFAULT_CACHE_SIZE;
+
+    /**
+     * Sets the number of shares whose decoded index is kept in memory.
+     */
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
     /**
      * Because there is a cyclical dependency SF->ACLVoter->BlobStore->SF we
      * have to lazy-load the session factory via the context.
@@ -136,6 +166,9 @@ public class BlobShareStore extends ShareStore implements
         share.setVersion((int) newOptLock);
         session.merge(share);
         synchronizeMembers(session, data);
+        synchronized (indexes) {
+            indexes.remove(data.id);
+        }
     }
 
     @Override
@@ -190,72 +223,126 @@ public class BlobShareStore extends ShareStore implements
         }
     }
 
-    boolean imagesContainsPixels(Session s, List<Long> images, Pixels pix, Map<Long, Long> cache) {
-        Long pixID = pix.getId();
-        return imagesContainsPixels(s, images, pixID, cache);
+    /**
+     * Returns the decoded index of a share, re-reading the share only if it
+     * has changed since it was last indexed, or null if there is no such
+     * share.
+     */
+    ShareIndex index(Session s, long shareId) {
+        Object[] row = (Object[]) s.createQuery(
+                "select id, version from Share where id = :id")
+                .setParameter("id", shareId).uniqueResult();
+        if (row == null) {
+            return null;
+        }
+        long version = row[1] == null ? -1L : ((Number) row[1]).longValue();
+        ShareIndex index;
+        synchronized (indexes) {
+            index = indexes.get(shareId);
+        }
+        if (index != null && index.getVersion() == version) {
+            return index;
+        }
+        ShareData data = get(shareId);
+        if (data == null) {
+            return null;
+        }
+        index = new ShareIndex(data, version);
+        synchronized (indexes) {
+            indexes.put(shareId, index);
+        }
+        return index;
     }
 
-    boolean imagesContainsPixels(Session s, List<Long> images, long pixID, Map<Long, Long> cache) {
-        Long imgID;
-        if (cache.containsKey(pixID)) {
-            imgID = cache.get(pixID);
-        } else {
-            imgID = (Long) s.createQuery(
-                "select image.id from Pixels where id = ?")
-                .setParameter(0, pixID).uniqueResult();
-            cache.put(pixID, imgID);
+    /**
+     * Loads the ids of the pixels of all the images of the share at once,
+     * rather than querying for the image of each pixels checked.
+     */
+    LongHashSet sharedPixels(Session s, ShareIndex index) {
+        LongHashSet pixels = index.getPixels();
+        if (pixels == null) {
+            pixels = loadByImages(s, "select p.id from Pixels p "
+                    + "where p.image.id in (:ids)", index.getImages());
+            index.setPixels(pixels);
         }
-        return images.contains(imgID);
-    }
-    
-    boolean imagesContainsInstrument(Session s, List<Long> images, Instrument instr, Map<Long, Long> cache) {
-        Long instrID = instr.getId();
-        return imagesContainsInstrument(s, images, instrID, cache);
+        return pixels;
     }
-    
-    boolean imagesContainsInstrument(Session s, List<Long> images, long instrID, Map<Long, Long> cache) {
-        Long imgID;
-        if (cache.containsKey(instrID)) {
-            imgID = cache.get(instrID);
-        } else {
-            imgID = (Long) s.createQuery(
-                "select id from Image where instrument.id = ?")
-                .setParameter(0, instrID).uniqueResult();
-            cache.put(instrID, imgID);
+
+    LongHashSet sharedInstruments(Session s, ShareIndex index) {
+        LongHashSet instruments = index.getInstruments();
+        if (instruments == null) {
+            instruments = loadByImages(s, "select i.instrument.id from Image i "
+                    + "where i.id in (:ids) and i.instrument is not null",
+                    index.getImages());
+            index.setInstruments(instruments);
         }
-        return images.contains(imgID);
+        return instruments;
     }
 
-    boolean imagesContainsObjectiveSettings(Session s, List<Long> images, ObjectiveSettings os, Map<Long, Long> cache) {
-        Long osID = os.getId();
-        return imagesContainsObjectiveSettings(s, images, osID, cache);
+    LongHashSet sharedObjectiveSettings(Session s, ShareIndex index) {
+        LongHashSet settings = index.getObjectiveSettings();
+        if (settings == null) {
+            settings = loadByImages(s, "select i.objectiveSettings.id "
+                    + "from Image i where i.id in (:ids) "
+                    + "and i.objectiveSettings is not null",
+                    index.getImages());
+            index.setObjectiveSettings(settings);
+        }
+        return settings;
     }
-    
-    boolean imagesContainsObjectiveSettings(Session s, List<Long> images, long osID, Map<Long, Long> cache) {
-        Long imgID;
-        if (cache.containsKey(osID)) {
-            imgID = cache.get(osID);
-        } else {
-            imgID = (Long) s.createQuery(
-                "select id from Image where objectivesettings.id = ?")
-                .setParameter(0, osID).uniqueResult();
-            cache.put(osID, imgID);
+
+    /**
+     * Runs a query returning ids for batches of image ids.
+     */
+    @SuppressWarnings("unchecked")
+    private LongHashSet loadByImages(Session s, String hql, LongHashSet images) {
+        long[] ids = images.toArray();
+        LongHashSet rv = new LongHashSet(ids.length);
+        for (int i = 0; i < ids.length; i += BATCH_SIZE) {
+            int end = Math.min(ids.length, i + BATCH_SIZE);
+            List<Long> batch = new ArrayList<Long>(end - i);
+            for (int j = i; j < end; j++) {
+                batch.add(ids[j]);
+            }
+            List<Long> found = s.createQuery(hql)
+                    .setParameterList("ids", batch).list();
+            for (Long id : found) {
+                rv.add(id);
+            }
         }
-        return images.contains(imgID);
+        return rv;
+    }
+
+    boolean imagesContainsPixels(Session s, ShareIndex index, Pixels pix) {
+        return imagesContainsPixels(s, index, pix.getId());
+    }
+
+    boolean imagesContainsPixels(Session s, ShareIndex index, long pixID) {
+        return sharedPixels(s, index).contains(pixID);
     }
-    
+
+    boolean imagesContainsInstrument(Session s, ShareIndex index,
+            Instrument instr) {
+        return instr != null
+                && sharedInstruments(s, index).contains(instr.getId());
+    }
+
+    boolean imagesContainsObjectiveSettings(Session s, ShareIndex index,
+            ObjectiveSettings os) {
+        return os != null
+                && sharedObjectiveSettings(s, index).contains(os.getId());
+    }
+
     @Override
     public <T extends IObject> boolean doContains(long sessionId, Class<T> kls,
             long objId) {
 
-        ShareData data = get(sessionId);
-        if (data == null) {
+        Session s = session();
+        ShareIndex index = index(s, sessionId);
+        if (index == null) {
             return false;
-        } else {
-            List<Long> ids = data.objectMap.get(kls.getName());
-            if (ids != null && ids.contains(objId)) {
-                return true;
-            }
+        } else if (index.contains(kls.getName(), objId)) {
+            return true;
         }
 
         // ticket:2249 - Implementing logic similar to the query
@@ -277,36 +364,34 @@ public class BlobShareStore extends ShareStore implements
             + "left outer join fetch r.quantization "
         */
 
-        List<Long> images = data.objectMap.get(Image.class.getName());
-        Map<Long, Long> pixToImageCache = new HashMap<Long, Long>();
-        Session s = session();
         if (Pixels.class.isAssignableFrom(kls)) {
-            return imagesContainsPixels(s, images, objId, pixToImageCache);
+            return imagesContainsPixels(s, index, objId);
         } else if (RenderingDef.class.isAssignableFrom(kls)) {
             RenderingDef obj = (RenderingDef) s.get(RenderingDef.class, objId);
-            return imagesContainsPixels(s, images, obj.getPixels(), pixToImageCache);
+            return imagesContainsPixels(s, index, obj.getPixels());
         } else if (ChannelBinding.class.isAssignableFrom(kls)) {
             ChannelBinding obj = (ChannelBinding) s.get(ChannelBinding.class, objId);
-            return imagesContainsPixels(s, images, obj.getRenderingDef().getPixels(), pixToImageCache);
+            return imagesContainsPixels(s, index, obj.getRenderingDef().getPixels());
         } else if (Thumbnail.class.isAssignableFrom(kls)) {
             Thumbnail obj = (Thumbnail) s.get(Thumbnail.class, objId);
-            return imagesContainsPixels(s, images, obj.getPixels(), pixToImageCache);
+            return imagesContainsPixels(s, index, obj.getPixels());
         } else if (Channel.class.isAssignableFrom(kls)) {
             Channel obj = (Channel) s.get(Channel.class, objId);
-            return imagesContainsPixels(s, images, obj.getPixels(), pixToImageCache);
+            return imagesContainsPixels(s, index, obj.getPixels());
         } else if (LogicalChannel.class.isAssignableFrom(kls)) {
             LogicalChannel obj = (LogicalChannel) s.get(LogicalChannel.class,
                     objId);
+            LongHashSet pixels = sharedPixels(s, index);
             Iterator<Channel> it = obj.iterateChannels();
             while (it.hasNext()) {
                 Channel ch = it.next();
-                if (images.contains(ch.getPixels().getImage().getId())) {
+                if (pixels.contains(ch.getPixels().getId())) {
                     return true;
                 }
             }
         } else if (PlaneInfo.class.isAssignableFrom(kls)) {
             PlaneInfo obj = (PlaneInfo) s.get(PlaneInfo.class, objId);
-            return imagesContainsPixels(s, images, obj.getPixels(), pixToImageCache);
+            return imagesContainsPixels(s, index, obj.getPixels());
         } else if (StatsInfo.class.isAssignableFrom(kls)
                 || QuantumDef.class.isAssignableFrom(kls) 
                 || LightPath.class.isAssignableFrom(kls) 
@@ -316,37 +401,34 @@ public class BlobShareStore extends ShareStore implements
             // user load them if they really want to.
             return true;
         }
-        
-        Map<Long, Long> obToImageCache = new HashMap<Long, Long>();
+
         if (Objective.class.isAssignableFrom(kls)) {
         	Objective obj = (Objective) s.get(Objective.class, objId);
-            return imagesContainsInstrument(s, images, obj.getInstrument(), obToImageCache);
+            return imagesContainsInstrument(s, index, obj.getInstrument());
         } else if (Detector.class.isAssignableFrom(kls)) {
         	Detector obj = (Detector) s.get(Detector.class, objId);
-            return imagesContainsInstrument(s, images, obj.getInstrument(), obToImageCache);
+            return imagesContainsInstrument(s, index, obj.getInstrument());
         } else if (Dichroic.class.isAssignableFrom(kls)) {
         	Dichroic obj = (Dichroic) s.get(Dichroic.class, objId);
-            return imagesContainsInstrument(s, images, obj.getInstrument(), obToImageCache);
+            return imagesContainsInstrument(s, index, obj.getInstrument());
         } else if (FilterSet.class.isAssignableFrom(kls)) {
         	FilterSet obj = (FilterSet) s.get(FilterSet.class, objId);
-            return imagesContainsInstrument(s, images, obj.getInstrument(), obToImageCache);
+            return imagesContainsInstrument(s, index, obj.getInstrument());
         } else if (Filter.class.isAssignableFrom(kls)) {
         	Filter obj = (Filter) s.get(Filter.class, objId);
-            return imagesContainsInstrument(s, images, obj.getInstrument(), obToImageCache);
+            return imagesContainsInstrument(s, index, obj.getInstrument());
         } else if (LightSource.class.isAssignableFrom(kls)) {
         	LightSource obj = (LightSource) s.get(LightSource.class, objId);
-        	return imagesContainsInstrument(s, images, obj.getInstrument(), obToImageCache);
+        	return imagesContainsInstrument(s, index, obj.getInstrument());
         } else if (Laser.class.isAssignableFrom(kls)) {
         	Laser obj = (Laser) s.get(Laser.class, objId);
-        	return imagesContainsInstrument(s, images, obj.getInstrument(), obToImageCache);
+        	return imagesContainsInstrument(s, index, obj.getInstrument());
         } else if (LightSettings.class.isAssignableFrom(kls)) {
         	LightSettings obj = (LightSettings) s.get(LightSettings.class, objId);
-        	return imagesContainsInstrument(s, images, obj.getLightSource().getInstrument(), 
-        			obToImageCache);
+        	return imagesContainsInstrument(s, index, obj.getLightSource().getInstrument());
         } else if (DetectorSettings.class.isAssignableFrom(kls)) {
         	DetectorSettings obj = (DetectorSettings) s.get(DetectorSettings.class, objId);
-        	return imagesContainsInstrument(s, images, obj.getDetector().getInstrument(), 
-        			obToImageCache);
+        	return imagesContainsInstrument(s, index, obj.getDetector().getInstrument());
         }
         
         return false;
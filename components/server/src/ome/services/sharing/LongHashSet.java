@@ -0,0 +1,129 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.sharing;
+
+import java.util.Collection;
+
+/**
+ * Open-addressing set of primitive longs, so that looking up an id neither
+ * boxes it nor walks a list. Not thread-safe while being filled; safe for
+ * concurrent lookups once published.
+ *
+ * @since Beta4.3.2
+ */
+public class LongHashSet {
+
+    /** Marks a free slot; zero itself is tracked by {@link #hasZero}. */
+    private final static long FREE = 0L;
+
+    private long[] table;
+
+    private int size;
+
+    private boolean hasZero;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        table = new long[capacity];
+    }
+
+    public LongHashSet(Collection<Long> values) {
+        this(values == null ? 0 : values.size());
+        if (values != null) {
+            for (Long value : values) {
+                if (value != null) {
+                    add(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a value, returning true if it was not already present.
+     */
+    public boolean add(long value) {
+        if (value == FREE) {
+            boolean added = !hasZero;
+            hasZero = true;
+            return added;
+        }
+        int i = slot(table, value);
+        if (table[i] == value) {
+            return false;
+        }
+        table[i] = value;
+        if (++size * 2 > table.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == FREE) {
+            return hasZero;
+        }
+        return table[slot(table, value)] == value;
+    }
+
+    public int size() {
+        return size + (hasZero ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the values in no particular order.
+     */
+    public long[] toArray() {
+        long[] values = new long[size()];
+        int j = 0;
+        if (hasZero) {
+            values[j++] = FREE;
+        }
+        for (long value : table) {
+            if (value != FREE) {
+                values[j++] = value;
+            }
+        }
+        return values;
+    }
+
+    private void rehash() {
+        long[] old = table;
+        table = new long[old.length * 2];
+        for (long value : old) {
+            if (value != FREE) {
+                table[slot(table, value)] = value;
+            }
+        }
+    }
+
+    /**
+     * Returns the slot holding the value or the free slot where it belongs,
+     * the table never being more than half full.
+     */
+    private static int slot(long[] table, long value) {
+        int mask = table.length - 1;
+        long h = value * 0x9E3779B97F4A7C15L;
+        int i = (int) (h ^ (h >>> 32)) & mask;
+        while (table[i] != FREE && table[i] != value) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+}
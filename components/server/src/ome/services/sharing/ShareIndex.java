@@ -0,0 +1,117 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.sharing;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ome.model.core.Image;
+import ome.services.sharing.data.ShareData;
+
+/**
+ * Decoded view of a single version of a share for access checks, holding
+ * the ids of each shared class in a {@link LongHashSet}. The ids of the
+ * pixels, instruments and objective settings of the shared images are
+ * filled in on first use by {@link BlobShareStore}, which drops the index
+ * whenever the share changes.
+ *
+ * @since Beta4.3.2
+ * @see BlobShareStore#doContains(long, Class, long)
+ */
+public class ShareIndex {
+
+    private final static LongHashSet EMPTY = new LongHashSet(0);
+
+    private final long id;
+
+    private final long version;
+
+    private final Map<String, LongHashSet> objects;
+
+    private volatile LongHashSet pixels;
+
+    private volatile LongHashSet instruments;
+
+    private volatile LongHashSet objectiveSettings;
+
+    /**
+     * @param data The decoded share.
+     * @param version The version of the share row the data was read from.
+     */
+    public ShareIndex(ShareData data, long version) {
+        this.id = data.id;
+        this.version = version;
+        Map<String, List<Long>> map = data.objectMap;
+        if (map == null) {
+            map = Collections.emptyMap();
+        }
+        Map<String, LongHashSet> objects = new HashMap<String, LongHashSet>();
+        for (Map.Entry<String, List<Long>> entry : map.entrySet()) {
+            objects.put(entry.getKey(), new LongHashSet(entry.getValue()));
+        }
+        this.objects = objects;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * The version of the share indexed, bumped with the optimistic lock of
+     * the {@link ShareData} on each update.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns whether an object is explicitly part of the share.
+     */
+    public boolean contains(String type, long objId) {
+        return get(type).contains(objId);
+    }
+
+    public LongHashSet getImages() {
+        return get(Image.class.getName());
+    }
+
+    /** Pixels of the shared images, or null if not loaded yet. */
+    public LongHashSet getPixels() {
+        return pixels;
+    }
+
+    public void setPixels(LongHashSet pixels) {
+        this.pixels = pixels;
+    }
+
+    /** Instruments of the shared images, or null if not loaded yet. */
+    public LongHashSet getInstruments() {
+        return instruments;
+    }
+
+    public void setInstruments(LongHashSet instruments) {
+        this.instruments = instruments;
+    }
+
+    /** Objective settings of the shared images, or null if not loaded yet. */
+    public LongHashSet getObjectiveSettings() {
+        return objectiveSettings;
+    }
+
+    public void setObjectiveSettings(LongHashSet objectiveSettings) {
+        this.objectiveSettings = objectiveSettings;
+    }
+
+    private LongHashSet get(String type) {
+        LongHashSet set = objects.get(type);
+        return set == null ? EMPTY : set;
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ome.model.meta.EventLog;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * In-memory channel through which {@link ome.security.basic.EventHandler}
+ * signals that {@link EventLog} rows have been committed, so that
+ * {@link ExecutionThread} instances processing event logs in the same
+ * process, such as the indexer and the pixel data thread, run at once
+ * rather than on their next scheduled run. The rows themselves are still
+ * written in the transaction which created them and loaded from the
+ * database by the listeners, so a lost signal only delays processing until
+ * the next scheduled run.
+ *
+ * Signals are coalesced: however many transactions commit while the
+ * listeners run, they are run at most once more afterwards. The listeners
+ * are run by a single daemon thread, started on the first signal and
+ * stopped by {@link #stop()}. Disabled unless
+ * {@link #setEnabled(boolean) enabled}.
+ *
+ * @since Beta4.3.2
+ */
+public class EventLogNotifier {
+
+    private final static Log log = LogFactory.getLog(EventLogNotifier.class);
+
+    private final List<ExecutionThread> listeners =
+        new CopyOnWriteArrayList<ExecutionThread>();
+
+    /**
+     * Set when logs were committed since the listeners last started. Guarded
+     * by this instance, like {@link #dispatcher} and {@link #stopped}.
+     */
+    private boolean pending;
+
+    /** Runs the listeners, created on the first signal. */
+    private Thread dispatcher;
+
+    private boolean stopped;
+
+    private final AtomicLong signals = new AtomicLong();
+
+    private volatile boolean enabled = false;
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Registers a thread to be run whenever event logs are committed.
+     */
+    public void addListener(ExecutionThread listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ExecutionThread listener) {
+        listeners.remove(listener);
+    }
+
+    /** Number of commits signalled since creation. */
+    public long getSignalCount() {
+        return signals.get();
+    }
+
+    /**
+     * Signals the listeners once the current transaction commits, or not at
+     * all if it rolls back. Without an active transaction synchronization,
+     * there is no telling when the logs become visible so nothing is
+     * signalled.
+     */
+    public void afterCommit() {
+        if (!enabled || listeners.isEmpty()
+                || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager
+                .registerSynchronization(new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCommit() {
+                        signal();
+                    }
+                });
+    }
+
+    /**
+     * Signals the listeners that event logs have been committed.
+     */
+    public void signal() {
+        if (!enabled) {
+            return;
+        }
+        signals.incrementAndGet();
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            pending = true;
+            if (dispatcher == null) {
+                dispatcher = new Thread(new Runnable() {
+                    public void run() {
+                        dispatch();
+                    }
+                }, "EventLogNotifier");
+                dispatcher.setDaemon(true);
+                dispatcher.start();
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Stops the dispatcher thread once the listeners it may be running
+     * return. Later signals are ignored. Called by the container on shutdown.
+     */
+    public void stop() {
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+    }
+
+    private void dispatch() {
+        while (true) {
+            synchronized (this) {
+                while (!pending && !stopped) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        log.info("EventLogNotifier interrupted, stopping.");
+                        return;
+                    }
+                }
+                if (stopped) {
+                    return;
+                }
+                pending = false;
+            }
+            for (ExecutionThread listener : listeners) {
+                try {
+                    listener.run();
+                } catch (Throwable t) {
+                    log.warn("Error running " + listener, t);
+                }
+            }
+        }
+    }
+
+}
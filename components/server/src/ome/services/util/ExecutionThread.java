@@ -62,6 +62,14 @@ public abstract class ExecutionThread implements Runnable {
         return sessionPrincipal;
     }
 
+    /**
+     * Has this thread also run whenever event logs are committed in this
+     * process, if the notifier is enabled.
+     */
+    public void setEventLogNotifier(EventLogNotifier notifier) {
+        notifier.addListener(this);
+    }
+
     /**
      */
     public abstract void doRun();
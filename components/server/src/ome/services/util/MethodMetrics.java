@@ -0,0 +1,222 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.util;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedOperationParameters;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * In-process registry of the latency, errors and concurrency of service
+ * methods keyed by implementation class and method, filled in by
+ * {@link ServiceHandler} and exported through JMX. Latencies are recorded
+ * in microseconds.
+ *
+ * @since Beta4.3.2
+ */
+@ManagedResource(objectName = "omero:type=MethodMetrics",
+        description = "Latency, errors and concurrency of service methods")
+public class MethodMetrics {
+
+    /**
+     * Metrics of a single method.
+     */
+    public static class Entry {
+
+        private final String name;
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private final AtomicLong errors = new AtomicLong();
+
+        private final AtomicInteger active = new AtomicInteger();
+
+        private final AtomicInteger maxActive = new AtomicInteger();
+
+        Entry(String name) {
+            this.name = name;
+        }
+
+        /** Marks the start of a call. */
+        public void begin() {
+            int now = active.incrementAndGet();
+            int max = maxActive.get();
+            while (now > max && !maxActive.compareAndSet(max, now)) {
+                max = maxActive.get();
+            }
+        }
+
+        /**
+         * Marks the end of a call.
+         * @param micros Duration of the call.
+         * @param failed Whether the call threw.
+         */
+        public void end(long micros, boolean failed) {
+            active.decrementAndGet();
+            latency.record(micros);
+            if (failed) {
+                errors.incrementAndGet();
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        public int getActive() {
+            return active.get();
+        }
+
+        public int getMaxActive() {
+            return maxActive.get();
+        }
+
+        void reset() {
+            latency.reset();
+            errors.set(0);
+            maxActive.set(active.get());
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s calls=%d errors=%d active=%d " +
+                    "maxActive=%d mean=%.0f p50=%d p90=%d p99=%d max=%d",
+                    name, latency.getCount(), errors.get(), active.get(),
+                    maxActive.get(), latency.getMean(),
+                    latency.getPercentile(50), latency.getPercentile(90),
+                    latency.getPercentile(99), latency.getMax());
+        }
+    }
+
+    /** Two levels so that looking up an entry allocates nothing. */
+    private final ConcurrentMap<Class<?>, ConcurrentMap<Method, Entry>> entries =
+        new ConcurrentHashMap<Class<?>, ConcurrentMap<Method, Entry>>();
+
+    /**
+     * Returns the entry of a method, creating it if necessary.
+     */
+    public Entry entry(Class<?> implClass, Method method) {
+        ConcurrentMap<Method, Entry> methods = entries.get(implClass);
+        if (methods == null) {
+            methods = new ConcurrentHashMap<Method, Entry>();
+            ConcurrentMap<Method, Entry> raced =
+                entries.putIfAbsent(implClass, methods);
+            if (raced != null) {
+                methods = raced;
+            }
+        }
+        Entry entry = methods.get(method);
+        if (entry == null) {
+            entry = new Entry(implClass.getName() + "." + method.getName());
+            Entry raced = methods.putIfAbsent(method, entry);
+            if (raced != null) {
+                entry = raced;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Returns all the entries sorted by name.
+     */
+    public List<Entry> getEntries() {
+        List<Entry> list = new ArrayList<Entry>();
+        for (Map<Method, Entry> methods : entries.values()) {
+            list.addAll(methods.values());
+        }
+        Collections.sort(list, new Comparator<Entry>() {
+            public int compare(Entry o1, Entry o2) {
+                return o1.name.compareTo(o2.name);
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Returns the entry with the given name or null.
+     */
+    public Entry getEntry(String name) {
+        for (Entry entry : getEntries()) {
+            if (entry.name.equals(name)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    @ManagedAttribute(description = "Names of the methods called so far")
+    public String[] getMethodNames() {
+        List<Entry> list = getEntries();
+        String[] names = new String[list.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = list.get(i).name;
+        }
+        return names;
+    }
+
+    @ManagedAttribute(description = "Number of service methods in flight")
+    public int getActive() {
+        int active = 0;
+        for (Entry entry : getEntries()) {
+            active += entry.getActive();
+        }
+        return active;
+    }
+
+    @ManagedOperation(description = "One line of metrics per method, " +
+            "latencies in microseconds")
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Entry entry : getEntries()) {
+            sb.append(entry);
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    @ManagedOperation(description = "Latency percentile of a method " +
+            "in microseconds, or -1 if never called")
+    @ManagedOperationParameters( {
+        @ManagedOperationParameter(name = "method",
+                description = "Implementation class and method name"),
+        @ManagedOperationParameter(name = "percentile",
+                description = "Between 0 and 100") })
+    public long getPercentile(String method, double percentile) {
+        Entry entry = getEntry(method);
+        return entry == null ? -1 : entry.latency.getPercentile(percentile);
+    }
+
+    @ManagedOperation(description = "Clears the latencies and errors")
+    public void reset() {
+        for (Entry entry : getEntries()) {
+            entry.reset();
+        }
+    }
+
+}
@@ -15,6 +15,7 @@ import java.util.Collection;
 import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import ome.annotations.AnnotationUtils;
 import ome.annotations.ApiConstraintChecker;
@@ -35,8 +36,6 @@ import org.aopalliance.intercept.MethodInvocation;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.PropertyValueException;
-import org.perf4j.StopWatch;
-import org.perf4j.commonslog.CommonsLogStopWatch;
 import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationListener;
 import org.springframework.dao.ConcurrencyFailureException;
@@ -50,7 +49,10 @@ import org.springframework.orm.hibernate3.HibernateSystemException;
 import org.springframework.transaction.CannotCreateTransactionException;
 
 /**
- * 
+ * Interceptor wrapping every service call. Latencies, errors and
+ * concurrency are recorded per method in {@link MethodMetrics}; the method,
+ * arguments and results are only logged when tracing, i.e. at DEBUG level
+ * or for one in every {@link #setTraceSample(int) traceSample} calls.
  */
 public class ServiceHandler implements MethodInterceptor, ApplicationListener {
 
@@ -62,6 +64,13 @@ public class ServiceHandler implements MethodInterceptor, ApplicationListener {
 
     private final long methodTimeWarn;
 
+    private MethodMetrics metrics = new MethodMetrics();
+
+    /** Logs one call in this many at INFO; 0 only logs at DEBUG. */
+    private int traceSample = 0;
+
+    private final AtomicLong calls = new AtomicLong();
+
     public void onApplicationEvent(ApplicationEvent arg0) {
         if (arg0 instanceof RegisterServiceCleanupMessage) {
             RegisterServiceCleanupMessage cleanup = (RegisterServiceCleanupMessage) arg0;
@@ -79,6 +88,36 @@ public class ServiceHandler implements MethodInterceptor, ApplicationListener {
         this.methodTimeError = methodTimeError;
     }
 
+    public void setMetrics(MethodMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public MethodMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets how often calls are traced at INFO level.
+     * @param traceSample One call in this many is traced; 0 or less only
+     * traces at DEBUG level.
+     */
+    public void setTraceSample(int traceSample) {
+        this.traceSample = traceSample;
+    }
+
+    /**
+     * Whether or not the current call should have its method, arguments
+     * and results logged.
+     */
+    private boolean trace() {
+        if (log.isDebugEnabled()) {
+            return true;
+        }
+        int sample = traceSample;
+        return sample > 0 && log.isInfoEnabled()
+            && calls.incrementAndGet() % sample == 0;
+    }
+
     /**
      * @see org.aopalliance.intercept.MethodInterceptor#invoke(org.aopalliance.intercept.MethodInvocation)
      */
@@ -94,7 +133,8 @@ public class ServiceHandler implements MethodInterceptor, ApplicationListener {
 
         ApiConstraintChecker.errorOnViolation(implClass, mthd, args);
 
-        if (log.isInfoEnabled()) {
+        final boolean trace = trace();
+        if (trace) {
             // Method and arguments
             if (Executor.Work.class.isAssignableFrom(arg0.getThis().getClass())) {
                 Executor.Work work = (Executor.Work) arg0.getThis();
@@ -108,36 +148,44 @@ public class ServiceHandler implements MethodInterceptor, ApplicationListener {
 
         // Results and/or Exceptions
         Object o;
-        StringBuilder finalOutput = new StringBuilder();
+        String finalOutput = null;
+        boolean failed = false;
 
-        StopWatch stopWatch = new CommonsLogStopWatch();
+        MethodMetrics.Entry entry = metrics.entry(implClass, mthd);
+        entry.begin();
+        long start = System.nanoTime();
         try {
 
             o = arg0.proceed();
-            finalOutput.append(" Rslt:\t");
-            finalOutput.append(getResultsString(o, null));
-            stopWatch.stop("omero.call.success." + implClass.getName() + "." + mthd.getName());
+            if (trace) {
+                finalOutput = " Rslt:\t" + getResultsString(o, null);
+            }
             return o;
         } catch (Throwable t) {
-            finalOutput.append(" Excp:\t");
-            finalOutput.append(t.toString());
-            stopWatch.stop("omero.call.exception");
+            failed = true;
+            if (trace) {
+                finalOutput = " Excp:\t" + t.toString();
+            }
             throw getAndLogException(t);
         } finally {
-            if (log.isInfoEnabled()) {
+            long micros = (System.nanoTime() - start) / 1000;
+            entry.end(micros, failed);
+            if (finalOutput != null) {
                 log.info(finalOutput);
             }
 
             // Logging long invocations. Very long invocations are indicative
             // of a server undergoing stress.
-            long time = stopWatch.getElapsedTime();
-            String msg = String.format("Method %s.%s invocation took %s",
-                                       arg0.getMethod().getDeclaringClass(),
-                                       arg0.getMethod().getName(), time);
-            if (time > methodTimeError) {
-                log.error(msg);
-            } else if (time > methodTimeWarn) {
-                log.warn(msg);
+            long time = micros / 1000;
+            if (time > methodTimeWarn) {
+                String msg = String.format("Method %s.%s invocation took %s",
+                                           arg0.getMethod().getDeclaringClass(),
+                                           arg0.getMethod().getName(), time);
+                if (time > methodTimeError) {
+                    log.error(msg);
+                } else {
+                    log.warn(msg);
+                }
             }
             cleanup();
         }
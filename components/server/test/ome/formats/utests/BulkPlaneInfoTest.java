@@ -0,0 +1,240 @@
+/*
+ *   Copyright (C) 2011 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.formats.utests;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ome.formats.OMEROMetadataStore;
+import ome.model.IObject;
+import ome.model.core.Image;
+import ome.model.core.Pixels;
+import ome.model.core.PlaneInfo;
+import ome.model.internal.Details;
+import ome.model.internal.Permissions;
+import ome.model.meta.Event;
+import ome.model.meta.Experimenter;
+import ome.model.meta.ExperimenterGroup;
+import ome.testing.MockServiceFactory;
+import ome.util.SqlAction;
+
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.jmock.core.Constraint;
+import org.jmock.core.Invocation;
+import org.jmock.core.Stub;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that {@link OMEROMetadataStore#saveToDB()} inserts large numbers of
+ * plane infos through {@link SqlAction} rather than the Hibernate cascade.
+ *
+ * @since Beta4.3.2
+ */
+public class BulkPlaneInfoTest extends MockObjectTestCase
+{
+    private static final int PLANES = 600;
+
+    private MockServiceFactory sf;
+
+    private Mock sql;
+
+    private OMEROMetadataStore store;
+
+    private void populate(int images, int planes)
+    {
+        for (int i = 0; i < images; i++)
+        {
+            Map<String, Integer> indexes = new LinkedHashMap<String, Integer>();
+            indexes.put("imageIndex", i);
+            store.updateObject("Image:" + i, new Image(), indexes);
+            indexes.put("pixelsIndex", 0);
+            store.updateObject("Pixels:" + i + ":0", new Pixels(), indexes);
+            for (int p = 0; p < planes; p++)
+            {
+                indexes.put("planeIndex", p);
+                PlaneInfo planeInfo = new PlaneInfo();
+                planeInfo.setTheZ(p);
+                planeInfo.setTheC(0);
+                planeInfo.setTheT(0);
+                store.updateObject("PlaneInfo:" + i + ":0:" + p, planeInfo,
+                        indexes);
+            }
+        }
+    }
+
+    /** Copies the images as the update service would, with ids and details. */
+    private IObject[] saved(IObject[] images)
+    {
+        IObject[] saved = new IObject[images.length];
+        for (int i = 0; i < images.length; i++)
+        {
+            Image image = new Image(100L + i, true);
+            Pixels pixels = new Pixels(200L + i, true);
+            Details d = pixels.getDetails();
+            d.setPermissions(new Permissions());
+            d.setOwner(new Experimenter(2L, false));
+            d.setGroup(new ExperimenterGroup(3L, false));
+            d.setCreationEvent(new Event(4L, false));
+            d.setUpdateEvent(new Event(4L, false));
+            image.addPixels(pixels);
+            saved[i] = image;
+        }
+        return saved;
+    }
+
+    private void setUp(int images, int planes)
+    {
+        sf = new MockServiceFactory();
+        sql = mock(SqlAction.class);
+        store = newStore();
+        store.setSqlAction((SqlAction) sql.proxy());
+        populate(images, planes);
+    }
+
+    private OMEROMetadataStore newStore()
+    {
+        try
+        {
+            return new OMEROMetadataStore(sf);
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Checks the plane infos left on the graph saved by Hibernate. */
+    private Constraint planeInfos(final int expected, final List<IObject[]> saved)
+    {
+        return new Constraint()
+        {
+            public boolean eval(Object o)
+            {
+                IObject[] images = (IObject[]) o;
+                for (IObject image : images)
+                {
+                    if (((Image) image).getPrimaryPixels().sizeOfPlaneInfo()
+                            != expected)
+                    {
+                        return false;
+                    }
+                }
+                saved.add(saved(images));
+                return true;
+            }
+
+            public StringBuffer describeTo(StringBuffer sb)
+            {
+                return sb.append(expected + " plane infos per pixels");
+            }
+        };
+    }
+
+    @Test
+    public void testLargeGraphsInsertPlaneInfosInBulk()
+    {
+        setUp(2, PLANES);
+        final List<IObject[]> saved = new ArrayList<IObject[]>();
+        final List<Object[]> rows = new ArrayList<Object[]>();
+        final List<Object[]> logs = new ArrayList<Object[]>();
+        sf.mockUpdate.expects(once()).method("saveAndReturnArray")
+            .with(planeInfos(0, saved)).will(new Stub()
+            {
+                public Object invoke(Invocation invocation)
+                {
+                    return saved.get(0);
+                }
+
+                public StringBuffer describeTo(StringBuffer sb)
+                {
+                    return sb.append("returns saved images");
+                }
+            });
+        sql.expects(once()).method("nextValue").with(eq("seq_planeinfo"),
+                eq(2 * PLANES)).will(returnValue(5000L));
+        sql.expects(once()).method("insertPlaneInfos").with(
+                new Constraint()
+                {
+                    @SuppressWarnings("unchecked")
+                    public boolean eval(Object o)
+                    {
+                        rows.addAll((List<Object[]>) o);
+                        return true;
+                    }
+
+                    public StringBuffer describeTo(StringBuffer sb)
+                    {
+                        return sb.append("plane info rows");
+                    }
+                });
+        sql.expects(once()).method("nextValue").with(eq("seq_eventlog"),
+                eq(2 * PLANES)).will(returnValue(9000L));
+        sql.expects(once()).method("insertLogs").with(
+                new Constraint()
+                {
+                    @SuppressWarnings("unchecked")
+                    public boolean eval(Object o)
+                    {
+                        logs.addAll((List<Object[]>) o);
+                        return true;
+                    }
+
+                    public StringBuffer describeTo(StringBuffer sb)
+                    {
+                        return sb.append("event log rows");
+                    }
+                });
+
+        List<Pixels> pixels = store.saveToDB();
+        assertEquals(2, pixels.size());
+        assertEquals(2 * PLANES, rows.size());
+        Object[] first = rows.get(0);
+        Object[] last = rows.get(rows.size() - 1);
+        assertEquals(5001L - 2 * PLANES, first[0]);
+        assertEquals(5000L, last[0]);
+        assertEquals(200L, first[10]);
+        assertEquals(201L, last[10]);
+        assertEquals(2L, first[13]);
+        Set<Object> theZ = new HashSet<Object>();
+        for (Object[] row : rows)
+        {
+            if (Long.valueOf(201L).equals(row[10]))
+            {
+                theZ.add(row[2]);
+            }
+        }
+        assertEquals(PLANES, theZ.size());
+
+        // One INSERT event log per plane info, in the creation event.
+        assertEquals(rows.size(), logs.size());
+        for (int i = 0; i < rows.size(); i++)
+        {
+            Object[] log = logs.get(i);
+            assertEquals(9001L - 2 * PLANES + i, log[0]);
+            assertEquals(rows.get(i)[0], log[2]);
+            assertEquals(PlaneInfo.class.getName(), log[3]);
+            assertEquals("INSERT", log[4]);
+            assertEquals(4L, log[5]);
+        }
+    }
+
+    @Test
+    public void testSmallGraphsUseHibernate()
+    {
+        setUp(1, 10);
+        final List<IObject[]> saved = new ArrayList<IObject[]>();
+        sf.mockUpdate.expects(once()).method("saveAndReturnArray")
+            .with(planeInfos(10, saved)).will(returnValue(saved(
+                    new IObject[] { new Image() })));
+        store.saveToDB();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.server.utests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ome.util.actions.PostgresSqlAction;
+
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.jmock.core.Constraint;
+import org.springframework.jdbc.core.simple.SimpleJdbcOperations;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the statements used by {@link PostgresSqlAction#insertLogs(List)}
+ * for small and large batches of event logs.
+ *
+ * @since Beta4.3.2
+ */
+public class InsertLogsTest extends MockObjectTestCase {
+
+    List<Object[]> logs(int count) {
+        List<Object[]> logs = new ArrayList<Object[]>();
+        for (long id = 0; id < count; id++) {
+            logs.add(new Object[] { id, -35L, id, "ome.model.core.Image",
+                    "INSERT", 1L });
+        }
+        return logs;
+    }
+
+    /** Records the number of rows of each statement. */
+    Constraint rows(final List<Integer> statements) {
+        return new Constraint() {
+            public boolean eval(Object o) {
+                statements.add(((String) o).split("\\(\\?").length - 1);
+                return true;
+            }
+
+            public StringBuffer describeTo(StringBuffer sb) {
+                return sb.append("multi-row insert");
+            }
+        };
+    }
+
+    /** Checks that there are six arguments per row. */
+    Constraint args(final List<Integer> statements) {
+        return new Constraint() {
+            public boolean eval(Object o) {
+                int last = statements.get(statements.size() - 1);
+                return ((Object[]) o).length == last * 6;
+            }
+
+            public StringBuffer describeTo(StringBuffer sb) {
+                return sb.append("six arguments per row");
+            }
+        };
+    }
+
+    @Test
+    public void testSmallBatchesUseBatchUpdate() {
+        Mock jdbc = mock(SimpleJdbcOperations.class);
+        PostgresSqlAction sql = new PostgresSqlAction(
+                (SimpleJdbcOperations) jdbc.proxy());
+        jdbc.expects(once()).method("batchUpdate").will(
+                returnValue(new int[0]));
+        sql.insertLogs(logs(PostgresSqlAction.INSERT_LOGS_THRESHOLD - 1));
+        jdbc.verify();
+    }
+
+    @Test
+    public void testLargeBatchesUseMultiRowInserts() {
+        Mock jdbc = mock(SimpleJdbcOperations.class);
+        PostgresSqlAction sql = new PostgresSqlAction(
+                (SimpleJdbcOperations) jdbc.proxy());
+        int full = PostgresSqlAction.INSERT_LOGS_ROWS;
+        List<Integer> statements = new ArrayList<Integer>();
+        jdbc.expects(atLeastOnce()).method("update").with(rows(statements),
+                args(statements)).will(returnValue(1));
+        sql.insertLogs(logs(2 * full + 5));
+        jdbc.verify();
+        assertEquals(3, statements.size());
+        assertEquals(full, statements.get(0).intValue());
+        assertEquals(full, statements.get(1).intValue());
+        assertEquals(5, statements.get(2).intValue());
+    }
+
+}
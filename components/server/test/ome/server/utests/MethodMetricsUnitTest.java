@@ -0,0 +1,78 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.server.utests;
+
+import java.lang.reflect.Method;
+
+import junit.framework.TestCase;
+import ome.services.util.LatencyHistogram;
+import ome.services.util.MethodMetrics;
+
+import org.testng.annotations.Test;
+
+/**
+ * @since Beta4.3.2
+ */
+public class MethodMetricsUnitTest extends TestCase {
+
+    @Test
+    public void testPercentilesAreWithinOneSixteenth() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v = 1; v <= 10000; v++) {
+            h.record(v);
+        }
+        assertEquals(10000, h.getCount());
+        assertEquals(10000, h.getMax());
+        assertEquals(5000.5, h.getMean(), 0.001);
+        for (double p : new double[] { 1, 50, 90, 99, 99.9 }) {
+            long exact = (long) Math.ceil(p * 100);
+            long reported = h.getPercentile(p);
+            assertTrue(p + ": " + reported, reported >= exact);
+            assertTrue(p + ": " + reported, reported <= exact + exact / 16);
+        }
+        assertEquals(10000, h.getPercentile(100));
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getPercentile(50));
+    }
+
+    @Test
+    public void testSmallAndHugeValues() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(-1);
+        h.record(3);
+        h.record(Long.MAX_VALUE);
+        assertEquals(0, h.getPercentile(0));
+        assertEquals(3, h.getPercentile(50));
+        assertEquals(Long.MAX_VALUE, h.getPercentile(100));
+    }
+
+    @Test
+    public void testEntriesPerMethod() throws Exception {
+        MethodMetrics metrics = new MethodMetrics();
+        Method length = String.class.getMethod("length");
+        Method hash = String.class.getMethod("hashCode");
+        MethodMetrics.Entry entry = metrics.entry(String.class, length);
+        assertSame(entry, metrics.entry(String.class, length));
+        entry.begin();
+        entry.begin();
+        assertEquals(2, metrics.getActive());
+        entry.end(10, false);
+        entry.end(20, true);
+        metrics.entry(String.class, hash).begin();
+
+        assertEquals(1, metrics.getActive());
+        assertEquals(2, entry.getMaxActive());
+        assertEquals(1, entry.getErrors());
+        assertEquals(20, metrics.getPercentile("java.lang.String.length", 100));
+        assertEquals(-1, metrics.getPercentile("java.lang.String.trim", 50));
+        assertEquals(2, metrics.getMethodNames().length);
+        assertEquals("java.lang.String.hashCode", metrics.getMethodNames()[0]);
+        assertTrue(metrics.report().contains("calls=2 errors=1"));
+    }
+
+}
@@ -46,6 +46,29 @@ public class FileParserUnitTest extends TestCase {
         list.clear();
     }
 
+    @Test
+    public void testPdfParseFully() throws Exception {
+        File abc123 = ResourceUtils
+                .getFile("classpath:ome/server/utests/fileparsers/ABC123.pdf");
+        PdfParser parser = new PdfParser();
+        List<String> text = parser.parseFully(abc123, 1000);
+        assertNotNull(text);
+        StringBuffer sb = new StringBuffer();
+        for (String chunk : text) {
+            sb.append(chunk);
+        }
+        assertTrue(sb.toString(), sb.toString().contains("ABC123"));
+        // Cleanups are run by parseFully rather than published
+        assertTrue(list.isEmpty());
+    }
+
+    @Test
+    public void testParseFullyTooLong() throws Exception {
+        File abc123 = ResourceUtils
+                .getFile("classpath:ome/server/utests/fileparsers/ABC123.pdf");
+        assertNull(new PdfParser().parseFully(abc123, 3));
+    }
+
     public static class Closer implements ApplicationListener {
 
         public void onApplicationEvent(ApplicationEvent arg0) {
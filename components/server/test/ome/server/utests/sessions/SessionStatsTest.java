@@ -15,6 +15,7 @@ import ome.services.sessions.stats.CurrentSessionStats;
 import ome.services.sessions.stats.ObjectsReadCounter;
 import ome.services.sessions.stats.SessionStats;
 import ome.services.sessions.stats.SimpleSessionStats;
+import ome.services.sessions.stats.StatsSnapshot;
 import ome.services.sessions.stats.PerSessionStats;
 import ome.system.EventContext;
 import ome.system.OmeroContext;
@@ -110,6 +111,66 @@ public class SessionStatsTest extends MockObjectTestCase {
         stats.methodIn();
     }
 
+    @Test
+    public void testSnapshotWithoutMessages() {
+        boolean[] called = readCalled();
+        CounterFactory cf = new CounterFactory();
+        cf.setApplicationEventPublisher(ctx);
+        SessionStats one = cf.createStats();
+        SessionStats two = cf.createStats();
+        one.methodIn();
+        one.loadedObjects(5);
+        one.updatedObjects(2);
+        one.methodOut();
+        two.methodIn();
+        two.loadedObjects(3);
+
+        StatsSnapshot snapshot = one.snapshot();
+        assertEquals(5, snapshot.getObjectsRead());
+        assertEquals(2, snapshot.getObjectsWritten());
+        assertEquals(0, snapshot.getMethodsActive());
+        assertEquals(1, snapshot.getMethodCalls());
+
+        StatsSnapshot global = cf.snapshot();
+        assertEquals(8, global.getObjectsRead());
+        assertEquals(1, global.getMethodsActive());
+        assertEquals(2, global.getMethodCalls());
+        assertEquals(3, global.since(snapshot).getObjectsRead());
+        assertFalse(called[0]);
+    }
+
+    @Test
+    public void testConcurrentIncrementsAreCounted() throws Exception {
+        final ObjectsReadCounter read = read(1000);
+        final int[] published = new int[1];
+        mc.addApplicationListener(new ApplicationListener(){
+            public void onApplicationEvent(ApplicationEvent arg0) {
+                if (arg0 instanceof ObjectsReadStatsMessage) {
+                    synchronized (published) {
+                        published[0]++;
+                    }
+                }
+            }});
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 2500; j++) {
+                        read.increment(1);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(10000, read.getCount());
+        // At most one message per interval
+        assertTrue(published[0] > 0);
+        assertTrue(published[0] <= 10);
+    }
+
     // Helpers
     // =========================================================================
     
@@ -0,0 +1,64 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.server.utests.sharing;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import ome.model.core.Image;
+import ome.model.core.Pixels;
+import ome.services.sharing.LongHashSet;
+import ome.services.sharing.ShareIndex;
+import ome.services.sharing.data.ShareData;
+
+import org.testng.annotations.Test;
+
+/**
+ * @since Beta4.3.2
+ */
+@Test(groups = "sharing")
+public class ShareIndexTest extends TestCase {
+
+    public void testLongHashSetMatchesHashSet() {
+        Random random = new Random(7);
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<Long>();
+        for (int i = 0; i < 10000; i++) {
+            long value = random.nextInt(5000) - 10;
+            assertEquals(expected.add(value), set.add(value));
+        }
+        assertEquals(expected.size(), set.size());
+        for (long value = -20; value < 5100; value++) {
+            assertEquals(expected.contains(value), set.contains(value));
+        }
+        Set<Long> values = new HashSet<Long>();
+        for (long value : set.toArray()) {
+            values.add(value);
+        }
+        assertEquals(expected, values);
+    }
+
+    public void testIndexByClass() {
+        ShareData data = new ShareData();
+        data.id = 3L;
+        data.objectMap = new HashMap<String, List<Long>>();
+        data.objectMap.put(Image.class.getName(), Arrays.asList(1L, 2L, 3L));
+        ShareIndex index = new ShareIndex(data, 4L);
+        assertEquals(4L, index.getVersion());
+        assertTrue(index.contains(Image.class.getName(), 2L));
+        assertFalse(index.contains(Image.class.getName(), 4L));
+        assertFalse(index.contains(Pixels.class.getName(), 2L));
+        assertEquals(3, index.getImages().size());
+        assertNull(index.getPixels());
+    }
+
+}
@@ -7,6 +7,7 @@ package ome.services.graphs;
 
 import java.sql.CallableStatement;
 import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -24,9 +25,11 @@ import ome.services.export.ExporterStepFactory;
 import ome.services.util.Executor;
 import ome.system.EventContext;
 import ome.system.Principal;
+import ome.util.SqlAction;
 
 import org.hibernate.Query;
 import org.hibernate.Session;
+import org.hibernate.exception.ConstraintViolationException;
 import org.jmock.Mock;
 import org.jmock.core.Invocation;
 import org.jmock.core.Stub;
@@ -52,6 +55,8 @@ public class GraphStateUnitTest extends MockGraphTest {
 
     private Query query;
 
+    private Mock sqlMock;
+
     private List<List<Long>> table;
 
     @BeforeMethod
@@ -60,6 +65,7 @@ public class GraphStateUnitTest extends MockGraphTest {
         session = (Session) sessionMock.proxy();
         queryMock = mock(Query.class);
         query = (Query) queryMock.proxy();
+        sqlMock = mock(SqlAction.class);
     }
 
     @Test
@@ -179,6 +185,80 @@ public class GraphStateUnitTest extends MockGraphTest {
 
     }
 
+    @Test
+    public void testBatchCountOfSimpleEntryWithMultipleResults()
+            throws Exception {
+        BaseGraphSpec spec = new BaseGraphSpec("/Test", "/Test") {
+            @Override
+            public Class<IObject> getHibernateClass(String table) {
+                return IObject.class;
+            }
+        };
+        spec.setCurrentDetails(new CurrentDetails() {
+            @Override
+            public EventContext getCurrentEventContext() {
+                return createEventContext(false);
+            }
+        });
+
+        table = table(new long[] { 1L }, new long[] { 2L }, new long[] { 3L });
+        prepareQueryBackupIds(table);
+
+        GraphState state = new GraphState(new DeleteStepFactory(specXml), null, session, spec);
+        assertEquals(3, state.getTotalFoundCount());
+        assertEquals(3, state.getBatchCount(0));
+        assertEquals(2, state.getBatchCount(1));
+        assertEquals(1, state.getBatchCount(2));
+
+        state.setBatchSize(2);
+        assertEquals(2, state.getBatchCount(0));
+        state.setBatchSize(1);
+        assertEquals(1, state.getBatchCount(0));
+    }
+
+    @Test
+    public void testBatchedExecute() throws Exception {
+        GraphState state = batchState();
+        List<String> calls = prepareDeletes(3);
+
+        assertEquals("", state.execute(0, state.getBatchCount(0)));
+        assertEquals(calls.toString(), 3, calls.size());
+        assertEquals("createSavepoint", calls.get(0));
+        assertTrue(calls.get(1), calls.get(1).contains("in (:ids)"));
+        assertTrue(calls.get(1), calls.get(1).endsWith("[1, 2, 3]"));
+        assertEquals("releaseSavepoint", calls.get(2));
+        assertEquals(3, state.getTotalProcessedCount());
+    }
+
+    @Test
+    public void testBatchWithMissingRowFallsBackToSingleSteps()
+            throws Exception {
+        GraphState state = batchState();
+        List<String> calls = prepareDeletes(2, 1, 0, 1);
+
+        assertEquals("", state.execute(0, state.getBatchCount(0)));
+        assertEquals(calls.toString(), 12, calls.size());
+        assertEquals("rollbackSavepoint", calls.get(2));
+        for (int i = 0; i < 3; i++) {
+            String delete = calls.get(4 + 3 * i);
+            assertTrue(delete, delete.contains("id = :id"));
+            assertTrue(delete, delete.endsWith(String.valueOf(i + 1)));
+        }
+        assertEquals(2, state.getTotalProcessedCount());
+    }
+
+    @Test
+    public void testBatchConstraintViolationFallsBackToSingleSteps()
+            throws Exception {
+        GraphState state = batchState();
+        List<String> calls = prepareDeletes(new ConstraintViolationException(
+                "batch", new SQLException(), "fk_test"), 1, 1, 1);
+
+        assertEquals("", state.execute(0, state.getBatchCount(0)));
+        assertEquals("rollbackSavepoint", calls.get(2));
+        assertEquals(3, state.getTotalProcessedCount());
+    }
+
     @Test
     public void testGraphStateTablesTopLevel() {
         GraphTables t = new GraphTables();
@@ -663,6 +743,102 @@ public class GraphStateUnitTest extends MockGraphTest {
 
     }
 
+    /**
+     * Returns a state holding three rows of /Test whose steps do not raise
+     * events on release and run as an admin.
+     */
+    private GraphState batchState() throws Exception {
+        BaseGraphSpec spec = new BaseGraphSpec("/Test", "/Test") {
+            @Override
+            public Class<IObject> getHibernateClass(String table) {
+                return IObject.class;
+            }
+        };
+        spec.setCurrentDetails(new CurrentDetails() {
+            @Override
+            public EventContext getCurrentEventContext() {
+                Mock m = new Mock(EventContext.class);
+                m.expects(atLeastOnce()).method("isCurrentUserAdmin")
+                        .will(returnValue(true));
+                return (EventContext) m.proxy();
+            }
+        });
+
+        table = table(new long[] { 1L }, new long[] { 2L }, new long[] { 3L });
+        prepareQueryBackupIds(table);
+
+        GraphStepFactory gsf = new GraphStepFactory() {
+            public GraphStep create(int idx, List<GraphStep> stack,
+                    GraphSpec spec, GraphEntry entry, long[] ids)
+                    throws GraphException {
+                return new GraphStep(idx, stack, spec, entry, ids) {
+                    @Override
+                    public void onRelease(Class<IObject> k, Set<Long> ids)
+                            throws GraphException {
+                        // no-op
+                    }
+                };
+            }
+        };
+        return new GraphState(gsf, (SqlAction) sqlMock.proxy(), session,
+                spec);
+    }
+
+    /**
+     * Records the savepoint calls and the delete statements, each followed
+     * by its parameter, in the returned list. Each delete returns the next of
+     * <code>results</code> or throws it.
+     */
+    private List<String> prepareDeletes(final Object... results) {
+        final List<String> calls = new ArrayList<String>();
+        final Iterator<Object> it = Arrays.asList(results).iterator();
+        sqlMock.setDefaultStub(new Stub() {
+            public StringBuffer describeTo(StringBuffer arg0) {
+                return arg0.append("records savepoints");
+            }
+
+            public Object invoke(Invocation arg0) throws Throwable {
+                calls.add(arg0.invokedMethod.getName());
+                return null;
+            }
+        });
+        sessionMock.setDefaultStub(new Stub() {
+            public StringBuffer describeTo(StringBuffer arg0) {
+                return arg0.append("handles deletes");
+            }
+
+            public Object invoke(Invocation arg0) throws Throwable {
+                if (!arg0.invokedMethod.getName().equals("createQuery")) {
+                    fail("Unknown: " + arg0.invokedMethod);
+                }
+                final int idx = calls.size();
+                calls.add((String) arg0.parameterValues.get(0));
+                Mock m = new Mock(Query.class);
+                m.setDefaultStub(new Stub() {
+                    public StringBuffer describeTo(StringBuffer arg1) {
+                        return arg1.append("handles a delete");
+                    }
+
+                    public Object invoke(Invocation arg1) throws Throwable {
+                        String name = arg1.invokedMethod.getName();
+                        if (name.equals("executeUpdate")) {
+                            Object result = it.next();
+                            if (result instanceof Throwable) {
+                                throw (Throwable) result;
+                            }
+                            return result;
+                        }
+                        calls.set(idx, calls.get(idx) + " "
+                                + arg1.parameterValues.get(1));
+                        return arg1.invokedObject;
+                    }
+                });
+                return m.proxy();
+            }
+        });
+        return calls;
+    }
+
     private void prepareQueryBackupIds(List<List<Long>> table) {
         sessionMock.expects(once()).method("createQuery")
                 .will(returnValue(query));
@@ -0,0 +1,204 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.projection;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import ome.api.IProjection;
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.RomioPixelBuffer;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Projects a small uint8 stack whose optical section <code>z</code> holds
+ * <code>(z + 1) * (i + 1)</code> at pixel <code>i</code>, with working
+ * memory both for the whole plane and for a single row at a time.
+ *
+ * @since Beta4.3.2
+ */
+public class StackProjectorUnitTest
+{
+
+    private static final int SIZE_X = 5, SIZE_Y = 4, SIZE_Z = 4;
+
+    private static final int PLANE = SIZE_X * SIZE_Y;
+
+    /** Working memory of a single row of a single array. */
+    private static final long ROW = 8 * SIZE_X;
+
+    private File file;
+
+    private PixelBuffer buffer;
+
+    @BeforeClass
+    public void setUp() throws IOException
+    {
+        Pixels pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        pixels.setSizeZ(SIZE_Z);
+        pixels.setSizeC(1);
+        pixels.setSizeT(1);
+        PixelsType type = new PixelsType();
+        type.setValue("uint8");
+        pixels.setPixelsType(type);
+
+        byte[] data = new byte[PLANE * SIZE_Z];
+        for (int z = 0; z < SIZE_Z; z++)
+        {
+            for (int i = 0; i < PLANE; i++)
+            {
+                data[z * PLANE + i] = (byte) value(z, i);
+            }
+        }
+        file = File.createTempFile("stack", ".pixels");
+        FileOutputStream stream = new FileOutputStream(file);
+        try
+        {
+            stream.write(data);
+        }
+        finally
+        {
+            stream.close();
+        }
+        buffer = new RomioPixelBuffer(file.getAbsolutePath(), pixels);
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException
+    {
+        buffer.close();
+        file.delete();
+    }
+
+    private static int value(int z, int i)
+    {
+        return (z + 1) * (i + 1);
+    }
+
+    @Test
+    public void testMedianOddSections() throws Exception
+    {
+        // Sections 0, 1 and 2: the median is section 1.
+        for (long maxBytes : new long[] { Long.MAX_VALUE, ROW })
+        {
+            double[] projected = project(IProjection.MEDIAN_INTENSITY,
+                    1, 0, 2, maxBytes);
+            for (int i = 0; i < PLANE; i++)
+            {
+                assertEquals(projected[i], (double) value(1, i));
+            }
+        }
+    }
+
+    @Test
+    public void testMedianEvenSections() throws Exception
+    {
+        for (long maxBytes : new long[] { Long.MAX_VALUE, ROW })
+        {
+            double[] projected = project(IProjection.MEDIAN_INTENSITY,
+                    1, 0, SIZE_Z - 1, maxBytes);
+            for (int i = 0; i < PLANE; i++)
+            {
+                assertEquals(projected[i],
+                        (value(1, i) + value(2, i)) / 2.0);
+            }
+        }
+    }
+
+    @Test
+    public void testStandardDeviation() throws Exception
+    {
+        for (long maxBytes : new long[] { Long.MAX_VALUE, ROW })
+        {
+            double[] projected = project(IProjection.STANDARD_DEVIATION,
+                    1, 0, SIZE_Z - 1, maxBytes);
+            for (int i = 0; i < PLANE; i++)
+            {
+                assertEquals(projected[i],
+                        standardDeviation(i, 0, SIZE_Z - 1, 1), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testStandardDeviationStepping() throws Exception
+    {
+        double[] projected = project(IProjection.STANDARD_DEVIATION,
+                2, 1, SIZE_Z - 1, ROW);
+        for (int i = 0; i < PLANE; i++)
+        {
+            assertEquals(projected[i],
+                    standardDeviation(i, 1, SIZE_Z - 1, 2), 1e-9);
+        }
+    }
+
+    @Test
+    public void testAllAlgorithmsIncludeEnd() throws Exception
+    {
+        double[] max = project(IProjection.MAXIMUM_INTENSITY,
+                1, 0, 2, ROW);
+        double[] sum = project(IProjection.SUM_INTENSITY, 1, 0, 2, ROW);
+        double[] mean = project(IProjection.MEAN_INTENSITY, 1, 0, 2, ROW);
+        for (int i = 0; i < PLANE; i++)
+        {
+            double expected = value(0, i) + value(1, i) + value(2, i);
+            assertEquals(max[i], (double) value(2, i));
+            assertEquals(sum[i], expected);
+            assertEquals(mean[i], expected / 3, 1e-9);
+        }
+    }
+
+    /** Population standard deviation of the given sections. */
+    private static double standardDeviation(int i, int start, int end,
+            int stepping)
+    {
+        double sum = 0;
+        int count = 0;
+        for (int z = start; z <= end; z += stepping)
+        {
+            sum += value(z, i);
+            count++;
+        }
+        double mean = sum / count;
+        double squares = 0;
+        for (int z = start; z <= end; z += stepping)
+        {
+            squares += (value(z, i) - mean) * (value(z, i) - mean);
+        }
+        return Math.sqrt(squares / count);
+    }
+
+    private double[] project(int algorithm, int stepping, int start,
+            int end, long maxBytes) throws Exception
+    {
+        ByteBuffer data = ByteBuffer.allocate(PLANE * 8);
+        PixelData to = new PixelData("double", data);
+        new StackProjector(buffer, algorithm, stepping, start, end,
+                maxBytes).project(0, 0, to);
+        double[] projected = new double[PLANE];
+        for (int i = 0; i < PLANE; i++)
+        {
+            projected[i] = to.getPixelValue(i);
+        }
+        return projected;
+    }
+
+}
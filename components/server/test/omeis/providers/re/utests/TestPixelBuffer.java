@@ -15,6 +15,7 @@ import java.util.List;
 import ome.io.nio.DimensionsOutOfBoundsException;
 import ome.io.nio.PixelBuffer;
 import ome.util.PixelData;
+import ome.model.core.Pixels;
 import ome.model.enums.PixelsType;
 
 public class TestPixelBuffer implements PixelBuffer {
@@ -23,10 +24,17 @@ public class TestPixelBuffer implements PixelBuffer {
 	
 	private PixelsType pixelsType;
 	
-	public TestPixelBuffer(PixelsType pixelsType, byte[] dummyPlane)
+	private int sizeX, sizeY, sizeZ, sizeC, sizeT;
+	
+	public TestPixelBuffer(Pixels pixels, byte[] dummyPlane)
 	{
-		this.pixelsType = pixelsType;
+		this.pixelsType = pixels.getPixelsType();
 		this.dummyPlane = dummyPlane;
+		sizeX = pixels.getSizeX();
+		sizeY = pixels.getSizeY();
+		sizeZ = pixels.getSizeZ();
+		sizeC = pixels.getSizeC();
+		sizeT = pixels.getSizeT();
 	}
 
 	public byte[] calculateMessageDigest() throws IOException {
@@ -138,28 +146,23 @@ public class TestPixelBuffer implements PixelBuffer {
 	}
 
 	public int getSizeC() {
-		// TODO Auto-generated method stub
-		return 0;
+		return sizeC;
 	}
 
 	public int getSizeT() {
-		// TODO Auto-generated method stub
-		return 0;
+		return sizeT;
 	}
 
 	public int getSizeX() {
-		// TODO Auto-generated method stub
-		return 0;
+		return sizeX;
 	}
 
 	public int getSizeY() {
-		// TODO Auto-generated method stub
-		return 0;
+		return sizeY;
 	}
 
 	public int getSizeZ() {
-		// TODO Auto-generated method stub
-		return 0;
+		return sizeZ;
 	}
 
 	public PixelData getStack(Integer arg0, Integer arg1) throws IOException,
@@ -323,8 +326,16 @@ public class TestPixelBuffer implements PixelBuffer {
     public PixelData getTile(Integer z, Integer c, Integer t, Integer x,
             Integer y, Integer w, Integer h) throws IOException
     {
-        // TODO Auto-generated method stub
-        return null;
+        // Every plane is the dummy plane, the tile is cut out of it.
+        int bytesPerPixel = dummyPlane.length / (sizeX * sizeY);
+        byte[] tile = new byte[w * h * bytesPerPixel];
+        for (int row = 0; row < h; row++)
+        {
+            System.arraycopy(dummyPlane,
+                    ((y + row) * sizeX + x) * bytesPerPixel,
+                    tile, row * w * bytesPerPixel, w * bytesPerPixel);
+        }
+        return new PixelData(pixelsType.getValue(), ByteBuffer.wrap(tile));
     }
 
     /* (non-Javadoc)
@@ -371,8 +382,7 @@ public class TestPixelBuffer implements PixelBuffer {
      */
     public Dimension getTileSize()
     {
-        // TODO Auto-generated method stub
-        return null;
+        return new Dimension(sizeX, sizeY);
     }
 
     /* (non-Javadoc)
@@ -27,6 +27,12 @@ public class TestPixelsService extends PixelsService
 	@Override
 	public PixelBuffer getPixelBuffer(Pixels pixels)
 	{
-		return new TestPixelBuffer(pixels.getPixelsType(), dummyPlane);
+		return new TestPixelBuffer(pixels, dummyPlane);
+	}
+	
+	@Override
+	public PixelBuffer getPixelBuffer(Pixels pixels, boolean write)
+	{
+		return getPixelBuffer(pixels);
 	}
 }
@@ -0,0 +1,107 @@
+/*
+ *   Copyright (C) 2011 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package omeis.providers.re.utests;
+
+import java.util.Arrays;
+
+import ome.model.enums.RenderingModel;
+import omeis.providers.re.Renderer;
+import omeis.providers.re.data.PlaneDef;
+import omeis.providers.re.data.RegionDef;
+
+import org.testng.annotations.Test;
+
+/**
+ * Checks that rendering several regions in one go gives the images
+ * rendered one region at a time, with both rendering models.
+ *
+ * @since Beta4.3.2
+ */
+public class TestRenderRegions extends BaseRenderingTest
+{
+
+	@Override
+	protected int getSizeX()
+	{
+		return 300;
+	}
+
+	@Override
+	protected int getSizeY()
+	{
+		return 200;
+	}
+
+	/** Tiles of a viewport, the last ones going beyond the plane. */
+	private RegionDef[] createRegions()
+	{
+		return new RegionDef[] {
+				new RegionDef(0, 0, 128, 128),
+				new RegionDef(128, 0, 128, 128),
+				new RegionDef(0, 128, 128, 128),
+				new RegionDef(256, 0, 128, 128),
+				new RegionDef(256, 128, 128, 128) };
+	}
+
+	private void assertRegionsRenderedAsSingleRegions() throws Exception
+	{
+		PlaneDef def = new PlaneDef(PlaneDef.XY, 0);
+		def.setZ(0);
+		int[][] rendered = renderer.renderRegionsAsPackedInt(def,
+				createRegions());
+		RegionDef[] regions = createRegions();
+		assertEquals(regions.length, rendered.length);
+		for (int i = 0; i < regions.length; i++)
+		{
+			PlaneDef single = new PlaneDef(PlaneDef.XY, 0);
+			single.setZ(0);
+			single.setRegion(regions[i]);
+			int[] expected = renderer.renderAsPackedInt(single, null);
+			assertEquals(regions[i].getWidth() * regions[i].getHeight(),
+					rendered[i].length);
+			assertTrue("Region " + i,
+					Arrays.equals(expected, rendered[i]));
+		}
+		// Clipped to the plane.
+		assertEquals(44 * 72, rendered[4].length);
+	}
+
+	private void setModel(String value)
+	{
+		for (RenderingModel model :
+			pixelsMetadataService.getAllEnumerations(RenderingModel.class))
+		{
+			if (model.getValue().equals(value))
+			{
+				renderer.setModel(model);
+				return;
+			}
+		}
+		fail("No rendering model " + value);
+	}
+
+	@Test
+	public void testHSBRegions() throws Exception
+	{
+		setModel(Renderer.MODEL_HSB);
+		assertRegionsRenderedAsSingleRegions();
+	}
+
+	@Test
+	public void testGreyScaleRegions() throws Exception
+	{
+		setModel(Renderer.MODEL_GREYSCALE);
+		assertRegionsRenderedAsSingleRegions();
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testOnlyXYPlanes() throws Exception
+	{
+		renderer.renderRegionsAsPackedInt(new PlaneDef(PlaneDef.XZ, 0),
+				createRegions());
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * omeis.providers.re.utests.TestRenderingExecutor
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re.utests;
+
+// Java imports
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Third-party libraries
+import junit.framework.TestCase;
+
+import org.testng.annotations.Test;
+
+// Application-internal dependencies
+import omeis.providers.re.RenderingExecutor;
+import omeis.providers.re.RenderingTask;
+
+public class TestRenderingExecutor extends TestCase
+{
+
+    @Test
+    public void testTasksRunAndAreCounted() throws Exception
+    {
+        RenderingExecutor executor = new RenderingExecutor(2, 16);
+        try
+        {
+            final AtomicInteger count = new AtomicInteger();
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 10; i++)
+            {
+                futures.add(executor.submit(new RenderingTask()
+                {
+                    public Object call()
+                    {
+                        return count.incrementAndGet();
+                    }
+                }));
+            }
+            for (Future<Object> future : futures)
+            {
+                future.get();
+            }
+            assertEquals(10, count.get());
+            assertEquals(10, executor.getTaskCount());
+            assertEquals(2, executor.getPoolSize());
+            assertEquals(0, executor.getQueueDepth());
+            assertTrue(executor.getMeanTaskLatency() >= 0.0);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFullQueueRunsInCallerThread() throws Exception
+    {
+        RenderingExecutor executor = new RenderingExecutor(1, 1);
+        try
+        {
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final List<Thread> ranIn = new ArrayList<Thread>();
+            RenderingTask blocking = new RenderingTask()
+            {
+                public Object call()
+                {
+                    started.countDown();
+                    try
+                    {
+                        release.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        throw new RuntimeException(e);
+                    }
+                    return null;
+                }
+            };
+            RenderingTask recording = new RenderingTask()
+            {
+                public Object call()
+                {
+                    synchronized (ranIn)
+                    {
+                        ranIn.add(Thread.currentThread());
+                    }
+                    return null;
+                }
+            };
+            Future<Object> first = executor.submit(blocking);
+            started.await();  // The only thread is now busy
+            Future<Object> second = executor.submit(recording); // Queued
+            Future<Object> third = executor.submit(recording);  // Caller runs
+            assertTrue(third.isDone());
+            release.countDown();
+            first.get();
+            second.get();
+            assertEquals(2, ranIn.size());
+            assertSame(Thread.currentThread(), ranIn.get(0));
+            assertEquals(1, executor.getCallerRunsCount());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testShutdownRunsInCallerThread() throws Exception
+    {
+        RenderingExecutor previous = new RenderingExecutor(1, 4);
+        previous.makeDefault();
+        new RenderingExecutor(1, 4).makeDefault();
+        try
+        {
+            final List<Thread> ranIn = new ArrayList<Thread>();
+            Future<Object> future = previous.submit(new RenderingTask()
+            {
+                public Object call()
+                {
+                    ranIn.add(Thread.currentThread());
+                    return null;
+                }
+            });
+            assertTrue(future.isDone());
+            future.get();
+            assertSame(Thread.currentThread(), ranIn.get(0));
+        }
+        finally
+        {
+            RenderingExecutor.getDefault().shutdown();
+        }
+    }
+
+}
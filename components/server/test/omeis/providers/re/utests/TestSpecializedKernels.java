@@ -0,0 +1,76 @@
+/*
+ *   Copyright (C) 2011 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package omeis.providers.re.utests;
+
+import java.util.Arrays;
+
+import omeis.providers.re.Optimizations;
+import omeis.providers.re.RGBBuffer;
+import omeis.providers.re.data.PlaneDef;
+
+import org.perf4j.LoggingStopWatch;
+import org.perf4j.StopWatch;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the type-specialized rendering kernels produce exactly the
+ * same images as the generic code path and times both of them.
+ */
+public class TestSpecializedKernels extends BaseRenderingTest
+{
+	@Test
+	public void testRenderAsPackedInt() throws Exception
+	{
+		PlaneDef def = new PlaneDef(PlaneDef.XY, 0);
+		Optimizations optimizations = renderer.getOptimizations();
+		int[] generic = null, specialized = null;
+		for (int i = 0; i < RUN_COUNT; i++)
+		{
+			optimizations.setSpecializedKernels(false);
+			StopWatch stopWatch =
+				new LoggingStopWatch("testRenderAsPackedInt.generic");
+			generic = renderer.renderAsPackedInt(def, pixelBuffer);
+			stopWatch.stop();
+			optimizations.setSpecializedKernels(true);
+			stopWatch =
+				new LoggingStopWatch("testRenderAsPackedInt.specialized");
+			specialized = renderer.renderAsPackedInt(def, pixelBuffer);
+			stopWatch.stop();
+		}
+		assertTrue(Arrays.equals(generic, specialized));
+	}
+
+	@Test
+	public void testRenderAsPackedIntAsRGBA() throws Exception
+	{
+		PlaneDef def = new PlaneDef(PlaneDef.XY, 0);
+		Optimizations optimizations = renderer.getOptimizations();
+		optimizations.setSpecializedKernels(false);
+		int[] generic = renderer.renderAsPackedIntAsRGBA(def, pixelBuffer);
+		optimizations.setSpecializedKernels(true);
+		int[] specialized =
+			renderer.renderAsPackedIntAsRGBA(def, pixelBuffer);
+		assertTrue(Arrays.equals(generic, specialized));
+	}
+
+	@Test
+	public void testRender() throws Exception
+	{
+		PlaneDef def = new PlaneDef(PlaneDef.XY, 0);
+		Optimizations optimizations = renderer.getOptimizations();
+		optimizations.setSpecializedKernels(false);
+		RGBBuffer generic = renderer.render(def);
+		optimizations.setSpecializedKernels(true);
+		RGBBuffer specialized = renderer.render(def);
+		assertTrue(Arrays.equals(
+				generic.getRedBand(), specialized.getRedBand()));
+		assertTrue(Arrays.equals(
+				generic.getGreenBand(), specialized.getGreenBand()));
+		assertTrue(Arrays.equals(
+				generic.getBlueBand(), specialized.getBlueBand()));
+	}
+}